@@ -0,0 +1,66 @@
+package com.bradchen.jwormhole.client;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how many connections per second a tunnel sets up: every operation opens a connection
+ * to the tunnel, exchanges one byte with the proxied local port and closes it.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+public class ConnectionRateBenchmark {
+
+	private TunnelFixture fixture;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		fixture = new TunnelFixture(null, 1);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		fixture.close();
+	}
+
+	@Benchmark
+	public int connect() throws IOException {
+		return exchangeByte();
+	}
+
+	@Benchmark
+	@Threads(8)
+	public int connectConcurrently() throws IOException {
+		return exchangeByte();
+	}
+
+	private int exchangeByte() throws IOException {
+		try (Socket socket = fixture.connect()) {
+			OutputStream out = socket.getOutputStream();
+			InputStream in = socket.getInputStream();
+			out.write(1);
+			out.flush();
+			int response = in.read();
+			if (response < 0) {
+				throw new IOException("Connection closed before a response was received.");
+			}
+			return response;
+		}
+	}
+
+}
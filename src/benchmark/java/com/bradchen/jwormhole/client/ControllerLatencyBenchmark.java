@@ -0,0 +1,51 @@
+package com.bradchen.jwormhole.client;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the latency of controller commands, one at a time and with concurrent callers whose
+ * commands are pipelined over the shared controller channel.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class ControllerLatencyBenchmark {
+
+	private TunnelFixture fixture;
+	private String keepaliveCommand;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		fixture = new TunnelFixture(null, 1);
+		keepaliveCommand = "keepHostAlive " + fixture.getTunnel().getDomainName();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		fixture.close();
+	}
+
+	@Benchmark
+	public String keepHostAlive() throws IOException {
+		return fixture.getClient().executeCommand(keepaliveCommand);
+	}
+
+	@Benchmark
+	@Threads(8)
+	public String keepHostAlivePipelined() throws IOException {
+		return fixture.getClient().executeCommand(keepaliveCommand);
+	}
+
+}
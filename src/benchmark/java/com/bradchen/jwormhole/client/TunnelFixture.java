@@ -0,0 +1,58 @@
+package com.bradchen.jwormhole.client;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Properties;
+
+/**
+ * An embedded server, a client connected to it and one tunnel proxying a {@link MirrorServer}.
+ */
+final class TunnelFixture implements Closeable {
+
+	private final EmbeddedServer server;
+	private final MirrorServer mirrorServer;
+	private final Client client;
+	private final Tunnel tunnel;
+
+	TunnelFixture(Properties settings, int messageSize) throws IOException {
+		server = EmbeddedServer.start();
+		mirrorServer = new MirrorServer(messageSize);
+		client = server.createClient(settings);
+		client.connect();
+		tunnel = client.addTunnel(mirrorServer.getPort(), null);
+		if (tunnel == null) {
+			close();
+			throw new IOException("Unable to create tunnel.");
+		}
+	}
+
+	Client getClient() {
+		return client;
+	}
+
+	Tunnel getTunnel() {
+		return tunnel;
+	}
+
+	/**
+	 * Connects to the tunnel from the server's end, like a visitor of the proxied domain.
+	 */
+	Socket connect() throws IOException {
+		Socket socket = new Socket();
+		socket.setTcpNoDelay(true);
+		socket.connect(new InetSocketAddress("127.0.0.1", tunnel.getRemotePort()));
+		return socket;
+	}
+
+	@Override
+	public void close() {
+		client.shutdown();
+		mirrorServer.close();
+		IOUtils.closeQuietly(server);
+	}
+
+}
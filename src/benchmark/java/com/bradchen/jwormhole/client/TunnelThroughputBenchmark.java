@@ -0,0 +1,131 @@
+package com.bradchen.jwormhole.client;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how fast data moves through a tunnel: every operation sends a message to the proxied
+ * local port and reads it back. The bytes counter reports the payload moved in both directions
+ * per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+public class TunnelThroughputBenchmark {
+
+	private static final String[] WORDS = {
+		"GET", "/index.html", "HTTP/1.1", "Host:", "Accept:", "text/html", "Content-Type:",
+		"application/json", "{\"id\":", "\"name\":", "jwormhole", "Cache-Control:", "no-cache"
+	};
+
+	@Param({ "1024", "65536", "1048576" })
+	public int messageSize;
+
+	@Param({ "off", "fast", "max" })
+	public String compression;
+
+	@Param({ "text", "random" })
+	public String data;
+
+	private TunnelFixture fixture;
+	private byte[] message;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		Properties settings = new Properties();
+		settings.put("compression", compression);
+		fixture = new TunnelFixture(settings, messageSize);
+		message = "random".equals(data) ? createRandomMessage(messageSize)
+			: createTextMessage(messageSize);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		fixture.close();
+	}
+
+	@Benchmark
+	public void roundTrip(Connection connection, Bytes bytes) throws IOException {
+		connection.out.write(message);
+		connection.out.flush();
+		connection.in.readFully(connection.response);
+		bytes.bytes += 2L * messageSize;
+	}
+
+	private static byte[] createRandomMessage(int size) {
+		byte[] bytes = new byte[size];
+		new Random(size).nextBytes(bytes);
+		return bytes;
+	}
+
+	private static byte[] createTextMessage(int size) {
+		Random random = new Random(size);
+		StringBuilder builder = new StringBuilder(size + 32);
+		while (builder.length() < size) {
+			builder.append(WORDS[random.nextInt(WORDS.length)]);
+			builder.append(random.nextInt(8) == 0 ? '\n' : ' ');
+		}
+		byte[] bytes = new byte[size];
+		byte[] text = builder.toString().getBytes(Charset.forName("utf-8"));
+		System.arraycopy(text, 0, bytes, 0, size);
+		return bytes;
+	}
+
+	/**
+	 * A visitor's connection, kept open across operations.
+	 */
+	@State(Scope.Thread)
+	public static class Connection {
+
+		private Socket socket;
+		private OutputStream out;
+		private DataInputStream in;
+		private byte[] response;
+
+		@Setup(Level.Trial)
+		public void setUp(TunnelThroughputBenchmark benchmark) throws IOException {
+			socket = benchmark.fixture.connect();
+			out = socket.getOutputStream();
+			in = new DataInputStream(socket.getInputStream());
+			response = new byte[benchmark.messageSize];
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() throws IOException {
+			socket.close();
+		}
+
+	}
+
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	@State(Scope.Thread)
+	public static class Bytes {
+
+		public long bytes;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			bytes = 0;
+		}
+
+	}
+
+}
@@ -0,0 +1,64 @@
+package com.bradchen.jwormhole.client;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of fixed-size direct buffers shared by all relayed connections.
+ */
+public final class BufferPool {
+
+	private final int bufferSize;
+	private final int maxPooledBuffers;
+	private final Queue<ByteBuffer> freeBuffers;
+	private final AtomicInteger numPooled;
+	private final AtomicInteger numInUse;
+
+	BufferPool(int bufferSize, int maxPooledBuffers) {
+		this.bufferSize = bufferSize;
+		this.maxPooledBuffers = maxPooledBuffers;
+		this.freeBuffers = new ConcurrentLinkedQueue<>();
+		this.numPooled = new AtomicInteger();
+		this.numInUse = new AtomicInteger();
+	}
+
+	ByteBuffer acquire() {
+		numInUse.incrementAndGet();
+		ByteBuffer buffer = freeBuffers.poll();
+		if (buffer == null) {
+			return ByteBuffer.allocateDirect(bufferSize);
+		}
+		numPooled.decrementAndGet();
+		buffer.clear();
+		return buffer;
+	}
+
+	void release(ByteBuffer buffer) {
+		numInUse.decrementAndGet();
+		if (numPooled.get() < maxPooledBuffers) {
+			numPooled.incrementAndGet();
+			freeBuffers.offer(buffer);
+		}
+	}
+
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	/**
+	 * Returns the number of buffers holding data of a connection.
+	 */
+	public int getNumInUse() {
+		return numInUse.get();
+	}
+
+	/**
+	 * Returns the number of idle buffers kept for reuse.
+	 */
+	public int getNumPooled() {
+		return numPooled.get();
+	}
+
+}
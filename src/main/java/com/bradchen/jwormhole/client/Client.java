@@ -1,5 +1,8 @@
 package com.bradchen.jwormhole.client;
 
+import com.bradchen.jwormhole.client.http.CachingProxy;
+import com.bradchen.jwormhole.client.http.HttpCache;
+import com.bradchen.jwormhole.client.http.HttpInspector;
 import com.jcraft.jsch.JSch;
 import com.jcraft.jsch.JSchException;
 import com.jcraft.jsch.Session;
@@ -9,15 +12,30 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.PrintWriter;
-import java.net.Socket;
-import java.nio.charset.Charset;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
 
 import static com.bradchen.jwormhole.client.SettingsUtils.getFilePathRelativeToHome;
 
@@ -31,48 +49,209 @@ public class Client {
 	// relative to $HOME
 	private static final String PRIVATE_KEY_FILE = ".ssh/id_rsa";
 	private static final String KNOWN_HOSTS_FILE = ".ssh/known_hosts";
-	private static final Charset UTF8_CHARSET = Charset.forName("utf-8");
-	private static final String LOCALHOST = "127.0.0.1";
-	private static final int MAX_NUM_RETRIES = 3;
-	private static final int RETRY_WAIT_TIME = 3;
+	private static final int CONTROLLER_TIMEOUT = 10; // in seconds
 	private static final String OK = "ok";
+	private static final int COMPRESSION_SAMPLE_INTERVAL = 30; // in seconds
+	private static final long MIN_COMPRESSION_SAMPLE = 1024 * 1024; // in bytes
+	private static final double MAX_USEFUL_COMPRESSION_RATIO = 0.9;
+	private static final int NUM_LATENCY_SAMPLES = 3; // keepalives in a row to cross threshold
+	private static final int MAX_KEEPALIVE_BATCH = 100; // hosts per keepHostsAlive command
+	private static final long MEGABYTE = 1024 * 1024;
 
-	private final Settings settings;
+	// compression is metered for the whole process, so auto mode only trusts it with one client
+	private static final Set<Client> CONNECTED_CLIENTS = ConcurrentHashMap.newKeySet();
+
+	private volatile Settings settings;
+	private volatile FailoverHandler failoverHandler;
 	private final JSch jsch;
 	private final UserInfo userInfo;
 	private final List<ConnectionLostHandler> connectionClosedHandlers;
+	private final List<LatencyDegradedHandler> latencyDegradedHandlers;
+	private final List<TunnelListener> tunnelListeners;
 	private ScheduledExecutorService scheduler;
-	private Session session;
-	private Host host;
-	private int localPort;
-	private int localControllerPort;
+	private ExecutorService forwardingExecutor;
+	private ScheduledFuture<?> keepaliveFuture;
+	private ScheduledFuture<?> compressionSamplerFuture;
+	private final Map<String, Tunnel> tunnels;
+	private final List<SessionStats> sessionStats;
+	private final RelayEngine relayEngine;
+	private final HttpInspector httpInspector;
+	private final ScheduledExecutorService localPoolExecutor;
+	private final LatencyStats latencyStats;
+	private final PhaseTimings timings;
+	private volatile List<Session> sessions;
+	private ControllerChannel controller;
 	private int numRetries;
-	private long proxyStartTime;
+	private volatile boolean reconnecting;
+	private volatile boolean latencyDegraded;
+	private int numLatencySamplesAcross;
+	private volatile long proxyStartTime;
+	private final LongAdder numReconnects;
+	private final LongAdder numReconnectAttempts;
+	private final LongAdder numReconnectFailures;
+	private volatile boolean compressionDisabled;
+	private volatile boolean batchKeepaliveSupported;
+	private long lastUncompressedBytes;
+	private long lastCompressedBytes;
 
 	public Client(Settings settings, UserInfo userInfo) throws IOException {
 		this.settings = settings;
 		this.jsch = new JSch();
 		this.userInfo = userInfo;
 		this.connectionClosedHandlers = new ArrayList<>();
+		this.latencyDegradedHandlers = new ArrayList<>();
+		this.tunnelListeners = new CopyOnWriteArrayList<>();
+		this.tunnels = new ConcurrentHashMap<>();
+		this.sessions = Collections.emptyList();
+		List<SessionStats> stats = new ArrayList<>();
+		for (int i = 0; i < Math.max(settings.getNumSessions(), 1); i++) {
+			stats.add(new SessionStats(i));
+		}
+		this.sessionStats = Collections.unmodifiableList(stats);
+		this.relayEngine = new RelayEngine(settings.getRelayThreads());
+		this.httpInspector = (settings.getInspectorSize() > 0) ? new HttpInspector(
+			(int)(settings.getInspectorSize() * MEGABYTE), settings.getInspectorBodyLimit()) : null;
+		this.localPoolExecutor = (settings.getLocalPoolSize() > 0)
+			? Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "jwormhole-local-pool");
+				thread.setDaemon(true);
+				return thread;
+			}) : null;
+		this.latencyStats = new LatencyStats();
+		this.timings = new PhaseTimings();
+		this.batchKeepaliveSupported = true;
+		this.numReconnects = new LongAdder();
+		this.numReconnectAttempts = new LongAdder();
+		this.numReconnectFailures = new LongAdder();
 	}
 
 	public Settings getSettings() {
 		return settings;
 	}
 
+	/**
+	 * Returns the local port of the first tunnel created, or 0 if there is no tunnel.
+	 */
 	public int getLocalPort() {
-		return localPort;
+		Tunnel tunnel = getFirstTunnel();
+		return (tunnel == null) ? 0 : tunnel.getLocalPort();
 	}
 
 	public long getProxyStartTime() {
 		return proxyStartTime;
 	}
 
+	/**
+	 * Returns the domain name of the first tunnel created, or null if there is no tunnel.
+	 */
 	public String getProxiedDomainName() {
-		if (host == null) {
-			return null;
-		}
-		return host.getDomainName();
+		Tunnel tunnel = getFirstTunnel();
+		return (tunnel == null) ? null : tunnel.getDomainName();
+	}
+
+	/**
+	 * Returns all tunnels, oldest first.
+	 */
+	public List<Tunnel> getTunnels() {
+		List<Tunnel> result = new ArrayList<>(tunnels.values());
+		result.sort(Comparator.comparingLong(Tunnel::getCreateTime));
+		return result;
+	}
+
+	public Tunnel getTunnel(String domainName) {
+		return tunnels.get(domainName);
+	}
+
+	/**
+	 * Returns the traffic counters of each session of the session pool.
+	 */
+	public List<SessionStats> getSessionStats() {
+		return sessionStats;
+	}
+
+	public RelayEngine getRelayEngine() {
+		return relayEngine;
+	}
+
+	/**
+	 * Returns the inspector recording HTTP traffic to local ports, or null if traffic is not
+	 * inspected.
+	 */
+	public HttpInspector getHttpInspector() {
+		return httpInspector;
+	}
+
+	/**
+	 * Returns the round-trip times measured by keepalives.
+	 */
+	public LatencyStats getLatencyStats() {
+		return latencyStats;
+	}
+
+	/**
+	 * Returns true if keepalive round trips stay above the configured latency threshold.
+	 */
+	public boolean isLatencyDegraded() {
+		return latencyDegraded;
+	}
+
+	/**
+	 * Returns how long the phases of the latest connect and tunnel creation took.
+	 */
+	public PhaseTimings getTimings() {
+		return timings;
+	}
+
+	public CompressionStats getCompressionStats() {
+		return MeteredCompression.STATS;
+	}
+
+	/**
+	 * Returns true if sessions negotiate compression; in auto mode, this turns false once
+	 * compression is found not to pay off. As compression is metered for the whole process, that
+	 * is only judged while no other client is connected.
+	 */
+	public boolean isCompressionEnabled() {
+		return (settings.getCompressionMode() != CompressionMode.OFF) && !compressionDisabled;
+	}
+
+	/**
+	 * Returns true while the connection to the server is lost and being reestablished.
+	 */
+	public boolean isReconnecting() {
+		return reconnecting;
+	}
+
+	/**
+	 * Returns true if every session of the session pool is connected.
+	 */
+	public boolean isConnected() {
+		List<Session> currentSessions = sessions;
+		return !currentSessions.isEmpty() && currentSessions.stream().allMatch(Session::isConnected);
+	}
+
+	/**
+	 * Returns the number of times the connection was reestablished after it was lost or a
+	 * reconnect was forced.
+	 */
+	public long getNumReconnects() {
+		return numReconnects.sum();
+	}
+
+	/**
+	 * Returns the number of attempts made to reestablish the connection, successful or not.
+	 */
+	public long getNumReconnectAttempts() {
+		return numReconnectAttempts.sum();
+	}
+
+	public long getNumReconnectFailures() {
+		return numReconnectFailures.sum();
+	}
+
+	private Tunnel getFirstTunnel() {
+		List<Tunnel> result = getTunnels();
+		return result.isEmpty() ? null : result.get(0);
 	}
 
 	public void addConnectionClosedHandler(ConnectionLostHandler handler) {
@@ -83,13 +262,54 @@ public class Client {
 		connectionClosedHandlers.remove(handler);
 	}
 
+	public void addLatencyDegradedHandler(LatencyDegradedHandler handler) {
+		latencyDegradedHandlers.add(handler);
+	}
+
+	public void removeLatencyDegradedHandler(LatencyDegradedHandler handler) {
+		latencyDegradedHandlers.remove(handler);
+	}
+
+	/**
+	 * Adds a listener that is told about tunnels as they are added and removed. Listeners may be
+	 * added and removed from any thread.
+	 */
+	public void addTunnelListener(TunnelListener listener) {
+		tunnelListeners.add(listener);
+	}
+
+	public void removeTunnelListener(TunnelListener listener) {
+		tunnelListeners.remove(listener);
+	}
+
+	/**
+	 * Sets what picks another server once reconnecting runs out of retries; without one, the
+	 * tunnels are given up on.
+	 */
+	public void setFailoverHandler(FailoverHandler failoverHandler) {
+		this.failoverHandler = failoverHandler;
+	}
+
 	public void connect() throws IOException {
-		if ((session != null) && session.isConnected()) {
+		if (isConnected()) {
 			return;
 		}
 
 		try {
-			scheduler = Executors.newScheduledThreadPool(1);
+			if ((scheduler == null) || scheduler.isShutdown()) {
+				scheduler = Executors.newScheduledThreadPool(1);
+			}
+			if ((forwardingExecutor == null) || forwardingExecutor.isShutdown()) {
+				forwardingExecutor = Executors.newSingleThreadExecutor(runnable -> {
+					Thread thread = new Thread(runnable, "jwormhole-forwarding");
+					thread.setDaemon(true);
+					return thread;
+				});
+			}
+			relayEngine.start();
+			if (httpInspector != null) {
+				httpInspector.start();
+			}
 			String knownHostsFilePath = getKnownHostsFilePath();
 			if (knownHostsFilePath != null) {
 				jsch.setKnownHosts(knownHostsFilePath);
@@ -100,33 +320,418 @@ public class Client {
 				jsch.addIdentity(privateKeyFilePath);
 			}
 
-			session = jsch.getSession(settings.getServerUsername(), settings.getServerSshHost(),
-				settings.getServerSshPort());
-			session.setUserInfo(userInfo);
-			enableSessionCompression();
-			session.connect();
+			// resolved names are cached, so JSch does not look the name up again
+			long startTime = System.nanoTime();
+			InetAddress.getByName(settings.getServerSshHost());
+			timings.record("dns", System.nanoTime() - startTime);
+
+			// tunnels are spread across the sessions so that each session's cipher and
+			// compression work runs on its own thread
+			List<Session> newSessions = new ArrayList<>(sessionStats.size());
+			sessions = newSessions;
+			for (int i = 0; i < sessionStats.size(); i++) {
+				Session session = jsch.getSession(settings.getServerUsername(),
+					settings.getServerSshHost(), settings.getServerSshPort());
+				session.setUserInfo(userInfo);
+				configureSessionCompression(session);
+				newSessions.add(session);
+			}
+
+			// the first session may have the user accept the host key or enter a password, so
+			// it connects alone before the others connect in parallel
+			Session firstSession = newSessions.get(0);
+			HandshakeTimer handshakeTimer = new HandshakeTimer(
+				firstSession.getHostKeyRepository());
+			firstSession.setSocketFactory(handshakeTimer);
+			firstSession.setHostKeyRepository(handshakeTimer);
+			firstSession.connect();
+			handshakeTimer.finish(timings);
+			if (newSessions.size() > 1) {
+				startTime = System.nanoTime();
+				connectInParallel(newSessions.subList(1, newSessions.size()));
+				timings.record("sessions", System.nanoTime() - startTime);
+			}
 
-			// enable controller socket connection
-			localControllerPort = session.setPortForwardingL(0, LOCALHOST,
+			// controller commands share one long-lived channel of the first session; the server
+			// may not be the one that lacked batched keepalives, or may have been upgraded since
+			controller = new ControllerChannel(newSessions.get(0),
 				settings.getServerControllerPort());
+			batchKeepaliveSupported = true;
+			CONNECTED_CLIENTS.add(this);
+
+			if ((settings.getCompressionMode() == CompressionMode.AUTO)
+					&& (compressionSamplerFuture == null)) {
+				compressionSamplerFuture = scheduler.scheduleAtFixedRate(this::sampleCompression,
+					COMPRESSION_SAMPLE_INTERVAL, COMPRESSION_SAMPLE_INTERVAL, TimeUnit.SECONDS);
+			}
 		} catch (JSchException exception) {
 			throw new IOException(exception);
 		}
 	}
 
-	private void enableSessionCompression() {
+	private static void connectInParallel(List<Session> sessions) throws JSchException {
+		ExecutorService executor = Executors.newFixedThreadPool(sessions.size());
+		try {
+			List<Future<?>> results = new ArrayList<>();
+			for (Session session : sessions) {
+				results.add(executor.submit(() -> {
+					session.connect();
+					return null;
+				}));
+			}
+			for (Future<?> result : results) {
+				result.get();
+			}
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+			throw new JSchException("Interrupted while connecting.", exception);
+		} catch (ExecutionException exception) {
+			throw new JSchException(exception.getCause().getMessage(), exception.getCause());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private void configureSessionCompression(Session session) {
+		if (!isCompressionEnabled()) {
+			session.setConfig("compression.s2c", "none");
+			session.setConfig("compression.c2s", "none");
+			return;
+		}
+
+		session.setConfig("zlib", MeteredCompression.class.getName());
+		session.setConfig("zlib@openssh.com", MeteredCompression.class.getName());
 		session.setConfig("compression.s2c", "zlib@openssh.com,zlib,none");
 		session.setConfig("compression.c2s", "zlib@openssh.com,zlib,none");
-		session.setConfig("compression_level", "9");
+		if (settings.getCompressionMode() == CompressionMode.MAX) {
+			session.setConfig("compression_level", "9");
+		} else {
+			session.setConfig("compression_level", "1");
+		}
+	}
+
+	private void sampleCompression() {
+		CompressionStats stats = getCompressionStats();
+		long uncompressedBytes = stats.getUncompressedBytes();
+		long compressedBytes = stats.getCompressedBytes();
+		long sampleUncompressed = uncompressedBytes - lastUncompressedBytes;
+		long sampleCompressed = compressedBytes - lastCompressedBytes;
+		if (CONNECTED_CLIENTS.size() > 1) {
+			// other clients' traffic says nothing about this client's; keep compression as it
+			// is and start the next sample afresh
+			lastUncompressedBytes = uncompressedBytes;
+			lastCompressedBytes = compressedBytes;
+			return;
+		}
+		if (compressionDisabled || (sampleUncompressed < MIN_COMPRESSION_SAMPLE)) {
+			return;
+		}
+
+		lastUncompressedBytes = uncompressedBytes;
+		lastCompressedBytes = compressedBytes;
+		double ratio = (double)sampleCompressed / sampleUncompressed;
+		if (ratio < MAX_USEFUL_COMPRESSION_RATIO) {
+			return;
+		}
+
+		// renegotiate the sessions' algorithms without compression
+		LOGGER.info(String.format("Compression ratio is %.2f; turning compression off.", ratio));
+		compressionDisabled = true;
+		renegotiateCompression();
+	}
+
+	private void renegotiateCompression() {
+		for (Session session : sessions) {
+			configureSessionCompression(session);
+			try {
+				session.rekey();
+			} catch (Exception exception) {
+				LOGGER.warn("Unable to rekey session; compression stays as it is until reconnect.",
+					exception);
+			}
+		}
+	}
+
+	/**
+	 * Switches to settings read again from the properties files, for the same server. Settings
+	 * that can change while connected are applied at once: keepalives are rescheduled, the limits
+	 * of every tunnel are updated, and sessions are rekeyed when compression changes. The others
+	 * take effect when they are next used, on new tunnels or on reconnect, or not until restart.
+	 *
+	 * @return the settings that changed, and when each takes effect
+	 */
+	public synchronized List<SettingChange> reloadSettings(Settings newSettings) {
+		Settings oldSettings = settings;
+		if (!Objects.equals(newSettings.getServer(), oldSettings.getServer())) {
+			throw new IllegalArgumentException("Settings are of server " + newSettings.getServer()
+				+ ", not " + oldSettings.getServer() + ".");
+		}
+
+		List<SettingChange> changes = new ArrayList<>();
+		for (Map.Entry<String, String> entry : newSettings.getValues().entrySet()) {
+			String key = entry.getKey();
+			String oldValue = oldSettings.getValues().get(key);
+			if (!Objects.equals(oldValue, entry.getValue())) {
+				changes.add(new SettingChange(key, oldValue, entry.getValue(), getEffect(key)));
+			}
+		}
+		if (changes.isEmpty()) {
+			return changes;
+		}
+
+		settings = newSettings;
+		boolean running = (scheduler != null) && !scheduler.isShutdown();
+		for (SettingChange change : changes) {
+			switch (change.getKey()) {
+				case "keepaliveInterval":
+					if (running && (keepaliveFuture != null)) {
+						scheduleKeepaliveWorker();
+					}
+					break;
+				case "compression":
+					if (running) {
+						rescheduleCompressionSampler();
+						compressionDisabled = false;
+						renegotiateCompression();
+					}
+					break;
+				case "maxConnections":
+				case "connectionRate":
+				case "connectionQueueTimeout":
+				case "bandwidthUp":
+				case "bandwidthDown":
+					for (Tunnel tunnel : tunnels.values()) {
+						applyLimit(tunnel.getLimits(), change.getKey());
+					}
+					break;
+				default:
+					// read again every time it is used
+					break;
+			}
+		}
+		return changes;
+	}
+
+	private SettingChange.Effect getEffect(String key) {
+		switch (key) {
+			case "keepaliveInterval":
+			case "keepaliveMaxSkips":
+			case "compression":
+			case "reconnectRetries":
+			case "reconnectDelay":
+			case "reconnectMaxDelay":
+			case "latencyThreshold":
+			case "maxConnections":
+			case "connectionRate":
+			case "connectionQueueTimeout":
+			case "bandwidthUp":
+			case "bandwidthDown":
+				return SettingChange.Effect.APPLIED;
+			case "httpCacheSize":
+			case "httpCacheDiskSize":
+			case "httpCacheConnections":
+				return SettingChange.Effect.NEW_TUNNELS;
+			case "localPoolSize":
+				// pools need the executor started along with the client
+				return (localPoolExecutor == null) ? SettingChange.Effect.RESTART
+					: SettingChange.Effect.NEW_TUNNELS;
+			case "serverSshHost":
+			case "serverSshPort":
+			case "serverUsername":
+			case "serverControllerPort":
+				return SettingChange.Effect.RECONNECT;
+			default:
+				return SettingChange.Effect.RESTART;
+		}
+	}
+
+	private void applyLimit(TunnelLimits limits, String key) {
+		switch (key) {
+			case "maxConnections":
+				limits.setMaxConnections(settings.getMaxConnections());
+				break;
+			case "connectionRate":
+				limits.setConnectionRate(settings.getConnectionRate());
+				break;
+			case "connectionQueueTimeout":
+				limits.setQueueTimeout(settings.getConnectionQueueTimeout());
+				break;
+			case "bandwidthUp":
+				limits.setBandwidthUp(settings.getBandwidthUp());
+				break;
+			case "bandwidthDown":
+				limits.setBandwidthDown(settings.getBandwidthDown());
+				break;
+			default:
+				break;
+		}
+	}
+
+	private void rescheduleCompressionSampler() {
+		if (compressionSamplerFuture != null) {
+			compressionSamplerFuture.cancel(false);
+			compressionSamplerFuture = null;
+		}
+		if (settings.getCompressionMode() == CompressionMode.AUTO) {
+			CompressionStats stats = getCompressionStats();
+			lastUncompressedBytes = stats.getUncompressedBytes();
+			lastCompressedBytes = stats.getCompressedBytes();
+			compressionSamplerFuture = scheduler.scheduleAtFixedRate(this::sampleCompression,
+				COMPRESSION_SAMPLE_INTERVAL, COMPRESSION_SAMPLE_INTERVAL, TimeUnit.SECONDS);
+		}
+	}
+
+	/**
+	 * Proxies a local port through a new host on the jWormhole server.
+	 *
+	 * @param localPort local port to proxy
+	 * @param name host name to request, or null to let the server pick one
+	 * @return the new tunnel, or null if the server refused to create the host
+	 */
+	public Tunnel addTunnel(int localPort, String name) throws IOException {
+		long startTime = System.nanoTime();
+		Host host = createHost(name);
+		timings.record("createHost", System.nanoTime() - startTime);
+		if (host == null) {
+			return null;
+		}
+		if (Thread.currentThread().isInterrupted()) {
+			removeHost(host);
+			throw new InterruptedIOException("Adding tunnel interrupted.");
+		}
+
+		CachingProxy cachingProxy = null;
+		LocalConnectionPool localPool = null;
+		Tunnel tunnel;
+		try {
+			cachingProxy = createCachingProxy(localPort);
+			localPool = createLocalPool((cachingProxy == null) ? localPort
+				: cachingProxy.getPort());
+			tunnel = new Tunnel(host, localPort, getLeastLoadedSessionIndex(), new TunnelStats(),
+				new TunnelLimits(settings), cachingProxy, localPool);
+			startTime = System.nanoTime();
+			establishLocalPortForwarding(tunnel);
+			timings.record("forward", System.nanoTime() - startTime);
+		} catch (IOException exception) {
+			removeHost(host);
+			if (cachingProxy != null) {
+				cachingProxy.close();
+			}
+			if (localPool != null) {
+				localPool.close();
+			}
+			throw exception;
+		}
+
+		tunnels.put(host.getDomainName(), tunnel);
+		fireTunnelAdded(tunnel);
+
+		// tunnels may be added from many threads at once
+		synchronized (this) {
+			if (proxyStartTime == 0) {
+				proxyStartTime = System.currentTimeMillis();
+			}
+			if (keepaliveFuture == null) {
+				scheduleKeepaliveWorker();
+			}
+		}
+		return tunnel;
+	}
+
+	/**
+	 * Starts a caching HTTP proxy in front of the local port given, if responses are to be cached.
+	 */
+	private CachingProxy createCachingProxy(int localPort) throws IOException {
+		if (settings.getHttpCacheSize() <= 0) {
+			return null;
+		}
+
+		CachingProxy cachingProxy = new CachingProxy(localPort, new HttpCache(
+			settings.getHttpCacheSize() * MEGABYTE, settings.getHttpCacheDiskSize() * MEGABYTE),
+			settings.getHttpCacheConnections());
+		cachingProxy.start();
+		return cachingProxy;
+	}
+
+	/**
+	 * Starts opening connections to the port given ahead of time, if connections are to be pooled.
+	 */
+	private LocalConnectionPool createLocalPool(int port) {
+		if ((localPoolExecutor == null) || (settings.getLocalPoolSize() <= 0)) {
+			return null;
+		}
+
+		LocalConnectionPool localPool = new LocalConnectionPool(port, settings.getLocalPoolSize(),
+			localPoolExecutor);
+		localPool.start();
+		return localPool;
+	}
+
+	/**
+	 * Stops proxying the tunnel of the domain name given and releases its host.
+	 *
+	 * @param domainName domain name of the tunnel
+	 * @return false if no such tunnel exists
+	 */
+	public boolean removeTunnel(String domainName) throws IOException {
+		Tunnel tunnel = tunnels.remove(domainName);
+		if (tunnel == null) {
+			return false;
+		}
+
+		fireTunnelRemoved(tunnel);
+		try {
+			sessions.get(tunnel.getSessionIndex()).delPortForwardingR(tunnel.getRemotePort());
+		} catch (JSchException exception) {
+			throw new IOException(exception);
+		} finally {
+			removeHost(tunnel.getHost());
+			if (tunnel.getCachingProxy() != null) {
+				tunnel.getCachingProxy().close();
+			}
+			if (tunnel.getLocalPool() != null) {
+				tunnel.getLocalPool().close();
+			}
+		}
+		return true;
+	}
+
+	private void fireTunnelAdded(Tunnel tunnel) {
+		for (TunnelListener listener : tunnelListeners) {
+			listener.tunnelAdded(tunnel);
+		}
+	}
+
+	private void fireTunnelRemoved(Tunnel tunnel) {
+		for (TunnelListener listener : tunnelListeners) {
+			listener.tunnelRemoved(tunnel);
+		}
 	}
 
 	public String proxyLocalPort(int localPort, String name) throws IOException {
-		String result;
-		if (name == null) {
-			result = executeCommand("createHost");
-		} else {
-			result = executeCommand("createHost " + name);
+		Tunnel tunnel = addTunnel(localPort, name);
+		return (tunnel == null) ? null : tunnel.getDomainName();
+	}
+
+	private int getLeastLoadedSessionIndex() {
+		int[] numTunnels = new int[sessionStats.size()];
+		for (Tunnel tunnel : tunnels.values()) {
+			numTunnels[tunnel.getSessionIndex()]++;
 		}
+
+		int result = 0;
+		for (int i = 1; i < numTunnels.length; i++) {
+			if (numTunnels[i] < numTunnels[result]) {
+				result = i;
+			}
+		}
+		return result;
+	}
+
+	private Host createHost(String name) throws IOException {
+		// an interrupted client would never learn of a host the server created
+		String result = awaitResponse(submitCommand((name == null) ? "createHost"
+			: ("createHost " + name)), false);
 		if (StringUtils.isBlank(result)) {
 			throw new IOException("No response from jWormhole Server.");
 		}
@@ -137,96 +742,334 @@ public class Client {
 		if (tokens.length != 3) {
 			return null;
 		}
-		host = new Host(tokens[0], tokens[1], Integer.parseInt(tokens[2]));
-		this.localPort = localPort;
-		if (proxyStartTime == 0) {
-			proxyStartTime = System.currentTimeMillis();
-		}
-		establishLocalPortForwarding(localPort);
-		scheduleKeepaliveWorker();
-		return host.getDomainName();
+		return new Host(tokens[0], tokens[1], Integer.parseInt(tokens[2]));
 	}
 
 	private void scheduleKeepaliveWorker() {
-		scheduler.scheduleAtFixedRate(() -> {
-			if ((host == null) || (localPort <= 0)) {
+		if (keepaliveFuture != null) {
+			keepaliveFuture.cancel(false);
+		}
+		keepaliveFuture = scheduler.scheduleAtFixedRate(() -> {
+			if (tunnels.isEmpty() || reconnecting) {
 				return;
 			}
 
-			keepHostAlive();
+			keepTunnelsAlive();
 		}, settings.getKeepaliveInterval(), settings.getKeepaliveInterval(), TimeUnit.SECONDS);
 	}
 
-	private void keepHostAlive() {
+	private void keepTunnelsAlive() {
 		if (sendKeepaliveMessage()) {
 			return;
 		}
 
 		// connection unavailable; attempt to recreate connection
+		startReconnecting(getRetryDelay(0));
+	}
+
+	/**
+	 * Drops the sessions and connects again, reclaiming every tunnel, as when the connection is
+	 * lost. Returns at once; the reconnect runs on the scheduler.
+	 *
+	 * @return false if the client is reconnecting already or was never connected
+	 */
+	public boolean reconnect() {
+		return startReconnecting(0);
+	}
+
+	private synchronized boolean startReconnecting(long delay) {
+		if (reconnecting || (scheduler == null) || scheduler.isShutdown()) {
+			return false;
+		}
+
 		numRetries = 0;
-		scheduler.schedule(new ReconnectWorker(), 0, TimeUnit.SECONDS);
+		reconnecting = true;
+		scheduler.schedule(new ReconnectWorker(), delay, TimeUnit.MILLISECONDS);
+		return true;
+	}
+
+	/**
+	 * Returns the time to wait before the retry given in milliseconds. The delay grows
+	 * exponentially up to the maximum, and a random part of it is taken so that clients that lost
+	 * their connections together do not all retry at the same time.
+	 */
+	private long getRetryDelay(int retry) {
+		long delay = TimeUnit.SECONDS.toMillis(settings.getReconnectDelay()) << Math.min(retry, 20);
+		long maxDelay = TimeUnit.SECONDS.toMillis(settings.getReconnectMaxDelay());
+		return ThreadLocalRandom.current().nextLong(Math.max(Math.min(delay, maxDelay), 0) + 1);
 	}
 
 	private boolean sendKeepaliveMessage() {
 		try {
-			session.sendKeepAliveMsg();
-			return OK.equals(executeCommand("keepHostAlive " + host.getDomainName()));
+			long maxSshRoundTrip = 0;
+			for (Session session : sessions) {
+				long roundTrip = SshKeepalive.ping(session,
+					TimeUnit.SECONDS.toMillis(CONTROLLER_TIMEOUT));
+				if (roundTrip != SshKeepalive.NOT_MEASURED) {
+					latencyStats.sshRoundTripMeasured(roundTrip);
+					maxSshRoundTrip = Math.max(maxSshRoundTrip, roundTrip);
+				}
+			}
+
+			// tunnels that carried traffic since the last keepalive may skip a few
+			List<Tunnel> dueTunnels = new ArrayList<>();
+			for (Tunnel tunnel : tunnels.values()) {
+				if (!tunnel.skipKeepalive(settings.getKeepaliveMaxSkips())) {
+					dueTunnels.add(tunnel);
+				}
+			}
+
+			long controllerRoundTrip = 0;
+			if (!dueTunnels.isEmpty()) {
+				for (String response : keepHostsAlive(dueTunnels)) {
+					if (!OK.equals(response)) {
+						return false;
+					}
+				}
+				controllerRoundTrip = latencyStats.getLastControllerRoundTrip();
+			}
+
+			checkLatency(TimeUnit.MICROSECONDS.toMillis(
+				Math.max(maxSshRoundTrip, controllerRoundTrip)));
+			return true;
 		} catch (Exception ignored) {
 			return false;
 		}
 	}
 
-	private void establishLocalPortForwarding(int localPort) throws IOException {
+	/**
+	 * Keeps the hosts of the tunnels given alive. Hosts are sent in batches of
+	 * {@link #MAX_KEEPALIVE_BATCH} with <code>keepHostsAlive a,b,c</code>, which the server
+	 * answers with a result per host; servers that do not know the command get a
+	 * <code>keepHostAlive</code> per host instead. Either way, the commands are pipelined, and the
+	 * first response gives the controller round trip.
+	 *
+	 * @return the server's response for each tunnel, in order
+	 */
+	private List<String> keepHostsAlive(List<Tunnel> tunnelsToKeep) throws IOException {
+		boolean batched = batchKeepaliveSupported && (tunnelsToKeep.size() > 1);
+		int batchSize = batched ? MAX_KEEPALIVE_BATCH : 1;
+		long startTime = System.nanoTime();
+		List<CompletableFuture<String>> responses = new ArrayList<>();
+		for (int i = 0; i < tunnelsToKeep.size(); i += batchSize) {
+			List<Tunnel> batch = tunnelsToKeep.subList(i,
+				Math.min(i + batchSize, tunnelsToKeep.size()));
+			if (batched) {
+				responses.add(submitCommand("keepHostsAlive " + batch.stream()
+					.map(Tunnel::getDomainName).collect(Collectors.joining(","))));
+			} else {
+				responses.add(submitCommand("keepHostAlive " + batch.get(0).getDomainName()));
+			}
+		}
+
+		List<String> results = new ArrayList<>(tunnelsToKeep.size());
+		for (int i = 0; i < responses.size(); i++) {
+			String response = StringUtils.trimToEmpty(awaitResponse(responses.get(i)));
+			if (i == 0) {
+				latencyStats.controllerRoundTripMeasured(
+					TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startTime));
+			}
+			if (!batched) {
+				results.add(response);
+				continue;
+			}
+
+			// a server without batching answers the unknown command with a single error
+			String[] hostResults = response.split(",");
+			int expected = Math.min(batchSize, tunnelsToKeep.size() - (i * batchSize));
+			if (hostResults.length != expected) {
+				LOGGER.info("Server does not keep hosts alive in batches; sending one by one.");
+				batchKeepaliveSupported = false;
+				return keepHostsAlive(tunnelsToKeep);
+			}
+			for (String hostResult : hostResults) {
+				results.add(hostResult.trim());
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Notifies handlers when the slower of the SSH and controller round trips crosses the latency
+	 * threshold and stays across for a few keepalives in a row.
+	 */
+	private void checkLatency(long roundTrip) {
+		int threshold = settings.getLatencyThreshold();
+		if (threshold <= 0) {
+			return;
+		}
+
+		boolean degraded = roundTrip > threshold;
+		if (degraded == latencyDegraded) {
+			numLatencySamplesAcross = 0;
+			return;
+		}
+		if (++numLatencySamplesAcross < NUM_LATENCY_SAMPLES) {
+			return;
+		}
+
+		numLatencySamplesAcross = 0;
+		latencyDegraded = degraded;
+		for (LatencyDegradedHandler handler : latencyDegradedHandlers) {
+			handler.latencyChanged(degraded, roundTrip);
+		}
+	}
+
+	private void establishLocalPortForwarding(Tunnel tunnel) throws IOException {
+		int sessionIndex = tunnel.getSessionIndex();
+		Session session = sessions.get(sessionIndex);
+		Object[] relayArgs = { relayEngine, tunnel.getForwardPort(),
+			sessionStats.get(sessionIndex), tunnel.getStats(), httpInspector, tunnel };
+
+		// JSch wakes the thread waiting for the server's reply with an interrupt, which may only
+		// arrive after the call has returned; let it land on a thread that expects it
+		Future<?> result = forwardingExecutor.submit(() -> {
+			Thread.interrupted();
+			session.setPortForwardingR(tunnel.getRemotePort(), RelayDaemon.class.getName(),
+				relayArgs);
+			return null;
+		});
 		try {
-			session.setPortForwardingR(host.getPort(), LOCALHOST, localPort);
-		} catch (JSchException exception) {
-			throw new IOException(exception);
+			result.get();
+		} catch (InterruptedException exception) {
+			// the request goes on without us; a forward set up anyway would outlive its host
+			if (awaitUninterruptibly(result)) {
+				try {
+					session.delPortForwardingR(tunnel.getRemotePort());
+				} catch (JSchException ignored) {
+				}
+			}
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Port forwarding interrupted.");
+		} catch (ExecutionException exception) {
+			throw new IOException(exception.getCause());
 		}
 	}
 
-	public void shutdown() {
-		if (session != null) {
-			removeHost();
-			session.disconnect();
+	/**
+	 * Waits for the task given to finish, without giving up on interrupts.
+	 *
+	 * @return true if the task succeeded
+	 */
+	private static boolean awaitUninterruptibly(Future<?> task) {
+		while (true) {
+			try {
+				task.get();
+				return true;
+			} catch (InterruptedException ignored) {
+				// the caller restores the interrupt
+			} catch (ExecutionException | CancellationException exception) {
+				return false;
+			}
 		}
+	}
+
+	public void shutdown() {
+		CONNECTED_CLIENTS.remove(this);
+		disconnect();
 		if (scheduler != null) {
 			scheduler.shutdownNow();
 		}
+		if (forwardingExecutor != null) {
+			forwardingExecutor.shutdownNow();
+		}
+		reconnecting = false;
+		relayEngine.shutdown();
+		if (httpInspector != null) {
+			httpInspector.close();
+		}
+		for (Tunnel tunnel : tunnels.values()) {
+			if (tunnel.getCachingProxy() != null) {
+				tunnel.getCachingProxy().close();
+			}
+			if (tunnel.getLocalPool() != null) {
+				tunnel.getLocalPool().close();
+			}
+		}
+		if (localPoolExecutor != null) {
+			localPoolExecutor.shutdownNow();
+		}
 	}
 
-	private void removeHost() {
-		if (host == null) {
+	private void disconnect() {
+		if (sessions.isEmpty()) {
+			return;
+		}
+
+		for (Tunnel tunnel : tunnels.values()) {
+			removeHost(tunnel.getHost());
+		}
+		closeSessions();
+	}
+
+	private void closeSessions() {
+		if (sessions.isEmpty()) {
 			return;
 		}
 
+		if (controller != null) {
+			controller.close();
+		}
+		for (Session session : sessions) {
+			session.disconnect();
+		}
+	}
+
+	private void removeHost(Host host) {
 		try {
-			executeCommand("removeHost " + host.getDomainName());
+			awaitResponse(submitCommand("removeHost " + host.getDomainName()), false);
 		} catch (IOException ignored) {
 		}
 	}
 
-	private String executeCommand(String command) throws IOException {
-		try (Socket socket = new Socket(LOCALHOST, localControllerPort)) {
-			PrintWriter writer = new PrintWriter(socket.getOutputStream(), true);
-			InputStream in = socket.getInputStream();
-			writer.println(command);
-			StringBuilder sb = new StringBuilder();
-			byte[] bytes = new byte[1024];
-			while (socket.isConnected()) {
-				int bytesRead = in.read(bytes);
-				if (bytesRead == -1) {
-					break;
-				}
-				if (bytesRead > 0) {
-					sb.append(new String(bytes, 0, bytesRead, UTF8_CHARSET));
-				}
+	String executeCommand(String command) throws IOException {
+		return awaitResponse(submitCommand(command));
+	}
+
+	private CompletableFuture<String> submitCommand(String command) throws IOException {
+		if (controller == null) {
+			throw new IOException("Not connected to jWormhole server.");
+		}
+		long startTime = System.nanoTime();
+		return controller.send(command).whenComplete((response, exception) ->
+			latencyStats.commandCompleted(
+				TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startTime)));
+	}
+
+	private static String awaitResponse(CompletableFuture<String> response) throws IOException {
+		return awaitResponse(response, true);
+	}
 
+	/**
+	 * @param interruptible false to wait for the response even if the thread is interrupted, for
+	 *                      commands whose effect must be known; the interrupt is kept
+	 */
+	private static String awaitResponse(CompletableFuture<String> response, boolean interruptible)
+			throws IOException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(CONTROLLER_TIMEOUT);
+		boolean interrupted = false;
+		try {
+			while (true) {
 				try {
-					Thread.sleep(100);
-				} catch (InterruptedException ignored) {
+					return response.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+				} catch (InterruptedException exception) {
+					interrupted = true;
+					if (interruptible) {
+						throw new IOException(exception);
+					}
 				}
 			}
-			return sb.toString().trim();
+		} catch (ExecutionException exception) {
+			if (exception.getCause() instanceof IOException) {
+				throw (IOException)exception.getCause();
+			}
+			throw new IOException(exception.getCause());
+		} catch (TimeoutException exception) {
+			throw new IOException("No response from jWormhole server in time.", exception);
+		} finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
 		}
 	}
 
@@ -242,25 +1085,94 @@ public class Client {
 
 		@Override
 		public void run() {
+			numReconnectAttempts.increment();
 			try {
-				shutdown();
+				// keep the hosts, which the server holds for a while, and the scheduler, as this
+				// worker runs on it
+				closeSessions();
 				connect();
-				if ((proxyLocalPort(localPort, host.getName()) != null) || sendKeepaliveMessage()) {
+				if (reclaimTunnels()) {
+					numReconnects.increment();
+					reconnecting = false;
 					return;
 				}
 			} catch (IOException exception) {
 				LOGGER.warn("Failed to connect to jWormhole server.", exception);
 			}
 
+			numReconnectFailures.increment();
 			numRetries++;
-			if (numRetries < MAX_NUM_RETRIES) {
-				System.out.println("Will try again in " + RETRY_WAIT_TIME + " seconds...");
-				scheduler.schedule(new ReconnectWorker(), RETRY_WAIT_TIME, TimeUnit.SECONDS);
+			int maxRetries = settings.getReconnectRetries();
+			if ((maxRetries < 0) || (numRetries < maxRetries)) {
+				long delay = getRetryDelay(numRetries);
+				System.out.println(String.format("Will try again in %.1f seconds...",
+					delay / 1000.0));
+				scheduler.schedule(new ReconnectWorker(), delay, TimeUnit.MILLISECONDS);
+			} else if (failOver()) {
+				scheduler.execute(new ReconnectWorker());
 			} else {
+				List<Tunnel> lostTunnels = new ArrayList<>(tunnels.values());
 				shutdown();
-				connectionClosedHandlers.parallelStream().forEach(handler ->
-					handler.connectionClosed(localPort, host.getDomainName()));
+				tunnels.clear();
+				reconnecting = false;
+				lostTunnels.forEach(Client.this::fireTunnelRemoved);
+				connectionClosedHandlers.parallelStream().forEach(handler -> {
+					for (Tunnel tunnel : lostTunnels) {
+						handler.connectionClosed(tunnel.getLocalPort(), tunnel.getDomainName());
+					}
+				});
+			}
+		}
+
+		/**
+		 * Moves to the server the failover handler picks, if any. The tunnels are reclaimed there
+		 * as hosts that expired, so they keep their names but get the new server's domain.
+		 */
+		private boolean failOver() {
+			FailoverHandler handler = failoverHandler;
+			Settings nextSettings = (handler == null) ? null : handler.nextServer(settings);
+			if (nextSettings == null) {
+				return false;
+			}
+
+			System.out.println("Failing over to server " + nextSettings.getServer() + " ("
+				+ nextSettings.getServerSshHost() + ")...");
+			closeSessions();
+			settings = nextSettings;
+			numRetries = 0;
+			return true;
+		}
+
+		/**
+		 * Reestablishes the remote port forwarding of every tunnel. Hosts the server still holds
+		 * for this client are reused as they are; only hosts that expired are created again.
+		 */
+		private boolean reclaimTunnels() throws IOException {
+			List<Tunnel> lostTunnels = new ArrayList<>(tunnels.values());
+			List<String> responses = lostTunnels.isEmpty() ? Collections.emptyList()
+				: keepHostsAlive(lostTunnels);
+			for (int i = 0; i < lostTunnels.size(); i++) {
+				Tunnel tunnel = lostTunnels.get(i);
+				if (OK.equals(responses.get(i))) {
+					establishLocalPortForwarding(tunnel);
+					continue;
+				}
+
+				Host host = createHost(tunnel.getName());
+				if (host == null) {
+					return false;
+				}
+
+				Tunnel restoredTunnel = new Tunnel(host, tunnel.getLocalPort(),
+					tunnel.getSessionIndex(), tunnel.getStats(), tunnel.getLimits(),
+					tunnel.getCachingProxy(), tunnel.getLocalPool());
+				establishLocalPortForwarding(restoredTunnel);
+				tunnels.remove(tunnel.getDomainName());
+				tunnels.put(host.getDomainName(), restoredTunnel);
+				fireTunnelRemoved(tunnel);
+				fireTunnelAdded(restoredTunnel);
 			}
+			return true;
 		}
 
 	}
@@ -0,0 +1,34 @@
+package com.bradchen.jwormhole.client;
+
+import java.util.Locale;
+
+/**
+ * How SSH sessions compress their traffic.
+ */
+public enum CompressionMode {
+
+	/**
+	 * No compression.
+	 */
+	OFF,
+
+	/**
+	 * zlib at the lowest compression level.
+	 */
+	FAST,
+
+	/**
+	 * zlib at the highest compression level.
+	 */
+	MAX,
+
+	/**
+	 * Starts as {@link #FAST}, and turns compression off if it does not shrink the traffic.
+	 */
+	AUTO;
+
+	public static CompressionMode parse(String value) {
+		return valueOf(value.trim().toUpperCase(Locale.ENGLISH));
+	}
+
+}
@@ -0,0 +1,59 @@
+package com.bradchen.jwormhole.client;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the zlib streams of all SSH sessions in this JVM. JSch instantiates compression
+ * streams by class name, so the counters cannot be tied to a single session.
+ */
+public final class CompressionStats {
+
+	private final LongAdder uncompressedBytes;
+	private final LongAdder compressedBytes;
+	private final LongAdder nanos;
+
+	CompressionStats() {
+		this.uncompressedBytes = new LongAdder();
+		this.compressedBytes = new LongAdder();
+		this.nanos = new LongAdder();
+	}
+
+	void record(long numUncompressedBytes, long numCompressedBytes, long elapsedNanos) {
+		uncompressedBytes.add(numUncompressedBytes);
+		compressedBytes.add(numCompressedBytes);
+		nanos.add(elapsedNanos);
+	}
+
+	/**
+	 * Returns the number of bytes before compression and after decompression.
+	 */
+	public long getUncompressedBytes() {
+		return uncompressedBytes.sum();
+	}
+
+	/**
+	 * Returns the number of bytes after compression and before decompression.
+	 */
+	public long getCompressedBytes() {
+		return compressedBytes.sum();
+	}
+
+	/**
+	 * Returns the compressed size over the uncompressed size, or NaN if nothing was compressed.
+	 */
+	public double getRatio() {
+		long uncompressed = getUncompressedBytes();
+		if (uncompressed == 0) {
+			return Double.NaN;
+		}
+		return (double)getCompressedBytes() / uncompressed;
+	}
+
+	/**
+	 * Returns the CPU time spent compressing and decompressing in milliseconds.
+	 */
+	public long getCpuTime() {
+		return nanos.sum() / 1000000;
+	}
+
+}
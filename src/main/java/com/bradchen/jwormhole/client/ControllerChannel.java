@@ -0,0 +1,222 @@
+package com.bradchen.jwormhole.client;
+
+import com.jcraft.jsch.Channel;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Long-lived connection to the jWormhole controller, carried by a direct-tcpip channel of the SSH
+ * session. Commands and responses are framed by lines, and commands may be pipelined: responses
+ * are matched to commands in the order the commands were sent.
+ *
+ * If the server closes the channel after answering a single command, the channel falls back to
+ * sending one command per channel. Lost channels are reopened on demand. Unanswered commands are
+ * resent if doing them twice is harmless, or if the server cannot have read them; otherwise they
+ * fail, since the server may have carried them out and only the response was lost.
+ */
+final class ControllerChannel {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ControllerChannel.class);
+
+	private static final Charset UTF8_CHARSET = Charset.forName("utf-8");
+	private static final String LOCALHOST = "127.0.0.1";
+	private static final int CONNECT_TIMEOUT = 10000; // in milliseconds
+	private static final int MAX_ATTEMPTS = 3;
+	private static final Set<String> IDEMPOTENT_COMMANDS = Collections.unmodifiableSet(
+		new HashSet<>(Arrays.asList("keepHostAlive", "keepHostsAlive", "removeHost")));
+
+	private final Session session;
+	private final int controllerPort;
+
+	// all fields below are guarded by this
+	private final Deque<PendingCommand> queuedCommands;
+	private final Deque<PendingCommand> inFlightCommands;
+	private Channel channel;
+	private OutputStream out;
+	private int numResponses;
+	private boolean pipelining;
+	private boolean closed;
+
+	ControllerChannel(Session session, int controllerPort) {
+		this.session = session;
+		this.controllerPort = controllerPort;
+		this.queuedCommands = new ArrayDeque<>();
+		this.inFlightCommands = new ArrayDeque<>();
+		this.pipelining = true;
+	}
+
+	CompletableFuture<String> send(String command) {
+		PendingCommand pending = new PendingCommand(command);
+		synchronized (this) {
+			if (closed) {
+				pending.future.completeExceptionally(new IOException("Controller channel closed."));
+				return pending.future;
+			}
+			queuedCommands.add(pending);
+			flush();
+		}
+		return pending.future;
+	}
+
+	synchronized void close() {
+		closed = true;
+		disconnect();
+		failAll(new IOException("Controller channel closed."));
+	}
+
+	private void flush() {
+		while (!queuedCommands.isEmpty() && (pipelining || inFlightCommands.isEmpty())) {
+			if (channel == null) {
+				try {
+					open();
+				} catch (IOException | JSchException exception) {
+					disconnect();
+					failAll(exception);
+					return;
+				}
+			}
+
+			PendingCommand pending = queuedCommands.poll();
+			pending.attempts++;
+			inFlightCommands.add(pending);
+			try {
+				out.write((pending.command + "\n").getBytes(UTF8_CHARSET));
+				out.flush();
+			} catch (IOException exception) {
+				LOGGER.debug("Unable to write to controller channel.", exception);
+				channelLost(channel);
+			}
+		}
+	}
+
+	private void open() throws IOException, JSchException {
+		Channel newChannel = session.getStreamForwarder(LOCALHOST, controllerPort);
+		InputStream in = newChannel.getInputStream();
+		OutputStream newOut = newChannel.getOutputStream();
+		newChannel.connect(CONNECT_TIMEOUT);
+		channel = newChannel;
+		out = newOut;
+		numResponses = 0;
+
+		Thread reader = new Thread(() -> read(newChannel, in), "jwormhole-controller");
+		reader.setDaemon(true);
+		reader.start();
+	}
+
+	private void disconnect() {
+		if (channel != null) {
+			channel.disconnect();
+			channel = null;
+			out = null;
+		}
+	}
+
+	private void read(Channel source, InputStream in) {
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, UTF8_CHARSET))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (StringUtils.isNotBlank(line)) {
+					responseReceived(source, line.trim());
+				}
+			}
+		} catch (IOException exception) {
+			LOGGER.debug("Controller channel read failed.", exception);
+		}
+		synchronized (this) {
+			channelLost(source);
+			flush();
+		}
+	}
+
+	private synchronized void responseReceived(Channel source, String response) {
+		if (source != channel) {
+			return;
+		}
+
+		PendingCommand pending = inFlightCommands.poll();
+		if (pending == null) {
+			LOGGER.warn("Unexpected response from jWormhole server: " + response);
+			return;
+		}
+
+		numResponses++;
+		pending.future.complete(response);
+		if (!pipelining) {
+			// the server closes the channel after each response anyway
+			disconnect();
+		}
+		flush();
+	}
+
+	private void channelLost(Channel source) {
+		if ((source == null) || (source != channel)) {
+			return;
+		}
+
+		// a server that answers once and hangs up does not support pipelining, and never read the
+		// commands sent after the first one
+		boolean unread = pipelining && (numResponses == 1) && !inFlightCommands.isEmpty();
+		if ((numResponses > 0) && !inFlightCommands.isEmpty()) {
+			pipelining = false;
+		}
+		disconnect();
+		while (!inFlightCommands.isEmpty()) {
+			PendingCommand pending = inFlightCommands.pollLast();
+			if (closed || (pending.attempts >= MAX_ATTEMPTS)) {
+				pending.future.completeExceptionally(
+					new IOException("Controller channel lost: " + pending.command));
+			} else if (!unread && !pending.isIdempotent()) {
+				pending.future.completeExceptionally(new IOException(
+					"Controller channel lost; the server may have run " + pending.command));
+			} else {
+				queuedCommands.addFirst(pending);
+			}
+		}
+	}
+
+	private void failAll(Exception exception) {
+		for (PendingCommand pending : inFlightCommands) {
+			pending.future.completeExceptionally(exception);
+		}
+		for (PendingCommand pending : queuedCommands) {
+			pending.future.completeExceptionally(exception);
+		}
+		inFlightCommands.clear();
+		queuedCommands.clear();
+	}
+
+	private static final class PendingCommand {
+
+		private final String command;
+		private final CompletableFuture<String> future;
+		private int attempts;
+
+		private PendingCommand(String command) {
+			this.command = command;
+			this.future = new CompletableFuture<>();
+		}
+
+		private boolean isIdempotent() {
+			return IDEMPOTENT_COMMANDS.contains(StringUtils.substringBefore(command, " "));
+		}
+
+	}
+
+}
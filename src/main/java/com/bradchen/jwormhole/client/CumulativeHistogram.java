@@ -0,0 +1,61 @@
+package com.bradchen.jwormhole.client;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of every value recorded since it was created, counted in buckets of fixed
+ * upper bounds. Unlike {@link RollingHistogram}, counts never go down, which is what scrapers that
+ * compute rates over their own intervals expect.
+ */
+public final class CumulativeHistogram {
+
+	private final long[] upperBounds;
+	private final AtomicLongArray counts;
+	private final LongAdder sum;
+
+	/**
+	 * @param upperBounds inclusive upper bounds of the buckets, in ascending order; values above
+	 *                    the last bound are counted in an extra bucket
+	 */
+	public CumulativeHistogram(long... upperBounds) {
+		this.upperBounds = upperBounds.clone();
+		this.counts = new AtomicLongArray(upperBounds.length + 1);
+		this.sum = new LongAdder();
+	}
+
+	public void record(long value) {
+		int index = 0;
+		while ((index < upperBounds.length) && (value > upperBounds[index])) {
+			index++;
+		}
+		counts.incrementAndGet(index);
+		sum.add(value);
+	}
+
+	/**
+	 * Returns the number of buckets, including the last one that has no upper bound.
+	 */
+	public int getNumBuckets() {
+		return counts.length();
+	}
+
+	/**
+	 * Returns the upper bound of the bucket given, or {@link Long#MAX_VALUE} for the last bucket.
+	 */
+	public long getUpperBound(int index) {
+		return (index < upperBounds.length) ? upperBounds[index] : Long.MAX_VALUE;
+	}
+
+	/**
+	 * Returns the number of values in the bucket given, not including lower buckets.
+	 */
+	public long getBucketCount(int index) {
+		return counts.get(index);
+	}
+
+	public long getSum() {
+		return sum.sum();
+	}
+
+}
@@ -0,0 +1,15 @@
+package com.bradchen.jwormhole.client;
+
+/**
+ * Picks another server once reconnecting to the current one has run out of retries.
+ */
+@FunctionalInterface
+public interface FailoverHandler {
+
+	/**
+	 * @param failedServer settings of the server given up on
+	 * @return settings of the server to move the tunnels to, or null to give up
+	 */
+	Settings nextServer(Settings failedServer);
+
+}
@@ -0,0 +1,94 @@
+package com.bradchen.jwormhole.client;
+
+import com.jcraft.jsch.HostKey;
+import com.jcraft.jsch.HostKeyRepository;
+import com.jcraft.jsch.SocketFactory;
+import com.jcraft.jsch.UserInfo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+
+/**
+ * Times the phases of an SSH handshake. Set as both the socket factory and the host key repository
+ * of a session, it sees the TCP connection get established and the server's host key arrive at
+ * the end of key exchange; authentication follows until the session is connected.
+ */
+final class HandshakeTimer implements SocketFactory, HostKeyRepository {
+
+	private final HostKeyRepository hostKeyRepository;
+	private long startTime;
+	private long connectedTime;
+	private long hostKeyTime;
+
+	HandshakeTimer(HostKeyRepository hostKeyRepository) {
+		this.hostKeyRepository = hostKeyRepository;
+		this.startTime = System.nanoTime();
+	}
+
+	/**
+	 * Records the phases of the handshake, which must have completed.
+	 */
+	void finish(PhaseTimings timings) {
+		long endTime = System.nanoTime();
+		timings.record("tcp", connectedTime - startTime);
+		timings.record("kex", hostKeyTime - connectedTime);
+		timings.record("auth", endTime - hostKeyTime);
+	}
+
+	@Override
+	public Socket createSocket(String host, int port) throws IOException {
+		startTime = System.nanoTime();
+		Socket socket = new Socket(host, port);
+		connectedTime = System.nanoTime();
+		return socket;
+	}
+
+	@Override
+	public InputStream getInputStream(Socket socket) throws IOException {
+		return socket.getInputStream();
+	}
+
+	@Override
+	public OutputStream getOutputStream(Socket socket) throws IOException {
+		return socket.getOutputStream();
+	}
+
+	@Override
+	public int check(String host, byte[] key) {
+		hostKeyTime = System.nanoTime();
+		return hostKeyRepository.check(host, key);
+	}
+
+	@Override
+	public void add(HostKey hostKey, UserInfo userInfo) {
+		hostKeyRepository.add(hostKey, userInfo);
+	}
+
+	@Override
+	public void remove(String host, String type) {
+		hostKeyRepository.remove(host, type);
+	}
+
+	@Override
+	public void remove(String host, String type, byte[] key) {
+		hostKeyRepository.remove(host, type, key);
+	}
+
+	@Override
+	public String getKnownHostsRepositoryID() {
+		return hostKeyRepository.getKnownHostsRepositoryID();
+	}
+
+	@Override
+	public HostKey[] getHostKey() {
+		return hostKeyRepository.getHostKey();
+	}
+
+	@Override
+	public HostKey[] getHostKey(String host, String type) {
+		return hostKeyRepository.getHostKey(host, type);
+	}
+
+}
@@ -0,0 +1,16 @@
+package com.bradchen.jwormhole.client;
+
+/**
+ * Handles keepalive round trips to the server crossing the configured latency threshold.
+ */
+@FunctionalInterface
+public interface LatencyDegradedHandler {
+
+	/**
+	 * @param degraded true if the round-trip time rose above the threshold, false if it fell back
+	 *                 below
+	 * @param roundTrip latest round-trip time in milliseconds
+	 */
+	void latencyChanged(boolean degraded, long roundTrip);
+
+}
@@ -0,0 +1,88 @@
+package com.bradchen.jwormhole.client;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round-trip times measured by keepalives, in microseconds: the SSH round trip to the server, and
+ * the round trip of a controller command, which adds the controller's own response time. Each is
+ * kept over the last 5 minutes and since the client started; the latter also covers the latency of
+ * every controller command, keepalive or not.
+ */
+public final class LatencyStats {
+
+	private static final long HISTOGRAM_WINDOW = TimeUnit.MINUTES.toMillis(5);
+	private static final int HISTOGRAM_SLICES = 10;
+	private static final long[] BUCKET_BOUNDS = { 250, 500, 1000, 2500, 5000, 10000, 25000, 50000,
+		100000, 250000, 500000, 1000000, 2500000, 5000000, 10000000 };
+
+	private final RollingHistogram sshRoundTrips;
+	private final RollingHistogram controllerRoundTrips;
+	private final CumulativeHistogram sshRoundTripTotals;
+	private final CumulativeHistogram controllerRoundTripTotals;
+	private final CumulativeHistogram commandLatencies;
+	private volatile long lastSshRoundTrip;
+	private volatile long lastControllerRoundTrip;
+
+	LatencyStats() {
+		this.sshRoundTrips = new RollingHistogram(HISTOGRAM_WINDOW, HISTOGRAM_SLICES);
+		this.controllerRoundTrips = new RollingHistogram(HISTOGRAM_WINDOW, HISTOGRAM_SLICES);
+		this.sshRoundTripTotals = new CumulativeHistogram(BUCKET_BOUNDS);
+		this.controllerRoundTripTotals = new CumulativeHistogram(BUCKET_BOUNDS);
+		this.commandLatencies = new CumulativeHistogram(BUCKET_BOUNDS);
+	}
+
+	void sshRoundTripMeasured(long micros) {
+		lastSshRoundTrip = micros;
+		sshRoundTrips.record(micros);
+		sshRoundTripTotals.record(micros);
+	}
+
+	void controllerRoundTripMeasured(long micros) {
+		lastControllerRoundTrip = micros;
+		controllerRoundTrips.record(micros);
+		controllerRoundTripTotals.record(micros);
+	}
+
+	void commandCompleted(long micros) {
+		commandLatencies.record(micros);
+	}
+
+	public RollingHistogram getSshRoundTrips() {
+		return sshRoundTrips;
+	}
+
+	public RollingHistogram getControllerRoundTrips() {
+		return controllerRoundTrips;
+	}
+
+	public CumulativeHistogram getSshRoundTripTotals() {
+		return sshRoundTripTotals;
+	}
+
+	public CumulativeHistogram getControllerRoundTripTotals() {
+		return controllerRoundTripTotals;
+	}
+
+	/**
+	 * Returns the time from sending each controller command to receiving its response.
+	 */
+	public CumulativeHistogram getCommandLatencies() {
+		return commandLatencies;
+	}
+
+	/**
+	 * Returns the SSH round-trip time of the latest keepalive, or 0 if none was measured yet.
+	 */
+	public long getLastSshRoundTrip() {
+		return lastSshRoundTrip;
+	}
+
+	/**
+	 * Returns the controller round-trip time of the latest keepalive, or 0 if none was measured
+	 * yet.
+	 */
+	public long getLastControllerRoundTrip() {
+		return lastControllerRoundTrip;
+	}
+
+}
@@ -0,0 +1,294 @@
+package com.bradchen.jwormhole.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Connections to a local port opened ahead of time, so that a forwarded connection need not wait
+ * for the local server to accept one. Idle connections are checked before they are handed out and
+ * closed after a few seconds, before the local server gives up on them. How many are kept open
+ * follows the rate forwarded connections arrive at, up to a maximum. HTTP connections come back
+ * once the forwarded connection using them ends between two exchanges.
+ */
+public final class LocalConnectionPool {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(LocalConnectionPool.class);
+
+	private static final String LOCALHOST = "127.0.0.1";
+	private static final int CONNECT_TIMEOUT = 1000; // in milliseconds
+	private static final long MAINTENANCE_INTERVAL = 1000; // in milliseconds
+
+	// below the 5 second keep-alive timeout of common development servers
+	private static final long MAX_IDLE_TIME = TimeUnit.SECONDS.toNanos(4);
+
+	// weight of the last interval in the arrival rate
+	private static final double RATE_WEIGHT = 0.25;
+
+	private final int port;
+	private final int maxSize;
+	private final ScheduledExecutorService executor;
+	private final AtomicBoolean refillRequested;
+	private final AtomicInteger numArrivals;
+	private final LongAdder numHits;
+	private final LongAdder numMisses;
+	private final LongAdder numReturned;
+	private final LongAdder numDiscarded;
+	private volatile int targetSize;
+	private ScheduledFuture<?> maintenanceFuture;
+
+	// guarded by this; the most recently used connection is last
+	private final Deque<IdleConnection> idleConnections;
+	private boolean closed;
+
+	// accessed by the executor only
+	private double arrivalRate;
+
+	/**
+	 * @param port local port to connect to
+	 * @param maxSize connections to keep open at most
+	 * @param executor runs the upkeep of the pool, and may be shared among pools
+	 */
+	LocalConnectionPool(int port, int maxSize, ScheduledExecutorService executor) {
+		this.port = port;
+		this.maxSize = maxSize;
+		this.executor = executor;
+		this.refillRequested = new AtomicBoolean();
+		this.numArrivals = new AtomicInteger();
+		this.numHits = new LongAdder();
+		this.numMisses = new LongAdder();
+		this.numReturned = new LongAdder();
+		this.numDiscarded = new LongAdder();
+		this.targetSize = Math.min(1, maxSize);
+		this.idleConnections = new ArrayDeque<>();
+	}
+
+	synchronized void start() {
+		maintenanceFuture = executor.scheduleWithFixedDelay(this::maintain, 0,
+			MAINTENANCE_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	void close() {
+		synchronized (this) {
+			closed = true;
+			if (maintenanceFuture != null) {
+				maintenanceFuture.cancel(false);
+			}
+			for (IdleConnection connection : idleConnections) {
+				closeQuietly(connection.channel);
+			}
+			idleConnections.clear();
+		}
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * Returns the number of idle connections the pool currently aims to keep open.
+	 */
+	public int getTargetSize() {
+		return targetSize;
+	}
+
+	public synchronized int getNumIdle() {
+		return idleConnections.size();
+	}
+
+	/**
+	 * Returns the number of forwarded connections handed an open connection.
+	 */
+	public long getNumHits() {
+		return numHits.sum();
+	}
+
+	/**
+	 * Returns the number of forwarded connections that found the pool empty.
+	 */
+	public long getNumMisses() {
+		return numMisses.sum();
+	}
+
+	/**
+	 * Returns the number of connections that came back after serving a forwarded connection.
+	 */
+	public long getNumReturned() {
+		return numReturned.sum();
+	}
+
+	/**
+	 * Returns the number of idle connections closed by the local server, or found unusable.
+	 */
+	public long getNumDiscarded() {
+		return numDiscarded.sum();
+	}
+
+	/**
+	 * Takes an open, non-blocking connection.
+	 *
+	 * @return the connection, or null if there is none
+	 */
+	SocketChannel take() {
+		numArrivals.incrementAndGet();
+		try {
+			while (true) {
+				IdleConnection connection;
+				synchronized (this) {
+					connection = idleConnections.pollLast();
+				}
+				if (connection == null) {
+					numMisses.increment();
+					return null;
+				}
+				if (isHealthy(connection.channel)) {
+					numHits.increment();
+					return connection.channel;
+				}
+				numDiscarded.increment();
+				closeQuietly(connection.channel);
+			}
+		} finally {
+			requestRefill();
+		}
+	}
+
+	/**
+	 * Takes back a connection that is between HTTP exchanges, or closes it if the pool is full.
+	 */
+	void giveBack(SocketChannel channel) {
+		if (isHealthy(channel)) {
+			synchronized (this) {
+				if (!closed && (idleConnections.size() < maxSize)) {
+					idleConnections.addLast(new IdleConnection(channel, System.nanoTime()));
+					numReturned.increment();
+					return;
+				}
+			}
+		}
+		closeQuietly(channel);
+	}
+
+	private void maintain() {
+		int numRecent = numArrivals.getAndSet(0);
+		arrivalRate += (numRecent - arrivalRate) * RATE_WEIGHT;
+
+		// enough connections for the arrivals expected until the next upkeep
+		targetSize = Math.max(Math.min((int)Math.ceil(arrivalRate), maxSize), Math.min(1, maxSize));
+		long now = System.nanoTime();
+		synchronized (this) {
+			Iterator<IdleConnection> iterator = idleConnections.iterator();
+			while (iterator.hasNext()) {
+				IdleConnection connection = iterator.next();
+				boolean expired = (now - connection.idleSince) > MAX_IDLE_TIME;
+				if (expired || !isHealthy(connection.channel)) {
+					if (!expired) {
+						numDiscarded.increment();
+					}
+					closeQuietly(connection.channel);
+					iterator.remove();
+				}
+			}
+			while (idleConnections.size() > targetSize) {
+				closeQuietly(idleConnections.pollFirst().channel);
+			}
+		}
+		refill();
+	}
+
+	private void requestRefill() {
+		if (refillRequested.compareAndSet(false, true)) {
+			try {
+				executor.execute(this::refill);
+			} catch (RejectedExecutionException exception) {
+				refillRequested.set(false);
+			}
+		}
+	}
+
+	private void refill() {
+		refillRequested.set(false);
+		while (true) {
+			synchronized (this) {
+				if (closed || (idleConnections.size() >= targetSize)) {
+					return;
+				}
+			}
+
+			SocketChannel channel;
+			try {
+				channel = connect();
+			} catch (IOException exception) {
+				LOGGER.debug("Unable to open pooled connection to local port " + port + ".",
+					exception);
+				return;
+			}
+			synchronized (this) {
+				if (closed) {
+					closeQuietly(channel);
+					return;
+				}
+				idleConnections.addLast(new IdleConnection(channel, System.nanoTime()));
+			}
+		}
+	}
+
+	private SocketChannel connect() throws IOException {
+		SocketChannel channel = SocketChannel.open();
+		try {
+			channel.socket().connect(new InetSocketAddress(LOCALHOST, port), CONNECT_TIMEOUT);
+			channel.configureBlocking(false);
+			channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+			return channel;
+		} catch (IOException exception) {
+			closeQuietly(channel);
+			throw exception;
+		}
+	}
+
+	/**
+	 * Returns true if the local server neither closed the connection nor sent anything unasked.
+	 */
+	private static boolean isHealthy(SocketChannel channel) {
+		try {
+			return channel.isOpen() && (channel.read(ByteBuffer.allocate(1)) == 0);
+		} catch (IOException exception) {
+			return false;
+		}
+	}
+
+	private static void closeQuietly(SocketChannel channel) {
+		try {
+			channel.close();
+		} catch (IOException ignored) {
+		}
+	}
+
+	private static final class IdleConnection {
+
+		private final SocketChannel channel;
+		private final long idleSince;
+
+		private IdleConnection(SocketChannel channel, long idleSince) {
+			this.channel = channel;
+			this.idleSince = idleSince;
+		}
+
+	}
+
+}
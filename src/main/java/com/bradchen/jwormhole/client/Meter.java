@@ -0,0 +1,110 @@
+package com.bradchen.jwormhole.client;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Counts events and tracks their exponentially weighted moving average rates over 1, 5 and 15
+ * minutes, the same way Unix load averages are computed. Marking is lock-free; the averages are
+ * updated every 5 seconds by whichever thread first notices they are due.
+ */
+public final class Meter {
+
+	private static final long TICK_INTERVAL = 5000; // in milliseconds
+	private static final double TICK_SECONDS = TICK_INTERVAL / 1000.0;
+
+	private final LongSupplier clock;
+	private final LongAdder count;
+	private final LongAdder uncounted;
+	private final AtomicLong lastTick;
+	private final MovingAverage oneMinuteRate;
+	private final MovingAverage fiveMinuteRate;
+	private final MovingAverage fifteenMinuteRate;
+
+	public Meter() {
+		this(System::currentTimeMillis);
+	}
+
+	Meter(LongSupplier clock) {
+		this.clock = clock;
+		this.count = new LongAdder();
+		this.uncounted = new LongAdder();
+		this.lastTick = new AtomicLong(clock.getAsLong());
+		this.oneMinuteRate = new MovingAverage(1);
+		this.fiveMinuteRate = new MovingAverage(5);
+		this.fifteenMinuteRate = new MovingAverage(15);
+	}
+
+	public void mark(long numEvents) {
+		tickIfNecessary();
+		count.add(numEvents);
+		uncounted.add(numEvents);
+	}
+
+	public long getCount() {
+		return count.sum();
+	}
+
+	/**
+	 * Returns the average number of events per second over the last minute.
+	 */
+	public double getOneMinuteRate() {
+		tickIfNecessary();
+		return oneMinuteRate.rate;
+	}
+
+	public double getFiveMinuteRate() {
+		tickIfNecessary();
+		return fiveMinuteRate.rate;
+	}
+
+	public double getFifteenMinuteRate() {
+		tickIfNecessary();
+		return fifteenMinuteRate.rate;
+	}
+
+	private void tickIfNecessary() {
+		long oldTick = lastTick.get();
+		long age = clock.getAsLong() - oldTick;
+		if (age < TICK_INTERVAL) {
+			return;
+		}
+
+		long newTick = oldTick + age - (age % TICK_INTERVAL);
+		if (!lastTick.compareAndSet(oldTick, newTick)) {
+			return;
+		}
+
+		// events of the current tick are attributed to the first tick due; the rest saw none
+		double instantRate = uncounted.sumThenReset() / TICK_SECONDS;
+		for (long i = age / TICK_INTERVAL; i > 0; i--) {
+			oneMinuteRate.update(instantRate);
+			fiveMinuteRate.update(instantRate);
+			fifteenMinuteRate.update(instantRate);
+			instantRate = 0;
+		}
+	}
+
+	private static final class MovingAverage {
+
+		private final double alpha;
+		private volatile double rate;
+		private boolean initialized;
+
+		private MovingAverage(int minutes) {
+			this.alpha = 1 - Math.exp(-TICK_SECONDS / 60 / minutes);
+		}
+
+		private void update(double instantRate) {
+			if (initialized) {
+				rate += alpha * (instantRate - rate);
+			} else {
+				rate = instantRate;
+				initialized = true;
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,46 @@
+package com.bradchen.jwormhole.client;
+
+import com.jcraft.jsch.Compression;
+
+/**
+ * The zlib compression of JSch, with its ratio and CPU time recorded in {@link #STATS}. JSch
+ * instantiates this class by name, so it must stay public with a public constructor.
+ */
+public final class MeteredCompression implements Compression {
+
+	static final CompressionStats STATS = new CompressionStats();
+
+	private final Compression compression;
+
+	public MeteredCompression() {
+		this.compression = new com.jcraft.jsch.jcraft.Compression();
+	}
+
+	@Override
+	public void init(int type, int level) {
+		compression.init(type, level);
+	}
+
+	@Override
+	public byte[] compress(byte[] buf, int start, int[] len) {
+		// len holds the end index of the payload
+		int uncompressed = len[0] - start;
+		long startTime = System.nanoTime();
+		byte[] result = compression.compress(buf, start, len);
+		STATS.record(uncompressed, len[0] - start, System.nanoTime() - startTime);
+		return result;
+	}
+
+	@Override
+	public byte[] uncompress(byte[] buf, int start, int[] len) {
+		// len holds the length of the payload
+		int compressed = len[0];
+		long startTime = System.nanoTime();
+		byte[] result = compression.uncompress(buf, start, len);
+		if (result != null) {
+			STATS.record(len[0], compressed, System.nanoTime() - startTime);
+		}
+		return result;
+	}
+
+}
@@ -0,0 +1,34 @@
+package com.bradchen.jwormhole.client;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * How long each phase of connecting and creating tunnels took, in the order the phases ended.
+ * Phases that run again replace their earlier timing.
+ */
+public final class PhaseTimings {
+
+	private final Map<String, Long> phases;
+
+	PhaseTimings() {
+		this.phases = new LinkedHashMap<>();
+	}
+
+	/**
+	 * @param phase name of the phase, e.g. "dns"
+	 * @param duration duration in nanoseconds
+	 */
+	public synchronized void record(String phase, long duration) {
+		phases.remove(phase);
+		phases.put(phase, duration);
+	}
+
+	/**
+	 * Returns the duration of each phase in nanoseconds.
+	 */
+	public synchronized Map<String, Long> getPhases() {
+		return new LinkedHashMap<>(phases);
+	}
+
+}
@@ -0,0 +1,605 @@
+package com.bradchen.jwormhole.client;
+
+import com.bradchen.jwormhole.client.http.KeepAliveTracker;
+import com.bradchen.jwormhole.client.http.TrafficCapture;
+import com.bradchen.jwormhole.client.logging.Trace;
+import com.jcraft.jsch.Channel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A forwarded connection relayed between an SSH channel and a local port. JSch threads push data
+ * from the server into the remote sink and pull data for the server from the remote source, while
+ * a selector thread of the {@link RelayEngine} moves data to and from the local port.
+ *
+ * Each direction buffers up to {@link #MAX_QUEUED_BYTES}. Past that, reading from the local port
+ * pauses, or the SSH session thread waits for the local port to catch up, which holds up every
+ * other channel of the session meanwhile. A connection still waiting to be admitted has no local
+ * port to catch up with, so it is refused instead. Reading from and writing to the local port also
+ * pause while the tunnel is over its bandwidth limits.
+ *
+ * With a {@link LocalConnectionPool}, the local side starts out on a connection opened ahead of
+ * time, and goes back to the pool if the server stops sending between two HTTP exchanges.
+ *
+ * Every connection gets a trace identifier, logged along with the domain name of its tunnel.
+ */
+final class RelayConnection {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(RelayConnection.class);
+
+	private static final String LOCALHOST = "127.0.0.1";
+	private static final int MAX_QUEUED_BYTES = 256 * 1024;
+
+	private final RelayEngine engine;
+	private final BufferPool bufferPool;
+	private final Channel channel;
+	private final String domainName;
+	private final String traceId;
+	private final int localPort;
+	private final SessionStats stats;
+	private final TunnelStats tunnelStats;
+	private final TrafficCapture capture;
+	private final TunnelLimits limits;
+	private final LocalConnectionPool localPool;
+	private final KeepAliveTracker keepAlive;
+	private final InputStream remoteSource;
+	private final OutputStream remoteSink;
+	private final AtomicBoolean updateRequested;
+	private volatile RelayEngine.IoExecutor ioExecutor;
+	private boolean admitted;
+
+	// guarded by this
+	private boolean admissionPending;
+	private Thread admittingThread;
+	private boolean overflowed;
+	private final Deque<ByteBuffer> toLocal;
+	private final Deque<ByteBuffer> toRemote;
+	private int numToLocalBytes;
+	private int numToRemoteBytes;
+	private boolean remoteEof;
+	private boolean localEof;
+	private boolean closeRequested;
+	private boolean closed;
+
+	// accessed by the selector thread only
+	private SocketChannel socket;
+	private SelectionKey key;
+	private boolean outputShutdown;
+	private long openTime;
+	private boolean firstByteSent;
+	private boolean readPaused;
+	private boolean writePaused;
+	private boolean awaitingResponse;
+	private boolean socketReleased;
+
+	/**
+	 * @param localPool connections to the local port opened ahead of time; may be null
+	 * @param capture receives the traffic to inspect; may be null
+	 */
+	RelayConnection(RelayEngine engine, Channel channel, String domainName, int localPort,
+					SessionStats stats, TunnelStats tunnelStats, TunnelLimits limits,
+					LocalConnectionPool localPool, TrafficCapture capture) {
+		this.engine = engine;
+		this.bufferPool = engine.getBufferPool();
+		this.channel = channel;
+		this.domainName = domainName;
+		this.traceId = Trace.newConnectionId();
+		this.localPort = localPort;
+		this.stats = stats;
+		this.tunnelStats = tunnelStats;
+		this.capture = capture;
+		this.limits = limits;
+		this.localPool = localPool;
+		this.keepAlive = (localPool == null) ? null : new KeepAliveTracker();
+		this.remoteSource = new RemoteSource();
+		this.remoteSink = new RemoteSink();
+		this.updateRequested = new AtomicBoolean();
+		this.toLocal = new ArrayDeque<>();
+		this.toRemote = new ArrayDeque<>();
+		this.admissionPending = true;
+	}
+
+	RelayEngine getEngine() {
+		return engine;
+	}
+
+	/**
+	 * Sets the tunnel and the connection as the context of log events until the scope closes.
+	 */
+	Trace.Scope trace() {
+		return Trace.connection(domainName, traceId);
+	}
+
+	/**
+	 * Returns the stream JSch reads the data to send to the server from.
+	 */
+	InputStream getRemoteSource() {
+		return remoteSource;
+	}
+
+	/**
+	 * Returns the stream JSch writes the data received from the server to.
+	 */
+	OutputStream getRemoteSink() {
+		return remoteSink;
+	}
+
+	/**
+	 * Waits until the limits of the tunnel let the connection be relayed. The wait ends early if
+	 * the server sends more than can be buffered meanwhile.
+	 *
+	 * @return false if the connection is refused
+	 */
+	boolean admit() throws InterruptedException {
+		synchronized (this) {
+			admittingThread = Thread.currentThread();
+		}
+		boolean result;
+		try {
+			result = limits.admit(tunnelStats);
+		} catch (InterruptedException exception) {
+			synchronized (this) {
+				if (!overflowed) {
+					throw exception;
+				}
+			}
+			result = false;
+		}
+
+		synchronized (this) {
+			admissionPending = false;
+			admittingThread = null;
+			if (overflowed) {
+				// the interrupt may come after the wait ended
+				Thread.interrupted();
+				if (result) {
+					limits.release();
+				}
+				tunnelStats.connectionRejected();
+				return false;
+			}
+		}
+		admitted = result;
+		return admitted;
+	}
+
+	/**
+	 * Refuses a connection that was not admitted.
+	 */
+	void reject() {
+		synchronized (this) {
+			closed = true;
+			notifyAll();
+		}
+		if (capture != null) {
+			capture.close();
+		}
+		channel.disconnect();
+	}
+
+	void open(Selector selector, RelayEngine.IoExecutor ioExecutor) {
+		this.ioExecutor = ioExecutor;
+		openTime = System.nanoTime();
+		try {
+			socket = (localPool == null) ? null : localPool.take();
+			if (socket == null) {
+				socket = SocketChannel.open();
+				socket.configureBlocking(false);
+				socket.setOption(StandardSocketOptions.TCP_NODELAY, true);
+				socket.connect(new InetSocketAddress(LOCALHOST, localPort));
+			}
+			key = register(selector);
+			stats.connectionOpened();
+			tunnelStats.connectionOpened();
+			updateInterest();
+		} catch (IOException exception) {
+			Trace.Scope scope = trace();
+			try {
+				LOGGER.debug("Unable to connect to local port " + localPort + ".", exception);
+			} finally {
+				scope.close();
+			}
+			closeNow();
+			channel.disconnect();
+		}
+	}
+
+	private SelectionKey register(Selector selector) throws IOException {
+		try {
+			return socket.register(selector, 0, this);
+		} catch (CancelledKeyException exception) {
+			// a pooled connection released on this selector keeps its old key until the next select
+			selector.selectNow();
+			return socket.register(selector, 0, this);
+		}
+	}
+
+	void handle(SelectionKey selectedKey) {
+		try {
+			if (selectedKey.isConnectable() && !socket.finishConnect()) {
+				return;
+			}
+			if (selectedKey.isReadable()) {
+				readLocal();
+			}
+			if (selectedKey.isValid() && selectedKey.isWritable()) {
+				writeLocal();
+			}
+			updateInterest();
+		} catch (IOException exception) {
+			Trace.Scope scope = trace();
+			try {
+				LOGGER.debug("Relay to local port " + localPort + " failed.", exception);
+			} finally {
+				scope.close();
+			}
+			closeNow();
+			channel.disconnect();
+		}
+	}
+
+	/**
+	 * Closes the connection after relaying it threw, so that the selector thread may go on.
+	 */
+	void fail(RuntimeException exception) {
+		Trace.Scope scope = trace();
+		try {
+			LOGGER.error("Relay to local port " + localPort + " failed unexpectedly.", exception);
+			closeNow();
+			channel.disconnect();
+		} catch (RuntimeException closeException) {
+			LOGGER.error("Unable to close connection to local port " + localPort + ".",
+				closeException);
+		} finally {
+			scope.close();
+		}
+	}
+
+	void closeNow() {
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			releaseAll(toLocal);
+			releaseAll(toRemote);
+			numToLocalBytes = 0;
+			numToRemoteBytes = 0;
+			notifyAll();
+		}
+
+		if (key != null) {
+			key.cancel();
+			tunnelStats.connectionClosed(
+				TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - openTime));
+		}
+		if (socket != null) {
+			try {
+				socket.close();
+			} catch (IOException ignored) {
+			}
+		}
+		if (capture != null) {
+			capture.close();
+		}
+		if (admitted) {
+			limits.release();
+		}
+		engine.connectionClosed();
+	}
+
+	private void readLocal() throws IOException {
+		ByteBuffer buffer = bufferPool.acquire();
+		int numBytes;
+		try {
+			numBytes = socket.read(buffer);
+		} catch (IOException exception) {
+			bufferPool.release(buffer);
+			throw exception;
+		}
+
+		if (numBytes <= 0) {
+			bufferPool.release(buffer);
+			if (numBytes < 0) {
+				synchronized (this) {
+					localEof = true;
+					notifyAll();
+				}
+			}
+			return;
+		}
+
+		buffer.flip();
+		if (capture != null) {
+			capture.captureResponse(buffer);
+		}
+		if (keepAlive != null) {
+			keepAlive.responseReceived(buffer);
+		}
+		stats.addBytesSent(numBytes);
+		tunnelStats.addBytesSent(numBytes);
+		if (!firstByteSent) {
+			firstByteSent = true;
+			tunnelStats.firstByteSent(
+				TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - openTime));
+		}
+		synchronized (this) {
+			toRemote.add(buffer);
+			numToRemoteBytes += numBytes;
+			notifyAll();
+		}
+
+		long delay = limits.bytesSent(numBytes);
+		if (delay > 0) {
+			readPaused = true;
+			ioExecutor.schedule(() -> {
+				readPaused = false;
+				updateInterest();
+			}, delay);
+		}
+		if (awaitingResponse) {
+			finishLocalOutput();
+		}
+	}
+
+	private synchronized void writeLocal() throws IOException {
+		while (!writePaused && !toLocal.isEmpty()) {
+			ByteBuffer buffer = toLocal.peek();
+			int numBytes = socket.write(buffer);
+			numToLocalBytes -= numBytes;
+			stats.addBytesReceived(numBytes);
+			tunnelStats.addBytesReceived(numBytes);
+			long delay = limits.bytesReceived(numBytes);
+			if (delay > 0) {
+				writePaused = true;
+				ioExecutor.schedule(() -> {
+					writePaused = false;
+					updateInterest();
+				}, delay);
+			}
+			if (buffer.hasRemaining()) {
+				break;
+			}
+			toLocal.poll();
+			bufferPool.release(buffer);
+		}
+		notifyAll();
+		finishLocalOutput();
+	}
+
+	/**
+	 * Ends the output to the local port once the server sent all it will. A pooled connection
+	 * between HTTP exchanges goes back to the pool instead, possibly after the response under way.
+	 */
+	private synchronized void finishLocalOutput() throws IOException {
+		if (!remoteEof || !toLocal.isEmpty() || writePaused || outputShutdown) {
+			return;
+		}
+
+		if (keepAlive != null) {
+			if (keepAlive.isReusable()) {
+				releaseSocket();
+				return;
+			}
+			awaitingResponse = keepAlive.isResponsePending();
+			if (awaitingResponse) {
+				return;
+			}
+		}
+		socket.shutdownOutput();
+		outputShutdown = true;
+	}
+
+	private void releaseSocket() {
+		key.cancel();
+		SocketChannel released = socket;
+		socket = null;
+		socketReleased = true;
+		synchronized (this) {
+			localEof = true;
+			notifyAll();
+		}
+		localPool.giveBack(released);
+	}
+
+	private void updateInterest() {
+		updateRequested.set(false);
+		if (socketReleased) {
+			// the connection closes once the server has read all the local port sent
+			boolean close;
+			synchronized (this) {
+				close = closeRequested;
+			}
+			if (close) {
+				closeNow();
+			}
+			return;
+		}
+		if ((key == null) || !key.isValid()) {
+			return;
+		}
+
+		int ops = 0;
+		synchronized (this) {
+			if (closeRequested && toLocal.isEmpty()) {
+				ops = -1;
+			} else if (socket.isConnectionPending()) {
+				ops = SelectionKey.OP_CONNECT;
+			} else {
+				if (!localEof && !readPaused && (numToRemoteBytes < MAX_QUEUED_BYTES)) {
+					ops |= SelectionKey.OP_READ;
+				}
+				if (!writePaused && (!toLocal.isEmpty()
+						|| (remoteEof && !outputShutdown && !awaitingResponse))) {
+					ops |= SelectionKey.OP_WRITE;
+				}
+			}
+		}
+
+		if (ops < 0) {
+			// the channel may close before the end of its data was seen
+			if ((keepAlive != null) && !outputShutdown && keepAlive.isReusable()) {
+				releaseSocket();
+			}
+			closeNow();
+		} else {
+			key.interestOps(ops);
+		}
+	}
+
+	private void requestUpdate() {
+		RelayEngine.IoExecutor executor = ioExecutor;
+		if ((executor != null) && updateRequested.compareAndSet(false, true)) {
+			executor.execute(this::updateInterest);
+		}
+	}
+
+	private void requestClose() {
+		synchronized (this) {
+			closeRequested = true;
+			notifyAll();
+		}
+		requestUpdate();
+	}
+
+	private void releaseAll(Deque<ByteBuffer> buffers) {
+		for (ByteBuffer buffer : buffers) {
+			bufferPool.release(buffer);
+		}
+		buffers.clear();
+	}
+
+	private void await() throws InterruptedIOException {
+		try {
+			wait();
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+	}
+
+	private final class RemoteSource extends InputStream {
+
+		@Override
+		public int read() throws IOException {
+			byte[] bytes = new byte[1];
+			return (read(bytes, 0, 1) < 0) ? -1 : (bytes[0] & 0xff);
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length) throws IOException {
+			if (length == 0) {
+				return 0;
+			}
+
+			boolean resume;
+			int numBytes;
+			synchronized (RelayConnection.this) {
+				while (toRemote.isEmpty() && !localEof && !closed) {
+					await();
+				}
+				if (toRemote.isEmpty()) {
+					return -1;
+				}
+
+				ByteBuffer buffer = toRemote.peek();
+				numBytes = Math.min(length, buffer.remaining());
+				buffer.get(bytes, offset, numBytes);
+				if (!buffer.hasRemaining()) {
+					toRemote.poll();
+					bufferPool.release(buffer);
+				}
+				resume = (numToRemoteBytes >= MAX_QUEUED_BYTES)
+					&& ((numToRemoteBytes - numBytes) < MAX_QUEUED_BYTES);
+				numToRemoteBytes -= numBytes;
+			}
+
+			// reading from the local port was paused when the queue filled up
+			if (resume) {
+				requestUpdate();
+			}
+			return numBytes;
+		}
+
+		@Override
+		public void close() {
+			requestClose();
+		}
+
+	}
+
+	private final class RemoteSink extends OutputStream {
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte)b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] bytes, int offset, int length) throws IOException {
+			// captured before the local port can see the bytes, so that requests are always
+			// captured ahead of their responses
+			if (capture != null) {
+				capture.captureRequest(bytes, offset, length);
+			}
+			if (keepAlive != null) {
+				keepAlive.requestSent(bytes, offset, length);
+			}
+			synchronized (RelayConnection.this) {
+				if (admissionPending && (numToLocalBytes + length > MAX_QUEUED_BYTES)) {
+					// waiting here would hold up the session until the connection is admitted
+					overflowed = true;
+					if (admittingThread != null) {
+						admittingThread.interrupt();
+					}
+					throw new IOException("Too much data for a connection waiting to be admitted.");
+				}
+				while ((numToLocalBytes >= MAX_QUEUED_BYTES) && !closed) {
+					await();
+				}
+				if (closed) {
+					throw new IOException("Relayed connection closed.");
+				}
+
+				while (length > 0) {
+					ByteBuffer buffer = bufferPool.acquire();
+					int numBytes = Math.min(length, buffer.remaining());
+					buffer.put(bytes, offset, numBytes);
+					buffer.flip();
+					toLocal.add(buffer);
+					numToLocalBytes += numBytes;
+					offset += numBytes;
+					length -= numBytes;
+				}
+			}
+			requestUpdate();
+		}
+
+		@Override
+		public void close() {
+			// the server will send no more data
+			synchronized (RelayConnection.this) {
+				remoteEof = true;
+			}
+			requestUpdate();
+		}
+
+	}
+
+}
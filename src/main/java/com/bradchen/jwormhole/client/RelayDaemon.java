@@ -0,0 +1,77 @@
+package com.bradchen.jwormhole.client;
+
+import com.bradchen.jwormhole.client.http.HttpInspector;
+import com.bradchen.jwormhole.client.http.TrafficCapture;
+import com.bradchen.jwormhole.client.logging.Trace;
+import com.jcraft.jsch.ChannelForwardedTCPIP;
+import com.jcraft.jsch.ForwardedTCPIPDaemon;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Hands connections forwarded by the server over to the {@link RelayEngine}. JSch instantiates
+ * this class by name for every forwarded connection, so it must stay public with a public
+ * constructor. The arguments are the engine, the port to connect to, the {@link SessionStats}, the
+ * {@link TunnelStats}, the {@link HttpInspector} (null if traffic is not inspected) and the
+ * {@link Tunnel}.
+ *
+ * JSch runs every daemon on a thread of its own, so a connection over the limits of its tunnel
+ * waits for its turn there, without holding up the session. Should the server send more than the
+ * connection can buffer meanwhile, it is refused rather than stall the session.
+ */
+public final class RelayDaemon implements ForwardedTCPIPDaemon {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(RelayDaemon.class);
+
+	private ChannelForwardedTCPIP channel;
+	private RelayConnection connection;
+
+	@Override
+	public void setChannel(ChannelForwardedTCPIP channel, InputStream in, OutputStream out) {
+		this.channel = channel;
+	}
+
+	@Override
+	public void setArg(Object[] args) {
+		RelayEngine engine = (RelayEngine)args[0];
+		int localPort = (Integer)args[1];
+		SessionStats stats = (SessionStats)args[2];
+		TunnelStats tunnelStats = (TunnelStats)args[3];
+		HttpInspector inspector = (HttpInspector)args[4];
+		Tunnel tunnel = (Tunnel)args[5];
+		TrafficCapture capture = (inspector == null) ? null
+			: inspector.capture(tunnel.getDomainName(), tunnel.getLocalPort());
+		connection = new RelayConnection(engine, channel, tunnel.getDomainName(), localPort, stats,
+			tunnelStats, tunnel.getLimits(), tunnel.getLocalPool(), capture);
+
+		// JSch relays the channel through these streams; replace its pipes with the relay's own
+		// before the channel starts reading
+		channel.setInputStream(connection.getRemoteSource());
+		channel.setOutputStream(connection.getRemoteSink());
+	}
+
+	@Override
+	public void run() {
+		boolean admitted = false;
+		try {
+			admitted = connection.admit();
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+		}
+		if (admitted) {
+			connection.getEngine().register(connection);
+		} else {
+			Trace.Scope scope = connection.trace();
+			try {
+				LOGGER.debug("Connection refused over the limits of the tunnel.");
+			} finally {
+				scope.close();
+			}
+			connection.reject();
+		}
+	}
+
+}
@@ -0,0 +1,257 @@
+package com.bradchen.jwormhole.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Relays forwarded connections to local ports with a small, fixed set of selector threads. The
+ * local side of every connection is non-blocking, and data from the server is buffered for each
+ * local port, so the SSH session thread that delivers data for all connections of its session
+ * only waits once a local server leaves a full buffer unread. JSch gives no way to hold back the
+ * channel window instead, so that wait stalls the other connections of the session until the slow
+ * one catches up or closes.
+ *
+ * A connection whose relaying throws is closed on its own; the selector thread goes on with the
+ * other connections.
+ */
+public final class RelayEngine {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(RelayEngine.class);
+
+	private static final int BUFFER_SIZE = 16 * 1024;
+	private static final int MAX_POOLED_BUFFERS = 256;
+	private static final long SHUTDOWN_TIMEOUT = 1000; // in milliseconds
+
+	private final BufferPool bufferPool;
+	private final IoThread[] ioThreads;
+	private final Thread[] threads;
+	private final AtomicInteger nextIoThread;
+	private final AtomicInteger numConnections;
+	private final LongAdder numTotalConnections;
+	private boolean started;
+
+	RelayEngine(int numIoThreads) {
+		this.bufferPool = new BufferPool(BUFFER_SIZE, MAX_POOLED_BUFFERS);
+		this.ioThreads = new IoThread[Math.max(numIoThreads, 1)];
+		this.threads = new Thread[ioThreads.length];
+		this.nextIoThread = new AtomicInteger();
+		this.numConnections = new AtomicInteger();
+		this.numTotalConnections = new LongAdder();
+	}
+
+	public BufferPool getBufferPool() {
+		return bufferPool;
+	}
+
+	public int getNumIoThreads() {
+		return ioThreads.length;
+	}
+
+	/**
+	 * Returns the number of connections currently relayed.
+	 */
+	public int getNumConnections() {
+		return numConnections.get();
+	}
+
+	public long getNumTotalConnections() {
+		return numTotalConnections.sum();
+	}
+
+	synchronized void start() throws IOException {
+		if (started) {
+			return;
+		}
+
+		for (int i = 0; i < ioThreads.length; i++) {
+			ioThreads[i] = new IoThread(Selector.open());
+			threads[i] = new Thread(ioThreads[i], "jwormhole-relay-" + i);
+			threads[i].setDaemon(true);
+			threads[i].start();
+		}
+		started = true;
+	}
+
+	synchronized void shutdown() {
+		if (!started) {
+			return;
+		}
+
+		for (IoThread ioThread : ioThreads) {
+			ioThread.shutdown();
+		}
+
+		// connections are closed by their own threads
+		try {
+			for (Thread thread : threads) {
+				thread.join(SHUTDOWN_TIMEOUT);
+			}
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+		}
+		started = false;
+	}
+
+	void register(RelayConnection connection) {
+		IoThread ioThread = ioThreads[Math.abs(nextIoThread.getAndIncrement() % ioThreads.length)];
+		numConnections.incrementAndGet();
+		numTotalConnections.increment();
+		IoExecutor executor = ioThread.executorFor(connection);
+		executor.execute(() -> connection.open(ioThread.selector, executor));
+	}
+
+	void connectionClosed() {
+		numConnections.decrementAndGet();
+	}
+
+	/**
+	 * Runs tasks of a connection on its selector thread. The connection is closed if a task
+	 * throws.
+	 */
+	interface IoExecutor extends Executor {
+
+		/**
+		 * Runs a task after a delay. Must be called from the selector thread.
+		 *
+		 * @param delay delay in nanoseconds
+		 */
+		void schedule(Runnable task, long delay);
+
+	}
+
+	private static final class IoThread implements Runnable {
+
+		private final Selector selector;
+		private final Queue<Task> tasks;
+		private volatile boolean running;
+
+		// accessed by this thread only
+		private final PriorityQueue<Task> timedTasks;
+
+		private IoThread(Selector selector) {
+			this.selector = selector;
+			this.tasks = new ConcurrentLinkedQueue<>();
+			this.timedTasks = new PriorityQueue<>();
+			this.running = true;
+		}
+
+		private IoExecutor executorFor(RelayConnection connection) {
+			return new IoExecutor() {
+				@Override
+				public void execute(Runnable task) {
+					tasks.add(new Task(0, connection, task));
+					selector.wakeup();
+				}
+
+				@Override
+				public void schedule(Runnable task, long delay) {
+					timedTasks.add(new Task(System.nanoTime() + delay, connection, task));
+				}
+			};
+		}
+
+		private long getSelectTimeout() {
+			Task next = timedTasks.peek();
+			if (next == null) {
+				return 0;
+			}
+
+			// 0 would wait forever
+			long remaining = next.time - System.nanoTime();
+			return Math.max(TimeUnit.NANOSECONDS.toMillis(remaining + 999999), 1);
+		}
+
+		private void runTimedTasks() {
+			long now = System.nanoTime();
+			while (!timedTasks.isEmpty() && ((timedTasks.peek().time - now) <= 0)) {
+				timedTasks.poll().run();
+			}
+		}
+
+		private void shutdown() {
+			running = false;
+			selector.wakeup();
+		}
+
+		@Override
+		public void run() {
+			while (running) {
+				try {
+					selector.select(getSelectTimeout());
+				} catch (IOException exception) {
+					LOGGER.error("Relay selector failed.", exception);
+					break;
+				}
+
+				Task task;
+				while ((task = tasks.poll()) != null) {
+					task.run();
+				}
+				runTimedTasks();
+
+				for (SelectionKey key : selector.selectedKeys()) {
+					if (key.isValid()) {
+						RelayConnection connection = (RelayConnection)key.attachment();
+						try {
+							connection.handle(key);
+						} catch (RuntimeException exception) {
+							connection.fail(exception);
+						}
+					}
+				}
+				selector.selectedKeys().clear();
+			}
+
+			for (SelectionKey key : selector.keys()) {
+				((RelayConnection)key.attachment()).closeNow();
+			}
+			try {
+				selector.close();
+			} catch (IOException ignored) {
+			}
+		}
+
+	}
+
+	/**
+	 * Task of a connection; the time only matters for scheduled tasks.
+	 */
+	private static final class Task implements Comparable<Task> {
+
+		private final long time;
+		private final RelayConnection connection;
+		private final Runnable task;
+
+		private Task(long time, RelayConnection connection, Runnable task) {
+			this.time = time;
+			this.connection = connection;
+			this.task = task;
+		}
+
+		private void run() {
+			try {
+				task.run();
+			} catch (RuntimeException exception) {
+				connection.fail(exception);
+			}
+		}
+
+		@Override
+		public int compareTo(Task other) {
+			return Long.compare(time - other.time, 0);
+		}
+
+	}
+
+}
@@ -0,0 +1,167 @@
+package com.bradchen.jwormhole.client;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+
+/**
+ * Lock-free histogram of the values recorded over a sliding time window. Values are counted in
+ * log-linear buckets, 16 per power of two, which bounds the relative error to about 6%. The window
+ * is split into slices that are recycled as time passes, so recording never allocates.
+ *
+ * Slices are recycled without locking, so a few values recorded right at a slice boundary may be
+ * lost. This is fine for monitoring, but makes the histogram unsuitable for exact accounting.
+ */
+public final class RollingHistogram {
+
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int NUM_SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int MAX_EXPONENT = 40;
+	private static final int NUM_BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * NUM_SUB_BUCKETS;
+	private static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+
+	private final long sliceLength;
+	private final int numSlices;
+	private final LongSupplier clock;
+	private final AtomicLongArray counts;
+	private final AtomicLongArray sums;
+	private final AtomicLongArray maxima;
+	private final AtomicLongArray sliceEpochs;
+
+	/**
+	 * @param window length of the window in milliseconds
+	 * @param numSlices number of slices the window is split into
+	 */
+	public RollingHistogram(long window, int numSlices) {
+		this(window, numSlices, System::currentTimeMillis);
+	}
+
+	RollingHistogram(long window, int numSlices, LongSupplier clock) {
+		this.sliceLength = Math.max(window / numSlices, 1);
+		this.numSlices = numSlices;
+		this.clock = clock;
+		this.counts = new AtomicLongArray(numSlices * NUM_BUCKETS);
+		this.sums = new AtomicLongArray(numSlices);
+		this.maxima = new AtomicLongArray(numSlices);
+		this.sliceEpochs = new AtomicLongArray(numSlices);
+		for (int i = 0; i < numSlices; i++) {
+			sliceEpochs.set(i, -1);
+		}
+	}
+
+	public void record(long value) {
+		long clampedValue = Math.min(Math.max(value, 0), MAX_VALUE);
+		long epoch = clock.getAsLong() / sliceLength;
+		int slice = (int)(epoch % numSlices);
+		long sliceEpoch = sliceEpochs.get(slice);
+		if ((sliceEpoch != epoch) && sliceEpochs.compareAndSet(slice, sliceEpoch, epoch)) {
+			// this slice last held values of an earlier window
+			for (int i = 0; i < NUM_BUCKETS; i++) {
+				counts.set(slice * NUM_BUCKETS + i, 0);
+			}
+			sums.set(slice, 0);
+			maxima.set(slice, 0);
+		}
+
+		counts.incrementAndGet(slice * NUM_BUCKETS + getBucketIndex(clampedValue));
+		sums.addAndGet(slice, clampedValue);
+		maxima.accumulateAndGet(slice, clampedValue, Math::max);
+	}
+
+	/**
+	 * Returns the values recorded within the window.
+	 */
+	public Snapshot getSnapshot() {
+		long[] bucketCounts = new long[NUM_BUCKETS];
+		long sum = 0;
+		long max = 0;
+		long currentEpoch = clock.getAsLong() / sliceLength;
+		for (int slice = 0; slice < numSlices; slice++) {
+			long sliceEpoch = sliceEpochs.get(slice);
+			if ((sliceEpoch < 0) || (sliceEpoch <= currentEpoch - numSlices)) {
+				continue;
+			}
+
+			for (int i = 0; i < NUM_BUCKETS; i++) {
+				bucketCounts[i] += counts.get(slice * NUM_BUCKETS + i);
+			}
+			sum += sums.get(slice);
+			max = Math.max(max, maxima.get(slice));
+		}
+		return new Snapshot(bucketCounts, sum, max);
+	}
+
+	static int getBucketIndex(long value) {
+		if (value < NUM_SUB_BUCKETS) {
+			return (int)value;
+		}
+
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int subBucket = (int)(value >>> (exponent - SUB_BUCKET_BITS)) & (NUM_SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * NUM_SUB_BUCKETS + subBucket;
+	}
+
+	static long getBucketUpperBound(int index) {
+		if (index < NUM_SUB_BUCKETS) {
+			return index;
+		}
+
+		int exponent = index / NUM_SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		long subBucket = index % NUM_SUB_BUCKETS;
+		return ((NUM_SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+	}
+
+	/**
+	 * Values of a histogram at one point in time.
+	 */
+	public static final class Snapshot {
+
+		private final long[] bucketCounts;
+		private final long count;
+		private final long sum;
+		private final long max;
+
+		private Snapshot(long[] bucketCounts, long sum, long max) {
+			long total = 0;
+			for (long bucketCount : bucketCounts) {
+				total += bucketCount;
+			}
+			this.bucketCounts = bucketCounts;
+			this.count = total;
+			this.sum = sum;
+			this.max = max;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public long getMax() {
+			return max;
+		}
+
+		public double getMean() {
+			return (count == 0) ? 0 : (double)sum / count;
+		}
+
+		/**
+		 * Returns the value below which the given percentage of values fall, e.g. 99 for p99.
+		 */
+		public long getValueAtPercentile(double percentile) {
+			if (count == 0) {
+				return 0;
+			}
+
+			long rank = Math.max((long)Math.ceil(count * percentile / 100), 1);
+			long seen = 0;
+			for (int i = 0; i < bucketCounts.length; i++) {
+				seen += bucketCounts[i];
+				if (seen >= rank) {
+					return Math.min(getBucketUpperBound(i), max);
+				}
+			}
+			return max;
+		}
+
+	}
+
+}
@@ -0,0 +1,391 @@
+package com.bradchen.jwormhole.client;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Chooses the fastest of several servers: each is probed in parallel for the time it takes to
+ * open a TCP connection and receive the SSH banner. Results are cached in a file for a while, so
+ * that launches soon after each other need not probe again. Servers found unreachable are probed
+ * again every time, so that a short outage is not remembered.
+ *
+ * The candidates are either a group, set as <code>jwormhole.client.group.&lt;name&gt; =
+ * server1,server2</code> and picked with <code>-s &lt;name&gt;</code>, or, with <code>-s
+ * auto</code>, every server configured.
+ */
+public final class ServerSelector implements FailoverHandler {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ServerSelector.class);
+
+	public static final String AUTO = "auto";
+
+	private static final String GROUP_SETTING = "group.";
+	private static final String TIMEOUT_SETTING = "probe.timeout";
+	private static final String CACHE_TTL_SETTING = "probe.cacheTtl";
+	private static final Pattern SERVER_HOST_KEY_PATTERN = Pattern.compile(
+		"^" + Pattern.quote(Settings.SETTING_PREFIX) + "\\.([^.]+)\\.serverSshHost$");
+	private static final String BANNER_PREFIX = "SSH-";
+	private static final int MAX_BANNER_LENGTH = 255;
+	private static final Charset ASCII_CHARSET = Charset.forName("us-ascii");
+
+	private final Properties defaults;
+	private final Properties overrides;
+	private final List<String> servers;
+	private final File cacheFile;
+	private final int timeout; // in milliseconds
+	private final long cacheTtl; // in milliseconds
+	private final Set<String> failedServers;
+
+	public ServerSelector(Properties defaults, Properties overrides, List<String> servers,
+						  File cacheFile) {
+		this.defaults = defaults;
+		this.overrides = overrides;
+		this.servers = Collections.unmodifiableList(new ArrayList<>(servers));
+		this.cacheFile = cacheFile;
+		this.timeout = Integer.parseInt(SettingsUtils.getSetting(defaults, overrides,
+			Settings.SETTING_PREFIX, null, TIMEOUT_SETTING));
+		this.cacheTtl = TimeUnit.SECONDS.toMillis(Integer.parseInt(SettingsUtils.getSetting(
+			defaults, overrides, Settings.SETTING_PREFIX, null, CACHE_TTL_SETTING)));
+		this.failedServers = new HashSet<>();
+	}
+
+	/**
+	 * Returns the servers to choose from for the <code>-s</code> value given, or null if it names
+	 * a single server.
+	 */
+	public static List<String> getCandidates(Properties defaults, Properties overrides,
+											 String server) {
+		String group = SettingsUtils.getSetting(defaults, overrides, Settings.SETTING_PREFIX,
+			null, GROUP_SETTING + server);
+		if (StringUtils.isNotBlank(group)) {
+			return Collections.unmodifiableList(Pattern.compile(",").splitAsStream(group)
+				.map(String::trim)
+				.filter(StringUtils::isNotEmpty)
+				.collect(Collectors.toList()));
+		}
+		if (!AUTO.equals(server)) {
+			return null;
+		}
+
+		// every server with a host set
+		Set<String> result = new TreeSet<>();
+		for (Properties properties : new Properties[] { defaults, overrides }) {
+			if (properties == null) {
+				continue;
+			}
+			for (String key : properties.stringPropertyNames()) {
+				Matcher matcher = SERVER_HOST_KEY_PATTERN.matcher(key);
+				if (matcher.matches() && StringUtils.isNotBlank(properties.getProperty(key))) {
+					result.add(matcher.group(1));
+				}
+			}
+		}
+		return Collections.unmodifiableList(new ArrayList<>(result));
+	}
+
+	public List<String> getServers() {
+		return servers;
+	}
+
+	/**
+	 * Returns the settings of the fastest server, probing servers with no fresh cached result.
+	 *
+	 * @throws IOException if no server could be reached
+	 */
+	public Settings select() throws IOException {
+		for (Probe probe : probe(true)) {
+			if (probe.isReachable()) {
+				return new Settings(defaults, overrides, probe.getServer());
+			}
+		}
+		throw new IOException("None of the servers is reachable: " +
+			StringUtils.join(servers, ", "));
+	}
+
+	/**
+	 * Returns the fastest server not failed over from yet. Once every reachable server has failed,
+	 * the failures are forgotten, except for the server just given up on, so that failover goes
+	 * back to servers that have recovered since. Every server is probed again, as the failure may
+	 * have changed what is reachable.
+	 */
+	@Override
+	public Settings nextServer(Settings failedServer) {
+		List<Probe> probes = probe(false);
+		synchronized (failedServers) {
+			failedServers.add(failedServer.getServer());
+			Settings next = pickServer(probes);
+			if (next == null) {
+				failedServers.clear();
+				failedServers.add(failedServer.getServer());
+				next = pickServer(probes);
+			}
+			return next;
+		}
+	}
+
+	private Settings pickServer(List<Probe> probes) {
+		for (Probe probe : probes) {
+			if (probe.isReachable() && !failedServers.contains(probe.getServer())) {
+				return new Settings(defaults, overrides, probe.getServer());
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Probes the servers in parallel and returns the results, fastest first and unreachable
+	 * servers last.
+	 *
+	 * @param useCache true to take results of reachable servers still fresh from the cache instead
+	 *                 of probing
+	 */
+	public List<Probe> probe(boolean useCache) {
+		Properties cache = useCache ? readCache() : new Properties();
+		long now = System.currentTimeMillis();
+		List<Probe> results = new ArrayList<>();
+		List<CompletableFuture<Probe>> pending = new ArrayList<>();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(servers.size(), 1),
+			runnable -> {
+				Thread thread = new Thread(runnable, "jwormhole-probe");
+				thread.setDaemon(true);
+				return thread;
+			});
+		try {
+			for (String server : servers) {
+				Settings settings = new Settings(defaults, overrides, server);
+				Probe cached = Probe.read(cache, server);
+				if ((cached != null) && cached.isFor(settings) && cached.isReachable()
+						&& ((now - cached.getProbeTime()) < cacheTtl)) {
+					results.add(cached);
+				} else {
+					pending.add(CompletableFuture.supplyAsync(() -> probe(settings), executor));
+				}
+			}
+			for (CompletableFuture<Probe> result : pending) {
+				results.add(result.join());
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		if (!pending.isEmpty()) {
+			writeCache(pending.stream().map(CompletableFuture::join).collect(Collectors.toList()));
+		}
+		results.sort(Comparator.comparing((Probe probe) -> !probe.isReachable())
+			.thenComparingLong(Probe::getTotalTime));
+		return results;
+	}
+
+	private Probe probe(Settings settings) {
+		String host = settings.getServerSshHost();
+		int port = settings.getServerSshPort();
+		long probeTime = System.currentTimeMillis();
+		if (StringUtils.isBlank(host)) {
+			return new Probe(settings.getServer(), host, port, probeTime, -1, -1);
+		}
+
+		long startTime = System.nanoTime();
+		try (Socket socket = new Socket()) {
+			socket.setTcpNoDelay(true);
+			socket.setSoTimeout(timeout);
+			socket.connect(new InetSocketAddress(host, port), timeout);
+			long connectTime = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startTime);
+
+			// the server sends its identification line first; lines before it may be anything
+			startTime = System.nanoTime();
+			InputStream in = socket.getInputStream();
+			String line;
+			while (!(line = readLine(in)).startsWith(BANNER_PREFIX)) {
+				if (TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) > timeout) {
+					throw new IOException("No SSH banner.");
+				}
+			}
+			long bannerTime = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startTime);
+			return new Probe(settings.getServer(), host, port, probeTime, connectTime,
+				bannerTime);
+		} catch (IOException exception) {
+			LOGGER.debug("Unable to probe " + host + ":" + port + ".", exception);
+			return new Probe(settings.getServer(), host, port, probeTime, -1, -1);
+		}
+	}
+
+	private static String readLine(InputStream in) throws IOException {
+		byte[] line = new byte[MAX_BANNER_LENGTH];
+		int length = 0;
+		int b;
+		while ((b = in.read()) != '\n') {
+			if (b < 0) {
+				throw new IOException("Connection closed before SSH banner.");
+			}
+			if (length < line.length) {
+				line[length++] = (byte)b;
+			}
+		}
+		return new String(line, 0, length, ASCII_CHARSET);
+	}
+
+	private Properties readCache() {
+		Properties cache = new Properties();
+		if ((cacheFile == null) || !cacheFile.isFile()) {
+			return cache;
+		}
+
+		try (InputStream in = new FileInputStream(cacheFile)) {
+			cache.load(in);
+		} catch (IOException exception) {
+			LOGGER.debug("Unable to read server probe cache.", exception);
+		}
+		return cache;
+	}
+
+	private synchronized void writeCache(List<Probe> probes) {
+		if (cacheFile == null) {
+			return;
+		}
+
+		Properties cache = readCache();
+		for (Probe probe : probes) {
+			probe.write(cache);
+		}
+		try {
+			File parent = cacheFile.getAbsoluteFile().getParentFile();
+			if (!parent.isDirectory() && !parent.mkdirs()) {
+				throw new IOException("Unable to create directory " + parent + ".");
+			}
+			File tempFile = new File(parent, cacheFile.getName() + ".tmp");
+			try (OutputStream out = new FileOutputStream(tempFile)) {
+				cache.store(out, "jWormhole server probes");
+			}
+			Files.move(tempFile.toPath(), cacheFile.toPath(),
+				StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException exception) {
+			LOGGER.warn("Unable to save server probe cache.", exception);
+		}
+	}
+
+	/**
+	 * Result of probing a server.
+	 */
+	public static final class Probe {
+
+		private final String server;
+		private final String host;
+		private final int port;
+		private final long probeTime;
+		private final long connectTime;
+		private final long bannerTime;
+
+		private Probe(String server, String host, int port, long probeTime, long connectTime,
+					  long bannerTime) {
+			this.server = server;
+			this.host = host;
+			this.port = port;
+			this.probeTime = probeTime;
+			this.connectTime = connectTime;
+			this.bannerTime = bannerTime;
+		}
+
+		public String getServer() {
+			return server;
+		}
+
+		public String getHost() {
+			return host;
+		}
+
+		public int getPort() {
+			return port;
+		}
+
+		/**
+		 * Returns when the server was probed, in milliseconds since the epoch.
+		 */
+		public long getProbeTime() {
+			return probeTime;
+		}
+
+		public boolean isReachable() {
+			return connectTime >= 0;
+		}
+
+		/**
+		 * Returns the time to open a TCP connection in microseconds, or -1 if unreachable.
+		 */
+		public long getConnectTime() {
+			return connectTime;
+		}
+
+		/**
+		 * Returns the time from connecting to receiving the SSH banner in microseconds, or -1 if
+		 * unreachable.
+		 */
+		public long getBannerTime() {
+			return bannerTime;
+		}
+
+		public long getTotalTime() {
+			return isReachable() ? (connectTime + bannerTime) : Long.MAX_VALUE;
+		}
+
+		private boolean isFor(Settings settings) {
+			return StringUtils.equals(host, settings.getServerSshHost())
+				&& (port == settings.getServerSshPort());
+		}
+
+		private static Probe read(Properties cache, String server) {
+			try {
+				String prefix = server + ".";
+				String host = cache.getProperty(prefix + "host");
+				if (host == null) {
+					return null;
+				}
+				return new Probe(server, host,
+					Integer.parseInt(cache.getProperty(prefix + "port")),
+					Long.parseLong(cache.getProperty(prefix + "time")),
+					Long.parseLong(cache.getProperty(prefix + "connect")),
+					Long.parseLong(cache.getProperty(prefix + "banner")));
+			} catch (RuntimeException ignored) {
+				return null;
+			}
+		}
+
+		private void write(Properties cache) {
+			String prefix = server + ".";
+			cache.setProperty(prefix + "host", StringUtils.defaultString(host));
+			cache.setProperty(prefix + "port", Integer.toString(port));
+			cache.setProperty(prefix + "time", Long.toString(probeTime));
+			cache.setProperty(prefix + "connect", Long.toString(connectTime));
+			cache.setProperty(prefix + "banner", Long.toString(bannerTime));
+		}
+
+	}
+
+}
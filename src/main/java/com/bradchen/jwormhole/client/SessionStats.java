@@ -0,0 +1,56 @@
+package com.bradchen.jwormhole.client;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Traffic counters of one SSH session of the session pool. Counters survive reconnects.
+ */
+public final class SessionStats {
+
+	private final int index;
+	private final LongAdder bytesReceived;
+	private final LongAdder bytesSent;
+	private final LongAdder numConnections;
+
+	SessionStats(int index) {
+		this.index = index;
+		this.bytesReceived = new LongAdder();
+		this.bytesSent = new LongAdder();
+		this.numConnections = new LongAdder();
+	}
+
+	void addBytesReceived(long numBytes) {
+		bytesReceived.add(numBytes);
+	}
+
+	void addBytesSent(long numBytes) {
+		bytesSent.add(numBytes);
+	}
+
+	void connectionOpened() {
+		numConnections.increment();
+	}
+
+	public int getIndex() {
+		return index;
+	}
+
+	/**
+	 * Returns the number of bytes received from the server and written to local ports.
+	 */
+	public long getBytesReceived() {
+		return bytesReceived.sum();
+	}
+
+	/**
+	 * Returns the number of bytes read from local ports and sent to the server.
+	 */
+	public long getBytesSent() {
+		return bytesSent.sum();
+	}
+
+	public long getNumConnections() {
+		return numConnections.sum();
+	}
+
+}
@@ -0,0 +1,67 @@
+package com.bradchen.jwormhole.client;
+
+/**
+ * A setting whose reloaded value differs from the one a client runs with, and when the new value
+ * takes effect.
+ */
+public final class SettingChange {
+
+	/**
+	 * When a changed setting takes effect.
+	 */
+	public enum Effect {
+
+		/**
+		 * At once, on existing tunnels as well.
+		 */
+		APPLIED,
+
+		/**
+		 * On tunnels added from now on.
+		 */
+		NEW_TUNNELS,
+
+		/**
+		 * Once the connection to the server is reestablished.
+		 */
+		RECONNECT,
+
+		/**
+		 * Once jWormhole is started again.
+		 */
+		RESTART
+
+	}
+
+	private final String key;
+	private final String oldValue;
+	private final String newValue;
+	private final Effect effect;
+
+	SettingChange(String key, String oldValue, String newValue, Effect effect) {
+		this.key = key;
+		this.oldValue = oldValue;
+		this.newValue = newValue;
+		this.effect = effect;
+	}
+
+	/**
+	 * Returns the key of the setting, without prefix.
+	 */
+	public String getKey() {
+		return key;
+	}
+
+	public String getOldValue() {
+		return oldValue;
+	}
+
+	public String getNewValue() {
+		return newValue;
+	}
+
+	public Effect getEffect() {
+		return effect;
+	}
+
+}
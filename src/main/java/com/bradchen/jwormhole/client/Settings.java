@@ -1,5 +1,8 @@
 package com.bradchen.jwormhole.client;
 
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Properties;
 
 /**
@@ -9,13 +12,36 @@ public final class Settings {
 
 	public static final String SETTING_PREFIX = "jwormhole.client";
 
+	private final String server;
 	private final String serverSshHost;
 	private final int serverSshPort;
 	private final int serverControllerPort;
 	private final String serverUsername;
 	private final int keepaliveInterval;
+	private final int keepaliveMaxSkips;
+	private final int numSessions;
+	private final CompressionMode compressionMode;
+	private final int relayThreads;
+	private final int reconnectRetries;
+	private final int reconnectDelay;
+	private final int reconnectMaxDelay;
+	private final int latencyThreshold;
+	private final int httpCacheSize;
+	private final int httpCacheDiskSize;
+	private final int httpCacheConnections;
+	private final int inspectorSize;
+	private final int inspectorBodyLimit;
+	private final int maxConnections;
+	private final int connectionRate;
+	private final int connectionQueueTimeout;
+	private final int bandwidthUp;
+	private final int bandwidthDown;
+	private final int localPoolSize;
+	private final Map<String, String> values;
 
 	public Settings(Properties defaults, Properties overrides, String server) {
+		this.server = server;
+		this.values = new LinkedHashMap<>();
 		serverSshHost = getSetting(defaults, overrides, server, "serverSshHost");
 		serverSshPort = getSettingInteger(defaults, overrides, server, "serverSshPort");
 		serverControllerPort = getSettingInteger(defaults, overrides, server,
@@ -23,17 +49,54 @@ public final class Settings {
 		serverUsername = getSetting(defaults, overrides, server, "serverUsername");
 		keepaliveInterval = getSettingInteger(defaults, overrides, server,
 			"keepaliveInterval");
+		keepaliveMaxSkips = getSettingInteger(defaults, overrides, server, "keepaliveMaxSkips");
+		numSessions = getSettingInteger(defaults, overrides, server, "sessions");
+		compressionMode = CompressionMode.parse(getSetting(defaults, overrides, server,
+			"compression"));
+		relayThreads = getSettingInteger(defaults, overrides, server, "relayThreads");
+		reconnectRetries = getSettingInteger(defaults, overrides, server, "reconnectRetries");
+		reconnectDelay = getSettingInteger(defaults, overrides, server, "reconnectDelay");
+		reconnectMaxDelay = getSettingInteger(defaults, overrides, server, "reconnectMaxDelay");
+		latencyThreshold = getSettingInteger(defaults, overrides, server, "latencyThreshold");
+		httpCacheSize = getSettingInteger(defaults, overrides, server, "httpCacheSize");
+		httpCacheDiskSize = getSettingInteger(defaults, overrides, server, "httpCacheDiskSize");
+		httpCacheConnections = getSettingInteger(defaults, overrides, server,
+			"httpCacheConnections");
+		inspectorSize = getSettingInteger(defaults, overrides, server, "inspectorSize");
+		inspectorBodyLimit = getSettingInteger(defaults, overrides, server, "inspectorBodyLimit");
+		maxConnections = getSettingInteger(defaults, overrides, server, "maxConnections");
+		connectionRate = getSettingInteger(defaults, overrides, server, "connectionRate");
+		connectionQueueTimeout = getSettingInteger(defaults, overrides, server,
+			"connectionQueueTimeout");
+		bandwidthUp = getSettingInteger(defaults, overrides, server, "bandwidthUp");
+		bandwidthDown = getSettingInteger(defaults, overrides, server, "bandwidthDown");
+		localPoolSize = getSettingInteger(defaults, overrides, server, "localPoolSize");
 	}
 
-	private static int getSettingInteger(Properties defaults, Properties overrides, String server,
-										 String key) {
+	private int getSettingInteger(Properties defaults, Properties overrides, String server,
+								  String key) {
+		return Integer.parseInt(getSetting(defaults, overrides, server, key));
+	}
+
+	private String getSetting(Properties defaults, Properties overrides, String server,
+							  String key) {
 		String setting = SettingsUtils.getSetting(defaults, overrides, SETTING_PREFIX, server, key);
-		return Integer.parseInt(setting);
+		values.put(key, setting);
+		return setting;
+	}
+
+	/**
+	 * Returns the name of the server these settings are of.
+	 */
+	public String getServer() {
+		return server;
 	}
 
-	private static String getSetting(Properties defaults, Properties overrides, String server,
-									 String key) {
-		return SettingsUtils.getSetting(defaults, overrides, SETTING_PREFIX, server, key);
+	/**
+	 * Returns every setting as read, by key without prefix, in the order they are read.
+	 */
+	public Map<String, String> getValues() {
+		return Collections.unmodifiableMap(values);
 	}
 
 	public String getServerSshHost() {
@@ -56,4 +119,133 @@ public final class Settings {
 		return keepaliveInterval;
 	}
 
+	/**
+	 * Returns the number of keepalives in a row that a tunnel carrying traffic may skip.
+	 */
+	public int getKeepaliveMaxSkips() {
+		return keepaliveMaxSkips;
+	}
+
+	public int getNumSessions() {
+		return numSessions;
+	}
+
+	public CompressionMode getCompressionMode() {
+		return compressionMode;
+	}
+
+	public int getRelayThreads() {
+		return relayThreads;
+	}
+
+	/**
+	 * Returns the number of times to try reconnecting before giving up, or a negative number to
+	 * try forever.
+	 */
+	public int getReconnectRetries() {
+		return reconnectRetries;
+	}
+
+	public int getReconnectDelay() {
+		return reconnectDelay;
+	}
+
+	public int getReconnectMaxDelay() {
+		return reconnectMaxDelay;
+	}
+
+	/**
+	 * Returns the keepalive round-trip time in milliseconds above which latency counts as degraded,
+	 * or 0 if latency is not watched.
+	 */
+	public int getLatencyThreshold() {
+		return latencyThreshold;
+	}
+
+	/**
+	 * Returns the megabytes of responses each tunnel caches in memory, or 0 if responses are not
+	 * cached.
+	 */
+	public int getHttpCacheSize() {
+		return httpCacheSize;
+	}
+
+	/**
+	 * Returns the megabytes of responses each tunnel caches on disk once they are pushed out of
+	 * memory, or 0 if they are dropped.
+	 */
+	public int getHttpCacheDiskSize() {
+		return httpCacheDiskSize;
+	}
+
+	/**
+	 * Returns the number of connections the caching proxy of each tunnel serves at once.
+	 */
+	public int getHttpCacheConnections() {
+		return httpCacheConnections;
+	}
+
+	/**
+	 * Returns the megabytes of memory to keep inspected HTTP requests and responses in, or 0 if
+	 * traffic is not inspected.
+	 */
+	public int getInspectorSize() {
+		return inspectorSize;
+	}
+
+	/**
+	 * Returns the number of bytes of each inspected request or response body to keep.
+	 */
+	public int getInspectorBodyLimit() {
+		return inspectorBodyLimit;
+	}
+
+	/**
+	 * Returns the number of connections each tunnel relays at once at most, or 0 if there is no
+	 * limit.
+	 */
+	public int getMaxConnections() {
+		return maxConnections;
+	}
+
+	/**
+	 * Returns the number of connections each tunnel starts per second at most, or 0 if there is no
+	 * limit.
+	 */
+	public int getConnectionRate() {
+		return connectionRate;
+	}
+
+	/**
+	 * Returns the milliseconds a connection over the limits of its tunnel waits before it is
+	 * refused, or 0 if it is refused at once.
+	 */
+	public int getConnectionQueueTimeout() {
+		return connectionQueueTimeout;
+	}
+
+	/**
+	 * Returns the kilobytes per second each tunnel sends to the server at most, or 0 if there is no
+	 * limit.
+	 */
+	public int getBandwidthUp() {
+		return bandwidthUp;
+	}
+
+	/**
+	 * Returns the kilobytes per second each tunnel receives from the server at most, or 0 if there
+	 * is no limit.
+	 */
+	public int getBandwidthDown() {
+		return bandwidthDown;
+	}
+
+	/**
+	 * Returns the number of connections to each local port to keep open ahead of time at most, or
+	 * 0 if connections are opened as they are forwarded.
+	 */
+	public int getLocalPoolSize() {
+		return localPoolSize;
+	}
+
 }
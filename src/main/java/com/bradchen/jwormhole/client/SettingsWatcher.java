@@ -0,0 +1,105 @@
+package com.bradchen.jwormhole.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches a settings file and calls back once it was created, changed or deleted. Editors tend to
+ * write a file in several steps, so the callback waits until the file has been left alone for a
+ * moment, and runs once per burst of changes. Callbacks run on a daemon thread of the watcher.
+ */
+public final class SettingsWatcher implements Closeable {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(SettingsWatcher.class);
+
+	private static final long QUIET_PERIOD = 250; // in milliseconds
+
+	private final Path directory;
+	private final Path fileName;
+	private final Runnable callback;
+	private WatchService watchService;
+
+	/**
+	 * @param file file to watch; its directory must exist
+	 * @param callback called after the file changed
+	 */
+	public SettingsWatcher(File file, Runnable callback) {
+		Path path = file.getAbsoluteFile().toPath();
+		this.directory = path.getParent();
+		this.fileName = path.getFileName();
+		this.callback = callback;
+	}
+
+	public synchronized void start() throws IOException {
+		watchService = directory.getFileSystem().newWatchService();
+		try {
+			directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+				StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+		} catch (IOException exception) {
+			watchService.close();
+			throw exception;
+		}
+
+		Thread thread = new Thread(this::watch, "jwormhole-settings-watcher");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (watchService != null) {
+			watchService.close();
+		}
+	}
+
+	private void watch() {
+		try {
+			while (true) {
+				if (!isFileChanged(watchService.take())) {
+					continue;
+				}
+
+				// wait for the writes of the same save to settle
+				WatchKey key;
+				while ((key = watchService.poll(QUIET_PERIOD, TimeUnit.MILLISECONDS)) != null) {
+					isFileChanged(key);
+				}
+				try {
+					callback.run();
+				} catch (RuntimeException exception) {
+					LOGGER.warn("Unable to handle change of " + directory.resolve(fileName) + ".",
+						exception);
+				}
+			}
+		} catch (InterruptedException | ClosedWatchServiceException ignored) {
+			// closed
+		}
+	}
+
+	/**
+	 * Takes the events of the key given, and returns true if any is about the watched file.
+	 */
+	private boolean isFileChanged(WatchKey key) {
+		boolean changed = false;
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if ((event.kind() == StandardWatchEventKinds.OVERFLOW)
+					|| fileName.equals(event.context())) {
+				changed = true;
+			}
+		}
+		key.reset();
+		return changed;
+	}
+
+}
@@ -0,0 +1,173 @@
+package com.bradchen.jwormhole.client;
+
+import com.jcraft.jsch.Buffer;
+import com.jcraft.jsch.Packet;
+import com.jcraft.jsch.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.charset.Charset;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times a <code>keepalive@openssh.com</code> global request with want-reply, which the SSH server
+ * answers (usually with a failure) without opening a channel or a login session, and which keeps
+ * the session alive.
+ *
+ * JSch does not wait for replies to global requests other than its own port forwarding ones, so
+ * this borrows the slot JSch keeps for those replies. Requesting a remote forward waits for the
+ * same slot, so the two never overlap. JSch announces a reply by interrupting the thread waiting
+ * in the slot; the slot is given a stand-in thread that turns the interrupt into a signal, so the
+ * caller's own interrupts are left alone. Should a JSch release lack the slot, the keepalive is
+ * sent without waiting for the reply, and no round trip is measured.
+ */
+final class SshKeepalive {
+
+	static final long NOT_MEASURED = -1;
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(SshKeepalive.class);
+
+	private static final byte SSH_MSG_GLOBAL_REQUEST = 80;
+	private static final byte[] REQUEST_NAME = "keepalive@openssh.com".getBytes(
+		Charset.forName("utf-8"));
+	private static final int NO_PORT = -1; // keeps JSch from reading a port off a success reply
+
+	private static final Field REPLY_FIELD;
+	private static final Method SET_THREAD;
+	private static final Method SET_PORT;
+
+	static {
+		Field replyField = null;
+		Method setThread = null;
+		Method setPort = null;
+		try {
+			replyField = Session.class.getDeclaredField("grr");
+			replyField.setAccessible(true);
+			Class<?> replyClass = replyField.getType();
+			setThread = replyClass.getDeclaredMethod("setThread", Thread.class);
+			setPort = replyClass.getDeclaredMethod("setPort", int.class);
+			for (Method method : new Method[] { setThread, setPort }) {
+				method.setAccessible(true);
+			}
+		} catch (ReflectiveOperationException | RuntimeException exception) {
+			LOGGER.warn("Unable to wait for SSH keepalive replies; SSH round trips are not measured.",
+				exception);
+			replyField = null;
+		}
+		REPLY_FIELD = replyField;
+		SET_THREAD = setThread;
+		SET_PORT = setPort;
+	}
+
+	private SshKeepalive() {
+	}
+
+	/**
+	 * Sends a keepalive on the session given and waits for the reply.
+	 *
+	 * @param timeout milliseconds to wait for the reply
+	 * @return round-trip time in microseconds, or {@link #NOT_MEASURED}
+	 * @throws IOException if the session is lost or the server does not answer in time
+	 */
+	static long ping(Session session, long timeout) throws IOException {
+		return ping(session, timeout, REPLY_FIELD != null);
+	}
+
+	/**
+	 * @param awaitReply false to send the keepalive without waiting for the reply, as when JSch
+	 *                   lacks the slot
+	 */
+	static long ping(Session session, long timeout, boolean awaitReply) throws IOException {
+		if (!awaitReply) {
+			try {
+				session.sendKeepAliveMsg();
+			} catch (Exception exception) {
+				throw new IOException("SSH session lost.", exception);
+			}
+			return NOT_MEASURED;
+		}
+
+		try {
+			Object reply = REPLY_FIELD.get(session);
+			synchronized (reply) {
+				return ping(session, reply, timeout);
+			}
+		} catch (IllegalAccessException exception) {
+			throw new IOException(exception);
+		}
+	}
+
+	private static long ping(Session session, Object reply, long timeout) throws IOException {
+		long startTime = System.nanoTime();
+		long deadline = startTime + TimeUnit.MILLISECONDS.toNanos(timeout);
+		ReplySignal signal = new ReplySignal();
+		invoke(SET_PORT, reply, NO_PORT);
+		invoke(SET_THREAD, reply, signal);
+		try {
+			Buffer buffer = new Buffer();
+			Packet packet = new Packet(buffer);
+			packet.reset();
+			buffer.putByte(SSH_MSG_GLOBAL_REQUEST);
+			buffer.putString(REQUEST_NAME);
+			buffer.putByte((byte)1); // want reply
+			session.write(packet);
+
+			while (!signal.await(Math.min(deadline - System.nanoTime(),
+					TimeUnit.SECONDS.toNanos(1)))) {
+				if (!session.isConnected()) {
+					throw new IOException("SSH session lost.");
+				}
+				if (deadline - System.nanoTime() <= 0) {
+					throw new IOException("SSH keepalive not answered in " + timeout + " ms.");
+				}
+			}
+			return TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startTime);
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("SSH keepalive interrupted.");
+		} catch (IOException exception) {
+			throw exception;
+		} catch (Exception exception) {
+			throw new IOException("SSH session lost.", exception);
+		} finally {
+			invoke(SET_THREAD, reply, (Object)null);
+		}
+	}
+
+	private static Object invoke(Method method, Object target, Object... args) throws IOException {
+		try {
+			return method.invoke(target, args);
+		} catch (IllegalAccessException | InvocationTargetException exception) {
+			throw new IOException(exception);
+		}
+	}
+
+	/**
+	 * Never started; JSch only interrupts it once the reply is in.
+	 */
+	private static final class ReplySignal extends Thread {
+
+		private final CountDownLatch latch = new CountDownLatch(1);
+
+		ReplySignal() {
+			super("jwormhole-keepalive-reply");
+		}
+
+		@Override
+		public void interrupt() {
+			latch.countDown();
+		}
+
+		boolean await(long timeout) throws InterruptedException {
+			return latch.await(Math.max(timeout, 0), TimeUnit.NANOSECONDS);
+		}
+
+	}
+
+}
@@ -0,0 +1,92 @@
+package com.bradchen.jwormhole.client;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits a flow to a rate. Tokens accrue at the rate up to a second's worth; taking more tokens
+ * than there are puts the bucket in debt, which the flow waits out before it goes on. Flows of
+ * several threads may share a bucket.
+ */
+final class TokenBucket {
+
+	private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+	private volatile long rate;
+
+	// guarded by this
+	private long numTokens;
+	private long lastRefillTime;
+
+	/**
+	 * @param rate tokens per second, or 0 for no limit
+	 */
+	TokenBucket(long rate) {
+		this.rate = rate;
+		this.numTokens = rate;
+		this.lastRefillTime = System.nanoTime();
+	}
+
+	long getRate() {
+		return rate;
+	}
+
+	/**
+	 * Changes the rate; the bucket starts full.
+	 *
+	 * @param rate tokens per second, or 0 for no limit
+	 */
+	synchronized void setRate(long rate) {
+		this.rate = rate;
+		numTokens = rate;
+		lastRefillTime = System.nanoTime();
+	}
+
+	/**
+	 * Takes tokens, going into debt if there are too few.
+	 *
+	 * @return nanoseconds until the debt is paid off, or 0 if there is none
+	 */
+	long take(long count) {
+		long currentRate = rate;
+		if (currentRate <= 0) {
+			return 0;
+		}
+
+		synchronized (this) {
+			refill(currentRate);
+			numTokens -= count;
+			return (numTokens >= 0) ? 0 : (-numTokens * NANOS_PER_SECOND) / currentRate;
+		}
+	}
+
+	/**
+	 * Returns the nanoseconds until a token is there to take, or 0 if one is there now.
+	 */
+	long getDelay() {
+		long currentRate = rate;
+		if (currentRate <= 0) {
+			return 0;
+		}
+
+		synchronized (this) {
+			refill(currentRate);
+			return (numTokens >= 1) ? 0 : ((1 - numTokens) * NANOS_PER_SECOND) / currentRate;
+		}
+	}
+
+	private void refill(long currentRate) {
+		long now = System.nanoTime();
+		long elapsed = now - lastRefillTime;
+		long numAdded = ((elapsed / NANOS_PER_SECOND) * currentRate)
+			+ (((elapsed % NANOS_PER_SECOND) * currentRate) / NANOS_PER_SECOND);
+		if (numTokens + numAdded >= currentRate) {
+			numTokens = currentRate;
+			lastRefillTime = now;
+		} else if (numAdded > 0) {
+			// time that adds no whole token is kept for the next refill
+			numTokens += numAdded;
+			lastRefillTime += (numAdded * NANOS_PER_SECOND) / currentRate;
+		}
+	}
+
+}
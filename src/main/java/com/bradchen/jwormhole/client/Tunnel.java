@@ -0,0 +1,118 @@
+package com.bradchen.jwormhole.client;
+
+import com.bradchen.jwormhole.client.http.CachingProxy;
+import com.bradchen.jwormhole.client.http.HttpCache;
+
+/**
+ * A local port proxied through a host on the jWormhole server.
+ */
+public final class Tunnel {
+
+	private final Host host;
+	private final int localPort;
+	private final int sessionIndex;
+	private final TunnelStats stats;
+	private final TunnelLimits limits;
+	private final CachingProxy cachingProxy;
+	private final LocalConnectionPool localPool;
+
+	// accessed by the keepalive worker only
+	private long lastKeepaliveBytes;
+	private int numKeepalivesSkipped;
+
+	Tunnel(Host host, int localPort, int sessionIndex, TunnelStats stats, TunnelLimits limits,
+		   CachingProxy cachingProxy, LocalConnectionPool localPool) {
+		this.host = host;
+		this.localPort = localPort;
+		this.sessionIndex = sessionIndex;
+		this.stats = stats;
+		this.limits = limits;
+		this.cachingProxy = cachingProxy;
+		this.localPool = localPool;
+	}
+
+	Host getHost() {
+		return host;
+	}
+
+	public String getDomainName() {
+		return host.getDomainName();
+	}
+
+	public String getName() {
+		return host.getName();
+	}
+
+	public int getRemotePort() {
+		return host.getPort();
+	}
+
+	public int getLocalPort() {
+		return localPort;
+	}
+
+	/**
+	 * Returns the index of the session in the session pool that carries this tunnel.
+	 */
+	public int getSessionIndex() {
+		return sessionIndex;
+	}
+
+	public long getCreateTime() {
+		return host.getCreateTime();
+	}
+
+	public TunnelStats getStats() {
+		return stats;
+	}
+
+	/**
+	 * Returns the limits on the connections of the tunnel, which may be changed while it is up.
+	 */
+	public TunnelLimits getLimits() {
+		return limits;
+	}
+
+	/**
+	 * Returns the cache of HTTP responses of the local port, or null if responses are not cached.
+	 */
+	public HttpCache getHttpCache() {
+		return (cachingProxy == null) ? null : cachingProxy.getCache();
+	}
+
+	CachingProxy getCachingProxy() {
+		return cachingProxy;
+	}
+
+	/**
+	 * Returns the connections to the local port opened ahead of time, or null if connections are
+	 * opened as they are forwarded.
+	 */
+	public LocalConnectionPool getLocalPool() {
+		return localPool;
+	}
+
+	/**
+	 * Returns the port forwarded connections go to: the caching proxy's, or the local port.
+	 */
+	int getForwardPort() {
+		return (cachingProxy == null) ? localPort : cachingProxy.getPort();
+	}
+
+	/**
+	 * Returns true if the tunnel carried traffic since the last keepalive and has not skipped the
+	 * number of keepalives given in a row yet, so that its host need not be kept alive this time.
+	 */
+	boolean skipKeepalive(int maxSkips) {
+		long bytes = stats.getBytesSent().getCount() + stats.getBytesReceived().getCount();
+		boolean active = bytes != lastKeepaliveBytes;
+		lastKeepaliveBytes = bytes;
+		if (active && (numKeepalivesSkipped < maxSkips)) {
+			numKeepalivesSkipped++;
+			return true;
+		}
+		numKeepalivesSkipped = 0;
+		return false;
+	}
+
+}
@@ -0,0 +1,171 @@
+package com.bradchen.jwormhole.client;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits on the forwarded connections of a tunnel: how many may be relayed at once, how many may
+ * start per second, and how many bytes per second may go each way. A connection over the limits
+ * waits for its turn up to the queue timeout, and is refused after that. Limits may be changed at
+ * any time, and take effect at once.
+ */
+public final class TunnelLimits {
+
+	private static final long KILOBYTE = 1024;
+
+	private final TokenBucket connectionBucket;
+	private final TokenBucket sendBucket;
+	private final TokenBucket receiveBucket;
+	private volatile int maxConnections;
+	private volatile int queueTimeout;
+
+	// guarded by this
+	private int numAdmitted;
+	private int numWaiting;
+
+	TunnelLimits(Settings settings) {
+		this.connectionBucket = new TokenBucket(settings.getConnectionRate());
+		this.sendBucket = new TokenBucket(settings.getBandwidthUp() * KILOBYTE);
+		this.receiveBucket = new TokenBucket(settings.getBandwidthDown() * KILOBYTE);
+		this.maxConnections = settings.getMaxConnections();
+		this.queueTimeout = settings.getConnectionQueueTimeout();
+	}
+
+	/**
+	 * Returns the number of connections relayed at once at most, or 0 if there is no limit.
+	 */
+	public int getMaxConnections() {
+		return maxConnections;
+	}
+
+	public void setMaxConnections(int maxConnections) {
+		this.maxConnections = Math.max(maxConnections, 0);
+		synchronized (this) {
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Returns the number of connections that may start per second at most, or 0 if there is no
+	 * limit.
+	 */
+	public int getConnectionRate() {
+		return (int)connectionBucket.getRate();
+	}
+
+	public void setConnectionRate(int connectionRate) {
+		connectionBucket.setRate(Math.max(connectionRate, 0));
+		synchronized (this) {
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Returns the kilobytes per second that may be read from the local port and sent to the server
+	 * at most, or 0 if there is no limit.
+	 */
+	public int getBandwidthUp() {
+		return (int)(sendBucket.getRate() / KILOBYTE);
+	}
+
+	public void setBandwidthUp(int bandwidthUp) {
+		sendBucket.setRate(Math.max(bandwidthUp, 0) * KILOBYTE);
+	}
+
+	/**
+	 * Returns the kilobytes per second that may be received from the server and written to the
+	 * local port at most, or 0 if there is no limit.
+	 */
+	public int getBandwidthDown() {
+		return (int)(receiveBucket.getRate() / KILOBYTE);
+	}
+
+	public void setBandwidthDown(int bandwidthDown) {
+		receiveBucket.setRate(Math.max(bandwidthDown, 0) * KILOBYTE);
+	}
+
+	/**
+	 * Returns the milliseconds a connection over the limits waits before it is refused, or 0 if it
+	 * is refused at once.
+	 */
+	public int getQueueTimeout() {
+		return queueTimeout;
+	}
+
+	public void setQueueTimeout(int queueTimeout) {
+		this.queueTimeout = Math.max(queueTimeout, 0);
+	}
+
+	/**
+	 * Returns the number of connections waiting for their turn.
+	 */
+	public synchronized int getNumWaiting() {
+		return numWaiting;
+	}
+
+	/**
+	 * Waits until a connection may be relayed.
+	 *
+	 * @return false if the connection is refused
+	 */
+	boolean admit(TunnelStats stats) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(queueTimeout);
+		boolean waiting = false;
+		synchronized (this) {
+			try {
+				while (true) {
+					int max = maxConnections;
+					boolean slotFree = (max <= 0) || (numAdmitted < max);
+					long delay = slotFree ? connectionBucket.getDelay() : 0;
+					if (slotFree && (delay == 0)) {
+						connectionBucket.take(1);
+						numAdmitted++;
+						return true;
+					}
+
+					long remaining = deadline - System.nanoTime();
+					if (remaining <= 0) {
+						stats.connectionRejected();
+						return false;
+					}
+					if (!waiting) {
+						waiting = true;
+						numWaiting++;
+						stats.connectionQueued();
+					}
+
+					// a connection that closes wakes waiting ones up; a token is waited for
+					long wait = (delay > 0) ? Math.min(delay, remaining) : remaining;
+					TimeUnit.NANOSECONDS.timedWait(this, Math.max(wait, 1));
+				}
+			} finally {
+				if (waiting) {
+					numWaiting--;
+				}
+			}
+		}
+	}
+
+	synchronized void release() {
+		numAdmitted--;
+		notifyAll();
+	}
+
+	/**
+	 * Accounts for bytes read from the local port.
+	 *
+	 * @return nanoseconds to wait before reading more, or 0 to go on
+	 */
+	long bytesSent(int numBytes) {
+		return sendBucket.take(numBytes);
+	}
+
+	/**
+	 * Accounts for bytes written to the local port.
+	 *
+	 * @return nanoseconds to wait before writing more, or 0 to go on
+	 */
+	long bytesReceived(int numBytes) {
+		return receiveBucket.take(numBytes);
+	}
+
+}
@@ -0,0 +1,15 @@
+package com.bradchen.jwormhole.client;
+
+/**
+ * Follows the tunnels of a {@link Client} as they come and go, including tunnels that are
+ * recreated on another domain after a reconnect and tunnels lost for good.
+ */
+public interface TunnelListener {
+
+	default void tunnelAdded(Tunnel tunnel) {
+	}
+
+	default void tunnelRemoved(Tunnel tunnel) {
+	}
+
+}
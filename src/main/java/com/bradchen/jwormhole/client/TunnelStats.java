@@ -0,0 +1,116 @@
+package com.bradchen.jwormhole.client;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Traffic counters of one tunnel. Counters survive reconnects.
+ */
+public final class TunnelStats {
+
+	private static final long HISTOGRAM_WINDOW = TimeUnit.MINUTES.toMillis(5);
+	private static final int HISTOGRAM_SLICES = 10;
+
+	private final Meter bytesReceived;
+	private final Meter bytesSent;
+	private final Meter connections;
+	private final AtomicInteger numActiveConnections;
+	private final RollingHistogram connectionDurations;
+	private final RollingHistogram timesToFirstByte;
+	private final AtomicLong numQueuedConnections;
+	private final AtomicLong numRejectedConnections;
+
+	TunnelStats() {
+		this.bytesReceived = new Meter();
+		this.bytesSent = new Meter();
+		this.connections = new Meter();
+		this.numActiveConnections = new AtomicInteger();
+		this.connectionDurations = new RollingHistogram(HISTOGRAM_WINDOW, HISTOGRAM_SLICES);
+		this.timesToFirstByte = new RollingHistogram(HISTOGRAM_WINDOW, HISTOGRAM_SLICES);
+		this.numQueuedConnections = new AtomicLong();
+		this.numRejectedConnections = new AtomicLong();
+	}
+
+	void connectionOpened() {
+		numActiveConnections.incrementAndGet();
+		connections.mark(1);
+	}
+
+	void connectionClosed(long durationMillis) {
+		numActiveConnections.decrementAndGet();
+		connectionDurations.record(durationMillis);
+	}
+
+	void connectionQueued() {
+		numQueuedConnections.incrementAndGet();
+	}
+
+	void connectionRejected() {
+		numRejectedConnections.incrementAndGet();
+	}
+
+	void firstByteSent(long micros) {
+		timesToFirstByte.record(micros);
+	}
+
+	void addBytesReceived(long numBytes) {
+		bytesReceived.mark(numBytes);
+	}
+
+	void addBytesSent(long numBytes) {
+		bytesSent.mark(numBytes);
+	}
+
+	/**
+	 * Returns the bytes received from the server and written to the local port.
+	 */
+	public Meter getBytesReceived() {
+		return bytesReceived;
+	}
+
+	/**
+	 * Returns the bytes read from the local port and sent to the server.
+	 */
+	public Meter getBytesSent() {
+		return bytesSent;
+	}
+
+	public Meter getConnections() {
+		return connections;
+	}
+
+	public int getNumActiveConnections() {
+		return numActiveConnections.get();
+	}
+
+	/**
+	 * Returns the durations of connections closed in the last 5 minutes, in milliseconds.
+	 */
+	public RollingHistogram getConnectionDurations() {
+		return connectionDurations;
+	}
+
+	/**
+	 * Returns the time from opening a connection to the local port to the first byte the local
+	 * port sent back, over the last 5 minutes, in microseconds.
+	 */
+	public RollingHistogram getTimesToFirstByte() {
+		return timesToFirstByte;
+	}
+
+	/**
+	 * Returns the number of connections that had to wait for the limits of the tunnel.
+	 */
+	public long getNumQueuedConnections() {
+		return numQueuedConnections.get();
+	}
+
+	/**
+	 * Returns the number of connections refused because of the limits of the tunnel.
+	 */
+	public long getNumRejectedConnections() {
+		return numRejectedConnections.get();
+	}
+
+}
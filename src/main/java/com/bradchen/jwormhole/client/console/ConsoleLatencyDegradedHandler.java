@@ -0,0 +1,21 @@
+package com.bradchen.jwormhole.client.console;
+
+import com.bradchen.jwormhole.client.LatencyDegradedHandler;
+
+/**
+ * Warns the user when the connection to jWormhole server slows down, and when it recovers.
+ */
+public class ConsoleLatencyDegradedHandler implements LatencyDegradedHandler {
+
+	@Override
+	public void latencyChanged(boolean degraded, long roundTrip) {
+		if (degraded) {
+			System.err.println("Connection to jWormhole server is slow: round trip took "
+				+ roundTrip + " ms.");
+		} else {
+			System.out.println("Connection to jWormhole server recovered: round trip took "
+				+ roundTrip + " ms.");
+		}
+	}
+
+}
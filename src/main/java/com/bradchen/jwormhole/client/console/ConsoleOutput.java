@@ -0,0 +1,106 @@
+package com.bradchen.jwormhole.client.console;
+
+import jline.console.ConsoleReader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+
+/**
+ * Keeps the prompt intact while commands running in the background print. While the user is at
+ * the prompt, lines printed by other threads are put above it, and the prompt is drawn again below
+ * them with whatever the user typed so far. Everything else goes straight through.
+ */
+final class ConsoleOutput {
+
+	private static final byte[] CLEAR_LINE = "\r\u001B[2K".getBytes(Charset.forName("utf-8"));
+
+	private final ConsoleReader console;
+
+	// guarded by this
+	private Thread readerThread;
+
+	ConsoleOutput(ConsoleReader console) {
+		this.console = console;
+	}
+
+	/**
+	 * Returns a stream printing to the one given the way described above.
+	 */
+	PrintStream wrap(OutputStream out) {
+		return new PrintStream(new LineStream(out), true);
+	}
+
+	/**
+	 * Marks the calling thread as waiting for the user at the prompt.
+	 */
+	synchronized void startReading() {
+		readerThread = Thread.currentThread();
+	}
+
+	synchronized void stopReading() {
+		readerThread = null;
+	}
+
+	private synchronized void write(OutputStream out, ByteArrayOutputStream pending, byte[] bytes,
+									int offset, int length) throws IOException {
+		if ((readerThread == null) || (readerThread == Thread.currentThread())) {
+			pending.writeTo(out);
+			pending.reset();
+			out.write(bytes, offset, length);
+			return;
+		}
+
+		// complete lines go above the prompt; the rest waits for its line to end
+		for (int i = offset; i < offset + length; i++) {
+			pending.write(bytes[i]);
+			if (bytes[i] == '\n') {
+				out.write(CLEAR_LINE);
+				pending.writeTo(out);
+				pending.reset();
+				out.flush();
+				console.redrawLine();
+				console.flush();
+			}
+		}
+	}
+
+	private synchronized void flush(OutputStream out, ByteArrayOutputStream pending)
+			throws IOException {
+		if ((readerThread == null) && (pending.size() > 0)) {
+			pending.writeTo(out);
+			pending.reset();
+		}
+		out.flush();
+	}
+
+	private final class LineStream extends OutputStream {
+
+		private final OutputStream out;
+		private final ByteArrayOutputStream pending;
+
+		private LineStream(OutputStream out) {
+			this.out = out;
+			this.pending = new ByteArrayOutputStream();
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			ConsoleOutput.this.write(out, pending, new byte[] {(byte)b}, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] bytes, int offset, int length) throws IOException {
+			ConsoleOutput.this.write(out, pending, bytes, offset, length);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			ConsoleOutput.this.flush(out, pending);
+		}
+
+	}
+
+}
@@ -5,6 +5,11 @@ import com.bradchen.jwormhole.client.console.commands.CommandFactory;
 import java.util.List;
 import java.util.Properties;
 
+/**
+ * Adds commands to the console. The commands of a plugin are recorded in an index, so that the
+ * plugin need only be loaded and configured once one of them is used; to build the index, the
+ * plugin may be asked for its command factories without being configured first.
+ */
 public interface ConsolePlugin {
 
 	default void configure(Properties overrideSettings, String server) {}
@@ -2,14 +2,34 @@ package com.bradchen.jwormhole.client.console;
 
 import au.com.bytecode.opencsv.CSVReader;
 import com.bradchen.jwormhole.client.Client;
+import com.bradchen.jwormhole.client.PhaseTimings;
+import com.bradchen.jwormhole.client.ServerSelector;
+import com.bradchen.jwormhole.client.SettingChange;
 import com.bradchen.jwormhole.client.Settings;
 import com.bradchen.jwormhole.client.SettingsUtils;
+import com.bradchen.jwormhole.client.SettingsWatcher;
+import com.bradchen.jwormhole.client.console.commands.AddTunnelCommandFactory;
+import com.bradchen.jwormhole.client.console.commands.CacheCommandFactory;
 import com.bradchen.jwormhole.client.console.commands.Command;
 import com.bradchen.jwormhole.client.console.commands.CommandFactory;
+import com.bradchen.jwormhole.client.console.commands.DropTunnelCommandFactory;
 import com.bradchen.jwormhole.client.console.commands.HelpCommandFactory;
+import com.bradchen.jwormhole.client.console.commands.JobsCommandFactory;
+import com.bradchen.jwormhole.client.console.commands.LatencyCommandFactory;
+import com.bradchen.jwormhole.client.console.commands.LimitsCommandFactory;
 import com.bradchen.jwormhole.client.console.commands.QuitCommandFactory;
+import com.bradchen.jwormhole.client.console.commands.RelayCommandFactory;
+import com.bradchen.jwormhole.client.console.commands.ReloadCommandFactory;
+import com.bradchen.jwormhole.client.console.commands.ReplayCommandFactory;
+import com.bradchen.jwormhole.client.console.commands.RequestsCommandFactory;
+import com.bradchen.jwormhole.client.console.commands.ShowCommandFactory;
+import com.bradchen.jwormhole.client.console.commands.StatsCommandFactory;
 import com.bradchen.jwormhole.client.console.commands.StatusCommandFactory;
+import com.bradchen.jwormhole.client.console.commands.TunnelsCommandFactory;
+import com.bradchen.jwormhole.client.management.JmxExporter;
+import com.bradchen.jwormhole.client.management.MetricsServer;
 import jline.console.ConsoleReader;
+import jline.console.UserInterruptException;
 import jline.console.history.FileHistory;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -26,17 +46,16 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.lang.reflect.InvocationTargetException;
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.net.URLClassLoader;
+import java.io.UncheckedIOException;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 
 import static com.bradchen.jwormhole.client.SettingsUtils.readSettingsFromClassPathResource;
@@ -58,16 +77,22 @@ public final class ConsoleUI {
 	// plugins path, relative to $HOME
 	private static final String PLUGINS_PATH = ".jwormhole/plugins";
 
+	// index of plugin commands, relative to $HOME
+	private static final String PLUGIN_INDEX_PATH = ".jwormhole/plugins.index";
+
+	// cached server probe results, relative to $HOME
+	private static final String PROBE_CACHE_PATH = ".jwormhole/server-probes";
+
 	// command history path, relative to $HOME
 	private static final String HISTORY_PATH = ".jwormhole/history";
 
 	private static final String CONSOLE_PLUGINS_SETTING = "console.plugins";
+	private static final String METRICS_PORT_SETTING = "metrics.port";
 	private static final String DEFAULT_SETTING_KEY = "default";
 	private static final Pattern HOST_KEY_PATTERN = Pattern.compile("^[-_.a-z0-9]+$",
 		Pattern.CASE_INSENSITIVE);
-	private static final Pattern JAR_FILE_PATTERN = Pattern.compile("\\.jar$",
-		Pattern.CASE_INSENSITIVE);
 	private static final Charset UTF8_CHARSET = Charset.forName("utf-8");
+	private static final int INTERRUPTED_EXIT_CODE = 130; // as if killed by SIGINT
 	private static final String MOTD;
 
 	static {
@@ -86,15 +111,18 @@ public final class ConsoleUI {
 	}
 
 	private final String[] args;
-	private final List<ConsolePlugin> plugins;
 	private final Map<String, Command> commands;
 	private final Map<String, Command> commandAliases;
+	private final JobManager jobManager;
+	private volatile PluginManager pluginManager;
+	private volatile MetricsServer metricsServer;
+	private volatile SettingsWatcher settingsWatcher;
 
 	public ConsoleUI(String[] args) {
 		this.args = args;
-		this.plugins = new ArrayList<>();
-		this.commands = new HashMap<>();
-		this.commandAliases = new HashMap<>();
+		this.commands = new ConcurrentHashMap<>();
+		this.commandAliases = new ConcurrentHashMap<>();
+		this.jobManager = new JobManager();
 	}
 
 	public Map<String, Command> getCommands() {
@@ -105,6 +133,13 @@ public final class ConsoleUI {
 		return Collections.unmodifiableMap(commandAliases);
 	}
 
+	/**
+	 * Returns what runs asynchronous commands in the background.
+	 */
+	public JobManager getJobManager() {
+		return jobManager;
+	}
+
 	public void run() throws IOException, ParseException {
 		if (!validateArgs()) {
 			System.exit(1);
@@ -114,7 +149,8 @@ public final class ConsoleUI {
 		// parse command line arguments
 		Options options = new Options();
 		options.addOption("n", "name", true, "custom host name");
-		options.addOption("s", "server", true, "server");
+		options.addOption("s", "server", true, "server, server group, or auto for the fastest");
+		options.addOption("t", "timings", false, "print how long each startup phase took");
 		CommandLineParser parser = new PosixParser();
 		CommandLine commandLine = parser.parse(options, args);
 		List<String> arguments = (List<String>)commandLine.getArgList();
@@ -125,16 +161,61 @@ public final class ConsoleUI {
 		// configure system
 		final int localPort = Integer.parseInt(arguments.get(0));
 		final String hostName = commandLine.getOptionValue("n");
-		final String server = commandLine.getOptionValue("s", DEFAULT_SETTING_KEY);
 		final Properties defaultSettings = getDefaultSettings();
 		final Properties overrideSettings = getOverrideSettings();
-		final Settings settings = new Settings(defaultSettings, overrideSettings, server);
-		loadPlugins(defaultSettings, overrideSettings, server);
-		loadCommands();
+		final long startTime = System.nanoTime();
+
+		// a group of servers, or all of them, to pick the fastest from
+		String serverOption = commandLine.getOptionValue("s", DEFAULT_SETTING_KEY);
+		List<String> candidates = ServerSelector.getCandidates(defaultSettings, overrideSettings,
+			serverOption);
+		ServerSelector serverSelector = null;
+		final Settings settings;
+		if (candidates == null) {
+			settings = new Settings(defaultSettings, overrideSettings, serverOption);
+		} else {
+			String probeCachePath = System.getenv("HOME") + File.separator + PROBE_CACHE_PATH;
+			serverSelector = new ServerSelector(defaultSettings, overrideSettings, candidates,
+				new File(probeCachePath));
+			try {
+				settings = serverSelector.select();
+			} catch (IOException exception) {
+				System.err.println(exception.getMessage());
+				System.exit(1);
+				return;
+			}
+			System.out.println("Using server " + settings.getServer() + " ("
+				+ settings.getServerSshHost() + ")");
+		}
 
-		// start client
+		final String server = settings.getServer();
 		final Client client = new Client(settings, new ConsoleUserInfo());
+		final PhaseTimings timings = client.getTimings();
+		if (serverSelector != null) {
+			timings.record("probe", System.nanoTime() - startTime);
+			client.setFailoverHandler(serverSelector);
+		}
+
+		// plugins and commands load while the SSH handshake is under way
+		CompletableFuture<Void> commandsLoaded = CompletableFuture.runAsync(() -> {
+			loadPlugins(defaultSettings, overrideSettings, server);
+			try {
+				loadCommands();
+			} catch (IOException exception) {
+				throw new UncheckedIOException(exception);
+			}
+			timings.record("plugins", System.nanoTime() - startTime);
+		}, runnable -> {
+			Thread thread = new Thread(runnable, "jwormhole-startup");
+			thread.setDaemon(true);
+			thread.start();
+		});
+
+		// start client
 		client.addConnectionClosedHandler(new ConsoleConnectionClosedHandler());
+		client.addLatencyDegradedHandler(new ConsoleLatencyDegradedHandler());
+		new JmxExporter(client).start();
+		startMetricsServer(defaultSettings, overrideSettings, client);
 		client.connect();
 
 		// proxy local port
@@ -144,10 +225,114 @@ public final class ConsoleUI {
 			System.exit(1);
 		}
 
+		// the tunnel is live; tell the user before waiting for the console to be ready
+		System.out.println(MOTD);
+		System.out.println("   proxying " + domainName + " to localhost:" + localPort + "...\n");
+		try {
+			commandsLoaded.join();
+		} catch (CompletionException exception) {
+			client.shutdown();
+			Throwable cause = exception.getCause();
+			if (cause instanceof UncheckedIOException) {
+				throw ((UncheckedIOException)cause).getCause();
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException)cause;
+			}
+			throw exception;
+		}
+		if (commandLine.hasOption("t")) {
+			printTimings(timings, System.nanoTime() - startTime);
+		}
+
+		// apply changes to the override settings as they are saved
+		startSettingsWatcher(client);
+
 		// listen for user commands
 		startConsole(client, domainName, localPort);
 	}
 
+	private void startSettingsWatcher(Client client) {
+		File file = new File(System.getenv("HOME"), OVERRIDE_SETTINGS_FILE);
+		if (!file.getParentFile().isDirectory()) {
+			return;
+		}
+
+		SettingsWatcher watcher = new SettingsWatcher(file, () -> reloadSettings(client, false));
+		try {
+			watcher.start();
+			settingsWatcher = watcher;
+		} catch (IOException exception) {
+			LOGGER.warn("Unable to watch " + file + " for changes.", exception);
+		}
+	}
+
+	/**
+	 * Reads the override settings again and applies them to the client, telling the user what
+	 * changed and when each change takes effect.
+	 *
+	 * @param reportUnchanged whether to tell the user when nothing changed
+	 */
+	public synchronized void reloadSettings(Client client, boolean reportUnchanged) {
+		List<SettingChange> changes;
+		try {
+			Settings settings = new Settings(getDefaultSettings(), getOverrideSettings(),
+				client.getSettings().getServer());
+			changes = client.reloadSettings(settings);
+		} catch (IOException | IllegalArgumentException exception) {
+			// invalid numbers and compression modes included
+			System.err.println("Unable to reload settings: " + exception.getMessage());
+			return;
+		}
+
+		if (changes.isEmpty()) {
+			if (reportUnchanged) {
+				System.out.println("Settings unchanged.");
+			}
+			return;
+		}
+		System.out.println("Settings reloaded:");
+		for (SettingChange change : changes) {
+			System.out.println("  " + change.getKey() + ": " + change.getOldValue() + " -> "
+				+ change.getNewValue() + " (" + describeEffect(change.getEffect()) + ")");
+		}
+	}
+
+	private static String describeEffect(SettingChange.Effect effect) {
+		switch (effect) {
+			case APPLIED:
+				return "applied";
+			case NEW_TUNNELS:
+				return "applies to tunnels added from now on";
+			case RECONNECT:
+				return "takes effect on reconnect";
+			default:
+				return "takes effect on restart";
+		}
+	}
+
+	private void startMetricsServer(Properties defaultSettings, Properties overrideSettings,
+									Client client) throws IOException {
+		String port = SettingsUtils.getSetting(defaultSettings, overrideSettings,
+			Settings.SETTING_PREFIX, null, METRICS_PORT_SETTING);
+		if (StringUtils.isBlank(port)) {
+			return;
+		}
+
+		List<Client> clients = Collections.singletonList(client);
+		metricsServer = new MetricsServer(() -> clients, Integer.parseInt(port.trim()));
+		metricsServer.start();
+	}
+
+	private static void printTimings(PhaseTimings timings, long total) {
+		System.out.println("Startup timings:");
+		for (Map.Entry<String, Long> phase : timings.getPhases().entrySet()) {
+			System.out.println(String.format("  %-12s%8.1f ms", phase.getKey(),
+				phase.getValue() / 1000000.0));
+		}
+		System.out.println(String.format("  %-12s%8.1f ms\n", "total", total / 1000000.0));
+	}
+
 	private String proxyLocalPort(Client client, int localPort, String hostName) {
 		String domainName = null;
 		try {
@@ -171,17 +356,31 @@ public final class ConsoleUI {
 		FileHistory history = new FileHistory(new File(historyFilePath));
 		registerShutdownHook(client, history);
 
-		// show MOTD
-		System.out.println(MOTD);
-		System.out.println("   proxying " + domainName + " to localhost:" + localPort + "...\n");
-
-		// start to read commands from console
+		// start to read commands from console; Ctrl-C reaches the console rather than the JVM
 		System.out.println("Enter command (help to see a list of commands):");
 		ConsoleReader console = new ConsoleReader();
 		console.setHistory(history);
 		console.setPrompt("[" + domainName + "~>" + localPort + "]$ ");
-		String line;
-		while ((line = console.readLine()) != null) {
+		console.setHandleUserInterrupt(true);
+
+		// background commands print above the prompt
+		ConsoleOutput output = new ConsoleOutput(console);
+		System.setOut(output.wrap(System.out));
+		System.setErr(output.wrap(System.err));
+		while (true) {
+			String line;
+			output.startReading();
+			try {
+				line = console.readLine();
+			} catch (UserInterruptException exception) {
+				interrupt();
+				continue;
+			} finally {
+				output.stopReading();
+			}
+			if (line == null) {
+				break;
+			}
 			if (StringUtils.isBlank(line)) {
 				continue;
 			}
@@ -206,6 +405,12 @@ public final class ConsoleUI {
 					System.out.println();
 					continue;
 				}
+				if (command.isAsync()) {
+					if (jobManager.submit(line, command, client, argumentsList) == null) {
+						System.err.println("Too many commands running; try again later.\n");
+					}
+					continue;
+				}
 				command.handle(client, argumentsList);
 				System.out.println();
 			} catch (RuntimeException exception) {
@@ -214,15 +419,31 @@ public final class ConsoleUI {
 		}
 	}
 
+	/**
+	 * Cancels the latest command running in the background on Ctrl-C, or exits if there is none.
+	 */
+	private void interrupt() {
+		if (jobManager.cancelLatest() == null) {
+			System.exit(INTERRUPTED_EXIT_CODE);
+		}
+	}
+
 	private void registerShutdownHook(Client client, FileHistory history) {
 		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-			client.shutdown();
-			for (ConsolePlugin plugin : plugins) {
+			if (settingsWatcher != null) {
 				try {
-					plugin.shutdown();
-				} catch (RuntimeException ignored) {
+					settingsWatcher.close();
+				} catch (IOException ignored) {
 				}
 			}
+			jobManager.shutdown();
+			client.shutdown();
+			if (metricsServer != null) {
+				metricsServer.stop();
+			}
+			if (pluginManager != null) {
+				pluginManager.shutdown();
+			}
 			try {
 				history.flush();
 			} catch (IOException ignored) {
@@ -252,33 +473,9 @@ public final class ConsoleUI {
 			return;
 		}
 
-		// load jars
-		String pluginsPath = System.getenv("HOME") + File.separator + PLUGINS_PATH;
-		URL[] urls = getPluginJars(pluginsPath);
-		URLClassLoader classLoader = new URLClassLoader(urls, this.getClass().getClassLoader());
-
-		// initialize handlers
-		try {
-			for (String pluginClassName : pluginsSettings.split(",")) {
-				if (StringUtils.isBlank(pluginClassName)) {
-					continue;
-				}
-				Class<?> pluginClass = Class.forName(pluginClassName.trim(), true, classLoader);
-				if (!ConsolePlugin.class.isAssignableFrom(pluginClass)) {
-					throw new RuntimeException("Invalid CommandHandler class: " +
-						pluginClass.getName());
-				}
-
-				ConsolePlugin plugin = (ConsolePlugin)pluginClass.getConstructor().newInstance();
-				plugin.configure(overrideSettings, server);
-				plugins.add(plugin);
-			}
-		} catch (ClassNotFoundException exception) {
-			throw new RuntimeException("Unable to load CommandHandler class.", exception);
-		} catch (NoSuchMethodException | InstantiationException | IllegalAccessException |
-				InvocationTargetException exception) {
-			throw new RuntimeException("Unable to instantiate CommandHandler.", exception);
-		}
+		String home = System.getenv("HOME") + File.separator;
+		pluginManager = new PluginManager(this, pluginsSettings, overrideSettings, server,
+			new File(home + PLUGINS_PATH), new File(home + PLUGIN_INDEX_PATH));
 	}
 
 	private void loadCommands() throws IOException {
@@ -286,51 +483,50 @@ public final class ConsoleUI {
 		commandFactories.add(new QuitCommandFactory());
 		commandFactories.add(new HelpCommandFactory(this));
 		commandFactories.add(new StatusCommandFactory());
-		for (ConsolePlugin plugin : plugins) {
-			List<CommandFactory> factories = plugin.getCommandFactories();
-			if ((factories != null) && !factories.isEmpty()) {
-				commandFactories.addAll(factories);
-			}
-		}
+		commandFactories.add(new TunnelsCommandFactory());
+		commandFactories.add(new AddTunnelCommandFactory());
+		commandFactories.add(new DropTunnelCommandFactory());
+		commandFactories.add(new RelayCommandFactory());
+		commandFactories.add(new StatsCommandFactory());
+		commandFactories.add(new LatencyCommandFactory());
+		commandFactories.add(new LimitsCommandFactory());
+		commandFactories.add(new CacheCommandFactory());
+		commandFactories.add(new RequestsCommandFactory());
+		commandFactories.add(new ShowCommandFactory());
+		commandFactories.add(new ReplayCommandFactory());
+		commandFactories.add(new ReloadCommandFactory(this));
+		commandFactories.add(new JobsCommandFactory(this));
 		for (CommandFactory factory : commandFactories) {
-			Command command = factory.createCommand();
-			commands.put(command.getName(), command);
+			registerCommand(factory.createCommand());
+		}
+		if (pluginManager != null) {
+			pluginManager.loadCommands();
+		}
+	}
 
-			List<String> aliases = command.getAliases();
-			if (aliases == null) {
-				continue;
-			}
+	void registerCommand(Command command) {
+		commands.put(command.getName(), command);
 
-			for (String alias : aliases) {
-				commandAliases.put(alias, command);
-			}
+		List<String> aliases = command.getAliases();
+		if (aliases == null) {
+			return;
 		}
-	}
 
-	private static URL[] getPluginJars(String path) {
-		File directory = new File(path);
-		if (!directory.exists() || !directory.isDirectory()) {
-			return new URL[0];
+		for (String alias : aliases) {
+			commandAliases.put(alias, command);
 		}
+	}
 
-		try {
-			File[] files = directory.listFiles();
-			if (files == null) {
-				return new URL[0];
-			}
+	void unregisterCommand(Command command) {
+		commands.remove(command.getName(), command);
 
-			List<URL> urls = new ArrayList<>(files.length);
-			for (File file : files) {
-				if (!file.isFile() || !JAR_FILE_PATTERN.matcher(file.getName()).find()) {
-					continue;
-				}
-				urls.add(file.toURI().toURL());
-			}
+		List<String> aliases = command.getAliases();
+		if (aliases == null) {
+			return;
+		}
 
-			URL[] result = new URL[urls.size()];
-			return urls.toArray(result);
-		} catch (MalformedURLException exception) {
-			throw new RuntimeException(exception);
+		for (String alias : aliases) {
+			commandAliases.remove(alias, command);
 		}
 	}
 
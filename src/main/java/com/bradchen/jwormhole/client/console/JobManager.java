@@ -0,0 +1,204 @@
+package com.bradchen.jwormhole.client.console;
+
+import com.bradchen.jwormhole.client.Client;
+import com.bradchen.jwormhole.client.console.commands.Command;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs asynchronous console commands in the background, a few at a time, so that the prompt stays
+ * free while they wait on the server. Commands that find every thread busy wait in a short queue,
+ * and are refused once it is full. Each command is cancelled once it runs past its timeout, and
+ * the latest one on Ctrl-C.
+ */
+public final class JobManager {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(JobManager.class);
+
+	private static final int MAX_RUNNING = 4;
+	private static final int MAX_WAITING = 16;
+
+	private final ThreadPoolExecutor executor;
+	private final ScheduledExecutorService timer;
+	private final Map<Integer, Job> jobs;
+	private final AtomicInteger nextId;
+
+	public JobManager() {
+		AtomicInteger threadNumber = new AtomicInteger(1);
+		this.executor = new ThreadPoolExecutor(MAX_RUNNING, MAX_RUNNING, 0, TimeUnit.MILLISECONDS,
+			new ArrayBlockingQueue<>(MAX_WAITING), runnable -> {
+				Thread thread = new Thread(runnable, "jwormhole-command-"
+					+ threadNumber.getAndIncrement());
+				thread.setDaemon(true);
+				return thread;
+			});
+		this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "jwormhole-command-timer");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.jobs = new ConcurrentHashMap<>();
+		this.nextId = new AtomicInteger(1);
+	}
+
+	/**
+	 * Starts the command given in the background.
+	 *
+	 * @param commandLine the line the user entered, to list the job by
+	 * @return the job, or null if too many commands are running already
+	 */
+	public Job submit(String commandLine, Command command, Client client,
+					  Command.ArgumentsList argumentsList) {
+		Job job = new Job(nextId.getAndIncrement(), commandLine, command.getTimeout(),
+			() -> command.handle(client, argumentsList));
+		jobs.put(job.id, job);
+		try {
+			executor.execute(job);
+		} catch (RejectedExecutionException exception) {
+			jobs.remove(job.id);
+			return null;
+		}
+		if (job.timeout > 0) {
+			job.timeoutFuture = timer.schedule(job::timeOut, job.timeout, TimeUnit.MILLISECONDS);
+		}
+		return job;
+	}
+
+	/**
+	 * Returns the jobs not finished yet, oldest first.
+	 */
+	public List<Job> getJobs() {
+		List<Job> result = new ArrayList<>(jobs.values());
+		result.sort(Comparator.comparingInt(Job::getId));
+		return Collections.unmodifiableList(result);
+	}
+
+	/**
+	 * Cancels the job of the id given.
+	 *
+	 * @return false if there is no such job
+	 */
+	public boolean cancel(int id) {
+		Job job = jobs.get(id);
+		return (job != null) && job.cancel(true);
+	}
+
+	/**
+	 * Cancels the job started last.
+	 *
+	 * @return the job cancelled, or null if there is none
+	 */
+	public Job cancelLatest() {
+		List<Job> current = getJobs();
+		for (int i = current.size() - 1; i >= 0; i--) {
+			Job job = current.get(i);
+			if (job.cancel(true)) {
+				return job;
+			}
+		}
+		return null;
+	}
+
+	public void shutdown() {
+		executor.shutdownNow();
+		timer.shutdownNow();
+	}
+
+	/**
+	 * A command running in the background, or waiting for its turn.
+	 */
+	public final class Job extends FutureTask<Void> {
+
+		private final int id;
+		private final String commandLine;
+		private final long timeout;
+		private final long submitTime;
+		private volatile boolean started;
+		private volatile boolean timedOut;
+		private volatile ScheduledFuture<?> timeoutFuture;
+
+		private Job(int id, String commandLine, long timeout, Runnable task) {
+			super(task, null);
+			this.id = id;
+			this.commandLine = commandLine;
+			this.timeout = timeout;
+			this.submitTime = System.nanoTime();
+		}
+
+		public int getId() {
+			return id;
+		}
+
+		public String getCommandLine() {
+			return commandLine;
+		}
+
+		/**
+		 * Returns true once the command started running, rather than waiting for a thread.
+		 */
+		public boolean isStarted() {
+			return started;
+		}
+
+		/**
+		 * Returns the milliseconds since the command was entered.
+		 */
+		public long getElapsed() {
+			return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - submitTime);
+		}
+
+		@Override
+		public void run() {
+			started = true;
+			super.run();
+		}
+
+		private void timeOut() {
+			timedOut = true;
+			cancel(true);
+		}
+
+		@Override
+		protected void done() {
+			jobs.remove(id);
+			if (timeoutFuture != null) {
+				timeoutFuture.cancel(false);
+			}
+
+			try {
+				get();
+			} catch (CancellationException exception) {
+				if (timedOut) {
+					System.err.println(String.format("[%d] %s timed out after %.1f s.\n", id,
+						commandLine, timeout / 1000.0));
+				} else {
+					System.err.println("[" + id + "] " + commandLine + " cancelled.\n");
+				}
+			} catch (ExecutionException exception) {
+				LOGGER.error("Error occurred when trying to handle command", exception.getCause());
+			} catch (InterruptedException exception) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,56 @@
+package com.bradchen.jwormhole.client.console;
+
+import com.bradchen.jwormhole.client.Client;
+import com.bradchen.jwormhole.client.console.commands.Command;
+
+import java.util.List;
+
+/**
+ * Stands in for a plugin command, described by the {@link PluginIndex}, until the plugin is first
+ * used. Handling the command loads and configures the plugin, then hands over to its command.
+ */
+final class LazyPluginCommand extends Command {
+
+	private final PluginManager pluginManager;
+	private final String pluginClassName;
+	private final PluginIndex.CommandInfo info;
+
+	LazyPluginCommand(PluginManager pluginManager, String pluginClassName,
+					  PluginIndex.CommandInfo info) {
+		this.pluginManager = pluginManager;
+		this.pluginClassName = pluginClassName;
+		this.info = info;
+	}
+
+	@Override
+	public String getName() {
+		return info.getName();
+	}
+
+	@Override
+	public String getDescription() {
+		return info.getDescription();
+	}
+
+	@Override
+	public List<String> getAliases() {
+		return info.getAliases();
+	}
+
+	@Override
+	public List<Argument> getArguments() {
+		return info.getArguments();
+	}
+
+	@Override
+	public void handle(Client client, ArgumentsList argumentsList) {
+		Command command = pluginManager.activate(pluginClassName, getName());
+		if (command == null) {
+			System.err.println("Command " + getName() + " is no longer provided by " +
+				pluginClassName + ".");
+			return;
+		}
+		command.handle(client, argumentsList);
+	}
+
+}
@@ -1,12 +1,18 @@
 package com.bradchen.jwormhole.client.console;
 
+import com.bradchen.jwormhole.client.daemon.Daemon;
 import org.apache.commons.cli.ParseException;
 
 import java.io.IOException;
+import java.util.Arrays;
 
 public final class Main {
 
 	public static void main(String[] args) throws IOException, ParseException {
+		if ((args.length > 0) && ("-d".equals(args[0]) || "--daemon".equals(args[0]))) {
+			new Daemon(Arrays.copyOfRange(args, 1, args.length)).run();
+			return;
+		}
 		new ConsoleUI(args).run();
 	}
 
@@ -0,0 +1,344 @@
+package com.bradchen.jwormhole.client.console;
+
+import com.bradchen.jwormhole.client.console.commands.Command;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * On-disk index of the commands each console plugin provides, so that plugins need not be loaded
+ * to register their commands. An entry is keyed by the modification time, size and hash of the
+ * jar the plugin class was found in; the jar is only hashed again once its modification time or
+ * size changes.
+ */
+final class PluginIndex {
+
+	private static final String HASH_ALGORITHM = "SHA-256";
+	private static final String PLUGINS_KEY = "plugins";
+
+	private final File file;
+	private final Map<String, Entry> entries;
+
+	/**
+	 * How an entry compares with its jar.
+	 */
+	enum Freshness {
+
+		/**
+		 * The jar is as described.
+		 */
+		CURRENT,
+
+		/**
+		 * Only the modification time of the jar changed, and the entry was updated to it.
+		 */
+		TOUCHED,
+
+		/**
+		 * The jar changed or is gone.
+		 */
+		STALE
+
+	}
+
+	private PluginIndex(File file) {
+		this.file = file;
+		this.entries = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * Reads the index from the file given; a missing or unreadable file gives an empty index.
+	 */
+	static PluginIndex load(File file) {
+		PluginIndex index = new PluginIndex(file);
+		if (!file.isFile()) {
+			return index;
+		}
+
+		Properties properties = new Properties();
+		try (InputStream in = new FileInputStream(file)) {
+			properties.load(in);
+		} catch (IOException ignored) {
+			return index;
+		}
+
+		for (String className : split(properties.getProperty(PLUGINS_KEY))) {
+			Entry entry = Entry.read(properties, className);
+			if (entry != null) {
+				index.entries.put(className, entry);
+			}
+		}
+		return index;
+	}
+
+	Entry get(String className) {
+		return entries.get(className);
+	}
+
+	void put(Entry entry) {
+		entries.put(entry.getClassName(), entry);
+	}
+
+	/**
+	 * Writes the index to its file, replacing the file in one step.
+	 */
+	synchronized void save() throws IOException {
+		Properties properties = new Properties();
+		properties.setProperty(PLUGINS_KEY, StringUtils.join(entries.keySet(), ","));
+		for (Entry entry : entries.values()) {
+			entry.write(properties);
+		}
+
+		File parent = file.getAbsoluteFile().getParentFile();
+		if (!parent.isDirectory() && !parent.mkdirs()) {
+			throw new IOException("Unable to create directory " + parent + ".");
+		}
+		File tempFile = new File(parent, file.getName() + ".tmp");
+		try (OutputStream out = new FileOutputStream(tempFile)) {
+			properties.store(out, "jWormhole console plugin index");
+		}
+		Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Compares the entry with its jar as it is now. If only the modification time of the jar
+	 * changed, the entry is updated to the new time, and needs saving.
+	 */
+	static Freshness refresh(Entry entry) {
+		File jar = new File(entry.getJarPath());
+		if (!jar.isFile() || (jar.length() != entry.getJarSize())) {
+			return Freshness.STALE;
+		}
+		if (jar.lastModified() == entry.getJarModified()) {
+			return Freshness.CURRENT;
+		}
+
+		try {
+			if (!hash(jar).equals(entry.getJarHash())) {
+				return Freshness.STALE;
+			}
+		} catch (IOException ignored) {
+			return Freshness.STALE;
+		}
+		entry.jarModified = jar.lastModified();
+		return Freshness.TOUCHED;
+	}
+
+	static String hash(File file) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance(HASH_ALGORITHM);
+		} catch (NoSuchAlgorithmException exception) {
+			throw new IllegalStateException(exception);
+		}
+
+		byte[] buffer = new byte[8192];
+		try (InputStream in = new FileInputStream(file)) {
+			int numBytes;
+			while ((numBytes = in.read(buffer)) >= 0) {
+				digest.update(buffer, 0, numBytes);
+			}
+		}
+
+		StringBuilder result = new StringBuilder();
+		for (byte b : digest.digest()) {
+			result.append(String.format("%02x", b));
+		}
+		return result.toString();
+	}
+
+	private static List<String> split(String value) {
+		if (StringUtils.isBlank(value)) {
+			return Collections.emptyList();
+		}
+
+		List<String> result = new ArrayList<>();
+		for (String token : value.split(",")) {
+			if (StringUtils.isNotBlank(token)) {
+				result.add(token.trim());
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * The commands of one plugin, and the jar they were read from.
+	 */
+	static final class Entry {
+
+		private final String className;
+		private final String jarPath;
+		private final long jarSize;
+		private final String jarHash;
+		private final List<CommandInfo> commands;
+		private volatile long jarModified;
+
+		Entry(String className, File jar, List<CommandInfo> commands) throws IOException {
+			this(className, jar.getAbsolutePath(), jar.lastModified(), jar.length(), hash(jar),
+				commands);
+		}
+
+		private Entry(String className, String jarPath, long jarModified, long jarSize,
+					  String jarHash, List<CommandInfo> commands) {
+			this.className = className;
+			this.jarPath = jarPath;
+			this.jarModified = jarModified;
+			this.jarSize = jarSize;
+			this.jarHash = jarHash;
+			this.commands = Collections.unmodifiableList(commands);
+		}
+
+		String getClassName() {
+			return className;
+		}
+
+		String getJarPath() {
+			return jarPath;
+		}
+
+		long getJarModified() {
+			return jarModified;
+		}
+
+		long getJarSize() {
+			return jarSize;
+		}
+
+		String getJarHash() {
+			return jarHash;
+		}
+
+		List<CommandInfo> getCommands() {
+			return commands;
+		}
+
+		private static Entry read(Properties properties, String className) {
+			try {
+				String prefix = className + ".";
+				List<CommandInfo> commands = new ArrayList<>();
+				for (String name : split(properties.getProperty(prefix + "commands"))) {
+					commands.add(CommandInfo.read(properties, prefix + "command." + name + ".",
+						name));
+				}
+				return new Entry(className, properties.getProperty(prefix + "jar"),
+					Long.parseLong(properties.getProperty(prefix + "jarModified")),
+					Long.parseLong(properties.getProperty(prefix + "jarSize")),
+					properties.getProperty(prefix + "jarHash"), commands);
+			} catch (RuntimeException ignored) {
+				// malformed entry; the plugin is indexed again
+				return null;
+			}
+		}
+
+		private void write(Properties properties) {
+			String prefix = className + ".";
+			properties.setProperty(prefix + "jar", jarPath);
+			properties.setProperty(prefix + "jarModified", Long.toString(jarModified));
+			properties.setProperty(prefix + "jarSize", Long.toString(jarSize));
+			properties.setProperty(prefix + "jarHash", jarHash);
+			List<String> names = new ArrayList<>();
+			for (CommandInfo command : commands) {
+				names.add(command.getName());
+				command.write(properties, prefix + "command." + command.getName() + ".");
+			}
+			properties.setProperty(prefix + "commands", StringUtils.join(names, ","));
+		}
+
+	}
+
+	/**
+	 * What the console needs to know of a command before its plugin is loaded.
+	 */
+	static final class CommandInfo {
+
+		private final String name;
+		private final String description;
+		private final List<String> aliases;
+		private final List<Command.Argument> arguments;
+
+		CommandInfo(Command command) {
+			this(command.getName(), command.getDescription(), command.getAliases(),
+				command.getArguments());
+		}
+
+		private CommandInfo(String name, String description, List<String> aliases,
+							List<Command.Argument> arguments) {
+			this.name = name;
+			this.description = description;
+			this.aliases = (aliases == null) ? null : new ArrayList<>(aliases);
+			this.arguments = (arguments == null) ? null : new ArrayList<>(arguments);
+		}
+
+		String getName() {
+			return name;
+		}
+
+		String getDescription() {
+			return description;
+		}
+
+		List<String> getAliases() {
+			return aliases;
+		}
+
+		List<Command.Argument> getArguments() {
+			return arguments;
+		}
+
+		private static CommandInfo read(Properties properties, String prefix, String name) {
+			String aliases = properties.getProperty(prefix + "aliases");
+			List<Command.Argument> arguments = null;
+			String numArguments = properties.getProperty(prefix + "arguments");
+			if (numArguments != null) {
+				arguments = new ArrayList<>();
+				for (int i = 0; i < Integer.parseInt(numArguments); i++) {
+					String argumentPrefix = prefix + "argument." + i + ".";
+					arguments.add(new Command.Argument(
+						properties.getProperty(argumentPrefix + "name"),
+						properties.getProperty(argumentPrefix + "description"),
+						Boolean.parseBoolean(properties.getProperty(argumentPrefix + "optional"))));
+				}
+			}
+			return new CommandInfo(name, properties.getProperty(prefix + "description"),
+				(aliases == null) ? null : split(aliases), arguments);
+		}
+
+		private void write(Properties properties, String prefix) {
+			properties.setProperty(prefix + "description", StringUtils.defaultString(description));
+			if (aliases != null) {
+				properties.setProperty(prefix + "aliases", StringUtils.join(aliases, ","));
+			}
+			if (arguments == null) {
+				return;
+			}
+
+			properties.setProperty(prefix + "arguments", Integer.toString(arguments.size()));
+			for (int i = 0; i < arguments.size(); i++) {
+				Command.Argument argument = arguments.get(i);
+				String argumentPrefix = prefix + "argument." + i + ".";
+				properties.setProperty(argumentPrefix + "name", argument.getName());
+				properties.setProperty(argumentPrefix + "description",
+					StringUtils.defaultString(argument.getDescription()));
+				properties.setProperty(argumentPrefix + "optional",
+					Boolean.toString(argument.isOptional()));
+			}
+		}
+
+	}
+
+}
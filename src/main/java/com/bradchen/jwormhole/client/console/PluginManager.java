@@ -0,0 +1,273 @@
+package com.bradchen.jwormhole.client.console;
+
+import com.bradchen.jwormhole.client.console.commands.Command;
+import com.bradchen.jwormhole.client.console.commands.CommandFactory;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.net.JarURLConnection;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.regex.Pattern;
+
+/**
+ * Loads console plugins on demand. Their commands are registered from the {@link PluginIndex};
+ * a plugin's classes are only loaded, and the plugin configured, once one of its commands is
+ * used. Plugins missing from the index are indexed on start, while entries whose jar changed are
+ * used as they are and indexed again in the background.
+ */
+final class PluginManager {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(PluginManager.class);
+
+	private static final Pattern JAR_FILE_PATTERN = Pattern.compile("\\.jar$",
+		Pattern.CASE_INSENSITIVE);
+
+	private final ConsoleUI consoleUI;
+	private final List<String> pluginClassNames;
+	private final Properties overrideSettings;
+	private final String server;
+	private final File pluginsDirectory;
+	private final PluginIndex index;
+
+	// guarded by this
+	private final Map<String, ConsolePlugin> activePlugins;
+	private final Map<String, Map<String, Command>> pluginCommands;
+	private URLClassLoader classLoader;
+
+	PluginManager(ConsoleUI consoleUI, String pluginsSettings, Properties overrideSettings,
+				  String server, File pluginsDirectory, File indexFile) {
+		this.consoleUI = consoleUI;
+		this.pluginClassNames = new ArrayList<>();
+		for (String pluginClassName : pluginsSettings.split(",")) {
+			if (StringUtils.isNotBlank(pluginClassName)) {
+				pluginClassNames.add(pluginClassName.trim());
+			}
+		}
+		this.overrideSettings = overrideSettings;
+		this.server = server;
+		this.pluginsDirectory = pluginsDirectory;
+		this.index = PluginIndex.load(indexFile);
+		this.activePlugins = new LinkedHashMap<>();
+		this.pluginCommands = new HashMap<>();
+	}
+
+	/**
+	 * Registers the commands of every plugin with the console.
+	 */
+	void loadCommands() {
+		boolean indexChanged = false;
+		List<String> staleClassNames = new ArrayList<>();
+		for (String pluginClassName : pluginClassNames) {
+			PluginIndex.Entry entry = index.get(pluginClassName);
+			if (entry == null) {
+				entry = indexPlugin(pluginClassName);
+				if (entry == null) {
+					// not in a jar, so there is nothing to key an entry by
+					activate(pluginClassName, null);
+					continue;
+				}
+				index.put(entry);
+				indexChanged = true;
+			} else {
+				PluginIndex.Freshness freshness = PluginIndex.refresh(entry);
+				if (freshness == PluginIndex.Freshness.STALE) {
+					staleClassNames.add(pluginClassName);
+				} else if (freshness == PluginIndex.Freshness.TOUCHED) {
+					indexChanged = true;
+				}
+			}
+			registerCommands(pluginClassName, createLazyCommands(entry));
+		}
+
+		if (indexChanged) {
+			saveIndex();
+		}
+		if (!staleClassNames.isEmpty()) {
+			Thread thread = new Thread(() -> reindex(staleClassNames), "jwormhole-plugin-index");
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	/**
+	 * Loads and configures the plugin given, unless already done, and returns its command of the
+	 * name given.
+	 */
+	synchronized Command activate(String pluginClassName, String commandName) {
+		if (!activePlugins.containsKey(pluginClassName)) {
+			ConsolePlugin plugin = createPlugin(pluginClassName);
+			plugin.configure(overrideSettings, server);
+			activePlugins.put(pluginClassName, plugin);
+			registerCommands(pluginClassName, createCommands(plugin));
+		}
+		return (commandName == null) ? null : pluginCommands.get(pluginClassName).get(commandName);
+	}
+
+	synchronized void shutdown() {
+		for (ConsolePlugin plugin : activePlugins.values()) {
+			try {
+				plugin.shutdown();
+			} catch (RuntimeException ignored) {
+			}
+		}
+	}
+
+	private void reindex(List<String> pluginClassNames) {
+		for (String pluginClassName : pluginClassNames) {
+			try {
+				PluginIndex.Entry entry = indexPlugin(pluginClassName);
+				if (entry == null) {
+					continue;
+				}
+				index.put(entry);
+				synchronized (this) {
+					if (!activePlugins.containsKey(pluginClassName)) {
+						registerCommands(pluginClassName, createLazyCommands(entry));
+					}
+				}
+			} catch (RuntimeException exception) {
+				LOGGER.warn("Unable to index console plugin " + pluginClassName + ".", exception);
+			}
+		}
+		saveIndex();
+	}
+
+	private PluginIndex.Entry indexPlugin(String pluginClassName) {
+		File jar = findJar(pluginClassName);
+		if (jar == null) {
+			return null;
+		}
+
+		// the plugin is only asked for its commands; it is configured once activated
+		ConsolePlugin plugin = createPlugin(pluginClassName);
+		List<PluginIndex.CommandInfo> commands = new ArrayList<>();
+		for (Command command : createCommands(plugin).values()) {
+			commands.add(new PluginIndex.CommandInfo(command));
+		}
+		try {
+			return new PluginIndex.Entry(pluginClassName, jar, commands);
+		} catch (IOException exception) {
+			LOGGER.warn("Unable to read " + jar + ".", exception);
+			return null;
+		}
+	}
+
+	private synchronized void registerCommands(String pluginClassName,
+											   Map<String, Command> commands) {
+		Map<String, Command> previousCommands = pluginCommands.put(pluginClassName, commands);
+		if (previousCommands != null) {
+			previousCommands.values().forEach(consoleUI::unregisterCommand);
+		}
+		commands.values().forEach(consoleUI::registerCommand);
+	}
+
+	private Map<String, Command> createLazyCommands(PluginIndex.Entry entry) {
+		Map<String, Command> commands = new LinkedHashMap<>();
+		for (PluginIndex.CommandInfo info : entry.getCommands()) {
+			commands.put(info.getName(), new LazyPluginCommand(this, entry.getClassName(), info));
+		}
+		return commands;
+	}
+
+	private static Map<String, Command> createCommands(ConsolePlugin plugin) {
+		List<CommandFactory> factories = plugin.getCommandFactories();
+		if (factories == null) {
+			return Collections.emptyMap();
+		}
+
+		Map<String, Command> commands = new LinkedHashMap<>();
+		for (CommandFactory factory : factories) {
+			Command command = factory.createCommand();
+			commands.put(command.getName(), command);
+		}
+		return commands;
+	}
+
+	private ConsolePlugin createPlugin(String pluginClassName) {
+		try {
+			Class<?> pluginClass = Class.forName(pluginClassName, true, getClassLoader());
+			if (!ConsolePlugin.class.isAssignableFrom(pluginClass)) {
+				throw new RuntimeException("Invalid CommandHandler class: " +
+					pluginClass.getName());
+			}
+			return (ConsolePlugin)pluginClass.getConstructor().newInstance();
+		} catch (ClassNotFoundException exception) {
+			throw new RuntimeException("Unable to load CommandHandler class.", exception);
+		} catch (NoSuchMethodException | InstantiationException | IllegalAccessException |
+				InvocationTargetException exception) {
+			throw new RuntimeException("Unable to instantiate CommandHandler.", exception);
+		}
+	}
+
+	private File findJar(String pluginClassName) {
+		URL url = getClassLoader().getResource(pluginClassName.replace('.', '/') + ".class");
+		if ((url == null) || !"jar".equals(url.getProtocol())) {
+			return null;
+		}
+
+		try {
+			URL jarUrl = ((JarURLConnection)url.openConnection()).getJarFileURL();
+			return "file".equals(jarUrl.getProtocol()) ? new File(jarUrl.toURI()) : null;
+		} catch (IOException | URISyntaxException exception) {
+			LOGGER.debug("Unable to locate jar of " + pluginClassName + ".", exception);
+			return null;
+		}
+	}
+
+	private synchronized ClassLoader getClassLoader() {
+		if (classLoader == null) {
+			classLoader = new URLClassLoader(getPluginJars(pluginsDirectory),
+				ConsoleUI.class.getClassLoader());
+		}
+		return classLoader;
+	}
+
+	private void saveIndex() {
+		try {
+			index.save();
+		} catch (IOException exception) {
+			LOGGER.warn("Unable to save console plugin index.", exception);
+		}
+	}
+
+	private static URL[] getPluginJars(File directory) {
+		if (!directory.exists() || !directory.isDirectory()) {
+			return new URL[0];
+		}
+
+		try {
+			File[] files = directory.listFiles();
+			if (files == null) {
+				return new URL[0];
+			}
+
+			List<URL> urls = new ArrayList<>(files.length);
+			for (File file : files) {
+				if (!file.isFile() || !JAR_FILE_PATTERN.matcher(file.getName()).find()) {
+					continue;
+				}
+				urls.add(file.toURI().toURL());
+			}
+
+			URL[] result = new URL[urls.size()];
+			return urls.toArray(result);
+		} catch (MalformedURLException exception) {
+			throw new RuntimeException(exception);
+		}
+	}
+
+}
@@ -0,0 +1,65 @@
+package com.bradchen.jwormhole.client.console.commands;
+
+import com.bradchen.jwormhole.client.Client;
+import com.bradchen.jwormhole.client.Tunnel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+public class AddTunnelCommand extends Command {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(AddTunnelCommand.class);
+
+	@Override
+	public String getName() {
+		return "add";
+	}
+
+	@Override
+	public String getDescription() {
+		return "Proxy another local port.";
+	}
+
+	@Override
+	public List<String> getAliases() {
+		return null;
+	}
+
+	@Override
+	public List<Argument> getArguments() {
+		return Arrays.asList(new Argument("port", "local port to proxy"),
+			new Argument("name", "custom host name", true));
+	}
+
+	@Override
+	public boolean isAsync() {
+		return true;
+	}
+
+	@Override
+	public void handle(Client client, ArgumentsList argumentsList) {
+		int localPort;
+		try {
+			localPort = Integer.parseInt(argumentsList.getValue("port"));
+		} catch (NumberFormatException exception) {
+			System.err.println("Invalid port: " + argumentsList.getValue("port"));
+			return;
+		}
+
+		try {
+			Tunnel tunnel = client.addTunnel(localPort, argumentsList.getValue("name"));
+			if (tunnel == null) {
+				System.err.println("Unable to create host; the host name may be in use.");
+				return;
+			}
+			System.out.println("Proxying " + tunnel.getDomainName() + " to localhost:"
+				+ tunnel.getLocalPort() + ".");
+		} catch (IOException exception) {
+			LOGGER.error("Unable to proxy local port.", exception);
+		}
+	}
+
+}
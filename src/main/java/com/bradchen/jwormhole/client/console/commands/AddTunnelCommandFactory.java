@@ -0,0 +1,10 @@
+package com.bradchen.jwormhole.client.console.commands;
+
+public class AddTunnelCommandFactory implements CommandFactory {
+
+	@Override
+	public Command createCommand() {
+		return new AddTunnelCommand();
+	}
+
+}
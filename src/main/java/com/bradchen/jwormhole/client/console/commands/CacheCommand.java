@@ -0,0 +1,74 @@
+package com.bradchen.jwormhole.client.console.commands;
+
+import com.bradchen.jwormhole.client.Client;
+import com.bradchen.jwormhole.client.Tunnel;
+import com.bradchen.jwormhole.client.http.HttpCache;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.apache.commons.io.FileUtils.byteCountToDisplaySize;
+
+public class CacheCommand extends Command {
+
+	@Override
+	public String getName() {
+		return "cache";
+	}
+
+	@Override
+	public String getDescription() {
+		return "Show how well the HTTP response cache of each tunnel does.";
+	}
+
+	@Override
+	public List<String> getAliases() {
+		return null;
+	}
+
+	@Override
+	public List<Argument> getArguments() {
+		return Arrays.asList(new Argument("domain", "domain name of the tunnel to show", true));
+	}
+
+	@Override
+	public void handle(Client client, ArgumentsList argumentsList) {
+		if (client.getSettings().getHttpCacheSize() <= 0) {
+			System.out.println("HTTP responses are not cached; set httpCacheSize to cache them.");
+			return;
+		}
+
+		String domainName = argumentsList.getValue("domain");
+		List<Tunnel> tunnels;
+		if (domainName == null) {
+			tunnels = client.getTunnels();
+		} else {
+			Tunnel tunnel = client.getTunnel(domainName);
+			if (tunnel == null) {
+				System.err.println("No such tunnel: " + domainName);
+				return;
+			}
+			tunnels = Collections.singletonList(tunnel);
+		}
+
+		for (Tunnel tunnel : tunnels) {
+			HttpCache cache = tunnel.getHttpCache();
+			if (cache != null) {
+				printCache(tunnel, cache);
+			}
+		}
+	}
+
+	private static void printCache(Tunnel tunnel, HttpCache cache) {
+		System.out.println(tunnel.getDomainName() + " -> localhost:" + tunnel.getLocalPort());
+		System.out.println("  Requests:\t\t" + cache.getNumHits() + " hits, "
+			+ cache.getNumRevalidations() + " revalidated, " + cache.getNumMisses() + " misses");
+		System.out.println("  Hit ratio:\t\t" + String.format("%.1f%%", cache.getHitRatio() * 100));
+		System.out.println("  Saved:\t\t" + byteCountToDisplaySize(cache.getBytesSaved()));
+		System.out.println("  Stored:\t\t" + cache.getNumEntries() + " responses, "
+			+ byteCountToDisplaySize(cache.getMemoryBytes()) + " in memory, "
+			+ byteCountToDisplaySize(cache.getDiskBytes()) + " on disk");
+	}
+
+}
@@ -9,12 +9,31 @@ import java.util.Map;
 
 public abstract class Command {
 
+	private static final long DEFAULT_TIMEOUT = 60000; // in milliseconds
+
 	public abstract String getName();
 	public abstract String getDescription();
 	public abstract List<String> getAliases();
 	public abstract List<Argument> getArguments();
 	public abstract void handle(Client client, ArgumentsList argumentsList);
 
+	/**
+	 * Returns true if the command runs in the background, leaving the prompt free for other
+	 * commands. Commands that wait on the server or take a while should. They are stopped by
+	 * interrupting their thread, on Ctrl-C or once they time out.
+	 */
+	public boolean isAsync() {
+		return false;
+	}
+
+	/**
+	 * Returns the milliseconds the command may run in the background before it is cancelled, or 0
+	 * for no limit.
+	 */
+	public long getTimeout() {
+		return DEFAULT_TIMEOUT;
+	}
+
 	public void printUsage() {
 		System.out.print("Usage: " + getName());
 		List<Argument> arguments = getArguments();
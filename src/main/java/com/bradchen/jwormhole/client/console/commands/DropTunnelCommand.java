@@ -0,0 +1,54 @@
+package com.bradchen.jwormhole.client.console.commands;
+
+import com.bradchen.jwormhole.client.Client;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+public class DropTunnelCommand extends Command {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(DropTunnelCommand.class);
+
+	@Override
+	public String getName() {
+		return "drop";
+	}
+
+	@Override
+	public String getDescription() {
+		return "Stop proxying a local port and release its host.";
+	}
+
+	@Override
+	public List<String> getAliases() {
+		return Arrays.asList("rm");
+	}
+
+	@Override
+	public List<Argument> getArguments() {
+		return Arrays.asList(new Argument("domain", "domain name of the tunnel"));
+	}
+
+	@Override
+	public boolean isAsync() {
+		return true;
+	}
+
+	@Override
+	public void handle(Client client, ArgumentsList argumentsList) {
+		String domainName = argumentsList.getValue("domain");
+		try {
+			if (!client.removeTunnel(domainName)) {
+				System.err.println("No such tunnel: " + domainName);
+				return;
+			}
+			System.out.println("Dropped " + domainName + ".");
+		} catch (IOException exception) {
+			LOGGER.error("Unable to drop tunnel.", exception);
+		}
+	}
+
+}
@@ -0,0 +1,10 @@
+package com.bradchen.jwormhole.client.console.commands;
+
+public class DropTunnelCommandFactory implements CommandFactory {
+
+	@Override
+	public Command createCommand() {
+		return new DropTunnelCommand();
+	}
+
+}
@@ -0,0 +1,65 @@
+package com.bradchen.jwormhole.client.console.commands;
+
+import com.bradchen.jwormhole.client.Client;
+import com.bradchen.jwormhole.client.console.ConsoleUI;
+import com.bradchen.jwormhole.client.console.JobManager;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class JobsCommand extends Command {
+
+	private final ConsoleUI consoleUI;
+
+	public JobsCommand(ConsoleUI consoleUI) {
+		this.consoleUI = consoleUI;
+	}
+
+	@Override
+	public String getName() {
+		return "jobs";
+	}
+
+	@Override
+	public String getDescription() {
+		return "List commands running in the background, or cancel one of them.";
+	}
+
+	@Override
+	public List<String> getAliases() {
+		return null;
+	}
+
+	@Override
+	public List<Argument> getArguments() {
+		return Arrays.asList(new Argument("cancel", "id of the job to cancel", true));
+	}
+
+	@Override
+	public void handle(Client client, ArgumentsList argumentsList) {
+		JobManager jobManager = consoleUI.getJobManager();
+		String cancel = argumentsList.getValue("cancel");
+		if (cancel != null) {
+			try {
+				if (!jobManager.cancel(Integer.parseInt(cancel))) {
+					System.err.println("No such job: " + cancel);
+				}
+			} catch (NumberFormatException exception) {
+				System.err.println("Invalid job id: " + cancel);
+			}
+			return;
+		}
+
+		List<JobManager.Job> jobs = jobManager.getJobs();
+		if (jobs.isEmpty()) {
+			System.out.println("No commands running.");
+			return;
+		}
+		for (JobManager.Job job : jobs) {
+			System.out.println(String.format("[%d] %-9s %8.1f s  %s", job.getId(),
+				job.isStarted() ? "running" : "waiting", job.getElapsed() / 1000.0,
+				job.getCommandLine()));
+		}
+	}
+
+}
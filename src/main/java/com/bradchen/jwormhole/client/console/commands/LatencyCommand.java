@@ -0,0 +1,59 @@
+package com.bradchen.jwormhole.client.console.commands;
+
+import com.bradchen.jwormhole.client.Client;
+import com.bradchen.jwormhole.client.LatencyStats;
+import com.bradchen.jwormhole.client.RollingHistogram;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class LatencyCommand extends Command {
+
+	@Override
+	public String getName() {
+		return "latency";
+	}
+
+	@Override
+	public String getDescription() {
+		return "Show round-trip times to the server measured by keepalives in the last 5 minutes.";
+	}
+
+	@Override
+	public List<String> getAliases() {
+		return Arrays.asList("rtt");
+	}
+
+	@Override
+	public List<Argument> getArguments() {
+		return null;
+	}
+
+	@Override
+	public void handle(Client client, ArgumentsList argumentsList) {
+		// round-trip times are recorded in microseconds
+		LatencyStats stats = client.getLatencyStats();
+		System.out.println("SSH:\t\t" + formatRoundTrips(stats.getLastSshRoundTrip(),
+			stats.getSshRoundTrips()));
+		System.out.println("Controller:\t" + formatRoundTrips(stats.getLastControllerRoundTrip(),
+			stats.getControllerRoundTrips()));
+
+		int threshold = client.getSettings().getLatencyThreshold();
+		if (threshold > 0) {
+			System.out.println("Threshold:\t" + threshold + " ms"
+				+ (client.isLatencyDegraded() ? ", exceeded" : ""));
+		}
+	}
+
+	private static String formatRoundTrips(long last, RollingHistogram roundTrips) {
+		RollingHistogram.Snapshot snapshot = roundTrips.getSnapshot();
+		if (snapshot.getCount() == 0) {
+			return "no data";
+		}
+		return String.format("last %.1f ms, p50 %.1f ms, p90 %.1f ms, p99 %.1f ms, max %.1f ms "
+			+ "(%d samples)", last / 1000.0, snapshot.getValueAtPercentile(50) / 1000.0,
+			snapshot.getValueAtPercentile(90) / 1000.0, snapshot.getValueAtPercentile(99) / 1000.0,
+			snapshot.getMax() / 1000.0, snapshot.getCount());
+	}
+
+}
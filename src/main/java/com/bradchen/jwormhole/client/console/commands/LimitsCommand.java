@@ -0,0 +1,108 @@
+package com.bradchen.jwormhole.client.console.commands;
+
+import com.bradchen.jwormhole.client.Client;
+import com.bradchen.jwormhole.client.Tunnel;
+import com.bradchen.jwormhole.client.TunnelLimits;
+import com.bradchen.jwormhole.client.TunnelStats;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class LimitsCommand extends Command {
+
+	@Override
+	public String getName() {
+		return "limits";
+	}
+
+	@Override
+	public String getDescription() {
+		return "Show or change the connection and bandwidth limits of a tunnel.";
+	}
+
+	@Override
+	public List<String> getAliases() {
+		return null;
+	}
+
+	@Override
+	public List<Argument> getArguments() {
+		return Arrays.asList(
+			new Argument("domain", "domain name of the tunnel", false),
+			new Argument("name", "maxConnections, connectionRate, connectionQueueTimeout, "
+				+ "bandwidthUp or bandwidthDown", true),
+			new Argument("value", "new value, 0 for no limit", true));
+	}
+
+	@Override
+	public void handle(Client client, ArgumentsList argumentsList) {
+		String domainName = argumentsList.getValue("domain");
+		Tunnel tunnel = client.getTunnel(domainName);
+		if (tunnel == null) {
+			System.err.println("No such tunnel: " + domainName);
+			return;
+		}
+
+		String name = argumentsList.getValue("name");
+		if (name != null) {
+			String value = argumentsList.getValue("value");
+			if (value == null) {
+				System.err.println("Missing value of " + name + ".");
+				return;
+			}
+			int limit;
+			try {
+				limit = Integer.parseInt(value);
+			} catch (NumberFormatException exception) {
+				System.err.println("Invalid value: " + value);
+				return;
+			}
+			if (!setLimit(tunnel.getLimits(), name, limit)) {
+				System.err.println("No such limit: " + name);
+				return;
+			}
+		}
+		printLimits(tunnel);
+	}
+
+	private static boolean setLimit(TunnelLimits limits, String name, int limit) {
+		switch (name) {
+			case "maxConnections":
+				limits.setMaxConnections(limit);
+				return true;
+			case "connectionRate":
+				limits.setConnectionRate(limit);
+				return true;
+			case "connectionQueueTimeout":
+				limits.setQueueTimeout(limit);
+				return true;
+			case "bandwidthUp":
+				limits.setBandwidthUp(limit);
+				return true;
+			case "bandwidthDown":
+				limits.setBandwidthDown(limit);
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	private static void printLimits(Tunnel tunnel) {
+		TunnelLimits limits = tunnel.getLimits();
+		TunnelStats stats = tunnel.getStats();
+		System.out.println(tunnel.getDomainName() + " -> localhost:" + tunnel.getLocalPort());
+		System.out.println("  Connections:\t\t" + formatLimit(limits.getMaxConnections(), "")
+			+ " at once, " + formatLimit(limits.getConnectionRate(), "/s") + " new");
+		System.out.println("  Queue timeout:\t" + limits.getQueueTimeout() + " ms");
+		System.out.println("  Bandwidth:\t\t" + formatLimit(limits.getBandwidthUp(), " KB/s")
+			+ " up, " + formatLimit(limits.getBandwidthDown(), " KB/s") + " down");
+		System.out.println("  Over limits:\t\t" + limits.getNumWaiting() + " waiting, "
+			+ stats.getNumQueuedConnections() + " queued, " + stats.getNumRejectedConnections()
+			+ " refused");
+	}
+
+	private static String formatLimit(int limit, String unit) {
+		return (limit <= 0) ? "unlimited" : (limit + unit);
+	}
+
+}
@@ -0,0 +1,49 @@
+package com.bradchen.jwormhole.client.console.commands;
+
+import com.bradchen.jwormhole.client.BufferPool;
+import com.bradchen.jwormhole.client.Client;
+import com.bradchen.jwormhole.client.RelayEngine;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import static org.apache.commons.io.FileUtils.byteCountToDisplaySize;
+
+public class RelayCommand extends Command {
+
+	@Override
+	public String getName() {
+		return "relay";
+	}
+
+	@Override
+	public String getDescription() {
+		return "Show threads and buffers used to relay connections.";
+	}
+
+	@Override
+	public List<String> getAliases() {
+		return null;
+	}
+
+	@Override
+	public List<Argument> getArguments() {
+		return null;
+	}
+
+	@Override
+	public void handle(Client client, ArgumentsList argumentsList) {
+		RelayEngine engine = client.getRelayEngine();
+		System.out.println("I/O threads:\t\t" + engine.getNumIoThreads());
+		System.out.println("JVM threads:\t\t"
+			+ ManagementFactory.getThreadMXBean().getThreadCount());
+		System.out.println("Connections:\t\t" + engine.getNumConnections() + " active, "
+			+ engine.getNumTotalConnections() + " total");
+
+		BufferPool bufferPool = engine.getBufferPool();
+		System.out.println("Buffers:\t\t" + bufferPool.getNumInUse() + " in use, "
+			+ bufferPool.getNumPooled() + " pooled, "
+			+ byteCountToDisplaySize(bufferPool.getBufferSize()) + " each");
+	}
+
+}
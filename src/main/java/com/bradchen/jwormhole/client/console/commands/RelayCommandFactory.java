@@ -0,0 +1,10 @@
+package com.bradchen.jwormhole.client.console.commands;
+
+public class RelayCommandFactory implements CommandFactory {
+
+	@Override
+	public Command createCommand() {
+		return new RelayCommand();
+	}
+
+}
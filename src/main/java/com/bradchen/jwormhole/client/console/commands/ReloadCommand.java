@@ -0,0 +1,41 @@
+package com.bradchen.jwormhole.client.console.commands;
+
+import com.bradchen.jwormhole.client.Client;
+import com.bradchen.jwormhole.client.console.ConsoleUI;
+
+import java.util.List;
+
+public class ReloadCommand extends Command {
+
+	private final ConsoleUI consoleUI;
+
+	public ReloadCommand(ConsoleUI consoleUI) {
+		this.consoleUI = consoleUI;
+	}
+
+	@Override
+	public String getName() {
+		return "reload";
+	}
+
+	@Override
+	public String getDescription() {
+		return "Read ~/.jwormhole/client.properties again and apply what changed.";
+	}
+
+	@Override
+	public List<String> getAliases() {
+		return null;
+	}
+
+	@Override
+	public List<Argument> getArguments() {
+		return null;
+	}
+
+	@Override
+	public void handle(Client client, ArgumentsList argumentsList) {
+		consoleUI.reloadSettings(client, true);
+	}
+
+}
@@ -0,0 +1,18 @@
+package com.bradchen.jwormhole.client.console.commands;
+
+import com.bradchen.jwormhole.client.console.ConsoleUI;
+
+public class ReloadCommandFactory implements CommandFactory {
+
+	private final ConsoleUI consoleUI;
+
+	public ReloadCommandFactory(ConsoleUI consoleUI) {
+		this.consoleUI = consoleUI;
+	}
+
+	@Override
+	public Command createCommand() {
+		return new ReloadCommand(consoleUI);
+	}
+
+}
@@ -0,0 +1,177 @@
+package com.bradchen.jwormhole.client.console.commands;
+
+import com.bradchen.jwormhole.client.Client;
+import com.bradchen.jwormhole.client.http.Exchange;
+import com.bradchen.jwormhole.client.http.ExchangeFilter;
+import com.bradchen.jwormhole.client.http.HttpInspector;
+import com.bradchen.jwormhole.client.http.LoadGenerator;
+import com.bradchen.jwormhole.client.http.ReplayResult;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.apache.commons.io.FileUtils.byteCountToDisplaySize;
+
+public class ReplayCommand extends Command {
+
+	@Override
+	public String getName() {
+		return "replay";
+	}
+
+	@Override
+	public String getDescription() {
+		return "Send recorded HTTP requests again, and show throughput and latency.";
+	}
+
+	@Override
+	public List<String> getAliases() {
+		return null;
+	}
+
+	@Override
+	public List<Argument> getArguments() {
+		return Arrays.asList(
+			new Argument("requests", "number of a recorded request, a filter as taken by requests, "
+				+ "or all"),
+			new Argument("repeat", "times to send each request (1 by default)", true),
+			new Argument("concurrency", "requests in flight at once (1 by default)", true),
+			new Argument("rate", "requests per second at most (0 by default, for no limit)", true),
+			new Argument("via", "local to send to 127.0.0.1:<local port> (the default), or public "
+				+ "to send through the tunnel's domain name", true));
+	}
+
+	@Override
+	public boolean isAsync() {
+		return true;
+	}
+
+	@Override
+	public long getTimeout() {
+		// replays run as long as the user asked for; Ctrl-C stops them
+		return 0;
+	}
+
+	@Override
+	public void handle(Client client, ArgumentsList argumentsList) {
+		HttpInspector inspector = client.getHttpInspector();
+		if (inspector == null) {
+			System.out.println("HTTP traffic is not inspected; set inspectorSize to inspect it.");
+			return;
+		}
+
+		int repeat;
+		int concurrency;
+		int rate;
+		try {
+			repeat = parseOption(argumentsList, "repeat", 1, 1);
+			concurrency = parseOption(argumentsList, "concurrency", 1, 1);
+			rate = parseOption(argumentsList, "rate", 0, 0);
+		} catch (IllegalArgumentException exception) {
+			System.err.println(exception.getMessage());
+			return;
+		}
+
+		String via = argumentsList.getValue("via");
+		if ((via != null) && !via.equals("local") && !via.equals("public")) {
+			System.err.println("Invalid via: " + via);
+			return;
+		}
+
+		List<Exchange> exchanges = selectExchanges(inspector, argumentsList.getValue("requests"));
+		if (exchanges == null) {
+			return;
+		}
+		List<Exchange> replayable = exchanges.stream().filter(Exchange::isReplayable)
+			.collect(Collectors.toList());
+		if (replayable.size() < exchanges.size()) {
+			System.out.println((exchanges.size() - replayable.size()) + " requests skipped: their "
+				+ "bodies were not kept in full, or they switch protocols.");
+		}
+		if (replayable.isEmpty()) {
+			System.out.println("No requests to replay.");
+			return;
+		}
+		if ((long)replayable.size() * repeat > LoadGenerator.MAX_REQUESTS) {
+			System.err.println("Invalid repeat: " + repeat + " times " + replayable.size()
+				+ " requests is more than " + LoadGenerator.MAX_REQUESTS + ".");
+			return;
+		}
+
+		LoadGenerator generator = new LoadGenerator(replayable, "public".equals(via), repeat,
+			concurrency, rate);
+		System.out.println("Sending " + generator.getNumRequests() + " requests...");
+		ReplayResult result;
+		try {
+			result = generator.run();
+		} catch (IOException exception) {
+			System.err.println("Unable to replay requests: " + exception.getMessage());
+			return;
+		}
+		printResult(result);
+	}
+
+	private static int parseOption(ArgumentsList argumentsList, String name, int defaultValue,
+								   int minValue) {
+		String value = argumentsList.getValue(name);
+		if (value == null) {
+			return defaultValue;
+		}
+
+		try {
+			int option = Integer.parseInt(value);
+			if (option >= minValue) {
+				return option;
+			}
+		} catch (NumberFormatException ignored) {
+		}
+		throw new IllegalArgumentException("Invalid " + name + ": " + value);
+	}
+
+	private static List<Exchange> selectExchanges(HttpInspector inspector, String requests) {
+		String id = requests.replaceFirst("^#", "");
+		if (id.matches("[0-9]+")) {
+			Exchange exchange = inspector.getExchange(Long.parseLong(id));
+			if (exchange == null) {
+				System.err.println("No such request: " + id);
+				return null;
+			}
+			return Collections.singletonList(exchange);
+		}
+
+		ExchangeFilter filter;
+		try {
+			filter = ExchangeFilter.parse(requests.equals("all") ? null : requests);
+		} catch (IllegalArgumentException exception) {
+			System.err.println(exception.getMessage());
+			return null;
+		}
+		return inspector.getExchanges().stream().filter(filter).collect(Collectors.toList());
+	}
+
+	private static void printResult(ReplayResult result) {
+		System.out.println(String.format("Sent %d requests in %.2f s: %.1f responses/s, %d failed, "
+			+ "%s received", result.getNumRequests(), result.getElapsed() / 1000000.0,
+			result.getThroughput(), result.getNumFailed(),
+			byteCountToDisplaySize(result.getNumBytesReceived())));
+		if (result.getStatusCounts().isEmpty()) {
+			return;
+		}
+
+		StringBuilder statuses = new StringBuilder();
+		for (Map.Entry<Integer, Integer> entry : result.getStatusCounts().entrySet()) {
+			statuses.append((statuses.length() == 0) ? "" : ", ").append(entry.getKey())
+				.append(" x ").append(entry.getValue());
+		}
+		System.out.println("Status:\t\t" + statuses);
+		System.out.println(String.format("Latency:\tp50 %.1f ms, p90 %.1f ms, p99 %.1f ms, "
+			+ "max %.1f ms", result.getLatencyAtPercentile(50) / 1000.0,
+			result.getLatencyAtPercentile(90) / 1000.0, result.getLatencyAtPercentile(99) / 1000.0,
+			result.getMaxLatency() / 1000.0));
+	}
+
+}
@@ -0,0 +1,88 @@
+package com.bradchen.jwormhole.client.console.commands;
+
+import com.bradchen.jwormhole.client.Client;
+import com.bradchen.jwormhole.client.http.Exchange;
+import com.bradchen.jwormhole.client.http.ExchangeFilter;
+import com.bradchen.jwormhole.client.http.HttpInspector;
+
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class RequestsCommand extends Command {
+
+	private static final int MAX_LISTED = 20;
+
+	@Override
+	public String getName() {
+		return "requests";
+	}
+
+	@Override
+	public String getDescription() {
+		return "List the latest HTTP requests recorded by the inspector.";
+	}
+
+	@Override
+	public List<String> getAliases() {
+		return null;
+	}
+
+	@Override
+	public List<Argument> getArguments() {
+		return Arrays.asList(new Argument("filter", "terms such as method=POST, status=5xx, "
+			+ "domain=abc, path=/hooks or header=X-Signature", true));
+	}
+
+	@Override
+	public void handle(Client client, ArgumentsList argumentsList) {
+		HttpInspector inspector = client.getHttpInspector();
+		if (inspector == null) {
+			System.out.println("HTTP traffic is not inspected; set inspectorSize to inspect it.");
+			return;
+		}
+
+		ExchangeFilter filter;
+		try {
+			filter = ExchangeFilter.parse(argumentsList.getValue("filter"));
+		} catch (IllegalArgumentException exception) {
+			System.err.println(exception.getMessage());
+			return;
+		}
+
+		List<Exchange> exchanges = inspector.getExchanges().stream().filter(filter)
+			.collect(Collectors.toList());
+		if (exchanges.isEmpty()) {
+			System.out.println("No requests recorded.");
+		}
+		if (exchanges.size() > MAX_LISTED) {
+			System.out.println("(" + (exchanges.size() - MAX_LISTED) + " older requests not shown)");
+			exchanges = exchanges.subList(exchanges.size() - MAX_LISTED, exchanges.size());
+		}
+
+		SimpleDateFormat format = new SimpleDateFormat("HH:mm:ss.SSS");
+		for (Exchange exchange : exchanges) {
+			System.out.println(String.format("#%-5d %s  %-6s %s -> %s  %s  %s", exchange.getId(),
+				format.format(new Date(exchange.getStartTime())), exchange.getMethod(),
+				exchange.getTarget(), formatStatus(exchange), formatDuration(exchange),
+				exchange.getDomainName()));
+		}
+
+		if (inspector.getNumDropped() > 0) {
+			System.out.println(inspector.getNumDropped() + " connections were not inspected while "
+				+ "the inspector fell behind.");
+		}
+	}
+
+	static String formatStatus(Exchange exchange) {
+		return (exchange.getStatus() == 0) ? "no response" : Integer.toString(exchange.getStatus());
+	}
+
+	static String formatDuration(Exchange exchange) {
+		return (exchange.getDuration() < 0) ? "-"
+			: String.format("%.1f ms", exchange.getDuration() / 1000.0);
+	}
+
+}
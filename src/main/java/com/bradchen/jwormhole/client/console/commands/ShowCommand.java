@@ -0,0 +1,119 @@
+package com.bradchen.jwormhole.client.console.commands;
+
+import com.bradchen.jwormhole.client.Client;
+import com.bradchen.jwormhole.client.http.Exchange;
+import com.bradchen.jwormhole.client.http.HttpInspector;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+public class ShowCommand extends Command {
+
+	private static final Charset UTF8_CHARSET = Charset.forName("utf-8");
+
+	@Override
+	public String getName() {
+		return "show";
+	}
+
+	@Override
+	public String getDescription() {
+		return "Show an HTTP request recorded by the inspector and its response.";
+	}
+
+	@Override
+	public List<String> getAliases() {
+		return null;
+	}
+
+	@Override
+	public List<Argument> getArguments() {
+		return Arrays.asList(new Argument("id", "number of the request as listed by requests"));
+	}
+
+	@Override
+	public void handle(Client client, ArgumentsList argumentsList) {
+		HttpInspector inspector = client.getHttpInspector();
+		if (inspector == null) {
+			System.out.println("HTTP traffic is not inspected; set inspectorSize to inspect it.");
+			return;
+		}
+
+		String id = argumentsList.getValue("id").replaceFirst("^#", "");
+		Exchange exchange;
+		try {
+			exchange = inspector.getExchange(Long.parseLong(id));
+		} catch (NumberFormatException exception) {
+			System.err.println("Invalid request number: " + id);
+			return;
+		}
+		if (exchange == null) {
+			System.err.println("No such request: " + id);
+			return;
+		}
+
+		System.out.println("#" + exchange.getId() + " " + exchange.getDomainName()
+			+ " -> localhost:" + exchange.getLocalPort() + ", " + new Date(exchange.getStartTime())
+			+ ", " + RequestsCommand.formatDuration(exchange));
+		System.out.println();
+		System.out.print(exchange.getRequestHead());
+		printBody(exchange.getRequestBody(), exchange.getRequestBodySize());
+
+		System.out.println();
+		if (exchange.getResponseHead() == null) {
+			System.out.println("(no response)");
+			return;
+		}
+		System.out.print(exchange.getResponseHead());
+		printBody(exchange.getResponseBody(), exchange.getResponseBodySize());
+	}
+
+	private static void printBody(byte[] body, long size) {
+		if (size == 0) {
+			return;
+		}
+
+		System.out.println();
+		String text = decodeText(body);
+		if (text == null) {
+			System.out.println("(" + size + " bytes of binary content)");
+			return;
+		}
+		System.out.println(text);
+		if (body.length < size) {
+			System.out.println("(first " + body.length + " of " + size + " bytes)");
+		}
+	}
+
+	/**
+	 * Returns the content as text, or null if it does not look like text.
+	 */
+	private static String decodeText(byte[] body) {
+		// the body may have been cut within a character of up to four bytes
+		String text = null;
+		for (int cut = 0; (cut < 4) && (cut <= body.length) && (text == null); cut++) {
+			try {
+				text = UTF8_CHARSET.newDecoder().onMalformedInput(CodingErrorAction.REPORT)
+					.decode(ByteBuffer.wrap(body, 0, body.length - cut)).toString();
+			} catch (CharacterCodingException ignored) {
+			}
+		}
+		if (text == null) {
+			return null;
+		}
+
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (Character.isISOControl(c) && (c != '\n') && (c != '\r') && (c != '\t')) {
+				return null;
+			}
+		}
+		return text;
+	}
+
+}
@@ -0,0 +1,98 @@
+package com.bradchen.jwormhole.client.console.commands;
+
+import com.bradchen.jwormhole.client.Client;
+import com.bradchen.jwormhole.client.LocalConnectionPool;
+import com.bradchen.jwormhole.client.Meter;
+import com.bradchen.jwormhole.client.RollingHistogram;
+import com.bradchen.jwormhole.client.Tunnel;
+import com.bradchen.jwormhole.client.TunnelStats;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.apache.commons.io.FileUtils.byteCountToDisplaySize;
+
+public class StatsCommand extends Command {
+
+	@Override
+	public String getName() {
+		return "stats";
+	}
+
+	@Override
+	public String getDescription() {
+		return "Show traffic of each tunnel; rates are over the last 1, 5 and 15 minutes.";
+	}
+
+	@Override
+	public List<String> getAliases() {
+		return null;
+	}
+
+	@Override
+	public List<Argument> getArguments() {
+		return Arrays.asList(new Argument("domain", "domain name of the tunnel to show", true));
+	}
+
+	@Override
+	public void handle(Client client, ArgumentsList argumentsList) {
+		String domainName = argumentsList.getValue("domain");
+		List<Tunnel> tunnels;
+		if (domainName == null) {
+			tunnels = client.getTunnels();
+		} else {
+			Tunnel tunnel = client.getTunnel(domainName);
+			if (tunnel == null) {
+				System.err.println("No such tunnel: " + domainName);
+				return;
+			}
+			tunnels = Collections.singletonList(tunnel);
+		}
+
+		for (Tunnel tunnel : tunnels) {
+			printStats(tunnel);
+		}
+	}
+
+	private static void printStats(Tunnel tunnel) {
+		TunnelStats stats = tunnel.getStats();
+		System.out.println(tunnel.getDomainName() + " -> localhost:" + tunnel.getLocalPort());
+		System.out.println("  Connections:\t\t" + stats.getNumActiveConnections() + " active, "
+			+ stats.getConnections().getCount() + " total, "
+			+ String.format("%.2f/s %.2f/s %.2f/s", stats.getConnections().getOneMinuteRate(),
+				stats.getConnections().getFiveMinuteRate(),
+				stats.getConnections().getFifteenMinuteRate()));
+		System.out.println("  Received:\t\t" + formatBytes(stats.getBytesReceived()));
+		System.out.println("  Sent:\t\t\t" + formatBytes(stats.getBytesSent()));
+		LocalConnectionPool localPool = tunnel.getLocalPool();
+		if (localPool != null) {
+			System.out.println("  Local pool:\t\t" + localPool.getNumIdle() + " idle of "
+				+ localPool.getTargetSize() + " wanted, " + localPool.getNumHits() + " hits, "
+				+ localPool.getNumMisses() + " misses, " + localPool.getNumReturned()
+				+ " kept alive");
+		}
+
+		// histograms; time to first byte is recorded in microseconds
+		RollingHistogram.Snapshot durations = stats.getConnectionDurations().getSnapshot();
+		RollingHistogram.Snapshot timesToFirstByte = stats.getTimesToFirstByte().getSnapshot();
+		System.out.println("  Duration (5 min):\t" + String.format(
+			"p50 %d ms, p90 %d ms, p99 %d ms, max %d ms",
+			durations.getValueAtPercentile(50), durations.getValueAtPercentile(90),
+			durations.getValueAtPercentile(99), durations.getMax()));
+		System.out.println("  First byte (5 min):\t" + String.format(
+			"p50 %.1f ms, p90 %.1f ms, p99 %.1f ms, max %.1f ms",
+			timesToFirstByte.getValueAtPercentile(50) / 1000.0,
+			timesToFirstByte.getValueAtPercentile(90) / 1000.0,
+			timesToFirstByte.getValueAtPercentile(99) / 1000.0,
+			timesToFirstByte.getMax() / 1000.0));
+	}
+
+	private static String formatBytes(Meter meter) {
+		return byteCountToDisplaySize(meter.getCount()) + ", "
+			+ byteCountToDisplaySize((long)meter.getOneMinuteRate()) + "/s "
+			+ byteCountToDisplaySize((long)meter.getFiveMinuteRate()) + "/s "
+			+ byteCountToDisplaySize((long)meter.getFifteenMinuteRate()) + "/s";
+	}
+
+}
@@ -1,6 +1,8 @@
 package com.bradchen.jwormhole.client.console.commands;
 
 import com.bradchen.jwormhole.client.Client;
+import com.bradchen.jwormhole.client.CompressionStats;
+import com.bradchen.jwormhole.client.SessionStats;
 import com.bradchen.jwormhole.client.Settings;
 
 import java.text.DateFormat;
@@ -9,6 +11,8 @@ import java.util.Date;
 import java.util.List;
 import java.util.Properties;
 
+import static org.apache.commons.io.FileUtils.byteCountToDisplaySize;
+
 public class StatusCommand extends Command {
 
 	private static final DateFormat DATE_TIME_FORMAT
@@ -51,13 +55,33 @@ public class StatusCommand extends Command {
 
 		// server
 		Settings settings = client.getSettings();
-		System.out.println("Server:\t\t\t" + settings.getServerSshHost() + ":"
-			+ settings.getServerSshPort());
+		System.out.println("Server:\t\t\t" + settings.getServer() + " ("
+			+ settings.getServerSshHost() + ":" + settings.getServerSshPort() + ")");
 		System.out.println("User:\t\t\t" + settings.getServerUsername());
 
 		// proxy
 		System.out.println("Proxied domain:\t\t" + client.getProxiedDomainName());
 		System.out.println("Local port:\t\t" + client.getLocalPort());
+		System.out.println("Tunnels:\t\t" + client.getTunnels().size());
+
+		// compression
+		CompressionStats compressionStats = client.getCompressionStats();
+		System.out.println("Compression:\t\t" + settings.getCompressionMode().name().toLowerCase()
+			+ (client.isCompressionEnabled() ? "" : " (off)") + ", "
+			+ (Double.isNaN(compressionStats.getRatio()) ? "no data, "
+				: String.format("ratio %.2f, ", compressionStats.getRatio()))
+			+ compressionStats.getCpuTime() + " ms CPU");
+
+		// session pool
+		for (SessionStats stats : client.getSessionStats()) {
+			long numTunnels = client.getTunnels().stream()
+				.filter(tunnel -> tunnel.getSessionIndex() == stats.getIndex())
+				.count();
+			System.out.println("Session " + stats.getIndex() + ":\t\t" + numTunnels
+				+ " tunnel(s), " + stats.getNumConnections() + " connection(s), "
+				+ byteCountToDisplaySize(stats.getBytesReceived()) + " received, "
+				+ byteCountToDisplaySize(stats.getBytesSent()) + " sent");
+		}
 
 		// current commit
 		System.out.println("Git commit:\t\t" + gitProperties.get("git.commit.id.abbrev") + " (" +
@@ -0,0 +1,44 @@
+package com.bradchen.jwormhole.client.console.commands;
+
+import com.bradchen.jwormhole.client.Client;
+import com.bradchen.jwormhole.client.Tunnel;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class TunnelsCommand extends Command {
+
+	@Override
+	public String getName() {
+		return "tunnels";
+	}
+
+	@Override
+	public String getDescription() {
+		return "List proxied local ports.";
+	}
+
+	@Override
+	public List<String> getAliases() {
+		return Arrays.asList("ls");
+	}
+
+	@Override
+	public List<Argument> getArguments() {
+		return null;
+	}
+
+	@Override
+	public void handle(Client client, ArgumentsList argumentsList) {
+		List<Tunnel> tunnels = client.getTunnels();
+		if (tunnels.isEmpty()) {
+			System.out.println("No tunnels.");
+			return;
+		}
+
+		for (Tunnel tunnel : tunnels) {
+			System.out.println(tunnel.getDomainName() + "\t-> localhost:" + tunnel.getLocalPort());
+		}
+	}
+
+}
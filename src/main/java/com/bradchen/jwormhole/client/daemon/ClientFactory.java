@@ -0,0 +1,15 @@
+package com.bradchen.jwormhole.client.daemon;
+
+import com.bradchen.jwormhole.client.Client;
+
+import java.io.IOException;
+
+/**
+ * Creates the client of a configured server; the client is not yet connected.
+ */
+@FunctionalInterface
+public interface ClientFactory {
+
+	Client createClient(String server) throws IOException;
+
+}
@@ -0,0 +1,416 @@
+package com.bradchen.jwormhole.client.daemon;
+
+import com.bradchen.jwormhole.client.Client;
+import com.bradchen.jwormhole.client.LatencyStats;
+import com.bradchen.jwormhole.client.RollingHistogram;
+import com.bradchen.jwormhole.client.Tunnel;
+import com.bradchen.jwormhole.client.TunnelStats;
+import com.bradchen.jwormhole.client.logging.Trace;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+/**
+ * HTTP control API of the daemon, bound to the loopback interface. Requests must carry the
+ * daemon's token as a bearer token, and must not come from a browser: those naming another host,
+ * as after DNS rebinding, or carrying an <code>Origin</code> header are refused. Request bodies
+ * must be flat JSON objects sent as <code>application/json</code>, which a cross-site form cannot
+ * do without a CORS preflight the server never answers; responses are JSON.
+ *
+ * <pre>
+ * GET    /tunnels            list tunnels
+ * POST   /tunnels            add a tunnel: port, and optionally name and server
+ * GET    /tunnels/{domain}   show a tunnel and its traffic
+ * DELETE /tunnels/{domain}   remove a tunnel
+ * GET    /servers            show the connection to each server
+ * </pre>
+ */
+final class ControlServer {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ControlServer.class);
+
+	private static final String TUNNELS_PATH = "/tunnels";
+	private static final String SERVERS_PATH = "/servers";
+	private static final String DEFAULT_SERVER = "default";
+	private static final int MAX_REQUEST_BYTES = 64 * 1024;
+	private static final int TOKEN_BYTES = 32;
+	private static final String BEARER_PREFIX = "Bearer ";
+	private static final int SHUTDOWN_DELAY = 1; // in seconds
+	private static final Pattern HOST_NAME_PATTERN = Pattern.compile("^[-_.a-z0-9]+$",
+		Pattern.CASE_INSENSITIVE);
+	private static final Pattern SERVER_PATTERN = Pattern.compile("^[-_a-z0-9]+$",
+		Pattern.CASE_INSENSITIVE);
+	private static final Charset UTF8_CHARSET = Charset.forName("utf-8");
+
+	private final TunnelManager tunnelManager;
+	private final byte[] token;
+	private final HttpServer httpServer;
+	private final ExecutorService executor;
+	private final List<String> allowedHosts;
+
+	ControlServer(TunnelManager tunnelManager, int port, int numThreads, String token)
+			throws IOException {
+		this.tunnelManager = tunnelManager;
+		this.token = token.getBytes(UTF8_CHARSET);
+		InetAddress address = InetAddress.getLoopbackAddress();
+		this.httpServer = HttpServer.create(new InetSocketAddress(address, port), 0);
+		int boundPort = httpServer.getAddress().getPort();
+		this.allowedHosts = Arrays.asList(address.getHostAddress() + ":" + boundPort,
+			"localhost:" + boundPort);
+		AtomicInteger threadNumber = new AtomicInteger();
+		this.executor = Executors.newFixedThreadPool(numThreads, runnable -> {
+			Thread thread = new Thread(runnable, "jwormhole-control-" +
+				threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		httpServer.setExecutor(executor);
+		httpServer.createContext(TUNNELS_PATH, this::handleTunnels);
+		httpServer.createContext(SERVERS_PATH, this::handleServers);
+	}
+
+	int getPort() {
+		return httpServer.getAddress().getPort();
+	}
+
+	void start() {
+		httpServer.start();
+	}
+
+	void stop() {
+		httpServer.stop(SHUTDOWN_DELAY);
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Writes a new random token to the file given, readable only by its owner, replacing any
+	 * token left by an earlier daemon.
+	 *
+	 * @return the token written
+	 */
+	static String createToken(Path file) throws IOException {
+		byte[] bytes = new byte[TOKEN_BYTES];
+		new SecureRandom().nextBytes(bytes);
+		StringBuilder token = new StringBuilder();
+		for (byte b : bytes) {
+			token.append(String.format("%02x", b & 0xff));
+		}
+
+		Files.createDirectories(file.toAbsolutePath().getParent());
+		Files.deleteIfExists(file);
+		if (file.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+			Files.createFile(file, PosixFilePermissions.asFileAttribute(
+				PosixFilePermissions.fromString("rw-------")));
+		} else {
+			Files.createFile(file);
+			File plainFile = file.toFile();
+			plainFile.setReadable(false, false);
+			plainFile.setWritable(false, false);
+			plainFile.setReadable(true, true);
+			plainFile.setWritable(true, true);
+		}
+		Files.write(file, Collections.singletonList(token.toString()), UTF8_CHARSET);
+		return token.toString();
+	}
+
+	private void handleTunnels(HttpExchange exchange) throws IOException {
+		try {
+			if (!authorize(exchange)) {
+				return;
+			}
+
+			String path = exchange.getRequestURI().getPath();
+			String method = exchange.getRequestMethod();
+			if (path.equals(TUNNELS_PATH) || path.equals(TUNNELS_PATH + "/")) {
+				if ("GET".equals(method)) {
+					listTunnels(exchange);
+				} else if ("POST".equals(method)) {
+					addTunnel(exchange);
+				} else {
+					sendMethodNotAllowed(exchange, "GET, POST");
+				}
+				return;
+			}
+
+			String domainName = path.substring(TUNNELS_PATH.length() + 1);
+			if ("GET".equals(method)) {
+				showTunnel(exchange, domainName);
+			} else if ("DELETE".equals(method)) {
+				removeTunnel(exchange, domainName);
+			} else {
+				sendMethodNotAllowed(exchange, "GET, DELETE");
+			}
+		} catch (RuntimeException exception) {
+			LOGGER.error("Error occurred when handling " + exchange.getRequestURI() + ".",
+				exception);
+			sendError(exchange, 500, "Internal error.");
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private void handleServers(HttpExchange exchange) throws IOException {
+		try {
+			if (!authorize(exchange)) {
+				return;
+			}
+			if (!"GET".equals(exchange.getRequestMethod())) {
+				sendMethodNotAllowed(exchange, "GET");
+				return;
+			}
+
+			Json.Writer json = new Json.Writer().beginObject().name("servers").beginArray();
+			for (Map.Entry<String, Client> entry : tunnelManager.getClients().entrySet()) {
+				Client client = entry.getValue();
+				LatencyStats latencyStats = client.getLatencyStats();
+				json.beginObject()
+					.name("server").value(entry.getKey())
+					.name("tunnels").value(client.getTunnels().size())
+					.name("reconnecting").value(client.isReconnecting())
+					.name("latencyDegraded").value(client.isLatencyDegraded())
+					.name("sshRoundTripMicros").value(latencyStats.getLastSshRoundTrip())
+					.name("controllerRoundTripMicros")
+					.value(latencyStats.getLastControllerRoundTrip())
+					.name("activeConnections")
+					.value(client.getRelayEngine().getNumConnections())
+					.endObject();
+			}
+			sendJson(exchange, 200, json.endArray().endObject());
+		} finally {
+			exchange.close();
+		}
+	}
+
+	/**
+	 * Refuses requests from browsers and requests without the token, answering them itself.
+	 *
+	 * @return whether the request may be handled
+	 */
+	private boolean authorize(HttpExchange exchange) throws IOException {
+		String host = exchange.getRequestHeaders().getFirst("Host");
+		if ((host == null) || !allowedHosts.contains(host.toLowerCase())) {
+			sendError(exchange, 403, "Host not allowed.");
+			return false;
+		}
+		if (exchange.getRequestHeaders().containsKey("Origin")) {
+			sendError(exchange, 403, "Cross-origin requests not allowed.");
+			return false;
+		}
+
+		String authorization = StringUtils.defaultString(
+			exchange.getRequestHeaders().getFirst("Authorization"));
+		byte[] presented = authorization.startsWith(BEARER_PREFIX)
+			? authorization.substring(BEARER_PREFIX.length()).trim().getBytes(UTF8_CHARSET)
+			: new byte[0];
+		if (!MessageDigest.isEqual(presented, token)) {
+			exchange.getResponseHeaders().set("WWW-Authenticate", "Bearer");
+			sendError(exchange, 401, "Missing or invalid token.");
+			return false;
+		}
+		return true;
+	}
+
+	private void listTunnels(HttpExchange exchange) throws IOException {
+		Json.Writer json = new Json.Writer().beginObject().name("tunnels").beginArray();
+		for (Map.Entry<String, List<Tunnel>> entry : tunnelManager.getTunnels().entrySet()) {
+			for (Tunnel tunnel : entry.getValue()) {
+				writeTunnel(json.beginObject(), entry.getKey(), tunnel).endObject();
+			}
+		}
+		sendJson(exchange, 200, json.endArray().endObject());
+	}
+
+	private void addTunnel(HttpExchange exchange) throws IOException {
+		String contentType = StringUtils.defaultString(
+			exchange.getRequestHeaders().getFirst("Content-Type"));
+		if (!contentType.toLowerCase().startsWith("application/json")) {
+			sendError(exchange, 415, "Request body must be application/json.");
+			return;
+		}
+
+		Map<String, String> parameters;
+		try {
+			parameters = Json.parseObject(readBody(exchange.getRequestBody()));
+		} catch (IllegalArgumentException exception) {
+			sendError(exchange, 400, exception.getMessage());
+			return;
+		}
+
+		int localPort;
+		try {
+			localPort = Integer.parseInt(StringUtils.defaultString(parameters.get("port")));
+		} catch (NumberFormatException exception) {
+			localPort = 0;
+		}
+		if ((localPort <= 0) || (localPort > 65535)) {
+			sendError(exchange, 400, "Invalid or missing port.");
+			return;
+		}
+
+		String name = StringUtils.trimToNull(parameters.get("name"));
+		if ((name != null) && !HOST_NAME_PATTERN.matcher(name).matches()) {
+			sendError(exchange, 400, "Invalid host name.");
+			return;
+		}
+
+		String server = StringUtils.defaultIfBlank(parameters.get("server"), DEFAULT_SERVER);
+		if (!SERVER_PATTERN.matcher(server).matches()) {
+			sendError(exchange, 400, "Invalid server.");
+			return;
+		}
+
+		Tunnel tunnel;
+		try {
+			tunnel = tunnelManager.addTunnel(server, localPort, name);
+		} catch (IOException exception) {
+			LOGGER.warn("Unable to add tunnel to localhost:" + localPort + " on " + server + ".",
+				exception);
+			sendError(exchange, 502, "Unable to reach jWormhole server " + server + ": " +
+				exception.getMessage());
+			return;
+		}
+		if (tunnel == null) {
+			sendError(exchange, 409, (name == null) ? "jWormhole server unavailable." :
+				"Host name specified is in use.");
+			return;
+		}
+
+		exchange.getResponseHeaders().set("Location",
+			TUNNELS_PATH + "/" + tunnel.getDomainName());
+		sendJson(exchange, 201, writeTunnel(new Json.Writer().beginObject(), server, tunnel)
+			.endObject());
+	}
+
+	private void showTunnel(HttpExchange exchange, String domainName) throws IOException {
+		Tunnel tunnel = tunnelManager.getTunnel(domainName);
+		String server = tunnelManager.getServer(domainName);
+		if ((tunnel == null) || (server == null)) {
+			sendError(exchange, 404, "No such tunnel: " + domainName);
+			return;
+		}
+
+		TunnelStats stats = tunnel.getStats();
+		RollingHistogram.Snapshot durations = stats.getConnectionDurations().getSnapshot();
+		RollingHistogram.Snapshot timesToFirstByte = stats.getTimesToFirstByte().getSnapshot();
+		Json.Writer json = writeTunnel(new Json.Writer().beginObject(), server, tunnel)
+			.name("connectionsPerSecond").value(stats.getConnections().getOneMinuteRate())
+			.name("queuedConnections").value(stats.getNumQueuedConnections())
+			.name("rejectedConnections").value(stats.getNumRejectedConnections())
+			.name("bytesReceivedPerSecond").value(stats.getBytesReceived().getOneMinuteRate())
+			.name("bytesSentPerSecond").value(stats.getBytesSent().getOneMinuteRate())
+			.name("connectionDurationMillis").beginObject()
+			.name("p50").value(durations.getValueAtPercentile(50))
+			.name("p90").value(durations.getValueAtPercentile(90))
+			.name("p99").value(durations.getValueAtPercentile(99))
+			.name("max").value(durations.getMax())
+			.endObject()
+			.name("timeToFirstByteMicros").beginObject()
+			.name("p50").value(timesToFirstByte.getValueAtPercentile(50))
+			.name("p90").value(timesToFirstByte.getValueAtPercentile(90))
+			.name("p99").value(timesToFirstByte.getValueAtPercentile(99))
+			.name("max").value(timesToFirstByte.getMax())
+			.endObject();
+		sendJson(exchange, 200, json.endObject());
+	}
+
+	private void removeTunnel(HttpExchange exchange, String domainName) throws IOException {
+		boolean removed;
+		try {
+			removed = tunnelManager.removeTunnel(domainName);
+		} catch (IOException exception) {
+			Trace.Scope scope = Trace.tunnel(domainName);
+			try {
+				LOGGER.warn("Unable to remove tunnel " + domainName + ".", exception);
+			} finally {
+				scope.close();
+			}
+			sendError(exchange, 502, "Unable to remove tunnel: " + exception.getMessage());
+			return;
+		}
+		if (!removed) {
+			sendError(exchange, 404, "No such tunnel: " + domainName);
+			return;
+		}
+		exchange.sendResponseHeaders(204, -1);
+	}
+
+	private static Json.Writer writeTunnel(Json.Writer json, String server, Tunnel tunnel) {
+		TunnelStats stats = tunnel.getStats();
+		return json
+			.name("domainName").value(tunnel.getDomainName())
+			.name("name").value(tunnel.getName())
+			.name("server").value(server)
+			.name("localPort").value(tunnel.getLocalPort())
+			.name("remotePort").value(tunnel.getRemotePort())
+			.name("session").value(tunnel.getSessionIndex())
+			.name("createTime").value(tunnel.getCreateTime())
+			.name("activeConnections").value(stats.getNumActiveConnections())
+			.name("connections").value(stats.getConnections().getCount())
+			.name("bytesReceived").value(stats.getBytesReceived().getCount())
+			.name("bytesSent").value(stats.getBytesSent().getCount());
+	}
+
+	private static String readBody(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int numBytes;
+		while ((numBytes = in.read(buffer)) >= 0) {
+			out.write(buffer, 0, numBytes);
+			if (out.size() > MAX_REQUEST_BYTES) {
+				throw new IllegalArgumentException("Request too large.");
+			}
+		}
+		return new String(out.toByteArray(), UTF8_CHARSET);
+	}
+
+	private static void sendMethodNotAllowed(HttpExchange exchange, String allowedMethods)
+			throws IOException {
+		exchange.getResponseHeaders().set("Allow", allowedMethods);
+		sendError(exchange, 405, "Method not allowed.");
+	}
+
+	private static void sendError(HttpExchange exchange, int status, String message)
+			throws IOException {
+		sendJson(exchange, status, new Json.Writer().beginObject().name("error").value(message)
+			.endObject());
+	}
+
+	private static void sendJson(HttpExchange exchange, int status, Json.Writer json)
+			throws IOException {
+		byte[] body = json.toString().getBytes(UTF8_CHARSET);
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(status, body.length);
+		OutputStream out = exchange.getResponseBody();
+		try {
+			out.write(body);
+		} finally {
+			IOUtils.closeQuietly(out);
+		}
+	}
+
+}
@@ -0,0 +1,101 @@
+package com.bradchen.jwormhole.client.daemon;
+
+import com.bradchen.jwormhole.client.Client;
+import com.bradchen.jwormhole.client.Settings;
+import com.bradchen.jwormhole.client.SettingsUtils;
+import com.bradchen.jwormhole.client.management.MetricsServer;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.commons.cli.PosixParser;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Properties;
+
+import static com.bradchen.jwormhole.client.SettingsUtils.readSettingsFromClassPathResource;
+import static com.bradchen.jwormhole.client.SettingsUtils.readSettingsFromFileRelativeToHome;
+
+/**
+ * Headless mode: a long-running process that holds tunnels to any of the configured servers,
+ * added and removed through the {@link ControlServer} instead of a console.
+ */
+public final class Daemon {
+
+	// in class path
+	private static final String DEFAULT_SETTINGS_FILE = "client.default.properties";
+
+	// relative to $HOME
+	private static final String OVERRIDE_SETTINGS_FILE = ".jwormhole/client.properties";
+	private static final String TOKEN_FILE = ".jwormhole/daemon.token";
+
+	private static final String PORT_SETTING = "daemon.port";
+	private static final String THREADS_SETTING = "daemon.threads";
+	private static final String METRICS_PORT_SETTING = "metrics.port";
+
+	private final String[] args;
+
+	public Daemon(String[] args) {
+		this.args = args;
+	}
+
+	public void run() throws IOException, ParseException {
+		Options options = new Options();
+		options.addOption("p", "port", true, "port of the control API");
+		CommandLineParser parser = new PosixParser();
+		CommandLine commandLine = parser.parse(options, args);
+		if (!commandLine.getArgList().isEmpty()) {
+			throw new RuntimeException("Invalid arguments: " +
+				StringUtils.join(commandLine.getArgList(), " "));
+		}
+
+		Properties defaultSettings = readSettingsFromClassPathResource(
+			Thread.currentThread().getContextClassLoader(), DEFAULT_SETTINGS_FILE);
+		Properties overrideSettings = readSettingsFromFileRelativeToHome(OVERRIDE_SETTINGS_FILE);
+		int port = Integer.parseInt(commandLine.getOptionValue("p", getSetting(defaultSettings,
+			overrideSettings, PORT_SETTING)));
+		int numThreads = Integer.parseInt(getSetting(defaultSettings, overrideSettings,
+			THREADS_SETTING));
+
+		TunnelManager tunnelManager = new TunnelManager(server -> {
+			Settings settings = new Settings(defaultSettings, overrideSettings, server);
+			if (StringUtils.isBlank(settings.getServerSshHost())) {
+				throw new IOException("Server not configured: " + server);
+			}
+			return new Client(settings, new DaemonUserInfo());
+		});
+		Path tokenFile = Paths.get(System.getenv("HOME"), TOKEN_FILE);
+		ControlServer controlServer = new ControlServer(tunnelManager, port, numThreads,
+			ControlServer.createToken(tokenFile));
+		String metricsPort = getSetting(defaultSettings, overrideSettings, METRICS_PORT_SETTING);
+		MetricsServer metricsServer = StringUtils.isBlank(metricsPort) ? null : new MetricsServer(
+			() -> tunnelManager.getClients().values(), Integer.parseInt(metricsPort.trim()));
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			controlServer.stop();
+			if (metricsServer != null) {
+				metricsServer.stop();
+			}
+			tunnelManager.shutdown();
+		}));
+
+		// the server's dispatcher thread keeps the process running
+		controlServer.start();
+		System.out.println("jWormhole daemon listening on 127.0.0.1:" + controlServer.getPort() +
+			"; token in " + tokenFile);
+		if (metricsServer != null) {
+			metricsServer.start();
+			System.out.println("Serving metrics on 127.0.0.1:" + metricsServer.getPort() +
+				"/metrics");
+		}
+	}
+
+	private static String getSetting(Properties defaultSettings, Properties overrideSettings,
+									 String key) {
+		return SettingsUtils.getSetting(defaultSettings, overrideSettings,
+			Settings.SETTING_PREFIX, null, key);
+	}
+
+}
@@ -0,0 +1,49 @@
+package com.bradchen.jwormhole.client.daemon;
+
+import com.jcraft.jsch.UserInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * UserInfo for the daemon, which has no one to ask: passwords and pass phrases are not available,
+ * so the private key must not be encrypted, and unknown host keys are rejected, so the servers
+ * must be in known_hosts.
+ */
+final class DaemonUserInfo implements UserInfo {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(DaemonUserInfo.class);
+
+	@Override
+	public String getPassphrase() {
+		return null;
+	}
+
+	@Override
+	public String getPassword() {
+		return null;
+	}
+
+	@Override
+	public boolean promptPassword(String message) {
+		LOGGER.warn("Password requested, but the daemon cannot prompt: " + message);
+		return false;
+	}
+
+	@Override
+	public boolean promptPassphrase(String message) {
+		LOGGER.warn("Pass phrase requested, but the daemon cannot prompt: " + message);
+		return false;
+	}
+
+	@Override
+	public boolean promptYesNo(String message) {
+		LOGGER.warn("Declined, as the daemon cannot prompt: " + message);
+		return false;
+	}
+
+	@Override
+	public void showMessage(String message) {
+		LOGGER.info(message);
+	}
+
+}
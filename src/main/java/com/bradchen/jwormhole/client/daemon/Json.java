@@ -0,0 +1,278 @@
+package com.bradchen.jwormhole.client.daemon;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Just enough JSON for the control API: a streaming writer for responses, and a reader for
+ * request bodies, which are flat objects of strings, numbers, booleans and nulls.
+ */
+final class Json {
+
+	private Json() {
+	}
+
+	/**
+	 * Parses a flat JSON object; values are returned as their text, and nulls are left out.
+	 *
+	 * @throws IllegalArgumentException if the text is not such an object
+	 */
+	static Map<String, String> parseObject(String text) {
+		Reader reader = new Reader(text);
+		Map<String, String> result = new LinkedHashMap<>();
+		reader.expect('{');
+		if (!reader.consume('}')) {
+			do {
+				String name = reader.readString();
+				reader.expect(':');
+				String value = reader.readValue();
+				if (value != null) {
+					result.put(name, value);
+				}
+			} while (reader.consume(','));
+			reader.expect('}');
+		}
+		reader.expectEnd();
+		return result;
+	}
+
+	static final class Writer {
+
+		private final StringBuilder out;
+		private boolean separatorNeeded;
+
+		Writer() {
+			this.out = new StringBuilder(256);
+		}
+
+		Writer beginObject() {
+			separate();
+			out.append('{');
+			separatorNeeded = false;
+			return this;
+		}
+
+		Writer endObject() {
+			out.append('}');
+			separatorNeeded = true;
+			return this;
+		}
+
+		Writer beginArray() {
+			separate();
+			out.append('[');
+			separatorNeeded = false;
+			return this;
+		}
+
+		Writer endArray() {
+			out.append(']');
+			separatorNeeded = true;
+			return this;
+		}
+
+		Writer name(String name) {
+			separate();
+			string(name);
+			out.append(':');
+			separatorNeeded = false;
+			return this;
+		}
+
+		Writer value(String value) {
+			separate();
+			if (value == null) {
+				out.append("null");
+			} else {
+				string(value);
+			}
+			separatorNeeded = true;
+			return this;
+		}
+
+		Writer value(long value) {
+			separate();
+			out.append(value);
+			separatorNeeded = true;
+			return this;
+		}
+
+		Writer value(double value) {
+			separate();
+			if (Double.isNaN(value) || Double.isInfinite(value)) {
+				out.append("null");
+			} else {
+				out.append(value);
+			}
+			separatorNeeded = true;
+			return this;
+		}
+
+		Writer value(boolean value) {
+			separate();
+			out.append(value);
+			separatorNeeded = true;
+			return this;
+		}
+
+		@Override
+		public String toString() {
+			return out.toString();
+		}
+
+		private void separate() {
+			if (separatorNeeded) {
+				out.append(',');
+			}
+		}
+
+		private void string(String value) {
+			out.append('"');
+			for (int i = 0; i < value.length(); i++) {
+				char c = value.charAt(i);
+				switch (c) {
+					case '"':
+						out.append("\\\"");
+						break;
+					case '\\':
+						out.append("\\\\");
+						break;
+					case '\n':
+						out.append("\\n");
+						break;
+					case '\r':
+						out.append("\\r");
+						break;
+					case '\t':
+						out.append("\\t");
+						break;
+					default:
+						if (c < 0x20) {
+							out.append(String.format("\\u%04x", (int)c));
+						} else {
+							out.append(c);
+						}
+				}
+			}
+			out.append('"');
+		}
+
+	}
+
+	private static final class Reader {
+
+		private final String text;
+		private int position;
+
+		private Reader(String text) {
+			this.text = text;
+		}
+
+		private void expect(char c) {
+			if (!consume(c)) {
+				throw error("'" + c + "' expected");
+			}
+		}
+
+		private void expectEnd() {
+			skipWhitespace();
+			if (position < text.length()) {
+				throw error("end of input expected");
+			}
+		}
+
+		private boolean consume(char c) {
+			skipWhitespace();
+			if ((position < text.length()) && (text.charAt(position) == c)) {
+				position++;
+				return true;
+			}
+			return false;
+		}
+
+		private String readValue() {
+			skipWhitespace();
+			if ((position < text.length()) && (text.charAt(position) == '"')) {
+				return readString();
+			}
+
+			int start = position;
+			while ((position < text.length()) && isLiteralChar(text.charAt(position))) {
+				position++;
+			}
+			String literal = text.substring(start, position);
+			if (literal.isEmpty()) {
+				throw error("value expected");
+			}
+			return "null".equals(literal) ? null : literal;
+		}
+
+		private String readString() {
+			expect('"');
+			StringBuilder result = new StringBuilder();
+			while (position < text.length()) {
+				char c = text.charAt(position++);
+				if (c == '"') {
+					return result.toString();
+				}
+				if (c != '\\') {
+					result.append(c);
+					continue;
+				}
+				if (position >= text.length()) {
+					break;
+				}
+
+				char escaped = text.charAt(position++);
+				switch (escaped) {
+					case 'n':
+						result.append('\n');
+						break;
+					case 'r':
+						result.append('\r');
+						break;
+					case 't':
+						result.append('\t');
+						break;
+					case 'b':
+						result.append('\b');
+						break;
+					case 'f':
+						result.append('\f');
+						break;
+					case 'u':
+						if (position + 4 > text.length()) {
+							throw error("invalid escape");
+						}
+						try {
+							result.append((char)Integer.parseInt(
+								text.substring(position, position + 4), 16));
+						} catch (NumberFormatException exception) {
+							throw error("invalid escape");
+						}
+						position += 4;
+						break;
+					default:
+						result.append(escaped);
+				}
+			}
+			throw error("unterminated string");
+		}
+
+		private void skipWhitespace() {
+			while ((position < text.length()) && Character.isWhitespace(text.charAt(position))) {
+				position++;
+			}
+		}
+
+		private static boolean isLiteralChar(char c) {
+			return Character.isLetterOrDigit(c) || (c == '-') || (c == '+') || (c == '.');
+		}
+
+		private IllegalArgumentException error(String message) {
+			return new IllegalArgumentException("Invalid JSON at " + position + ": " + message);
+		}
+
+	}
+
+}
@@ -0,0 +1,186 @@
+package com.bradchen.jwormhole.client.daemon;
+
+import com.bradchen.jwormhole.client.Client;
+import com.bradchen.jwormhole.client.Tunnel;
+import com.bradchen.jwormhole.client.logging.Trace;
+import com.bradchen.jwormhole.client.management.JmxExporter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tunnels of many servers in one process. Each server gets one {@link Client}, connected when its
+ * first tunnel is added, that carries all tunnels to that server; a client that gave up
+ * reconnecting is dropped, and the next tunnel to its server connects a new one. A client left
+ * without tunnels does not notice losing its connection, as nothing is kept alive, so one found
+ * disconnected when adding a tunnel is replaced as well. Clients are exported as MBeans while they
+ * are held.
+ */
+public final class TunnelManager {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(TunnelManager.class);
+
+	private final ClientFactory clientFactory;
+	private final Map<String, ServerClient> clients;
+
+	public TunnelManager(ClientFactory clientFactory) {
+		this.clientFactory = clientFactory;
+		this.clients = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * Proxies a local port through a new host on the server given.
+	 *
+	 * @return the new tunnel, or null if the server refused to create the host
+	 */
+	public Tunnel addTunnel(String server, int localPort, String name) throws IOException {
+		return clients.computeIfAbsent(server, ServerClient::new).getClient().addTunnel(localPort,
+			name);
+	}
+
+	/**
+	 * Returns the tunnel of the domain name given, or null if there is none.
+	 */
+	public Tunnel getTunnel(String domainName) {
+		for (ServerClient serverClient : clients.values()) {
+			Client client = serverClient.client;
+			Tunnel tunnel = (client == null) ? null : client.getTunnel(domainName);
+			if (tunnel != null) {
+				return tunnel;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the server the tunnel of the domain name given goes through, or null if there is no
+	 * such tunnel.
+	 */
+	public String getServer(String domainName) {
+		for (ServerClient serverClient : clients.values()) {
+			Client client = serverClient.client;
+			if ((client != null) && (client.getTunnel(domainName) != null)) {
+				return serverClient.server;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the tunnels of every server, by server name.
+	 */
+	public Map<String, List<Tunnel>> getTunnels() {
+		Map<String, List<Tunnel>> result = new TreeMap<>();
+		for (ServerClient serverClient : clients.values()) {
+			Client client = serverClient.client;
+			if (client != null) {
+				result.put(serverClient.server, client.getTunnels());
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the connected clients, by server name.
+	 */
+	public Map<String, Client> getClients() {
+		Map<String, Client> result = new TreeMap<>();
+		for (ServerClient serverClient : clients.values()) {
+			Client client = serverClient.client;
+			if (client != null) {
+				result.put(serverClient.server, client);
+			}
+		}
+		return Collections.unmodifiableMap(result);
+	}
+
+	/**
+	 * Stops proxying the tunnel of the domain name given and releases its host.
+	 *
+	 * @return false if no such tunnel exists
+	 */
+	public boolean removeTunnel(String domainName) throws IOException {
+		for (ServerClient serverClient : clients.values()) {
+			Client client = serverClient.client;
+			if ((client != null) && client.removeTunnel(domainName)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public void shutdown() {
+		List<ServerClient> serverClients = new ArrayList<>(clients.values());
+		clients.clear();
+		serverClients.parallelStream().forEach(ServerClient::shutdown);
+	}
+
+	private final class ServerClient {
+
+		private final String server;
+		private volatile Client client;
+		private JmxExporter exporter;
+
+		private ServerClient(String server) {
+			this.server = server;
+		}
+
+		private synchronized Client getClient() throws IOException {
+			if (client != null) {
+				if (client.isConnected() || client.isReconnecting() || !client.getTunnels().isEmpty()) {
+					return client;
+				}
+				LOGGER.warn("Lost connection to " + server + "; connecting again.");
+				exporter.stop();
+				client.shutdown();
+				client = null;
+			}
+
+			Client newClient = clientFactory.createClient(server);
+			newClient.addConnectionClosedHandler((localPort, domainName) -> {
+				Trace.Scope scope = Trace.tunnel(domainName);
+				try {
+					LOGGER.warn("Lost tunnel " + domainName + " to localhost:" + localPort + " on " +
+						server + ".");
+				} finally {
+					scope.close();
+				}
+				clientLost(newClient);
+			});
+			try {
+				newClient.connect();
+			} catch (IOException exception) {
+				newClient.shutdown();
+				throw exception;
+			}
+			client = newClient;
+			exporter = new JmxExporter(newClient);
+			exporter.start();
+			return newClient;
+		}
+
+		private synchronized void clientLost(Client lostClient) {
+			if (client == lostClient) {
+				exporter.stop();
+				client = null;
+			}
+		}
+
+		private synchronized void shutdown() {
+			if (client != null) {
+				exporter.stop();
+				client.shutdown();
+				client = null;
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,178 @@
+package com.bradchen.jwormhole.client.http;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A response stored by the {@link HttpCache}. Freshness follows <code>Cache-Control</code>
+ * (<code>s-maxage</code>, then <code>max-age</code>) or <code>Expires</code>; without either, or
+ * with <code>no-cache</code>, the response is revalidated with its <code>ETag</code> or
+ * <code>Last-Modified</code> on every use. Lifetimes are never guessed, so an edited file is seen
+ * on the next request unless the server said otherwise.
+ */
+final class CachedResponse {
+
+	// hop-by-hop headers, and headers set again whenever the response is sent
+	private static final List<String> UNSTORED_HEADERS = Arrays.asList("Connection", "Keep-Alive",
+		"Proxy-Connection", "Transfer-Encoding", "TE", "Trailer", "Upgrade", "Age",
+		"Content-Length");
+
+	// headers a 304 response may update
+	private static final List<String> UPDATED_HEADERS = Arrays.asList("Cache-Control", "Date",
+		"ETag", "Expires", "Last-Modified", "Vary");
+
+	private final HttpHead head;
+	private final byte[] body;
+	private final long responseTime; // in milliseconds since the epoch
+	private final long freshnessLifetime; // in milliseconds
+
+	private CachedResponse(HttpHead head, byte[] body, long responseTime,
+						   long freshnessLifetime) {
+		this.head = head;
+		this.body = body;
+		this.responseTime = responseTime;
+		this.freshnessLifetime = freshnessLifetime;
+	}
+
+	static CachedResponse create(HttpHead response, byte[] body, long now) {
+		HttpHead head = new HttpHead(response);
+		for (String name : UNSTORED_HEADERS) {
+			head.removeHeader(name);
+		}
+		head.setHeader("Content-Length", Integer.toString(body.length));
+		return new CachedResponse(head, body, now, getFreshnessLifetime(head));
+	}
+
+	/**
+	 * Returns true if a shared cache may store the response given. Only complete 200 responses
+	 * are stored, and not ones that set cookies, vary on anything but the encoding, or can be
+	 * revalidated in no way; whether the request may be answered from a cache is up to the
+	 * caller.
+	 */
+	static boolean isStorable(HttpHead response) {
+		if ((response.getStatus() != 200) || response.hasToken("Cache-Control", "no-store")
+				|| response.hasToken("Cache-Control", "private")
+				|| response.hasHeader("Set-Cookie")) {
+			return false;
+		}
+
+		String vary = response.getHeader("Vary");
+		if (vary != null) {
+			for (String header : vary.split(",")) {
+				if (!header.trim().isEmpty() && !header.trim().equalsIgnoreCase("Accept-Encoding")) {
+					return false;
+				}
+			}
+		}
+		return (getFreshnessLifetime(response) > 0) || response.hasHeader("ETag")
+			|| response.hasHeader("Last-Modified");
+	}
+
+	private static long getFreshnessLifetime(HttpHead response) {
+		if (response.hasToken("Cache-Control", "no-cache")) {
+			return 0;
+		}
+
+		String maxAge = response.getDirective("Cache-Control", "s-maxage");
+		if (maxAge == null) {
+			maxAge = response.getDirective("Cache-Control", "max-age");
+		}
+		if (maxAge != null) {
+			try {
+				return TimeUnit.SECONDS.toMillis(Math.max(Long.parseLong(maxAge), 0));
+			} catch (NumberFormatException exception) {
+				return 0;
+			}
+		}
+
+		String expires = response.getHeader("Expires");
+		if (expires == null) {
+			return 0;
+		}
+		long expiresTime = parseDate(expires);
+		String date = response.getHeader("Date");
+		long dateTime = (date == null) ? System.currentTimeMillis() : parseDate(date);
+		return ((expiresTime < 0) || (dateTime < 0)) ? 0 : Math.max(expiresTime - dateTime, 0);
+	}
+
+	private static long parseDate(String value) {
+		try {
+			return ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME)
+				.toInstant().toEpochMilli();
+		} catch (DateTimeParseException exception) {
+			return -1;
+		}
+	}
+
+	static CachedResponse readFrom(DataInput in) throws IOException {
+		HttpHead head = HttpHead.readFrom(in);
+		long responseTime = in.readLong();
+		long freshnessLifetime = in.readLong();
+		byte[] body = new byte[in.readInt()];
+		in.readFully(body);
+		return new CachedResponse(head, body, responseTime, freshnessLifetime);
+	}
+
+	void writeTo(DataOutput out) throws IOException {
+		head.writeTo(out);
+		out.writeLong(responseTime);
+		out.writeLong(freshnessLifetime);
+		out.writeInt(body.length);
+		out.write(body);
+	}
+
+	/**
+	 * Returns this response as revalidated by the 304 response given.
+	 */
+	CachedResponse revalidate(HttpHead notModified, long now) {
+		HttpHead updatedHead = new HttpHead(head);
+		for (String name : UPDATED_HEADERS) {
+			String value = notModified.getHeader(name);
+			if (value != null) {
+				updatedHead.setHeader(name, value);
+			}
+		}
+		return new CachedResponse(updatedHead, body, now, getFreshnessLifetime(updatedHead));
+	}
+
+	/**
+	 * Returns a copy of the head to send, with the response's age in seconds.
+	 */
+	HttpHead getHead(long now) {
+		HttpHead result = new HttpHead(head);
+		result.setHeader("Age", Long.toString(TimeUnit.MILLISECONDS.toSeconds(
+			Math.max(now - responseTime, 0))));
+		return result;
+	}
+
+	byte[] getBody() {
+		return body;
+	}
+
+	String getETag() {
+		return head.getHeader("ETag");
+	}
+
+	String getLastModified() {
+		return head.getHeader("Last-Modified");
+	}
+
+	boolean isFresh(long now) {
+		return now - responseTime < freshnessLifetime;
+	}
+
+	/**
+	 * Returns roughly how many bytes the response takes.
+	 */
+	long getSize() {
+		return body.length + head.getSize();
+	}
+
+}
@@ -0,0 +1,515 @@
+package com.bradchen.jwormhole.client.http;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * HTTP/1.1 reverse proxy on a loopback port in front of a local port, which serves repeated GET
+ * requests from an {@link HttpCache}. Tunnels forward to this proxy instead of the local port.
+ *
+ * Requests that cannot be cached pass through as they are, in their original framing, and
+ * upgraded connections such as WebSockets are relayed as plain bytes once the local server
+ * switches protocols. Cached responses that are stale are revalidated with their
+ * <code>ETag</code> or <code>Last-Modified</code>.
+ *
+ * Every connection holds a thread, two once upgraded, so only so many connections are served at
+ * once; others are answered with 503 right away. A connection kept alive is closed once it sits
+ * idle between requests for {@link #IDLE_TIMEOUT} milliseconds, freeing its thread.
+ */
+public final class CachingProxy implements Closeable {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(CachingProxy.class);
+
+	private static final String LOCALHOST = "127.0.0.1";
+	private static final Charset ISO_8859_1_CHARSET = Charset.forName("iso-8859-1");
+	private static final int BUFFER_SIZE = 16 * 1024;
+	private static final int IDLE_TIMEOUT = 60 * 1000;
+
+	private final int localPort;
+	private final HttpCache cache;
+	private final ServerSocket serverSocket;
+	private final Semaphore connectionSlots;
+	private final Thread acceptor;
+	private final ExecutorService executor;
+
+	/**
+	 * @param localPort port of the local server to proxy
+	 * @param cache cache of responses of the local server
+	 * @param maxConnections number of connections served at once
+	 */
+	public CachingProxy(int localPort, HttpCache cache, int maxConnections) throws IOException {
+		this.localPort = localPort;
+		this.cache = cache;
+		this.serverSocket = new ServerSocket(0, 0, InetAddress.getLoopbackAddress());
+		this.connectionSlots = new Semaphore(Math.max(maxConnections, 1));
+		this.acceptor = new Thread(this::accept, "jwormhole-cache-" + localPort);
+		acceptor.setDaemon(true);
+		AtomicInteger threadNumber = new AtomicInteger();
+		this.executor = Executors.newCachedThreadPool(runnable -> {
+			Thread thread = new Thread(runnable, "jwormhole-cache-" + localPort + "-" +
+				threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Returns the port the proxy listens to.
+	 */
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	public int getLocalPort() {
+		return localPort;
+	}
+
+	public HttpCache getCache() {
+		return cache;
+	}
+
+	public void start() {
+		acceptor.start();
+	}
+
+	@Override
+	public void close() {
+		IOUtils.closeQuietly(serverSocket);
+		executor.shutdownNow();
+		cache.close();
+	}
+
+	private void accept() {
+		while (!serverSocket.isClosed()) {
+			Socket socket;
+			try {
+				socket = serverSocket.accept();
+			} catch (IOException exception) {
+				if (!serverSocket.isClosed()) {
+					LOGGER.warn("Caching proxy of port " + localPort + " failed to accept.",
+						exception);
+				}
+				continue;
+			}
+
+			if (!connectionSlots.tryAcquire()) {
+				sendServiceUnavailable(socket);
+				continue;
+			}
+			try {
+				executor.execute(new ProxyConnection(socket));
+			} catch (RejectedExecutionException ignored) {
+				// shut down
+				connectionSlots.release();
+				IOUtils.closeQuietly(socket);
+				return;
+			}
+		}
+	}
+
+	private void sendServiceUnavailable(Socket socket) {
+		try {
+			socket.getOutputStream().write(("HTTP/1.1 503 Service Unavailable\r\n" +
+				"Content-Length: 0\r\nConnection: close\r\n\r\n").getBytes(ISO_8859_1_CHARSET));
+		} catch (IOException exception) {
+			LOGGER.debug("Unable to refuse proxied connection to port " + localPort + ".",
+				exception);
+		} finally {
+			IOUtils.closeQuietly(socket);
+		}
+	}
+
+	/**
+	 * One connection from the tunnel, and the connection to the local server it uses, which is
+	 * kept alive as long as both sides allow.
+	 */
+	private final class ProxyConnection implements Runnable {
+
+		private final Socket socket;
+		private InputStream clientIn;
+		private OutputStream clientOut;
+		private Socket backend;
+		private InputStream backendIn;
+		private OutputStream backendOut;
+		private boolean backendReused;
+
+		private ProxyConnection(Socket socket) {
+			this.socket = socket;
+		}
+
+		@Override
+		public void run() {
+			try {
+				clientIn = new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE);
+				clientOut = new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE);
+				HttpHead request;
+				while (true) {
+					socket.setSoTimeout(IDLE_TIMEOUT);
+					request = HttpHead.read(clientIn);
+					if (request == null) {
+						break;
+					}
+					socket.setSoTimeout(0);
+					if (!handle(request)) {
+						break;
+					}
+				}
+			} catch (IOException exception) {
+				LOGGER.debug("Proxied connection to port " + localPort + " failed.", exception);
+			} finally {
+				closeBackend();
+				IOUtils.closeQuietly(socket);
+				connectionSlots.release();
+			}
+		}
+
+		/**
+		 * @return true if the connection may serve another request
+		 */
+		private boolean handle(HttpHead request) throws IOException {
+			boolean keepAlive = isKeepAlive(request);
+			if (request.hasHeader("Upgrade") || "CONNECT".equals(request.getMethod())) {
+				relayUpgrade(request);
+				return false;
+			}
+			if (isCacheable(request)) {
+				return handleCacheable(request, keepAlive) && keepAlive;
+			}
+			return forward(request) && keepAlive;
+		}
+
+		private boolean isCacheable(HttpHead request) {
+			return "GET".equals(request.getMethod())
+				&& (HttpBody.getRequestFraming(request) == HttpBody.Framing.NONE)
+				&& !request.hasHeader("Authorization")
+				&& !request.hasToken("Cache-Control", "no-store");
+		}
+
+		private boolean handleCacheable(HttpHead request, boolean keepAlive) throws IOException {
+			String key = request.getHeader("Host") + " " + request.getTarget() + " " +
+				request.getHeader("Accept-Encoding");
+			CachedResponse cached = cache.get(key);
+			boolean noCache = request.hasToken("Cache-Control", "no-cache")
+				|| request.hasToken("Pragma", "no-cache");
+			long now = System.currentTimeMillis();
+			if ((cached != null) && !noCache && cached.isFresh(now)) {
+				cache.hit(cached.getBody().length);
+				writeCached(request, cached, now, keepAlive);
+				return true;
+			}
+
+			// the client's own conditions are answered from the cache once the entry is current
+			HttpHead backendRequest = request;
+			boolean validating = (cached != null)
+				&& ((cached.getETag() != null) || (cached.getLastModified() != null));
+			if (validating) {
+				backendRequest = new HttpHead(request);
+				backendRequest.removeHeader("If-None-Match");
+				backendRequest.removeHeader("If-Modified-Since");
+				if (cached.getETag() != null) {
+					backendRequest.setHeader("If-None-Match", cached.getETag());
+				}
+				if (cached.getLastModified() != null) {
+					backendRequest.setHeader("If-Modified-Since", cached.getLastModified());
+				}
+			}
+
+			HttpHead response = sendBodilessRequest(backendRequest);
+			if (response == null) {
+				return false;
+			}
+			if (validating && (response.getStatus() == 304)) {
+				releaseBackend(response);
+				CachedResponse revalidated = cached.revalidate(response, now);
+				cache.put(key, revalidated);
+				cache.revalidated(cached.getBody().length);
+				writeCached(request, revalidated, now, keepAlive);
+				return true;
+			}
+
+			cache.missed();
+			boolean storable = CachedResponse.isStorable(response);
+			HttpBody.Capture capture = storable ? new HttpBody.Capture(cache.getMaxEntrySize())
+				: null;
+			// store before the end of the response goes out, so that the next request finds it
+			boolean reusable = copyResponse(request, response, capture);
+			if (storable && !capture.isOverflowed()) {
+				cache.put(key, CachedResponse.create(response, capture.toByteArray(), now));
+			} else if (response.getStatus() == 200) {
+				cache.remove(key);
+			}
+			clientOut.flush();
+			return reusable;
+		}
+
+		private void writeCached(HttpHead request, CachedResponse cached, long now,
+								 boolean keepAlive) throws IOException {
+			HttpHead head = cached.getHead(now);
+			boolean notModified = isNotModified(request, cached);
+			if (notModified) {
+				head.setStartLine("HTTP/1.1 304 Not Modified");
+				head.removeHeader("Content-Length");
+			}
+			if (!keepAlive) {
+				head.setHeader("Connection", "close");
+			} else if ("HTTP/1.0".equals(request.getVersion())) {
+				head.setHeader("Connection", "keep-alive");
+			}
+
+			head.write(clientOut);
+			if (!notModified) {
+				clientOut.write(cached.getBody());
+			}
+			clientOut.flush();
+		}
+
+		private boolean isNotModified(HttpHead request, CachedResponse cached) {
+			String ifNoneMatch = request.getHeader("If-None-Match");
+			if (ifNoneMatch != null) {
+				String etag = cached.getETag();
+				if (etag == null) {
+					return false;
+				}
+				for (String candidate : ifNoneMatch.split(",")) {
+					String value = candidate.trim();
+					if (value.equals("*") || stripWeak(value).equals(stripWeak(etag))) {
+						return true;
+					}
+				}
+				return false;
+			}
+
+			String ifModifiedSince = request.getHeader("If-Modified-Since");
+			return (ifModifiedSince != null) && ifModifiedSince.equals(cached.getLastModified());
+		}
+
+		/**
+		 * Passes a request that is not cached on to the local server, and its response back.
+		 *
+		 * @return true if the connection may serve another request
+		 */
+		private boolean forward(HttpHead request) throws IOException {
+			HttpBody.Framing framing = HttpBody.getRequestFraming(request);
+			if (framing == HttpBody.Framing.NONE) {
+				HttpHead response = sendBodilessRequest(request);
+				return (response != null) && relayResponse(request, response);
+			}
+
+			// answer an expected continue here, so that the body is not held up waiting for it
+			HttpHead backendRequest = request;
+			if (request.hasToken("Expect", "100-continue")) {
+				backendRequest = new HttpHead(request);
+				backendRequest.removeHeader("Expect");
+				clientOut.write("HTTP/1.1 100 Continue\r\n\r\n".getBytes(ISO_8859_1_CHARSET));
+				clientOut.flush();
+			}
+
+			if (!openBackend()) {
+				return false;
+			}
+			backendRequest.write(backendOut);
+			HttpBody.copy(framing, request, clientIn, backendOut, null);
+			backendOut.flush();
+			HttpHead response = readResponse();
+			if (response == null) {
+				sendBadGateway();
+				return false;
+			}
+			return relayResponse(request, response);
+		}
+
+		/**
+		 * Sends a request without a body, retrying once on a new connection if a connection kept
+		 * alive turns out to have been closed by the local server.
+		 *
+		 * @return the final response, or null if the local server could not be reached
+		 */
+		private HttpHead sendBodilessRequest(HttpHead request) throws IOException {
+			for (int attempt = 0; attempt < 2; attempt++) {
+				if (!openBackend()) {
+					return null;
+				}
+
+				boolean reused = backendReused;
+				try {
+					request.write(backendOut);
+					backendOut.flush();
+					HttpHead response = readResponse();
+					if (response != null) {
+						return response;
+					}
+				} catch (IOException exception) {
+					if (!reused) {
+						throw exception;
+					}
+				}
+				closeBackend();
+				if (!reused) {
+					break;
+				}
+			}
+			sendBadGateway();
+			return null;
+		}
+
+		/**
+		 * Reads the final response, passing interim responses other than switching protocols on
+		 * to the client.
+		 */
+		private HttpHead readResponse() throws IOException {
+			while (true) {
+				HttpHead response = HttpHead.read(backendIn);
+				if (response == null) {
+					return null;
+				}
+				int status = response.getStatus();
+				if ((status < 100) || (status >= 200) || (status == 101)) {
+					return response;
+				}
+				response.write(clientOut);
+				clientOut.flush();
+			}
+		}
+
+		/**
+		 * Passes a response on to the client.
+		 *
+		 * @return true if the connection may serve another request
+		 */
+		private boolean relayResponse(HttpHead request, HttpHead response) throws IOException {
+			boolean reusable = copyResponse(request, response, null);
+			clientOut.flush();
+			return reusable;
+		}
+
+		/**
+		 * Copies a response to the client, capturing its content if asked to, short of flushing
+		 * the end of it.
+		 *
+		 * @return true if the connection may serve another request
+		 */
+		private boolean copyResponse(HttpHead request, HttpHead response,
+									 HttpBody.Capture capture) throws IOException {
+			HttpBody.Framing framing = HttpBody.getResponseFraming(request.getMethod(), response);
+			response.write(clientOut);
+			HttpBody.copy(framing, response, backendIn, clientOut, capture);
+			if (framing == HttpBody.Framing.UNTIL_CLOSE) {
+				closeBackend();
+				return false;
+			}
+			releaseBackend(response);
+			return !response.hasToken("Connection", "close");
+		}
+
+		private void relayUpgrade(HttpHead request) throws IOException {
+			if (!openBackend()) {
+				return;
+			}
+			request.write(backendOut);
+			backendOut.flush();
+			HttpHead response = readResponse();
+			if (response == null) {
+				sendBadGateway();
+				return;
+			}
+			if (response.getStatus() != 101) {
+				relayResponse(request, response);
+				return;
+			}
+
+			response.write(clientOut);
+			clientOut.flush();
+			Socket upgradedBackend = backend;
+			try {
+				executor.execute(() -> {
+					try {
+						IOUtils.copy(clientIn, upgradedBackend.getOutputStream());
+					} catch (IOException ignored) {
+					} finally {
+						IOUtils.closeQuietly(upgradedBackend);
+						IOUtils.closeQuietly(socket);
+					}
+				});
+			} catch (RejectedExecutionException ignored) {
+				// shut down
+				return;
+			}
+			try {
+				IOUtils.copy(backendIn, socket.getOutputStream());
+			} catch (IOException ignored) {
+			}
+		}
+
+		private boolean openBackend() throws IOException {
+			if (backend != null) {
+				backendReused = true;
+				return true;
+			}
+
+			try {
+				backend = new Socket(LOCALHOST, localPort);
+				backend.setTcpNoDelay(true);
+				backendIn = new BufferedInputStream(backend.getInputStream(), BUFFER_SIZE);
+				backendOut = new BufferedOutputStream(backend.getOutputStream(), BUFFER_SIZE);
+				backendReused = false;
+				return true;
+			} catch (IOException exception) {
+				LOGGER.debug("Unable to connect to port " + localPort + ".", exception);
+				closeBackend();
+				sendBadGateway();
+				return false;
+			}
+		}
+
+		private void releaseBackend(HttpHead response) {
+			if (response.hasToken("Connection", "close")
+					|| ("HTTP/1.0".equals(response.getVersion())
+						&& !response.hasToken("Connection", "keep-alive"))) {
+				closeBackend();
+			}
+		}
+
+		private void closeBackend() {
+			IOUtils.closeQuietly(backend);
+			backend = null;
+			backendIn = null;
+			backendOut = null;
+		}
+
+		private void sendBadGateway() throws IOException {
+			clientOut.write(("HTTP/1.1 502 Bad Gateway\r\nContent-Length: 0\r\n" +
+				"Connection: close\r\n\r\n").getBytes(ISO_8859_1_CHARSET));
+			clientOut.flush();
+		}
+
+	}
+
+	private static boolean isKeepAlive(HttpHead request) {
+		if ("HTTP/1.0".equals(request.getVersion())) {
+			return request.hasToken("Connection", "keep-alive");
+		}
+		return !request.hasToken("Connection", "close");
+	}
+
+	private static String stripWeak(String etag) {
+		return etag.startsWith("W/") ? etag.substring(2) : etag;
+	}
+
+}
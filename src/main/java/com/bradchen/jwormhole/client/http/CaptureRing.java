@@ -0,0 +1,131 @@
+package com.bradchen.jwormhole.client.http;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Records of any length laid end to end in a direct buffer of a fixed size. Once the buffer is
+ * full, the newest records overwrite the oldest ones, so the memory taken stays the same however
+ * much is recorded, and none of it is on the heap.
+ */
+final class CaptureRing {
+
+	private final ByteBuffer buffer;
+	private final Deque<Slot> slots;
+	private int writePosition;
+	private long numUsed;
+	private long numEvicted;
+
+	CaptureRing(int capacity) {
+		this.buffer = ByteBuffer.allocateDirect(capacity);
+		this.slots = new ArrayDeque<>();
+	}
+
+	int getCapacity() {
+		return buffer.capacity();
+	}
+
+	synchronized long getNumUsed() {
+		return numUsed;
+	}
+
+	synchronized int getNumRecords() {
+		return slots.size();
+	}
+
+	/**
+	 * Returns the number of records overwritten by newer ones.
+	 */
+	synchronized long getNumEvicted() {
+		return numEvicted;
+	}
+
+	/**
+	 * Adds a record, overwriting the oldest records in its way.
+	 *
+	 * @return false if the record is larger than the whole ring
+	 */
+	synchronized boolean put(long id, byte[] record, int length) {
+		if (length > buffer.capacity()) {
+			return false;
+		}
+
+		int position = writePosition;
+		boolean wrapped = (position + length) > buffer.capacity();
+		if (wrapped) {
+			position = 0;
+		}
+
+		// records at or past the write position are the oldest; when wrapping they are dropped as
+		// well, so that the records left stay in order
+		while (!slots.isEmpty()) {
+			Slot oldest = slots.peekFirst();
+			boolean overwritten = (wrapped && (oldest.position >= writePosition))
+				|| ((oldest.position < (position + length))
+					&& ((oldest.position + oldest.length) > position));
+			if (!overwritten) {
+				break;
+			}
+			slots.pollFirst();
+			numUsed -= oldest.length;
+			numEvicted++;
+		}
+
+		ByteBuffer target = buffer.duplicate();
+		target.position(position);
+		target.put(record, 0, length);
+		slots.addLast(new Slot(id, position, length));
+		writePosition = position + length;
+		numUsed += length;
+		return true;
+	}
+
+	/**
+	 * Returns a copy of the record of the ID given, or null if there is no such record.
+	 */
+	synchronized byte[] get(long id) {
+		for (Slot slot : slots) {
+			if (slot.id == id) {
+				return read(slot);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns copies of all records, the oldest first.
+	 */
+	synchronized List<byte[]> getAll() {
+		List<byte[]> records = new ArrayList<>(slots.size());
+		for (Slot slot : slots) {
+			records.add(read(slot));
+		}
+		return records;
+	}
+
+	private byte[] read(Slot slot) {
+		byte[] record = new byte[slot.length];
+		ByteBuffer source = buffer.duplicate();
+		source.position(slot.position);
+		source.get(record);
+		return record;
+	}
+
+	private static final class Slot {
+
+		private final long id;
+		private final int position;
+		private final int length;
+
+		private Slot(long id, int position, int length) {
+			this.id = id;
+			this.position = position;
+			this.length = length;
+		}
+
+	}
+
+}
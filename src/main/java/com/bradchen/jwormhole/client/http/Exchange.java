@@ -0,0 +1,226 @@
+package com.bradchen.jwormhole.client.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * An HTTP request that went through a tunnel to a local port, and the response to it if one came.
+ * Bodies are kept up to the inspector's limit only.
+ */
+public final class Exchange {
+
+	private static final byte[] EMPTY_BODY = new byte[0];
+
+	private final long id;
+	private final long startTime;
+	private final long duration;
+	private final String domainName;
+	private final int localPort;
+	private final HttpHead request;
+	private final byte[] requestBody;
+	private final long requestBodySize;
+	private final HttpHead response;
+	private final byte[] responseBody;
+	private final long responseBodySize;
+
+	Exchange(long id, long startTime, long duration, String domainName, int localPort,
+			 HttpHead request, byte[] requestBody, long requestBodySize, HttpHead response,
+			 byte[] responseBody, long responseBodySize) {
+		this.id = id;
+		this.startTime = startTime;
+		this.duration = duration;
+		this.domainName = domainName;
+		this.localPort = localPort;
+		this.request = request;
+		this.requestBody = (requestBody == null) ? EMPTY_BODY : requestBody;
+		this.requestBodySize = requestBodySize;
+		this.response = response;
+		this.responseBody = (responseBody == null) ? EMPTY_BODY : responseBody;
+		this.responseBodySize = responseBodySize;
+	}
+
+	static Exchange readFrom(DataInput in) throws IOException {
+		long id = in.readLong();
+		long startTime = in.readLong();
+		long duration = in.readLong();
+		String domainName = in.readUTF();
+		int localPort = in.readInt();
+		HttpHead request = HttpHead.readFrom(in);
+		byte[] requestBody = readBody(in);
+		long requestBodySize = in.readLong();
+		if (!in.readBoolean()) {
+			return new Exchange(id, startTime, duration, domainName, localPort, request,
+				requestBody, requestBodySize, null, null, 0);
+		}
+
+		HttpHead response = HttpHead.readFrom(in);
+		byte[] responseBody = readBody(in);
+		long responseBodySize = in.readLong();
+		return new Exchange(id, startTime, duration, domainName, localPort, request, requestBody,
+			requestBodySize, response, responseBody, responseBodySize);
+	}
+
+	private static byte[] readBody(DataInput in) throws IOException {
+		byte[] body = new byte[in.readInt()];
+		in.readFully(body);
+		return body;
+	}
+
+	void writeTo(DataOutput out) throws IOException {
+		out.writeLong(id);
+		out.writeLong(startTime);
+		out.writeLong(duration);
+		out.writeUTF(domainName);
+		out.writeInt(localPort);
+		request.writeTo(out);
+		out.writeInt(requestBody.length);
+		out.write(requestBody);
+		out.writeLong(requestBodySize);
+		out.writeBoolean(response != null);
+		if (response != null) {
+			response.writeTo(out);
+			out.writeInt(responseBody.length);
+			out.write(responseBody);
+			out.writeLong(responseBodySize);
+		}
+	}
+
+	public long getId() {
+		return id;
+	}
+
+	/**
+	 * Returns the time the request started arriving, in milliseconds since the epoch.
+	 */
+	public long getStartTime() {
+		return startTime;
+	}
+
+	/**
+	 * Returns the time from the start of the request to the end of the response in microseconds,
+	 * or -1 if no complete response came.
+	 */
+	public long getDuration() {
+		return duration;
+	}
+
+	public String getDomainName() {
+		return domainName;
+	}
+
+	public int getLocalPort() {
+		return localPort;
+	}
+
+	public String getMethod() {
+		return request.getMethod();
+	}
+
+	public String getTarget() {
+		return request.getTarget();
+	}
+
+	/**
+	 * Returns the status code of the response, or 0 if no response came.
+	 */
+	public int getStatus() {
+		return (response == null) ? 0 : response.getStatus();
+	}
+
+	/**
+	 * Returns the start line and headers of the request, one per line.
+	 */
+	public String getRequestHead() {
+		return formatHead(request);
+	}
+
+	public String getRequestHeader(String name) {
+		return request.getHeader(name);
+	}
+
+	/**
+	 * Returns the decoded content of the request, up to the inspector's limit.
+	 */
+	public byte[] getRequestBody() {
+		return requestBody.clone();
+	}
+
+	public long getRequestBodySize() {
+		return requestBodySize;
+	}
+
+	/**
+	 * Returns the status line and headers of the response, one per line, or null if no response
+	 * came.
+	 */
+	public String getResponseHead() {
+		return (response == null) ? null : formatHead(response);
+	}
+
+	public String getResponseHeader(String name) {
+		return (response == null) ? null : response.getHeader(name);
+	}
+
+	/**
+	 * Returns the decoded content of the response, up to the inspector's limit.
+	 */
+	public byte[] getResponseBody() {
+		return responseBody.clone();
+	}
+
+	public long getResponseBodySize() {
+		return responseBodySize;
+	}
+
+	/**
+	 * Returns true if the request can be sent again as recorded: its body was kept in full, and it
+	 * does not switch to another protocol.
+	 */
+	public boolean isReplayable() {
+		return (requestBody.length == requestBodySize) && !"CONNECT".equals(getMethod())
+			&& !request.hasHeader("Upgrade");
+	}
+
+	/**
+	 * Returns the request to send again, with its body framed by its length and the connection
+	 * kept alive.
+	 *
+	 * @param host value of the <code>Host</code> header, or null to keep the one recorded
+	 */
+	byte[] toReplayRequest(String host) {
+		HttpHead head = new HttpHead(request);
+		head.removeHeader("Transfer-Encoding");
+		head.removeHeader("Connection");
+		head.removeHeader("Keep-Alive");
+		head.removeHeader("Expect");
+		head.removeHeader("Content-Length");
+		if ((requestBody.length > 0) || request.hasHeader("Content-Length")
+				|| request.hasHeader("Transfer-Encoding")) {
+			head.addHeader("Content-Length", Integer.toString(requestBody.length));
+		}
+		if (host != null) {
+			head.setHeader("Host", host);
+		}
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream(head.getSize() + requestBody.length);
+		try {
+			head.write(out);
+		} catch (IOException exception) {
+			throw new IllegalStateException(exception);
+		}
+		out.write(requestBody, 0, requestBody.length);
+		return out.toByteArray();
+	}
+
+	private static String formatHead(HttpHead head) {
+		StringBuilder builder = new StringBuilder(head.getSize());
+		builder.append(head.getStartLine()).append('\n');
+		for (String[] header : head.getHeaders()) {
+			builder.append(header[0]).append(": ").append(header[1]).append('\n');
+		}
+		return builder.toString();
+	}
+
+}
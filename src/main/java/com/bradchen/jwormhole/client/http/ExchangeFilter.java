@@ -0,0 +1,92 @@
+package com.bradchen.jwormhole.client.http;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Predicate;
+
+/**
+ * Selects recorded exchanges by terms separated by spaces or commas, all of which must match:
+ * <ul>
+ * <li><code>method=POST</code>: the request method, ignoring case</li>
+ * <li><code>status=404</code>, <code>status=5xx</code>: the response status, where <code>x</code>
+ * stands for any digit; <code>status=none</code> matches requests that got no response</li>
+ * <li><code>domain=abc</code>: part of the domain name of the tunnel</li>
+ * <li><code>path=/hooks</code>: part of the request target</li>
+ * <li><code>header=X-Signature</code>: a request header present</li>
+ * <li>anything else: part of the request target or of the domain name</li>
+ * </ul>
+ */
+public final class ExchangeFilter implements Predicate<Exchange> {
+
+	private final List<Predicate<Exchange>> terms;
+
+	private ExchangeFilter(List<Predicate<Exchange>> terms) {
+		this.terms = terms;
+	}
+
+	/**
+	 * Parses a filter; an empty or null expression matches every exchange.
+	 *
+	 * @throws IllegalArgumentException if a term is malformed
+	 */
+	public static ExchangeFilter parse(String expression) {
+		List<Predicate<Exchange>> terms = new ArrayList<>();
+		if (expression != null) {
+			for (String term : expression.trim().split("[\\s,]+")) {
+				if (!term.isEmpty()) {
+					terms.add(parseTerm(term));
+				}
+			}
+		}
+		return new ExchangeFilter(terms);
+	}
+
+	private static Predicate<Exchange> parseTerm(String term) {
+		int equals = term.indexOf('=');
+		if (equals < 0) {
+			return exchange -> exchange.getTarget().contains(term)
+				|| exchange.getDomainName().contains(term);
+		}
+
+		String name = term.substring(0, equals).toLowerCase(Locale.US);
+		String value = term.substring(equals + 1);
+		switch (name) {
+			case "method":
+				return exchange -> exchange.getMethod().equalsIgnoreCase(value);
+			case "status":
+				return parseStatus(value);
+			case "domain":
+				return exchange -> exchange.getDomainName().contains(value);
+			case "path":
+				return exchange -> exchange.getTarget().contains(value);
+			case "header":
+				return exchange -> exchange.getRequestHeader(value) != null;
+			default:
+				throw new IllegalArgumentException("Unknown filter: " + name);
+		}
+	}
+
+	private static Predicate<Exchange> parseStatus(String value) {
+		if (value.equalsIgnoreCase("none")) {
+			return exchange -> exchange.getStatus() == 0;
+		}
+		if (!value.matches("[1-5][0-9xX]{2}")) {
+			throw new IllegalArgumentException("Malformed status: " + value);
+		}
+
+		String pattern = value.toLowerCase(Locale.US).replace('x', '.');
+		return exchange -> Integer.toString(exchange.getStatus()).matches(pattern);
+	}
+
+	@Override
+	public boolean test(Exchange exchange) {
+		for (Predicate<Exchange> term : terms) {
+			if (!term.test(exchange)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
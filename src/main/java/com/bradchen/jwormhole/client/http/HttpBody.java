@@ -0,0 +1,207 @@
+package com.bradchen.jwormhole.client.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Copies message bodies in their original framing, and optionally captures the decoded content on
+ * the way, so that a response can be passed on while it is being cached.
+ */
+final class HttpBody {
+
+	private static final Charset ISO_8859_1_CHARSET = Charset.forName("iso-8859-1");
+	private static final int BUFFER_SIZE = 16 * 1024;
+	private static final int MAX_CHUNK_LINE = 4096;
+
+	/**
+	 * How a body is delimited.
+	 */
+	enum Framing {
+		NONE, CONTENT_LENGTH, CHUNKED, UNTIL_CLOSE
+	}
+
+	private HttpBody() {
+	}
+
+	static Framing getRequestFraming(HttpHead request) {
+		if (request.hasToken("Transfer-Encoding", "chunked")) {
+			return Framing.CHUNKED;
+		}
+		return (getContentLength(request) > 0) ? Framing.CONTENT_LENGTH : Framing.NONE;
+	}
+
+	static Framing getResponseFraming(String requestMethod, HttpHead response) {
+		int status = response.getStatus();
+		if ("HEAD".equals(requestMethod) || ((status >= 100) && (status < 200)) || (status == 204)
+				|| (status == 304)) {
+			return Framing.NONE;
+		}
+		if (response.hasToken("Transfer-Encoding", "chunked")) {
+			return Framing.CHUNKED;
+		}
+		if (getContentLength(response) >= 0) {
+			return Framing.CONTENT_LENGTH;
+		}
+		return Framing.UNTIL_CLOSE;
+	}
+
+	/**
+	 * Returns the value of the <code>Content-Length</code> header, or -1 if it is missing or
+	 * malformed.
+	 */
+	static long getContentLength(HttpHead head) {
+		String value = head.getHeader("Content-Length");
+		try {
+			return (value == null) ? -1 : Long.parseLong(value.trim());
+		} catch (NumberFormatException exception) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Copies a body of the framing given.
+	 *
+	 * @param capture receives the decoded content; may be null
+	 */
+	static void copy(Framing framing, HttpHead head, InputStream in, OutputStream out,
+					 Capture capture) throws IOException {
+		switch (framing) {
+			case CONTENT_LENGTH:
+				copyFixed(in, out, getContentLength(head), capture);
+				break;
+			case CHUNKED:
+				copyChunked(in, out, capture);
+				break;
+			case UNTIL_CLOSE:
+				copyUntilClosed(in, out, capture);
+				break;
+			default:
+				break;
+		}
+	}
+
+	private static void copyFixed(InputStream in, OutputStream out, long length, Capture capture)
+			throws IOException {
+		byte[] buffer = new byte[(int)Math.min(BUFFER_SIZE, Math.max(length, 1))];
+		long remaining = length;
+		while (remaining > 0) {
+			int numRead = in.read(buffer, 0, (int)Math.min(buffer.length, remaining));
+			if (numRead < 0) {
+				throw new IOException("Stream ended within HTTP body.");
+			}
+			write(out, capture, buffer, numRead);
+			remaining -= numRead;
+		}
+	}
+
+	private static void copyUntilClosed(InputStream in, OutputStream out, Capture capture)
+			throws IOException {
+		byte[] buffer = new byte[BUFFER_SIZE];
+		int numRead;
+		while ((numRead = in.read(buffer)) >= 0) {
+			write(out, capture, buffer, numRead);
+		}
+	}
+
+	private static void copyChunked(InputStream in, OutputStream out, Capture capture)
+			throws IOException {
+		while (true) {
+			String sizeLine = readLine(in);
+			out.write((sizeLine + "\r\n").getBytes(ISO_8859_1_CHARSET));
+			int semicolon = sizeLine.indexOf(';');
+			String size = ((semicolon < 0) ? sizeLine : sizeLine.substring(0, semicolon)).trim();
+			long chunkSize;
+			try {
+				chunkSize = Long.parseLong(size, 16);
+			} catch (NumberFormatException exception) {
+				throw new IOException("Malformed chunk size: " + sizeLine);
+			}
+
+			if (chunkSize == 0) {
+				// trailers, up to the empty line
+				String line;
+				do {
+					line = readLine(in);
+					out.write((line + "\r\n").getBytes(ISO_8859_1_CHARSET));
+				} while (!line.isEmpty());
+				return;
+			}
+
+			copyFixed(in, out, chunkSize, capture);
+			String end = readLine(in);
+			if (!end.isEmpty()) {
+				throw new IOException("Malformed chunk end.");
+			}
+			out.write('\r');
+			out.write('\n');
+		}
+	}
+
+	private static String readLine(InputStream in) throws IOException {
+		StringBuilder line = new StringBuilder();
+		int b;
+		while ((b = in.read()) != '\n') {
+			if (b < 0) {
+				throw new IOException("Stream ended within chunked body.");
+			}
+			if (line.length() > MAX_CHUNK_LINE) {
+				throw new IOException("Chunk line too long.");
+			}
+			line.append((char)b);
+		}
+		int length = line.length();
+		return ((length > 0) && (line.charAt(length - 1) == '\r')) ? line.substring(0, length - 1)
+			: line.toString();
+	}
+
+	private static void write(OutputStream out, Capture capture, byte[] buffer, int length)
+			throws IOException {
+		out.write(buffer, 0, length);
+		if (capture != null) {
+			capture.write(buffer, length);
+		}
+	}
+
+	/**
+	 * Decoded content of a body, up to a limit; content past the limit is dropped.
+	 */
+	static final class Capture {
+
+		private final int limit;
+		private final ByteArrayOutputStream content;
+		private boolean overflowed;
+
+		Capture(int limit) {
+			this.limit = limit;
+			this.content = new ByteArrayOutputStream();
+		}
+
+		private void write(byte[] buffer, int length) {
+			if (overflowed) {
+				return;
+			}
+			if (content.size() + length > limit) {
+				overflowed = true;
+				content.reset();
+				return;
+			}
+			content.write(buffer, 0, length);
+		}
+
+		/**
+		 * Returns true if the content went past the limit, and so was not kept.
+		 */
+		boolean isOverflowed() {
+			return overflowed;
+		}
+
+		byte[] toByteArray() {
+			return content.toByteArray();
+		}
+
+	}
+
+}
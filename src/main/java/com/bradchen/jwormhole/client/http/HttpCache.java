@@ -0,0 +1,282 @@
+package com.bradchen.jwormhole.client.http;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Responses of a {@link CachingProxy}, least recently used first out. Entries pushed out of memory
+ * move to a disk tier, if there is one, and move back to memory when they are used again. The disk
+ * tier lives in a temporary directory that is deleted on {@link #close()}.
+ */
+public final class HttpCache {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(HttpCache.class);
+
+	// a single entry may take this fraction of the memory at most
+	private static final int MAX_ENTRY_FRACTION = 8;
+
+	private final long maxMemoryBytes;
+	private final long maxDiskBytes;
+	private final File diskDirectory;
+	private final AtomicLong nextFileNumber;
+	private final LongAdder numHits;
+	private final LongAdder numRevalidations;
+	private final LongAdder numMisses;
+	private final LongAdder bytesSaved;
+
+	// guarded by this
+	private final LinkedHashMap<String, CachedResponse> memoryEntries;
+	private final LinkedHashMap<String, DiskEntry> diskEntries;
+	private long memoryBytes;
+	private long diskBytes;
+
+	/**
+	 * @param maxMemoryBytes bytes of responses to keep in memory
+	 * @param maxDiskBytes bytes of responses to keep on disk, or 0 for no disk tier
+	 */
+	public HttpCache(long maxMemoryBytes, long maxDiskBytes) throws IOException {
+		this.maxMemoryBytes = maxMemoryBytes;
+		this.maxDiskBytes = maxDiskBytes;
+		this.diskDirectory = (maxDiskBytes > 0)
+			? Files.createTempDirectory("jwormhole-http-cache").toFile() : null;
+		this.nextFileNumber = new AtomicLong();
+		this.numHits = new LongAdder();
+		this.numRevalidations = new LongAdder();
+		this.numMisses = new LongAdder();
+		this.bytesSaved = new LongAdder();
+		this.memoryEntries = new LinkedHashMap<>(16, 0.75f, true);
+		this.diskEntries = new LinkedHashMap<>(16, 0.75f, true);
+	}
+
+	/**
+	 * Returns the largest body that is cached, in bytes.
+	 */
+	int getMaxEntrySize() {
+		return (int)Math.min(maxMemoryBytes / MAX_ENTRY_FRACTION, Integer.MAX_VALUE - 8);
+	}
+
+	CachedResponse get(String key) {
+		DiskEntry diskEntry;
+		synchronized (this) {
+			CachedResponse response = memoryEntries.get(key);
+			if (response != null) {
+				return response;
+			}
+
+			diskEntry = diskEntries.remove(key);
+			if (diskEntry == null) {
+				return null;
+			}
+			diskBytes -= diskEntry.size;
+		}
+
+		// move the entry back to memory
+		CachedResponse response = null;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(diskEntry.file)))) {
+			response = CachedResponse.readFrom(in);
+		} catch (IOException exception) {
+			LOGGER.warn("Unable to read cached response from " + diskEntry.file + ".", exception);
+		}
+		FileUtils.deleteQuietly(diskEntry.file);
+		if (response != null) {
+			put(key, response);
+		}
+		return response;
+	}
+
+	void put(String key, CachedResponse response) {
+		if (response.getBody().length > getMaxEntrySize()) {
+			remove(key);
+			return;
+		}
+
+		Map<String, CachedResponse> evicted = new LinkedHashMap<>();
+		synchronized (this) {
+			CachedResponse previous = memoryEntries.put(key, response);
+			if (previous != null) {
+				memoryBytes -= previous.getSize();
+			}
+			removeFromDisk(key);
+			memoryBytes += response.getSize();
+
+			Iterator<Map.Entry<String, CachedResponse>> iterator =
+				memoryEntries.entrySet().iterator();
+			while ((memoryBytes > maxMemoryBytes) && iterator.hasNext()) {
+				Map.Entry<String, CachedResponse> eldest = iterator.next();
+				iterator.remove();
+				memoryBytes -= eldest.getValue().getSize();
+				evicted.put(eldest.getKey(), eldest.getValue());
+			}
+		}
+
+		if (diskDirectory != null) {
+			evicted.forEach(this::writeToDisk);
+		}
+	}
+
+	synchronized void remove(String key) {
+		CachedResponse response = memoryEntries.remove(key);
+		if (response != null) {
+			memoryBytes -= response.getSize();
+		}
+		removeFromDisk(key);
+	}
+
+	private void removeFromDisk(String key) {
+		DiskEntry diskEntry = diskEntries.remove(key);
+		if (diskEntry != null) {
+			diskBytes -= diskEntry.size;
+			FileUtils.deleteQuietly(diskEntry.file);
+		}
+	}
+
+	private void writeToDisk(String key, CachedResponse response) {
+		if (response.getSize() > maxDiskBytes) {
+			return;
+		}
+
+		File file = new File(diskDirectory, nextFileNumber.incrementAndGet() + ".response");
+		try {
+			Path tempFile = Files.createTempFile(diskDirectory.toPath(), "response", ".tmp");
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(tempFile.toFile())))) {
+				response.writeTo(out);
+			}
+			Files.move(tempFile, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException exception) {
+			LOGGER.warn("Unable to write cached response to " + file + ".", exception);
+			FileUtils.deleteQuietly(file);
+			return;
+		}
+
+		List<File> evictedFiles = new ArrayList<>();
+		synchronized (this) {
+			if (memoryEntries.containsKey(key)) {
+				// stored again while this was written
+				evictedFiles.add(file);
+			} else {
+				removeFromDisk(key);
+				diskEntries.put(key, new DiskEntry(file, file.length()));
+				diskBytes += file.length();
+				Iterator<DiskEntry> iterator = diskEntries.values().iterator();
+				while ((diskBytes > maxDiskBytes) && iterator.hasNext()) {
+					DiskEntry eldest = iterator.next();
+					iterator.remove();
+					diskBytes -= eldest.size;
+					evictedFiles.add(eldest.file);
+				}
+			}
+		}
+		evictedFiles.forEach(FileUtils::deleteQuietly);
+	}
+
+	void hit(int numBytes) {
+		numHits.increment();
+		bytesSaved.add(numBytes);
+	}
+
+	void revalidated(int numBytes) {
+		numRevalidations.increment();
+		bytesSaved.add(numBytes);
+	}
+
+	void missed() {
+		numMisses.increment();
+	}
+
+	/**
+	 * Returns the number of requests served from the cache without asking the local server.
+	 */
+	public long getNumHits() {
+		return numHits.sum();
+	}
+
+	/**
+	 * Returns the number of requests served from the cache after the local server confirmed the
+	 * cached response is still current.
+	 */
+	public long getNumRevalidations() {
+		return numRevalidations.sum();
+	}
+
+	/**
+	 * Returns the number of cacheable requests the local server had to answer in full.
+	 */
+	public long getNumMisses() {
+		return numMisses.sum();
+	}
+
+	/**
+	 * Returns the share of cacheable requests served from the cache, revalidated or not.
+	 */
+	public double getHitRatio() {
+		long served = getNumHits() + getNumRevalidations();
+		long total = served + getNumMisses();
+		return (total == 0) ? 0 : (double)served / total;
+	}
+
+	/**
+	 * Returns the number of response body bytes the local server did not have to send.
+	 */
+	public long getBytesSaved() {
+		return bytesSaved.sum();
+	}
+
+	public synchronized int getNumEntries() {
+		return memoryEntries.size() + diskEntries.size();
+	}
+
+	public synchronized long getMemoryBytes() {
+		return memoryBytes;
+	}
+
+	public synchronized long getDiskBytes() {
+		return diskBytes;
+	}
+
+	public void close() {
+		synchronized (this) {
+			memoryEntries.clear();
+			diskEntries.clear();
+			memoryBytes = 0;
+			diskBytes = 0;
+		}
+		if (diskDirectory != null) {
+			FileUtils.deleteQuietly(diskDirectory);
+		}
+	}
+
+	private static final class DiskEntry {
+
+		private final File file;
+		private final long size;
+
+		private DiskEntry(File file, long size) {
+			this.file = file;
+			this.size = size;
+		}
+
+	}
+
+}
@@ -0,0 +1,260 @@
+package com.bradchen.jwormhole.client.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Start line and headers of an HTTP/1.x request or response. Header names keep their case and
+ * order, and are looked up without regard to case.
+ */
+final class HttpHead {
+
+	private static final Charset ISO_8859_1_CHARSET = Charset.forName("iso-8859-1");
+	private static final int MAX_HEAD_BYTES = 64 * 1024;
+
+	private String startLine;
+	private final List<String[]> headers;
+
+	HttpHead(String startLine) {
+		this.startLine = startLine;
+		this.headers = new ArrayList<>();
+	}
+
+	HttpHead(HttpHead head) {
+		this.startLine = head.startLine;
+		this.headers = new ArrayList<>();
+		for (String[] header : head.headers) {
+			headers.add(header.clone());
+		}
+	}
+
+	/**
+	 * Reads a head up to and including the empty line that ends it.
+	 *
+	 * @return the head, or null if the stream ended before the head started
+	 */
+	static HttpHead read(InputStream in) throws IOException {
+		int[] numBytes = new int[1];
+		String startLine;
+		do {
+			startLine = readLine(in, numBytes);
+			if (startLine == null) {
+				return null;
+			}
+		} while (startLine.isEmpty()); // stray line breaks between messages are allowed
+
+		HttpHead head = new HttpHead(startLine);
+		while (true) {
+			String line = readLine(in, numBytes);
+			if (line == null) {
+				throw new IOException("Stream ended within HTTP head.");
+			}
+			if (line.isEmpty()) {
+				return head;
+			}
+
+			if (((line.charAt(0) == ' ') || (line.charAt(0) == '\t')) && !head.headers.isEmpty()) {
+				// obsolete line folding continues the previous header
+				String[] previous = head.headers.get(head.headers.size() - 1);
+				previous[1] = previous[1] + " " + line.trim();
+				continue;
+			}
+
+			int colon = line.indexOf(':');
+			if (colon <= 0) {
+				throw new IOException("Malformed HTTP header: " + line);
+			}
+			head.addHeader(line.substring(0, colon).trim(), line.substring(colon + 1).trim());
+		}
+	}
+
+	private static String readLine(InputStream in, int[] numBytes) throws IOException {
+		ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+		int b;
+		while ((b = in.read()) != '\n') {
+			if (b < 0) {
+				if (line.size() == 0) {
+					return null;
+				}
+				throw new IOException("Stream ended within HTTP head.");
+			}
+			if (++numBytes[0] > MAX_HEAD_BYTES) {
+				throw new IOException("HTTP head too large.");
+			}
+			line.write(b);
+		}
+		numBytes[0]++;
+
+		byte[] bytes = line.toByteArray();
+		int length = ((bytes.length > 0) && (bytes[bytes.length - 1] == '\r')) ? bytes.length - 1
+			: bytes.length;
+		return new String(bytes, 0, length, ISO_8859_1_CHARSET);
+	}
+
+	static HttpHead readFrom(DataInput in) throws IOException {
+		HttpHead head = new HttpHead(in.readUTF());
+		int numHeaders = in.readInt();
+		for (int i = 0; i < numHeaders; i++) {
+			head.addHeader(in.readUTF(), in.readUTF());
+		}
+		return head;
+	}
+
+	void writeTo(DataOutput out) throws IOException {
+		out.writeUTF(startLine);
+		out.writeInt(headers.size());
+		for (String[] header : headers) {
+			out.writeUTF(header[0]);
+			out.writeUTF(header[1]);
+		}
+	}
+
+	void write(OutputStream out) throws IOException {
+		StringBuilder builder = new StringBuilder(256);
+		builder.append(startLine).append("\r\n");
+		for (String[] header : headers) {
+			builder.append(header[0]).append(": ").append(header[1]).append("\r\n");
+		}
+		builder.append("\r\n");
+		out.write(builder.toString().getBytes(ISO_8859_1_CHARSET));
+	}
+
+	String getStartLine() {
+		return startLine;
+	}
+
+	void setStartLine(String startLine) {
+		this.startLine = startLine;
+	}
+
+	/**
+	 * Returns the method of a request, e.g. <code>GET</code>.
+	 */
+	String getMethod() {
+		int space = startLine.indexOf(' ');
+		return (space < 0) ? startLine : startLine.substring(0, space);
+	}
+
+	/**
+	 * Returns the request target of a request, e.g. <code>/index.html?q=1</code>.
+	 */
+	String getTarget() {
+		String[] tokens = startLine.split(" ");
+		return (tokens.length < 2) ? "" : tokens[1];
+	}
+
+	/**
+	 * Returns the HTTP version of a request or response, e.g. <code>HTTP/1.1</code>.
+	 */
+	String getVersion() {
+		if (startLine.startsWith("HTTP/")) {
+			int space = startLine.indexOf(' ');
+			return (space < 0) ? startLine : startLine.substring(0, space);
+		}
+		return startLine.substring(startLine.lastIndexOf(' ') + 1);
+	}
+
+	/**
+	 * Returns the status code of a response, or -1 if the start line is not a status line.
+	 */
+	int getStatus() {
+		String[] tokens = startLine.split(" ");
+		try {
+			return (tokens.length < 2) ? -1 : Integer.parseInt(tokens[1]);
+		} catch (NumberFormatException exception) {
+			return -1;
+		}
+	}
+
+	List<String[]> getHeaders() {
+		return headers;
+	}
+
+	/**
+	 * Returns the value of the first header of the name given, or null if there is none.
+	 */
+	String getHeader(String name) {
+		for (String[] header : headers) {
+			if (header[0].equalsIgnoreCase(name)) {
+				return header[1];
+			}
+		}
+		return null;
+	}
+
+	boolean hasHeader(String name) {
+		return getHeader(name) != null;
+	}
+
+	void addHeader(String name, String value) {
+		headers.add(new String[] { name, value });
+	}
+
+	/**
+	 * Replaces every header of the name given with one of the value given.
+	 */
+	void setHeader(String name, String value) {
+		removeHeader(name);
+		addHeader(name, value);
+	}
+
+	void removeHeader(String name) {
+		headers.removeIf(header -> header[0].equalsIgnoreCase(name));
+	}
+
+	/**
+	 * Returns true if a comma-separated header of the name given, such as <code>Connection</code>,
+	 * lists the token given, ignoring case and any <code>=value</code> part.
+	 */
+	boolean hasToken(String name, String token) {
+		return getDirective(name, token) != null;
+	}
+
+	/**
+	 * Returns the value of a directive of a comma-separated header, e.g. <code>60</code> for
+	 * <code>max-age</code> of <code>Cache-Control: public, max-age=60</code>, an empty string if
+	 * the directive has no value, or null if the directive is missing.
+	 */
+	String getDirective(String name, String directive) {
+		for (String[] header : headers) {
+			if (!header[0].equalsIgnoreCase(name)) {
+				continue;
+			}
+
+			for (String element : header[1].split(",")) {
+				int equals = element.indexOf('=');
+				String elementName = ((equals < 0) ? element : element.substring(0, equals)).trim();
+				if (elementName.equalsIgnoreCase(directive)) {
+					return (equals < 0) ? "" : unquote(element.substring(equals + 1).trim());
+				}
+			}
+		}
+		return null;
+	}
+
+	private static String unquote(String value) {
+		if ((value.length() >= 2) && value.startsWith("\"") && value.endsWith("\"")) {
+			return value.substring(1, value.length() - 1);
+		}
+		return value;
+	}
+
+	/**
+	 * Returns roughly how many bytes the head takes.
+	 */
+	int getSize() {
+		int size = startLine.length() + 4;
+		for (String[] header : headers) {
+			size += header[0].length() + header[1].length() + 4;
+		}
+		return size;
+	}
+
+}
@@ -0,0 +1,264 @@
+package com.bradchen.jwormhole.client.http;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records the HTTP requests going through tunnels to local ports and the responses to them, with
+ * bodies cut at a limit, in a {@link CaptureRing} of a fixed size off the heap.
+ *
+ * Relay threads only copy bytes onto a bounded queue (see {@link TrafficCapture}); a thread of the
+ * inspector parses them. When the queue is full, or holds too many bytes, the connections that
+ * cannot be queued are dropped from inspection instead of slowing the relay down.
+ */
+public final class HttpInspector implements Closeable {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(HttpInspector.class);
+
+	private static final int MAX_QUEUED_SAMPLES = 4096;
+	private static final long MAX_QUEUED_BYTES = 8 * 1024 * 1024;
+
+	private final CaptureRing ring;
+	private final int bodyLimit;
+	private final BlockingQueue<Sample> samples;
+	private final AtomicLong numQueuedBytes;
+	private final LongAdder numDropped;
+	private final long baseTime;
+	private final long baseNanoTime;
+	private volatile long numRecorded;
+	private Thread thread;
+
+	// accessed by the inspector thread only
+	private final ByteArrayOutputStream record;
+	private final DataOutputStream recordOut;
+
+	/**
+	 * @param ringSize bytes of memory to keep exchanges in
+	 * @param bodyLimit bytes of each body to keep
+	 */
+	public HttpInspector(int ringSize, int bodyLimit) {
+		this.ring = new CaptureRing(ringSize);
+		this.bodyLimit = bodyLimit;
+		this.samples = new ArrayBlockingQueue<>(MAX_QUEUED_SAMPLES);
+		this.numQueuedBytes = new AtomicLong();
+		this.numDropped = new LongAdder();
+		this.baseTime = System.currentTimeMillis();
+		this.baseNanoTime = System.nanoTime();
+		this.record = new ByteArrayOutputStream(bodyLimit * 2 + 1024);
+		this.recordOut = new DataOutputStream(record);
+	}
+
+	public int getBodyLimit() {
+		return bodyLimit;
+	}
+
+	/**
+	 * Starts capturing a connection relayed to the local port given.
+	 *
+	 * @param domainName domain name of the tunnel the connection came through
+	 */
+	public TrafficCapture capture(String domainName, int localPort) {
+		return new TrafficCapture(this, domainName, localPort, bodyLimit);
+	}
+
+	public synchronized void start() {
+		if (thread != null) {
+			return;
+		}
+
+		thread = new Thread(this::run, "jwormhole-inspector");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	@Override
+	public synchronized void close() {
+		if (thread == null) {
+			return;
+		}
+
+		thread.interrupt();
+		thread = null;
+		samples.clear();
+		numQueuedBytes.set(0);
+	}
+
+	/**
+	 * Returns the exchanges kept, the oldest first.
+	 */
+	public List<Exchange> getExchanges() {
+		List<byte[]> records = ring.getAll();
+		List<Exchange> exchanges = new ArrayList<>(records.size());
+		for (byte[] bytes : records) {
+			Exchange exchange = decode(bytes);
+			if (exchange != null) {
+				exchanges.add(exchange);
+			}
+		}
+		return exchanges;
+	}
+
+	/**
+	 * Returns the exchange of the ID given, or null if it is not kept (any more).
+	 */
+	public Exchange getExchange(long id) {
+		byte[] bytes = ring.get(id);
+		return (bytes == null) ? null : decode(bytes);
+	}
+
+	/**
+	 * Returns the number of exchanges recorded, including the ones pushed out since.
+	 */
+	public long getNumRecorded() {
+		return numRecorded;
+	}
+
+	/**
+	 * Returns the number of exchanges pushed out of memory by newer ones.
+	 */
+	public long getNumEvicted() {
+		return ring.getNumEvicted();
+	}
+
+	/**
+	 * Returns the number of connections no longer inspected because the inspector fell behind.
+	 */
+	public long getNumDropped() {
+		return numDropped.sum();
+	}
+
+	public int getMemorySize() {
+		return ring.getCapacity();
+	}
+
+	public long getMemoryUsed() {
+		return ring.getNumUsed();
+	}
+
+	boolean submit(Sample sample) {
+		int length = (sample.bytes == null) ? 0 : sample.bytes.length;
+		if (numQueuedBytes.addAndGet(length) > MAX_QUEUED_BYTES) {
+			numQueuedBytes.addAndGet(-length);
+			return false;
+		}
+		if (!samples.offer(sample)) {
+			numQueuedBytes.addAndGet(-length);
+			return false;
+		}
+		return true;
+	}
+
+	void captureDropped() {
+		numDropped.increment();
+	}
+
+	long toEpochMillis(long nanoTime) {
+		return baseTime + TimeUnit.NANOSECONDS.toMillis(nanoTime - baseNanoTime);
+	}
+
+	void record(long startTime, long duration, String domainName, int localPort,
+				HttpHead request, byte[] requestBody, long requestBodySize, HttpHead response,
+				byte[] responseBody, long responseBodySize) {
+		long id = numRecorded + 1;
+		Exchange exchange = new Exchange(id, startTime, duration, domainName, localPort, request,
+			requestBody, requestBodySize, response, responseBody, responseBodySize);
+		record.reset();
+		try {
+			exchange.writeTo(recordOut);
+			recordOut.flush();
+		} catch (IOException exception) {
+			LOGGER.debug("Unable to record HTTP exchange.", exception);
+			return;
+		}
+
+		if (ring.put(id, record.toByteArray(), record.size())) {
+			numRecorded = id;
+		}
+	}
+
+	private void run() {
+		while (!Thread.currentThread().isInterrupted()) {
+			Sample sample;
+			try {
+				sample = samples.take();
+			} catch (InterruptedException exception) {
+				return;
+			}
+
+			if (sample.bytes != null) {
+				numQueuedBytes.addAndGet(-sample.bytes.length);
+			}
+			try {
+				sample.capture.process(sample);
+			} catch (RuntimeException exception) {
+				LOGGER.debug("Unable to inspect HTTP traffic.", exception);
+				sample.capture.stop();
+			}
+		}
+	}
+
+	private static Exchange decode(byte[] bytes) {
+		try {
+			return Exchange.readFrom(new DataInputStream(new ByteArrayInputStream(bytes)));
+		} catch (IOException exception) {
+			LOGGER.debug("Unable to read recorded HTTP exchange.", exception);
+			return null;
+		}
+	}
+
+	/**
+	 * Bytes that went one way through a connection, or the end of the connection if there are
+	 * none.
+	 */
+	static final class Sample {
+
+		private final TrafficCapture capture;
+		private final boolean request;
+		private final long offset;
+		private final byte[] bytes;
+		private final long time;
+
+		Sample(TrafficCapture capture, boolean request, long offset, byte[] bytes, long time) {
+			this.capture = capture;
+			this.request = request;
+			this.offset = offset;
+			this.bytes = bytes;
+			this.time = time;
+		}
+
+		boolean isRequest() {
+			return request;
+		}
+
+		/**
+		 * Returns the offset of the first byte in the stream of its way.
+		 */
+		long getOffset() {
+			return offset;
+		}
+
+		byte[] getBytes() {
+			return bytes;
+		}
+
+		long getTime() {
+			return time;
+		}
+
+	}
+
+}
@@ -0,0 +1,138 @@
+package com.bradchen.jwormhole.client.http;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Follows the HTTP/1.x exchanges on a connection to a local port, to tell when the connection is
+ * between exchanges and may serve another client. A connection that carries something other than
+ * HTTP, switches protocols or is to be closed by either side never becomes reusable again.
+ */
+public final class KeepAliveTracker {
+
+	private static final int SCRATCH_SIZE = 4096;
+
+	private final MessageParser requestParser;
+	private final MessageParser responseParser;
+	private final Deque<String> pendingMethods;
+	private final byte[] scratch;
+	private boolean closing;
+	private boolean interimResponse;
+
+	public KeepAliveTracker() {
+		this.requestParser = new MessageParser(0, new RequestListener());
+		this.responseParser = new MessageParser(0, new ResponseListener());
+		this.pendingMethods = new ArrayDeque<>();
+		this.scratch = new byte[SCRATCH_SIZE];
+	}
+
+	/**
+	 * Follows bytes on their way to the local port.
+	 */
+	public synchronized void requestSent(byte[] bytes, int offset, int length) {
+		if (!closing) {
+			requestParser.feed(bytes, offset, length, 0);
+			closing |= requestParser.isStopped();
+		}
+	}
+
+	/**
+	 * Follows bytes the local port sent back; the position of the buffer is left as it is.
+	 */
+	public synchronized void responseReceived(ByteBuffer buffer) {
+		int position = buffer.position();
+		int end = buffer.limit();
+		while (!closing && (position < end)) {
+			// content is only counted, so it need not be copied out of the buffer
+			long skippable = responseParser.getSkippableUntil() - responseParser.getPosition();
+			if (skippable > 0) {
+				int numBytes = (int)Math.min(skippable, end - position);
+				responseParser.skip(numBytes, 0);
+				position += numBytes;
+			} else {
+				int numBytes = Math.min(scratch.length, end - position);
+				ByteBuffer source = buffer.duplicate();
+				source.position(position);
+				source.get(scratch, 0, numBytes);
+				responseParser.feed(scratch, 0, numBytes, 0);
+				position += numBytes;
+			}
+			closing |= responseParser.isStopped();
+		}
+	}
+
+	/**
+	 * Returns true if every request got its full response and both sides are willing to keep the
+	 * connection open.
+	 */
+	public synchronized boolean isReusable() {
+		return !closing && pendingMethods.isEmpty() && requestParser.isBetweenMessages()
+			&& responseParser.isBetweenMessages();
+	}
+
+	/**
+	 * Returns true if the connection may become reusable once the local port finishes a response.
+	 */
+	public synchronized boolean isResponsePending() {
+		return !closing && requestParser.isBetweenMessages()
+			&& (!pendingMethods.isEmpty() || !responseParser.isBetweenMessages());
+	}
+
+	private static boolean isPersistent(HttpHead head) {
+		if (head.hasToken("Connection", "close")) {
+			return false;
+		}
+		return !"HTTP/1.0".equals(head.getVersion()) || head.hasToken("Connection", "keep-alive");
+	}
+
+	private final class RequestListener implements MessageParser.Listener {
+
+		@Override
+		public HttpBody.Framing headParsed(HttpHead head, long time) {
+			pendingMethods.add(head.getMethod());
+			if (!isPersistent(head) || "CONNECT".equals(head.getMethod())) {
+				closing = true;
+			}
+			return HttpBody.getRequestFraming(head);
+		}
+
+		@Override
+		public void messageParsed(byte[] body, long bodySize, long time) {
+		}
+
+	}
+
+	private final class ResponseListener implements MessageParser.Listener {
+
+		@Override
+		public HttpBody.Framing headParsed(HttpHead head, long time) {
+			int status = head.getStatus();
+			String method = pendingMethods.peek();
+			interimResponse = (status >= 100) && (status < 200);
+			if ((method == null) || (status == 101) || !isPersistent(head)) {
+				closing = true;
+			}
+			if (interimResponse) {
+				return HttpBody.Framing.NONE;
+			}
+
+			HttpBody.Framing framing = HttpBody.getResponseFraming(method, head);
+			if (framing == HttpBody.Framing.UNTIL_CLOSE) {
+				closing = true;
+			}
+			return framing;
+		}
+
+		@Override
+		public void messageParsed(byte[] body, long bodySize, long time) {
+			if (interimResponse) {
+				interimResponse = false;
+			} else {
+				pendingMethods.poll();
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,330 @@
+package com.bradchen.jwormhole.client.http;
+
+import com.bradchen.jwormhole.client.RollingHistogram;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.UnresolvedAddressException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends recorded requests again, a number of times over, with a number of them in flight at once
+ * and at most at a given rate. Connections are non-blocking and all driven by the thread calling
+ * {@link #run()}; each is kept alive from one request to the next.
+ *
+ * Requests go to the local port they were recorded for on <code>127.0.0.1</code>, or through the
+ * tunnel to port 80 of its domain name. Latencies go into a histogram, so memory stays the same
+ * however many requests are sent.
+ */
+public final class LoadGenerator {
+
+	public static final int MAX_REQUESTS = Integer.MAX_VALUE;
+
+	private static final String LOCALHOST = "127.0.0.1";
+	private static final int HTTP_PORT = 80;
+	private static final long REQUEST_TIMEOUT = TimeUnit.SECONDS.toNanos(30);
+	private static final int READ_BUFFER_SIZE = 16 * 1024;
+
+	private final List<Exchange> exchanges;
+	private final byte[][] requests;
+	private final InetSocketAddress[] addresses;
+	private final int numRequests;
+	private final int concurrency;
+	private final long interval;
+
+	// accessed by the thread running the requests only
+	private final RollingHistogram latencies;
+	private final Map<Integer, Integer> statusCounts;
+	private int nextRequest;
+	private int numFinished;
+	private int numFailed;
+	private long numBytesReceived;
+
+	/**
+	 * @param exchanges exchanges of the requests to send, which must be replayable
+	 * @param viaDomainName true to send requests through the tunnels rather than to local ports
+	 * @param repeat times to send each request, up to {@link #MAX_REQUESTS} requests in all
+	 * @param concurrency requests in flight at once
+	 * @param rate requests to start per second at most, or 0 to start them as fast as possible
+	 */
+	public LoadGenerator(List<Exchange> exchanges, boolean viaDomainName, int repeat,
+						 int concurrency, int rate) {
+		if ((long)exchanges.size() * repeat > MAX_REQUESTS) {
+			throw new IllegalArgumentException("Too many requests: " + exchanges.size() + " x "
+				+ repeat);
+		}
+		this.exchanges = new ArrayList<>(exchanges);
+		this.requests = new byte[exchanges.size()][];
+		this.addresses = new InetSocketAddress[exchanges.size()];
+		for (int i = 0; i < exchanges.size(); i++) {
+			Exchange exchange = exchanges.get(i);
+			if (viaDomainName) {
+				requests[i] = exchange.toReplayRequest(exchange.getDomainName());
+				addresses[i] = new InetSocketAddress(exchange.getDomainName(), HTTP_PORT);
+			} else {
+				requests[i] = exchange.toReplayRequest(null);
+				addresses[i] = new InetSocketAddress(LOCALHOST, exchange.getLocalPort());
+			}
+		}
+		this.numRequests = exchanges.size() * repeat;
+		this.concurrency = Math.max(Math.min(concurrency, numRequests), 1);
+		this.interval = (rate > 0) ? TimeUnit.SECONDS.toNanos(1) / rate : 0;
+		// a single slice that never expires holds the latencies of the whole run
+		this.latencies = new RollingHistogram(Long.MAX_VALUE, 1);
+		this.statusCounts = new TreeMap<>();
+	}
+
+	public int getNumRequests() {
+		return numRequests;
+	}
+
+	/**
+	 * Sends all requests and waits for their responses. Stops early, with an
+	 * {@link InterruptedIOException}, once the calling thread is interrupted.
+	 */
+	public ReplayResult run() throws IOException {
+		long startTime = System.nanoTime();
+		try (Selector selector = Selector.open()) {
+			List<Connection> connections = new ArrayList<>(concurrency);
+			for (int i = 0; i < concurrency; i++) {
+				connections.add(new Connection(selector));
+			}
+
+			try {
+				while (numFinished < numRequests) {
+					if (Thread.currentThread().isInterrupted()) {
+						throw new InterruptedIOException("Replay cancelled after " + numFinished
+							+ " of " + numRequests + " requests.");
+					}
+
+					long now = System.nanoTime();
+					long wakeTime = now + REQUEST_TIMEOUT;
+					for (Connection connection : connections) {
+						// a request refused at once leaves the connection free for the next one
+						while (connection.isIdle() && (nextRequest < numRequests)) {
+							long dueTime = startTime + (nextRequest * interval);
+							if (dueTime > now) {
+								wakeTime = Math.min(wakeTime, dueTime);
+								break;
+							}
+							connection.send(nextRequest++, now);
+						}
+						if (!connection.isIdle()) {
+							if ((now - connection.sendTime) > REQUEST_TIMEOUT) {
+								connection.fail();
+							} else {
+								wakeTime = Math.min(wakeTime, connection.sendTime
+									+ REQUEST_TIMEOUT);
+							}
+						}
+					}
+					if (numFinished >= numRequests) {
+						break;
+					}
+
+					selector.select(Math.max(TimeUnit.NANOSECONDS.toMillis(wakeTime - now), 1));
+					for (SelectionKey key : selector.selectedKeys()) {
+						((Connection)key.attachment()).handle(key);
+					}
+					selector.selectedKeys().clear();
+				}
+			} finally {
+				connections.forEach(Connection::close);
+			}
+		}
+
+		long elapsed = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startTime);
+		return new ReplayResult(numRequests, numFailed, statusCounts, elapsed,
+			latencies.getSnapshot(), numBytesReceived);
+	}
+
+	private final class Connection implements MessageParser.Listener {
+
+		private final Selector selector;
+		private final ByteBuffer readBuffer;
+		private SocketChannel channel;
+		private SelectionKey key;
+		private InetSocketAddress address;
+		private MessageParser parser;
+		private ByteBuffer writeBuffer;
+		private int requestIndex;
+		private Exchange exchange;
+		private long sendTime;
+		private boolean reused;
+		private boolean responseStarted;
+		private boolean interimResponse;
+		private boolean closeAfterResponse;
+		private int status;
+
+		private Connection(Selector selector) {
+			this.selector = selector;
+			this.readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+		}
+
+		private boolean isIdle() {
+			return exchange == null;
+		}
+
+		private void send(int index, long now) {
+			requestIndex = index % exchanges.size();
+			exchange = exchanges.get(requestIndex);
+			sendTime = now;
+			write();
+		}
+
+		private void write() {
+			writeBuffer = ByteBuffer.wrap(requests[requestIndex]);
+			responseStarted = false;
+			status = 0;
+			try {
+				if ((channel != null) && addresses[requestIndex].equals(address)) {
+					reused = true;
+					key.interestOps(SelectionKey.OP_WRITE);
+					return;
+				}
+
+				close();
+				reused = false;
+				address = addresses[requestIndex];
+				channel = SocketChannel.open();
+				channel.configureBlocking(false);
+				channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+				parser = new MessageParser(0, this);
+				boolean connected = channel.connect(address);
+				key = channel.register(selector, connected ? SelectionKey.OP_WRITE
+					: SelectionKey.OP_CONNECT, this);
+			} catch (IOException | UnresolvedAddressException exception) {
+				fail();
+			}
+		}
+
+		private void handle(SelectionKey selectedKey) {
+			if ((selectedKey != key) || !selectedKey.isValid()) {
+				return;
+			}
+
+			try {
+				if (selectedKey.isConnectable()) {
+					if (channel.finishConnect()) {
+						key.interestOps(SelectionKey.OP_WRITE);
+					}
+					return;
+				}
+				if (selectedKey.isWritable()) {
+					channel.write(writeBuffer);
+					if (!writeBuffer.hasRemaining()) {
+						key.interestOps(SelectionKey.OP_READ);
+					}
+				}
+				if (selectedKey.isValid() && selectedKey.isReadable()) {
+					read();
+				}
+			} catch (IOException exception) {
+				fail();
+			}
+		}
+
+		private void read() throws IOException {
+			readBuffer.clear();
+			int numBytes = channel.read(readBuffer);
+			if (numBytes < 0) {
+				// a body delimited by the end of the connection is complete
+				parser.finish(System.nanoTime());
+				if (isIdle()) {
+					close();
+				} else {
+					fail();
+				}
+				return;
+			}
+			if (isIdle()) {
+				// nothing is expected from an idle connection
+				close();
+				return;
+			}
+
+			numBytesReceived += numBytes;
+			responseStarted = true;
+			parser.feed(readBuffer.array(), 0, numBytes, System.nanoTime());
+			if (parser.isStopped() && !isIdle()) {
+				fail();
+			}
+		}
+
+		private void fail() {
+			if (isIdle()) {
+				return;
+			}
+
+			// the server may have closed a kept-alive connection just as the request was sent
+			if (reused && !responseStarted) {
+				close();
+				write();
+				return;
+			}
+
+			numFailed++;
+			numFinished++;
+			exchange = null;
+			close();
+		}
+
+		private void close() {
+			if (channel == null) {
+				return;
+			}
+			try {
+				channel.close();
+			} catch (IOException ignored) {
+			}
+			channel = null;
+			key = null;
+			address = null;
+		}
+
+		@Override
+		public HttpBody.Framing headParsed(HttpHead head, long time) {
+			int code = head.getStatus();
+			interimResponse = (code >= 100) && (code < 200);
+			if (interimResponse) {
+				return HttpBody.Framing.NONE;
+			}
+
+			status = code;
+			closeAfterResponse = head.hasToken("Connection", "close")
+				|| ("HTTP/1.0".equals(head.getVersion())
+					&& !head.hasToken("Connection", "keep-alive"));
+			return HttpBody.getResponseFraming(exchange.getMethod(), head);
+		}
+
+		@Override
+		public void messageParsed(byte[] body, long bodySize, long time) {
+			if (interimResponse) {
+				interimResponse = false;
+				return;
+			}
+
+			latencies.record(TimeUnit.NANOSECONDS.toMicros(time - sendTime));
+			statusCounts.merge(status, 1, Integer::sum);
+			numFinished++;
+			exchange = null;
+			if (closeAfterResponse) {
+				close();
+			} else {
+				key.interestOps(SelectionKey.OP_READ);
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,318 @@
+package com.bradchen.jwormhole.client.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * Follows the HTTP/1.x messages going one way through a connection as the bytes arrive in pieces of
+ * any size. Heads are kept whole and decoded content up to a limit; content past the limit is only
+ * counted, and {@link #getSkippableUntil()} tells how far the stream may be passed over without
+ * copying it.
+ */
+final class MessageParser {
+
+	private static final Charset ISO_8859_1_CHARSET = Charset.forName("iso-8859-1");
+	private static final int MAX_HEAD_BYTES = 64 * 1024;
+	private static final int MAX_CHUNK_LINE = 4096;
+
+	/**
+	 * Receives the messages parsed.
+	 */
+	interface Listener {
+
+		/**
+		 * Called once the head of a message is complete.
+		 *
+		 * @return how the body of the message is delimited
+		 */
+		HttpBody.Framing headParsed(HttpHead head, long time);
+
+		/**
+		 * Called once a message is complete.
+		 *
+		 * @param body decoded content, up to the limit
+		 * @param bodySize length of the whole decoded content
+		 */
+		void messageParsed(byte[] body, long bodySize, long time);
+
+	}
+
+	private enum State {
+		HEAD, BODY, CHUNK_LINE, CHUNK_DATA, CHUNK_END, TRAILERS, UNTIL_CLOSE, STOPPED
+	}
+
+	private final int bodyLimit;
+	private final Listener listener;
+	private final ByteArrayOutputStream line;
+	private final ByteArrayOutputStream body;
+	private State state;
+	private long position;
+	private long remaining;
+	private long bodySize;
+	private int lineLength;
+
+	MessageParser(int bodyLimit, Listener listener) {
+		this.bodyLimit = bodyLimit;
+		this.listener = listener;
+		this.line = new ByteArrayOutputStream(512);
+		this.body = new ByteArrayOutputStream();
+		this.state = State.HEAD;
+	}
+
+	/**
+	 * Returns the offset in the stream of the next byte expected.
+	 */
+	long getPosition() {
+		return position;
+	}
+
+	/**
+	 * Returns the offset in the stream up to which bytes are content past the limit, or
+	 * {@link Long#MAX_VALUE} if no more bytes are needed.
+	 */
+	long getSkippableUntil() {
+		if (state == State.STOPPED) {
+			return Long.MAX_VALUE;
+		}
+		if (bodySize < bodyLimit) {
+			return position;
+		}
+
+		switch (state) {
+			case BODY:
+			case CHUNK_DATA:
+				return position + remaining;
+			case UNTIL_CLOSE:
+				return Long.MAX_VALUE;
+			default:
+				return position;
+		}
+	}
+
+	boolean isStopped() {
+		return state == State.STOPPED;
+	}
+
+	/**
+	 * Returns true if no message is partly parsed.
+	 */
+	boolean isBetweenMessages() {
+		return (state == State.HEAD) && (line.size() == 0);
+	}
+
+	/**
+	 * Stops following the stream, e.g. once it is no longer HTTP.
+	 */
+	void stop() {
+		state = State.STOPPED;
+		line.reset();
+		body.reset();
+	}
+
+	void feed(byte[] bytes, int offset, int length, long time) {
+		int end = offset + length;
+		position += length;
+		while ((offset < end) && (state != State.STOPPED)) {
+			switch (state) {
+				case HEAD:
+					offset += feedHead(bytes, offset, end, time);
+					break;
+				case BODY:
+				case CHUNK_DATA:
+				case UNTIL_CLOSE:
+					offset += feedContent(bytes, offset, end - offset, time);
+					break;
+				default:
+					offset += feedChunkLine(bytes, offset, end, time);
+					break;
+			}
+		}
+	}
+
+	/**
+	 * Passes over bytes that were not copied, which must be content past the limit.
+	 */
+	void skip(long length, long time) {
+		position += length;
+		while ((length > 0) && (state != State.STOPPED)) {
+			if ((state != State.BODY) && (state != State.CHUNK_DATA)
+					&& (state != State.UNTIL_CLOSE)) {
+				stop();
+				return;
+			}
+			int numBytes = (int)Math.min(length, Integer.MAX_VALUE);
+			length -= feedContent(null, 0, numBytes, time);
+		}
+	}
+
+	/**
+	 * Ends the stream; a body delimited by the end of the connection is complete.
+	 */
+	void finish(long time) {
+		if (state == State.UNTIL_CLOSE) {
+			complete(time);
+		}
+		stop();
+	}
+
+	private int feedHead(byte[] bytes, int offset, int end, long time) {
+		for (int i = offset; i < end; i++) {
+			byte b = bytes[i];
+			if (line.size() == 0) {
+				// stray line breaks between messages are allowed
+				if ((b == '\r') || (b == '\n')) {
+					continue;
+				}
+				if ((b < 'A') || (b > 'Z')) {
+					stop();
+					return end - offset;
+				}
+			}
+
+			line.write(b);
+			if (line.size() > MAX_HEAD_BYTES) {
+				stop();
+				return end - offset;
+			}
+			if (b == '\n') {
+				if (lineLength == 0) {
+					headComplete(time);
+					return i + 1 - offset;
+				}
+				lineLength = 0;
+			} else if (b != '\r') {
+				lineLength++;
+			}
+		}
+		return end - offset;
+	}
+
+	private void headComplete(long time) {
+		HttpHead head;
+		try {
+			head = HttpHead.read(new ByteArrayInputStream(line.toByteArray()));
+		} catch (IOException exception) {
+			head = null;
+		}
+		line.reset();
+		lineLength = 0;
+		if ((head == null) || !head.getVersion().startsWith("HTTP/")) {
+			stop();
+			return;
+		}
+
+		body.reset();
+		bodySize = 0;
+		HttpBody.Framing framing = listener.headParsed(head, time);
+		if (state == State.STOPPED) {
+			return;
+		}
+
+		switch (framing) {
+			case CONTENT_LENGTH:
+				remaining = HttpBody.getContentLength(head);
+				if (remaining > 0) {
+					state = State.BODY;
+				} else {
+					complete(time);
+				}
+				break;
+			case CHUNKED:
+				state = State.CHUNK_LINE;
+				break;
+			case UNTIL_CLOSE:
+				state = State.UNTIL_CLOSE;
+				break;
+			default:
+				complete(time);
+				break;
+		}
+	}
+
+	private int feedContent(byte[] bytes, int offset, int length, long time) {
+		int numBytes = (state == State.UNTIL_CLOSE) ? length : (int)Math.min(length, remaining);
+		int numKept = (int)Math.min(numBytes, Math.max(bodyLimit - bodySize, 0));
+		if ((bytes != null) && (numKept > 0)) {
+			body.write(bytes, offset, numKept);
+		}
+		bodySize += numBytes;
+
+		if (state != State.UNTIL_CLOSE) {
+			remaining -= numBytes;
+			if (remaining == 0) {
+				if (state == State.BODY) {
+					complete(time);
+				} else {
+					state = State.CHUNK_END;
+				}
+			}
+		}
+		return numBytes;
+	}
+
+	private int feedChunkLine(byte[] bytes, int offset, int end, long time) {
+		for (int i = offset; i < end; i++) {
+			byte b = bytes[i];
+			if (b != '\n') {
+				if (b != '\r') {
+					line.write(b);
+				}
+				if (line.size() > MAX_CHUNK_LINE) {
+					stop();
+					return end - offset;
+				}
+				continue;
+			}
+
+			String value = new String(line.toByteArray(), ISO_8859_1_CHARSET).trim();
+			line.reset();
+			chunkLineComplete(value, time);
+			return i + 1 - offset;
+		}
+		return end - offset;
+	}
+
+	private void chunkLineComplete(String value, long time) {
+		switch (state) {
+			case CHUNK_LINE:
+				int semicolon = value.indexOf(';');
+				long size;
+				try {
+					size = Long.parseLong((semicolon < 0) ? value : value.substring(0, semicolon)
+						.trim(), 16);
+				} catch (NumberFormatException exception) {
+					stop();
+					return;
+				}
+				if (size == 0) {
+					state = State.TRAILERS;
+				} else {
+					remaining = size;
+					state = State.CHUNK_DATA;
+				}
+				break;
+			case CHUNK_END:
+				if (value.isEmpty()) {
+					state = State.CHUNK_LINE;
+				} else {
+					stop();
+				}
+				break;
+			default:
+				if (value.isEmpty()) {
+					complete(time);
+				}
+				break;
+		}
+	}
+
+	private void complete(long time) {
+		byte[] content = body.toByteArray();
+		body.reset();
+		state = State.HEAD;
+		listener.messageParsed(content, bodySize, time);
+	}
+
+}
@@ -0,0 +1,78 @@
+package com.bradchen.jwormhole.client.http;
+
+import com.bradchen.jwormhole.client.RollingHistogram;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Outcome of a run of a {@link LoadGenerator}. Times are in microseconds; latency percentiles are
+ * within the few percent of the histogram buckets they are counted in.
+ */
+public final class ReplayResult {
+
+	private final int numRequests;
+	private final int numFailed;
+	private final Map<Integer, Integer> statusCounts;
+	private final long elapsed;
+	private final RollingHistogram.Snapshot latencies;
+	private final long numBytesReceived;
+
+	ReplayResult(int numRequests, int numFailed, Map<Integer, Integer> statusCounts, long elapsed,
+				 RollingHistogram.Snapshot latencies, long numBytesReceived) {
+		this.numRequests = numRequests;
+		this.numFailed = numFailed;
+		this.statusCounts = Collections.unmodifiableMap(new LinkedHashMap<>(statusCounts));
+		this.elapsed = elapsed;
+		this.latencies = latencies;
+		this.numBytesReceived = numBytesReceived;
+	}
+
+	public int getNumRequests() {
+		return numRequests;
+	}
+
+	/**
+	 * Returns the number of requests that got no complete response, because the connection was
+	 * refused or closed, or the response took too long.
+	 */
+	public int getNumFailed() {
+		return numFailed;
+	}
+
+	/**
+	 * Returns the number of responses of each status code, by status code.
+	 */
+	public Map<Integer, Integer> getStatusCounts() {
+		return statusCounts;
+	}
+
+	public long getElapsed() {
+		return elapsed;
+	}
+
+	/**
+	 * Returns the number of responses completed per second.
+	 */
+	public double getThroughput() {
+		return (elapsed == 0) ? 0 : (latencies.getCount() * 1000000.0) / elapsed;
+	}
+
+	public long getNumBytesReceived() {
+		return numBytesReceived;
+	}
+
+	/**
+	 * Returns the time from sending a request to the end of its response that the percentage
+	 * given of responses took at most, or 0 if no response came.
+	 */
+	public long getLatencyAtPercentile(double percentile) {
+		return latencies.getValueAtPercentile(percentile);
+	}
+
+	public long getMaxLatency() {
+		return latencies.getMax();
+	}
+
+}
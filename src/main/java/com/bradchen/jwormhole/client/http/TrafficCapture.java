@@ -0,0 +1,253 @@
+package com.bradchen.jwormhole.client.http;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * Taps a relayed connection for the {@link HttpInspector}. The relay hands over the bytes going
+ * each way; they are copied onto the inspector's queue and parsed on its thread, so the relay never
+ * waits for the inspector. Content past the body limit is not copied at all. Once the queue is
+ * full, the connection is no longer inspected.
+ */
+public final class TrafficCapture {
+
+	private static final int MAX_PENDING_REQUESTS = 64;
+
+	private final HttpInspector inspector;
+	private final String domainName;
+	private final int localPort;
+	private final Direction requests;
+	private final Direction responses;
+	private volatile boolean dropped;
+
+	// accessed by the inspector thread only
+	private final Deque<PendingExchange> pending;
+	private PendingExchange receiving;
+	private boolean interimResponse;
+
+	TrafficCapture(HttpInspector inspector, String domainName, int localPort, int bodyLimit) {
+		this.inspector = inspector;
+		this.domainName = domainName;
+		this.localPort = localPort;
+		this.requests = new Direction(new MessageParser(bodyLimit, new RequestListener()));
+		this.responses = new Direction(new MessageParser(bodyLimit, new ResponseListener()));
+		this.pending = new ArrayDeque<>();
+	}
+
+	/**
+	 * Captures bytes on their way to the local port. Must be called before the bytes are passed
+	 * on, so that the request is seen before its response.
+	 */
+	public void captureRequest(byte[] bytes, int offset, int length) {
+		if (dropped) {
+			return;
+		}
+
+		long start = requests.offset;
+		int numSkipped = requests.advance(length);
+		if (numSkipped < length) {
+			submit(requests, start + numSkipped,
+				Arrays.copyOfRange(bytes, offset + numSkipped, offset + length));
+		}
+	}
+
+	/**
+	 * Captures the remaining bytes of a buffer read from the local port, leaving its position as
+	 * it is.
+	 */
+	public void captureResponse(ByteBuffer buffer) {
+		if (dropped) {
+			return;
+		}
+
+		int length = buffer.remaining();
+		long start = responses.offset;
+		int numSkipped = responses.advance(length);
+		if (numSkipped < length) {
+			byte[] bytes = new byte[length - numSkipped];
+			ByteBuffer source = buffer.duplicate();
+			source.position(source.position() + numSkipped);
+			source.get(bytes);
+			submit(responses, start + numSkipped, bytes);
+		}
+	}
+
+	/**
+	 * Ends the capture once the connection is closed.
+	 */
+	public void close() {
+		if (!dropped) {
+			submit(responses, 0, null);
+		}
+	}
+
+	private void submit(Direction direction, long offset, byte[] bytes) {
+		if (!inspector.submit(new HttpInspector.Sample(this, direction == requests, offset, bytes,
+				System.nanoTime()))) {
+			dropped = true;
+			inspector.captureDropped();
+		}
+	}
+
+	void process(HttpInspector.Sample sample) {
+		if (dropped) {
+			return;
+		}
+		if (sample.getBytes() == null) {
+			finish(sample.getTime());
+			return;
+		}
+
+		Direction direction = sample.isRequest() ? requests : responses;
+		MessageParser parser = direction.parser;
+		long gap = sample.getOffset() - parser.getPosition();
+		if (gap > 0) {
+			parser.skip(gap, sample.getTime());
+		}
+		parser.feed(sample.getBytes(), 0, sample.getBytes().length, sample.getTime());
+		direction.skipUntil = parser.getSkippableUntil();
+	}
+
+	private void finish(long time) {
+		requests.parser.finish(time);
+		responses.parser.finish(time);
+
+		// requests the local port never answered in full
+		for (PendingExchange exchange : pending) {
+			record(exchange, null, 0, -1);
+		}
+		pending.clear();
+	}
+
+	/**
+	 * Stops following the connection, e.g. once it is upgraded to another protocol.
+	 */
+	void stop() {
+		requests.parser.stop();
+		responses.parser.stop();
+		requests.skipUntil = Long.MAX_VALUE;
+		responses.skipUntil = Long.MAX_VALUE;
+		pending.clear();
+	}
+
+	private void record(PendingExchange exchange, byte[] responseBody, long responseBodySize,
+						long endTime) {
+		long duration = (endTime < 0) ? -1 : (endTime - exchange.startTime) / 1000;
+		inspector.record(inspector.toEpochMillis(exchange.startTime), duration, domainName,
+			localPort, exchange.request, exchange.body, exchange.bodySize, exchange.response,
+			responseBody, responseBodySize);
+	}
+
+	/**
+	 * One way through the connection. The offset is advanced by the relay thread of that way, and
+	 * the point up to which bytes need not be copied is set by the inspector thread.
+	 */
+	private static final class Direction {
+
+		private final MessageParser parser;
+		private long offset;
+		private volatile long skipUntil;
+
+		private Direction(MessageParser parser) {
+			this.parser = parser;
+		}
+
+		/**
+		 * Moves the offset past the bytes given, and returns how many of them need not be copied.
+		 */
+		private int advance(int length) {
+			long start = offset;
+			offset += length;
+			return (int)Math.max(Math.min(skipUntil - start, length), 0);
+		}
+
+	}
+
+	private static final class PendingExchange {
+
+		private final HttpHead request;
+		private final long startTime;
+		private byte[] body;
+		private long bodySize;
+		private HttpHead response;
+
+		private PendingExchange(HttpHead request, long startTime) {
+			this.request = request;
+			this.startTime = startTime;
+		}
+
+	}
+
+	private final class RequestListener implements MessageParser.Listener {
+
+		@Override
+		public HttpBody.Framing headParsed(HttpHead head, long time) {
+			if (pending.size() >= MAX_PENDING_REQUESTS) {
+				stop();
+				return HttpBody.Framing.NONE;
+			}
+
+			receiving = new PendingExchange(head, time);
+			pending.add(receiving);
+			return HttpBody.getRequestFraming(head);
+		}
+
+		@Override
+		public void messageParsed(byte[] body, long bodySize, long time) {
+			receiving.body = body;
+			receiving.bodySize = bodySize;
+			receiving = null;
+		}
+
+	}
+
+	private final class ResponseListener implements MessageParser.Listener {
+
+		@Override
+		public HttpBody.Framing headParsed(HttpHead head, long time) {
+			PendingExchange exchange = pending.peek();
+			if (exchange == null) {
+				stop();
+				return HttpBody.Framing.NONE;
+			}
+
+			int status = head.getStatus();
+			interimResponse = (status >= 100) && (status < 200) && (status != 101);
+			if (interimResponse) {
+				return HttpBody.Framing.NONE;
+			}
+
+			exchange.response = head;
+			if (isTunnelOpened(exchange)) {
+				return HttpBody.Framing.NONE;
+			}
+			return HttpBody.getResponseFraming(exchange.request.getMethod(), head);
+		}
+
+		@Override
+		public void messageParsed(byte[] body, long bodySize, long time) {
+			if (interimResponse) {
+				interimResponse = false;
+				return;
+			}
+
+			PendingExchange exchange = pending.poll();
+			record(exchange, body, bodySize, time);
+
+			// what follows a switch of protocols or an opened tunnel is not HTTP
+			if ((exchange.response.getStatus() == 101) || isTunnelOpened(exchange)) {
+				stop();
+			}
+		}
+
+		private boolean isTunnelOpened(PendingExchange exchange) {
+			int status = exchange.response.getStatus();
+			return "CONNECT".equals(exchange.request.getMethod()) && (status >= 200)
+				&& (status < 300);
+		}
+
+	}
+
+}
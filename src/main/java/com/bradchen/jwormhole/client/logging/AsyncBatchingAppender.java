@@ -0,0 +1,221 @@
+package com.bradchen.jwormhole.client.logging;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+import ch.qos.logback.core.OutputStreamAppender;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+import ch.qos.logback.core.spi.AppenderAttachable;
+import ch.qos.logback.core.spi.AppenderAttachableImpl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Hands log events to a thread of its own, which passes them on to the attached appenders in
+ * batches and flushes once per batch. Logging never waits: once the queue is filling up, DEBUG and
+ * TRACE events are left out, and once it is full, all events are. Both are counted in
+ * {@link LogStats}.
+ *
+ * Attached appenders that write to a stream should not flush every event, e.g. a file appender
+ * with <code>immediateFlush</code> off. Events still queued when the JVM exits are written by a
+ * shutdown hook.
+ */
+public final class AsyncBatchingAppender extends UnsynchronizedAppenderBase<ILoggingEvent>
+		implements AppenderAttachable<ILoggingEvent> {
+
+	private static final int DEFAULT_QUEUE_SIZE = 8192;
+	private static final int DEFAULT_MAX_BATCH_SIZE = 256;
+	private static final long STOP_TIMEOUT = 1000; // in milliseconds
+
+	private final AppenderAttachableImpl<ILoggingEvent> appenders;
+	private int queueSize;
+	private int discardingThreshold;
+	private int maxBatchSize;
+	private BlockingQueue<ILoggingEvent> queue;
+	private Thread worker;
+	private Thread shutdownHook;
+
+	public AsyncBatchingAppender() {
+		this.appenders = new AppenderAttachableImpl<>();
+		this.queueSize = DEFAULT_QUEUE_SIZE;
+		this.discardingThreshold = -1;
+		this.maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+	}
+
+	public int getQueueSize() {
+		return queueSize;
+	}
+
+	public void setQueueSize(int queueSize) {
+		this.queueSize = queueSize;
+	}
+
+	/**
+	 * Returns the room left in the queue below which DEBUG and TRACE events are left out; by
+	 * default a fifth of the queue.
+	 */
+	public int getDiscardingThreshold() {
+		return (discardingThreshold < 0) ? (queueSize / 5) : discardingThreshold;
+	}
+
+	public void setDiscardingThreshold(int discardingThreshold) {
+		this.discardingThreshold = discardingThreshold;
+	}
+
+	public int getMaxBatchSize() {
+		return maxBatchSize;
+	}
+
+	public void setMaxBatchSize(int maxBatchSize) {
+		this.maxBatchSize = maxBatchSize;
+	}
+
+	@Override
+	public void start() {
+		if (queueSize < 1) {
+			addError("Invalid queue size " + queueSize + ".");
+			return;
+		}
+		if (maxBatchSize < 1) {
+			addError("Invalid batch size " + maxBatchSize + ".");
+			return;
+		}
+
+		queue = new ArrayBlockingQueue<>(queueSize);
+		worker = new Thread(this::writeEvents, "jwormhole-log-" + getName());
+		worker.setDaemon(true);
+		shutdownHook = new Thread(this::stop, "jwormhole-log-" + getName() + "-shutdown");
+		super.start();
+		worker.start();
+		Runtime.getRuntime().addShutdownHook(shutdownHook);
+	}
+
+	@Override
+	public void stop() {
+		if (!isStarted()) {
+			return;
+		}
+
+		super.stop();
+		if (Thread.currentThread() != shutdownHook) {
+			try {
+				Runtime.getRuntime().removeShutdownHook(shutdownHook);
+			} catch (IllegalStateException ignored) {
+				// the JVM is already shutting down
+			}
+		}
+		worker.interrupt();
+		try {
+			worker.join(STOP_TIMEOUT);
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+		}
+		if (worker.isAlive()) {
+			addWarn("Stopped with " + queue.size() + " events left to write.");
+		}
+		appenders.detachAndStopAllAppenders();
+	}
+
+	@Override
+	protected void append(ILoggingEvent event) {
+		if (event.getLevel().toInt() <= Level.DEBUG_INT
+				&& (queue.remainingCapacity() < getDiscardingThreshold())) {
+			LogStats.eventDiscarded();
+			return;
+		}
+
+		// the rest of the event is worked out here, while the thread and its MDC are at hand
+		event.prepareForDeferredProcessing();
+		if (queue.offer(event)) {
+			LogStats.eventQueued();
+		} else {
+			LogStats.eventDropped();
+		}
+	}
+
+	private void writeEvents() {
+		List<ILoggingEvent> batch = new ArrayList<>(maxBatchSize);
+		while (true) {
+			try {
+				batch.add(queue.take());
+			} catch (InterruptedException exception) {
+				// write what is left before stopping
+				queue.drainTo(batch);
+				writeBatch(batch);
+				return;
+			}
+			queue.drainTo(batch, maxBatchSize - 1);
+			writeBatch(batch);
+			batch.clear();
+		}
+	}
+
+	private void writeBatch(List<ILoggingEvent> batch) {
+		for (ILoggingEvent event : batch) {
+			appenders.appendLoopOnAppenders(event);
+		}
+
+		Iterator<Appender<ILoggingEvent>> iterator = appenders.iteratorForAppenders();
+		while (iterator.hasNext()) {
+			Appender<ILoggingEvent> appender = iterator.next();
+			if (appender instanceof OutputStreamAppender) {
+				flush((OutputStreamAppender<ILoggingEvent>)appender);
+			}
+		}
+		LogStats.batchWritten(batch.size());
+	}
+
+	private void flush(OutputStreamAppender<ILoggingEvent> appender) {
+		OutputStream out = appender.getOutputStream();
+		if (out == null) {
+			return;
+		}
+		try {
+			out.flush();
+		} catch (IOException exception) {
+			addError("Unable to flush " + appender.getName() + ".", exception);
+		}
+	}
+
+	@Override
+	public void addAppender(Appender<ILoggingEvent> appender) {
+		appenders.addAppender(appender);
+	}
+
+	@Override
+	public Iterator<Appender<ILoggingEvent>> iteratorForAppenders() {
+		return appenders.iteratorForAppenders();
+	}
+
+	@Override
+	public Appender<ILoggingEvent> getAppender(String name) {
+		return appenders.getAppender(name);
+	}
+
+	@Override
+	public boolean isAttached(Appender<ILoggingEvent> appender) {
+		return appenders.isAttached(appender);
+	}
+
+	@Override
+	public void detachAndStopAllAppenders() {
+		appenders.detachAndStopAllAppenders();
+	}
+
+	@Override
+	public boolean detachAppender(Appender<ILoggingEvent> appender) {
+		return appenders.detachAppender(appender);
+	}
+
+	@Override
+	public boolean detachAppender(String name) {
+		return appenders.detachAppender(name);
+	}
+
+}
@@ -0,0 +1,155 @@
+package com.bradchen.jwormhole.client.logging;
+
+import ch.qos.logback.classic.PatternLayout;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.classic.spi.ThrowableProxyUtil;
+import ch.qos.logback.core.CoreConstants;
+import ch.qos.logback.core.LayoutBase;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Formats log events as text by a pattern, or as one JSON object per line for log shippers,
+ * depending on the <code>format</code> property (<code>text</code> or <code>json</code>). JSON
+ * objects carry the time, level, thread, logger, message, every MDC entry and the stack trace.
+ */
+public final class LogLayout extends LayoutBase<ILoggingEvent> {
+
+	private static final String JSON_FORMAT = "json";
+	private static final String TIME_FORMAT = "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'";
+
+	private final PatternLayout patternLayout;
+	private String format;
+	private boolean json;
+	private SimpleDateFormat timeFormat;
+
+	public LogLayout() {
+		this.patternLayout = new PatternLayout();
+		this.format = "text";
+	}
+
+	public String getFormat() {
+		return format;
+	}
+
+	public void setFormat(String format) {
+		this.format = format;
+	}
+
+	public String getPattern() {
+		return patternLayout.getPattern();
+	}
+
+	public void setPattern(String pattern) {
+		patternLayout.setPattern(pattern);
+	}
+
+	@Override
+	public void start() {
+		json = JSON_FORMAT.equalsIgnoreCase(format.trim());
+		if (json) {
+			timeFormat = new SimpleDateFormat(TIME_FORMAT);
+			timeFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+		} else {
+			patternLayout.setContext(getContext());
+			patternLayout.start();
+		}
+		super.start();
+	}
+
+	@Override
+	public void stop() {
+		patternLayout.stop();
+		super.stop();
+	}
+
+	@Override
+	public String getContentType() {
+		return json ? "application/json" : patternLayout.getContentType();
+	}
+
+	@Override
+	public String doLayout(ILoggingEvent event) {
+		if (!json) {
+			return patternLayout.doLayout(event);
+		}
+
+		StringBuilder builder = new StringBuilder(256);
+		builder.append('{');
+		field(builder, "time", formatTime(event.getTimeStamp()));
+		builder.append(',');
+		field(builder, "level", event.getLevel().toString());
+		builder.append(',');
+		field(builder, "thread", event.getThreadName());
+		builder.append(',');
+		field(builder, "logger", event.getLoggerName());
+		builder.append(',');
+		field(builder, "message", event.getFormattedMessage());
+		Map<String, String> mdc = event.getMDCPropertyMap();
+		if (mdc != null) {
+			for (Map.Entry<String, String> entry : mdc.entrySet()) {
+				builder.append(',');
+				field(builder, entry.getKey(), entry.getValue());
+			}
+		}
+		IThrowableProxy throwable = event.getThrowableProxy();
+		if (throwable != null) {
+			builder.append(',');
+			field(builder, "exception", ThrowableProxyUtil.asString(throwable));
+		}
+		builder.append('}').append(CoreConstants.LINE_SEPARATOR);
+		return builder.toString();
+	}
+
+	// layouts are used by one thread at a time, but not always the same one
+	private synchronized String formatTime(long time) {
+		return timeFormat.format(new Date(time));
+	}
+
+	private static void field(StringBuilder builder, String name, String value) {
+		string(builder, name);
+		builder.append(':');
+		if (value == null) {
+			builder.append("null");
+		} else {
+			string(builder, value);
+		}
+	}
+
+	private static void string(StringBuilder builder, String value) {
+		builder.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+				case '"':
+					builder.append("\\\"");
+					break;
+				case '\\':
+					builder.append("\\\\");
+					break;
+				case '\n':
+					builder.append("\\n");
+					break;
+				case '\r':
+					builder.append("\\r");
+					break;
+				case '\t':
+					builder.append("\\t");
+					break;
+				default:
+					if (c < 0x20) {
+						builder.append(String.format("\\u%04x", (int)c));
+					} else {
+						builder.append(c);
+					}
+					break;
+			}
+		}
+		builder.append('"');
+	}
+
+}
@@ -0,0 +1,74 @@
+package com.bradchen.jwormhole.client.logging;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the asynchronous log appenders, to tell what logging costs and what it lost.
+ * Counters cover all appenders of the process.
+ */
+public final class LogStats {
+
+	private static final LongAdder NUM_QUEUED = new LongAdder();
+	private static final LongAdder NUM_DISCARDED = new LongAdder();
+	private static final LongAdder NUM_DROPPED = new LongAdder();
+	private static final LongAdder NUM_BATCHES = new LongAdder();
+	private static final AtomicInteger QUEUE_LENGTH = new AtomicInteger();
+
+	private LogStats() {
+	}
+
+	static void eventQueued() {
+		NUM_QUEUED.increment();
+		QUEUE_LENGTH.incrementAndGet();
+	}
+
+	static void eventDiscarded() {
+		NUM_DISCARDED.increment();
+	}
+
+	static void eventDropped() {
+		NUM_DROPPED.increment();
+	}
+
+	static void batchWritten(int numEvents) {
+		NUM_BATCHES.increment();
+		QUEUE_LENGTH.addAndGet(-numEvents);
+	}
+
+	/**
+	 * Returns the number of events handed to the writer thread.
+	 */
+	public static long getNumQueued() {
+		return NUM_QUEUED.sum();
+	}
+
+	/**
+	 * Returns the number of DEBUG and TRACE events left out because the queue was filling up.
+	 */
+	public static long getNumDiscarded() {
+		return NUM_DISCARDED.sum();
+	}
+
+	/**
+	 * Returns the number of events of any level left out because the queue was full.
+	 */
+	public static long getNumDropped() {
+		return NUM_DROPPED.sum();
+	}
+
+	/**
+	 * Returns the number of batches written; each is flushed once.
+	 */
+	public static long getNumBatches() {
+		return NUM_BATCHES.sum();
+	}
+
+	/**
+	 * Returns the number of events waiting to be written.
+	 */
+	public static int getQueueLength() {
+		return QUEUE_LENGTH.get();
+	}
+
+}
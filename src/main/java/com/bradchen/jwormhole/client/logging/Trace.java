@@ -0,0 +1,79 @@
+package com.bradchen.jwormhole.client.logging;
+
+import org.slf4j.MDC;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Puts the tunnel and the forwarded connection a log event is about in the MDC, under
+ * {@link #TUNNEL_KEY} and {@link #CONNECTION_KEY}, for as long as a scope is open. Scopes are
+ * meant to be opened around logging calls only, so that code relaying data pays nothing for them:
+ *
+ * <pre>
+ * Trace.Scope scope = Trace.connection(domainName, connectionId);
+ * try {
+ *     LOGGER.debug("...");
+ * } finally {
+ *     scope.close();
+ * }
+ * </pre>
+ *
+ * A try-with-resources block would do the same, but javac warns about its unused resource.
+ */
+public final class Trace {
+
+	public static final String TUNNEL_KEY = "tunnel";
+	public static final String CONNECTION_KEY = "connection";
+
+	private static final AtomicLong NEXT_CONNECTION_ID = new AtomicLong(1);
+
+	private Trace() {
+	}
+
+	/**
+	 * Returns an identifier for a forwarded connection, unique within the process.
+	 */
+	public static String newConnectionId() {
+		return "c" + Long.toString(NEXT_CONNECTION_ID.getAndIncrement(), 36);
+	}
+
+	public static Scope tunnel(String domainName) {
+		return new Scope(domainName, MDC.get(CONNECTION_KEY));
+	}
+
+	public static Scope connection(String domainName, String connectionId) {
+		return new Scope(domainName, connectionId);
+	}
+
+	/**
+	 * Restores the values it replaced when closed.
+	 */
+	public static final class Scope implements AutoCloseable {
+
+		private final String previousTunnel;
+		private final String previousConnection;
+
+		private Scope(String domainName, String connectionId) {
+			this.previousTunnel = MDC.get(TUNNEL_KEY);
+			this.previousConnection = MDC.get(CONNECTION_KEY);
+			put(TUNNEL_KEY, domainName);
+			put(CONNECTION_KEY, connectionId);
+		}
+
+		@Override
+		public void close() {
+			put(TUNNEL_KEY, previousTunnel);
+			put(CONNECTION_KEY, previousConnection);
+		}
+
+		private static void put(String key, String value) {
+			if (value == null) {
+				MDC.remove(key);
+			} else {
+				MDC.put(key, value);
+			}
+		}
+
+	}
+
+}
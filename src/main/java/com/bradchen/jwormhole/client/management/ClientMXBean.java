@@ -0,0 +1,85 @@
+package com.bradchen.jwormhole.client.management;
+
+import java.io.IOException;
+
+/**
+ * Management interface of a {@link com.bradchen.jwormhole.client.Client}. Attributes are read from
+ * counters the client keeps anyway, without taking locks, so they may be polled often.
+ */
+public interface ClientMXBean {
+
+	/**
+	 * Returns the name of the server the client is connected to, which changes on failover.
+	 */
+	String getServer();
+
+	String getServerHost();
+
+	boolean isConnected();
+
+	boolean isReconnecting();
+
+	boolean isLatencyDegraded();
+
+	boolean isCompressionEnabled();
+
+	/**
+	 * Returns the ratio of compressed to uncompressed bytes.
+	 */
+	double getCompressionRatio();
+
+	/**
+	 * Returns the time the first tunnel was created, in milliseconds since the epoch, or 0 if no
+	 * tunnel was created yet.
+	 */
+	long getProxyStartTime();
+
+	/**
+	 * Returns the time since the first tunnel was created, in milliseconds.
+	 */
+	long getUptime();
+
+	long getReconnects();
+
+	/**
+	 * Returns the round trip to the SSH server measured by the latest keepalive, in microseconds.
+	 */
+	long getSshRoundTripMicros();
+
+	/**
+	 * Returns the round trip to the jWormhole controller measured by the latest keepalive, in
+	 * microseconds.
+	 */
+	long getControllerRoundTripMicros();
+
+	int getSessionCount();
+
+	int getTunnelCount();
+
+	String[] getDomainNames();
+
+	int getActiveConnections();
+
+	long getTotalConnections();
+
+	long getBytesSent();
+
+	long getBytesReceived();
+
+	int getRelayThreads();
+
+	/**
+	 * Drops the sessions and reconnects, reclaiming every tunnel.
+	 *
+	 * @return false if the client is reconnecting already
+	 */
+	boolean reconnect();
+
+	/**
+	 * Stops proxying the tunnel of the domain name given and releases its host.
+	 *
+	 * @return false if no such tunnel exists
+	 */
+	boolean removeTunnel(String domainName) throws IOException;
+
+}
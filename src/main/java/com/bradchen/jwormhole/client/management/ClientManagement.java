@@ -0,0 +1,128 @@
+package com.bradchen.jwormhole.client.management;
+
+import com.bradchen.jwormhole.client.Client;
+import com.bradchen.jwormhole.client.SessionStats;
+import com.bradchen.jwormhole.client.Tunnel;
+
+import java.io.IOException;
+
+final class ClientManagement implements ClientMXBean {
+
+	private final Client client;
+
+	ClientManagement(Client client) {
+		this.client = client;
+	}
+
+	@Override
+	public String getServer() {
+		return client.getSettings().getServer();
+	}
+
+	@Override
+	public String getServerHost() {
+		return client.getSettings().getServerSshHost();
+	}
+
+	@Override
+	public boolean isConnected() {
+		return client.isConnected();
+	}
+
+	@Override
+	public boolean isReconnecting() {
+		return client.isReconnecting();
+	}
+
+	@Override
+	public boolean isLatencyDegraded() {
+		return client.isLatencyDegraded();
+	}
+
+	@Override
+	public boolean isCompressionEnabled() {
+		return client.isCompressionEnabled();
+	}
+
+	@Override
+	public double getCompressionRatio() {
+		return client.getCompressionStats().getRatio();
+	}
+
+	@Override
+	public long getProxyStartTime() {
+		return client.getProxyStartTime();
+	}
+
+	@Override
+	public long getUptime() {
+		long proxyStartTime = client.getProxyStartTime();
+		return (proxyStartTime == 0) ? 0 : (System.currentTimeMillis() - proxyStartTime);
+	}
+
+	@Override
+	public long getReconnects() {
+		return client.getNumReconnects();
+	}
+
+	@Override
+	public long getSshRoundTripMicros() {
+		return client.getLatencyStats().getLastSshRoundTrip();
+	}
+
+	@Override
+	public long getControllerRoundTripMicros() {
+		return client.getLatencyStats().getLastControllerRoundTrip();
+	}
+
+	@Override
+	public int getSessionCount() {
+		return client.getSessionStats().size();
+	}
+
+	@Override
+	public int getTunnelCount() {
+		return client.getTunnels().size();
+	}
+
+	@Override
+	public String[] getDomainNames() {
+		return client.getTunnels().stream().map(Tunnel::getDomainName).toArray(String[]::new);
+	}
+
+	@Override
+	public int getActiveConnections() {
+		return client.getRelayEngine().getNumConnections();
+	}
+
+	@Override
+	public long getTotalConnections() {
+		return client.getRelayEngine().getNumTotalConnections();
+	}
+
+	@Override
+	public long getBytesSent() {
+		return client.getSessionStats().stream().mapToLong(SessionStats::getBytesSent).sum();
+	}
+
+	@Override
+	public long getBytesReceived() {
+		return client.getSessionStats().stream().mapToLong(SessionStats::getBytesReceived).sum();
+	}
+
+	@Override
+	public int getRelayThreads() {
+		return client.getRelayEngine().getNumIoThreads();
+	}
+
+	@Override
+	public boolean reconnect() {
+		return client.reconnect();
+	}
+
+	@Override
+	public boolean removeTunnel(String domainName) throws IOException {
+		return client.removeTunnel(domainName);
+	}
+
+}
@@ -0,0 +1,117 @@
+package com.bradchen.jwormhole.client.management;
+
+import com.bradchen.jwormhole.client.Client;
+import com.bradchen.jwormhole.client.Tunnel;
+import com.bradchen.jwormhole.client.TunnelListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Registers a {@link ClientMXBean} for a client and a {@link TunnelMXBean} for each of its tunnels,
+ * following tunnels as they come and go. Names are
+ * <code>com.bradchen.jwormhole:type=Client,id=1</code> and
+ * <code>com.bradchen.jwormhole:type=Tunnel,client=1,domain="abc.example.com"</code>; the id tells
+ * apart clients of one process, such as the clients of the daemon.
+ */
+public final class JmxExporter implements TunnelListener {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(JmxExporter.class);
+	private static final String DOMAIN = "com.bradchen.jwormhole";
+	private static final AtomicInteger NEXT_ID = new AtomicInteger(1);
+
+	private final Client client;
+	private final MBeanServer mBeanServer;
+	private final int id;
+	private final Map<String, ObjectName> tunnelNames;
+
+	public JmxExporter(Client client) {
+		this(client, ManagementFactory.getPlatformMBeanServer());
+	}
+
+	public JmxExporter(Client client, MBeanServer mBeanServer) {
+		this.client = client;
+		this.mBeanServer = mBeanServer;
+		this.id = NEXT_ID.getAndIncrement();
+		this.tunnelNames = new ConcurrentHashMap<>();
+	}
+
+	public ObjectName getClientName() {
+		return createName("type=Client,id=" + id);
+	}
+
+	public ObjectName getTunnelName(String domainName) {
+		return createName("type=Tunnel,client=" + id + ",domain=" + ObjectName.quote(domainName));
+	}
+
+	public void start() {
+		register(getClientName(), new ClientManagement(client));
+		client.addTunnelListener(this);
+		for (Tunnel tunnel : client.getTunnels()) {
+			tunnelAdded(tunnel);
+		}
+	}
+
+	public void stop() {
+		client.removeTunnelListener(this);
+		for (String domainName : tunnelNames.keySet()) {
+			unregister(tunnelNames.remove(domainName));
+		}
+		unregister(getClientName());
+	}
+
+	@Override
+	public void tunnelAdded(Tunnel tunnel) {
+		ObjectName name = getTunnelName(tunnel.getDomainName());
+		if (tunnelNames.putIfAbsent(tunnel.getDomainName(), name) == null) {
+			register(name, new TunnelManagement(client, tunnel));
+		}
+	}
+
+	@Override
+	public void tunnelRemoved(Tunnel tunnel) {
+		ObjectName name = tunnelNames.remove(tunnel.getDomainName());
+		if (name != null) {
+			unregister(name);
+		}
+	}
+
+	private void register(ObjectName name, Object mBean) {
+		try {
+			mBeanServer.registerMBean(mBean, name);
+		} catch (JMException exception) {
+			LOGGER.warn("Unable to register MBean " + name + ".", exception);
+		}
+	}
+
+	private void unregister(ObjectName name) {
+		if (name == null) {
+			return;
+		}
+
+		try {
+			mBeanServer.unregisterMBean(name);
+		} catch (InstanceNotFoundException ignored) {
+		} catch (JMException exception) {
+			LOGGER.warn("Unable to unregister MBean " + name + ".", exception);
+		}
+	}
+
+	private static ObjectName createName(String properties) {
+		try {
+			return new ObjectName(DOMAIN + ":" + properties);
+		} catch (MalformedObjectNameException exception) {
+			throw new IllegalArgumentException(exception);
+		}
+	}
+
+}
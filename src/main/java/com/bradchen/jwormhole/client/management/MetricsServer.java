@@ -0,0 +1,301 @@
+package com.bradchen.jwormhole.client.management;
+
+import com.bradchen.jwormhole.client.Client;
+import com.bradchen.jwormhole.client.CumulativeHistogram;
+import com.bradchen.jwormhole.client.SessionStats;
+import com.bradchen.jwormhole.client.Tunnel;
+import com.bradchen.jwormhole.client.TunnelStats;
+import com.bradchen.jwormhole.client.logging.LogStats;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * Serves the metrics of clients in the OpenMetrics text format at <code>/metrics</code>, bound to
+ * the loopback interface. Scrapes are served one at a time by a single thread, which reuses one
+ * buffer and formats numbers in place, so frequent scrapes add little garbage.
+ */
+public final class MetricsServer {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(MetricsServer.class);
+
+	private static final String METRICS_PATH = "/metrics";
+	private static final String CONTENT_TYPE =
+		"application/openmetrics-text; version=1.0.0; charset=utf-8";
+	private static final int SHUTDOWN_DELAY = 1; // in seconds
+
+	private final Supplier<Collection<Client>> clientsSupplier;
+	private final HttpServer httpServer;
+	private final ExecutorService executor;
+	private final ThreadMXBean threadMXBean;
+	private final MemoryMXBean memoryMXBean;
+
+	// confined to the executor's thread
+	private final OpenMetricsWriter writer;
+	private final List<Client> clients;
+	private final List<Client> tunnelClients;
+	private final List<Tunnel> tunnels;
+
+	/**
+	 * @param clientsSupplier the clients to serve the metrics of, asked for on every scrape
+	 * @param port port to listen to, or 0 for any free port
+	 */
+	public MetricsServer(Supplier<Collection<Client>> clientsSupplier, int port)
+			throws IOException {
+		this.clientsSupplier = clientsSupplier;
+		this.httpServer = HttpServer.create(
+			new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		this.executor = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "jwormhole-metrics");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.threadMXBean = ManagementFactory.getThreadMXBean();
+		this.memoryMXBean = ManagementFactory.getMemoryMXBean();
+		this.writer = new OpenMetricsWriter();
+		this.clients = new ArrayList<>();
+		this.tunnelClients = new ArrayList<>();
+		this.tunnels = new ArrayList<>();
+		httpServer.setExecutor(executor);
+		httpServer.createContext(METRICS_PATH, this::handleMetrics);
+	}
+
+	public int getPort() {
+		return httpServer.getAddress().getPort();
+	}
+
+	public void start() {
+		httpServer.start();
+	}
+
+	public void stop() {
+		httpServer.stop(SHUTDOWN_DELAY);
+		executor.shutdownNow();
+	}
+
+	private void handleMetrics(HttpExchange exchange) throws IOException {
+		try {
+			if (!"GET".equals(exchange.getRequestMethod())) {
+				exchange.getResponseHeaders().set("Allow", "GET");
+				exchange.sendResponseHeaders(405, -1);
+				return;
+			}
+
+			writeMetrics();
+			exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+			exchange.sendResponseHeaders(200, writer.getLength());
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(writer.getBuffer(), 0, writer.getLength());
+			}
+		} catch (RuntimeException exception) {
+			LOGGER.error("Error occurred when serving metrics.", exception);
+			exchange.sendResponseHeaders(500, -1);
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private void writeMetrics() {
+		clients.clear();
+		tunnelClients.clear();
+		tunnels.clear();
+		clients.addAll(clientsSupplier.get());
+		for (Client client : clients) {
+			for (Tunnel tunnel : client.getTunnels()) {
+				tunnelClients.add(client);
+				tunnels.add(tunnel);
+			}
+		}
+
+		writer.reset();
+		writeClientMetrics();
+		writeTunnelMetrics();
+		writeLogMetrics();
+		writeJvmMetrics();
+		writer.end();
+	}
+
+	private void writeClientMetrics() {
+		writeGauge("jwormhole_connected", "Whether every session to the server is connected.",
+			client -> client.isConnected() ? 1 : 0);
+		writeGauge("jwormhole_reconnecting", "Whether the connection is being reestablished.",
+			client -> client.isReconnecting() ? 1 : 0);
+
+		writer.family("jwormhole_proxy_start_time_seconds", "gauge",
+			"Time the first tunnel was created, in seconds since the epoch.");
+		for (Client client : clients) {
+			writer.sample("jwormhole_proxy_start_time_seconds", null)
+				.label("server", getServer(client))
+				.valueMicros(client.getProxyStartTime() * 1000);
+		}
+
+		writeCounter("jwormhole_reconnect_attempts", "Attempts to reestablish the connection.",
+			Client::getNumReconnectAttempts);
+		writeCounter("jwormhole_reconnect_failures", "Attempts to reestablish the connection that "
+			+ "failed.", Client::getNumReconnectFailures);
+		writeCounter("jwormhole_reconnects", "Times the connection was reestablished.",
+			Client::getNumReconnects);
+		writeGauge("jwormhole_tunnels", "Tunnels held.", client -> client.getTunnels().size());
+		writeGauge("jwormhole_connections_active", "Forwarded connections being relayed.",
+			client -> client.getRelayEngine().getNumConnections());
+		writeCounter("jwormhole_connections", "Forwarded connections relayed.",
+			client -> client.getRelayEngine().getNumTotalConnections());
+		writeGauge("jwormhole_relay_threads", "Threads relaying forwarded connections.",
+			client -> client.getRelayEngine().getNumIoThreads());
+		writeSessionCounter("jwormhole_session_sent_bytes",
+			"Bytes read from local ports and sent to the server.", SessionStats::getBytesSent);
+		writeSessionCounter("jwormhole_session_received_bytes",
+			"Bytes received from the server and written to local ports.",
+			SessionStats::getBytesReceived);
+
+		writeHistogram("jwormhole_ssh_round_trip_seconds",
+			"SSH round trips to the server measured by keepalives.",
+			client -> client.getLatencyStats().getSshRoundTripTotals());
+		writeHistogram("jwormhole_keepalive_round_trip_seconds",
+			"Controller round trips measured by keepalives.",
+			client -> client.getLatencyStats().getControllerRoundTripTotals());
+		writeHistogram("jwormhole_controller_command_seconds",
+			"Time from sending a controller command to receiving its response.",
+			client -> client.getLatencyStats().getCommandLatencies());
+	}
+
+	private void writeTunnelMetrics() {
+		writeTunnelGauge("jwormhole_tunnel_connections_active",
+			"Forwarded connections of the tunnel being relayed.",
+			TunnelStats::getNumActiveConnections);
+		writeTunnelCounter("jwormhole_tunnel_connections", "Forwarded connections of the tunnel.",
+			stats -> stats.getConnections().getCount());
+		writeTunnelCounter("jwormhole_tunnel_connections_queued",
+			"Forwarded connections that waited for the limits of the tunnel.",
+			TunnelStats::getNumQueuedConnections);
+		writeTunnelCounter("jwormhole_tunnel_connections_rejected",
+			"Forwarded connections refused because of the limits of the tunnel.",
+			TunnelStats::getNumRejectedConnections);
+		writeTunnelCounter("jwormhole_tunnel_sent_bytes",
+			"Bytes read from the local port and sent to the server.",
+			stats -> stats.getBytesSent().getCount());
+		writeTunnelCounter("jwormhole_tunnel_received_bytes",
+			"Bytes received from the server and written to the local port.",
+			stats -> stats.getBytesReceived().getCount());
+	}
+
+	private void writeLogMetrics() {
+		writer.family("jwormhole_log_events", "counter", "Log events handed to the log writer.");
+		writer.sample("jwormhole_log_events", "_total").value(LogStats.getNumQueued());
+		writer.family("jwormhole_log_events_discarded", "counter",
+			"DEBUG and TRACE log events left out while the log writer fell behind.");
+		writer.sample("jwormhole_log_events_discarded", "_total").value(LogStats.getNumDiscarded());
+		writer.family("jwormhole_log_events_dropped", "counter",
+			"Log events left out while the queue of the log writer was full.");
+		writer.sample("jwormhole_log_events_dropped", "_total").value(LogStats.getNumDropped());
+		writer.family("jwormhole_log_batches", "counter", "Batches of log events written.");
+		writer.sample("jwormhole_log_batches", "_total").value(LogStats.getNumBatches());
+		writer.family("jwormhole_log_queue_length", "gauge", "Log events waiting to be written.");
+		writer.sample("jwormhole_log_queue_length", null).value(LogStats.getQueueLength());
+	}
+
+	private void writeJvmMetrics() {
+		writer.family("jvm_threads", "gauge", "Live threads.");
+		writer.sample("jvm_threads", null).value(threadMXBean.getThreadCount());
+		writer.family("jvm_threads_daemon", "gauge", "Live daemon threads.");
+		writer.sample("jvm_threads_daemon", null).value(threadMXBean.getDaemonThreadCount());
+		writer.family("jvm_threads_peak", "gauge", "Most threads live at once.");
+		writer.sample("jvm_threads_peak", null).value(threadMXBean.getPeakThreadCount());
+
+		MemoryUsage heap = memoryMXBean.getHeapMemoryUsage();
+		writer.family("jvm_memory_heap_used_bytes", "gauge", "Heap in use.");
+		writer.sample("jvm_memory_heap_used_bytes", null).value(heap.getUsed());
+		writer.family("jvm_memory_heap_committed_bytes", "gauge", "Heap committed.");
+		writer.sample("jvm_memory_heap_committed_bytes", null).value(heap.getCommitted());
+		writer.family("jvm_memory_heap_max_bytes", "gauge", "Largest heap allowed, or -1.");
+		writer.sample("jvm_memory_heap_max_bytes", null).value(heap.getMax());
+	}
+
+	private void writeGauge(String name, String help, ToLongFunction<Client> value) {
+		writer.family(name, "gauge", help);
+		for (Client client : clients) {
+			writer.sample(name, null).label("server", getServer(client))
+				.value(value.applyAsLong(client));
+		}
+	}
+
+	private void writeCounter(String name, String help, ToLongFunction<Client> value) {
+		writer.family(name, "counter", help);
+		for (Client client : clients) {
+			writer.sample(name, "_total").label("server", getServer(client))
+				.value(value.applyAsLong(client));
+		}
+	}
+
+	private void writeSessionCounter(String name, String help, ToLongFunction<SessionStats> value) {
+		writer.family(name, "counter", help);
+		for (Client client : clients) {
+			for (SessionStats stats : client.getSessionStats()) {
+				writer.sample(name, "_total").label("server", getServer(client))
+					.label("session", stats.getIndex()).value(value.applyAsLong(stats));
+			}
+		}
+	}
+
+	private void writeHistogram(String name, String help,
+								Function<Client, CumulativeHistogram> histogramGetter) {
+		writer.family(name, "histogram", help);
+		for (Client client : clients) {
+			String server = getServer(client);
+			CumulativeHistogram histogram = histogramGetter.apply(client);
+			long count = 0;
+			for (int i = 0; i < histogram.getNumBuckets(); i++) {
+				count += histogram.getBucketCount(i);
+				writer.sample(name, "_bucket").label("server", server)
+					.labelMicros("le", histogram.getUpperBound(i)).value(count);
+			}
+			writer.sample(name, "_count").label("server", server).value(count);
+			writer.sample(name, "_sum").label("server", server).valueMicros(histogram.getSum());
+		}
+	}
+
+	private void writeTunnelGauge(String name, String help, ToLongFunction<TunnelStats> value) {
+		writer.family(name, "gauge", help);
+		for (int i = 0; i < tunnels.size(); i++) {
+			writeTunnelLabels(name, null, i).value(value.applyAsLong(tunnels.get(i).getStats()));
+		}
+	}
+
+	private void writeTunnelCounter(String name, String help, ToLongFunction<TunnelStats> value) {
+		writer.family(name, "counter", help);
+		for (int i = 0; i < tunnels.size(); i++) {
+			writeTunnelLabels(name, "_total", i)
+				.value(value.applyAsLong(tunnels.get(i).getStats()));
+		}
+	}
+
+	private OpenMetricsWriter writeTunnelLabels(String name, String suffix, int index) {
+		Tunnel tunnel = tunnels.get(index);
+		return writer.sample(name, suffix).label("server", getServer(tunnelClients.get(index)))
+			.label("domain", tunnel.getDomainName()).label("local_port", tunnel.getLocalPort());
+	}
+
+	private static String getServer(Client client) {
+		String server = client.getSettings().getServer();
+		return (server == null) ? "" : server;
+	}
+
+}
@@ -0,0 +1,221 @@
+package com.bradchen.jwormhole.client.management;
+
+import java.util.Arrays;
+
+/**
+ * Writes the OpenMetrics text format into a byte buffer that is reused from one scrape to the
+ * next. Numbers are formatted in place, so a scrape allocates nothing once the buffer has grown to
+ * fit. Not thread-safe.
+ *
+ * <pre>
+ * writer.family("jwormhole_tunnels", "gauge", "Tunnels held.");
+ * writer.sample("jwormhole_tunnels", null).label("server", "default").value(3);
+ * </pre>
+ */
+final class OpenMetricsWriter {
+
+	private static final int INITIAL_CAPACITY = 16 * 1024;
+	private static final long MICROS_PER_SECOND = 1000000;
+	private static final int MICROS_DIGITS = 6;
+
+	private byte[] buffer;
+	private int length;
+	private boolean inLabels;
+
+	OpenMetricsWriter() {
+		this.buffer = new byte[INITIAL_CAPACITY];
+	}
+
+	void reset() {
+		length = 0;
+		inLabels = false;
+	}
+
+	byte[] getBuffer() {
+		return buffer;
+	}
+
+	int getLength() {
+		return length;
+	}
+
+	/**
+	 * Starts a metric family; all of its samples must follow before the next family starts.
+	 */
+	OpenMetricsWriter family(String name, String type, String help) {
+		append("# TYPE ").append(name).append(' ').append(type).append('\n');
+		return append("# HELP ").append(name).append(' ').append(help).append('\n');
+	}
+
+	/**
+	 * Starts a sample of the family given, e.g. with a suffix of <code>_total</code> or
+	 * <code>_bucket</code>.
+	 */
+	OpenMetricsWriter sample(String name, String suffix) {
+		append(name);
+		return (suffix == null) ? this : append(suffix);
+	}
+
+	OpenMetricsWriter label(String name, String value) {
+		startLabel(name);
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if ((c == '\\') || (c == '"')) {
+				append('\\').append(c);
+			} else if (c == '\n') {
+				append('\\').append('n');
+			} else if (c < 0x80) {
+				append(c);
+			} else {
+				appendNonAscii(value, i);
+				if (Character.isHighSurrogate(c)) {
+					i++;
+				}
+			}
+		}
+		return append('"');
+	}
+
+	OpenMetricsWriter label(String name, long value) {
+		startLabel(name);
+		return appendLong(value).append('"');
+	}
+
+	/**
+	 * Writes a label of a duration in microseconds as seconds, or <code>+Inf</code> for
+	 * {@link Long#MAX_VALUE}.
+	 */
+	OpenMetricsWriter labelMicros(String name, long micros) {
+		startLabel(name);
+		if (micros == Long.MAX_VALUE) {
+			append("+Inf");
+		} else {
+			appendMicros(micros);
+		}
+		return append('"');
+	}
+
+	void value(long value) {
+		endLabels();
+		append(' ').appendLong(value).append('\n');
+	}
+
+	void value(boolean value) {
+		value(value ? 1 : 0);
+	}
+
+	/**
+	 * Writes the value of a duration in microseconds as seconds.
+	 */
+	void valueMicros(long micros) {
+		endLabels();
+		append(' ').appendMicros(micros).append('\n');
+	}
+
+	/**
+	 * Writes a fraction with six digits after the point at most.
+	 */
+	void value(double value) {
+		valueMicros(Math.round(value * MICROS_PER_SECOND));
+	}
+
+	void end() {
+		append("# EOF\n");
+	}
+
+	private void startLabel(String name) {
+		append(inLabels ? ',' : '{').append(name).append('=').append('"');
+		inLabels = true;
+	}
+
+	private void endLabels() {
+		if (inLabels) {
+			append('}');
+			inLabels = false;
+		}
+	}
+
+	private OpenMetricsWriter appendMicros(long micros) {
+		if (micros < 0) {
+			append('-');
+			micros = -micros;
+		}
+		appendLong(micros / MICROS_PER_SECOND).append('.');
+		long fraction = micros % MICROS_PER_SECOND;
+		if (fraction == 0) {
+			return append('0');
+		}
+
+		// leading zeros are kept and trailing zeros dropped
+		int numDigits = MICROS_DIGITS;
+		while (fraction % 10 == 0) {
+			fraction /= 10;
+			numDigits--;
+		}
+		ensureCapacity(numDigits);
+		for (int i = numDigits - 1; i >= 0; i--) {
+			buffer[length + i] = (byte)('0' + fraction % 10);
+			fraction /= 10;
+		}
+		length += numDigits;
+		return this;
+	}
+
+	private OpenMetricsWriter appendLong(long value) {
+		if (value == Long.MIN_VALUE) {
+			return append(Long.toString(value));
+		}
+		if (value < 0) {
+			append('-');
+			value = -value;
+		}
+
+		int numDigits = 1;
+		for (long rest = value / 10; rest > 0; rest /= 10) {
+			numDigits++;
+		}
+		ensureCapacity(numDigits);
+		for (int i = numDigits - 1; i >= 0; i--) {
+			buffer[length + i] = (byte)('0' + value % 10);
+			value /= 10;
+		}
+		length += numDigits;
+		return this;
+	}
+
+	private void appendNonAscii(String value, int index) {
+		int codePoint = value.codePointAt(index);
+		if (codePoint < 0x800) {
+			append((char)(0xc0 | (codePoint >> 6)));
+		} else if (codePoint < 0x10000) {
+			append((char)(0xe0 | (codePoint >> 12)));
+			append((char)(0x80 | ((codePoint >> 6) & 0x3f)));
+		} else {
+			append((char)(0xf0 | (codePoint >> 18)));
+			append((char)(0x80 | ((codePoint >> 12) & 0x3f)));
+			append((char)(0x80 | ((codePoint >> 6) & 0x3f)));
+		}
+		append((char)(0x80 | (codePoint & 0x3f)));
+	}
+
+	private OpenMetricsWriter append(String value) {
+		ensureCapacity(value.length());
+		for (int i = 0; i < value.length(); i++) {
+			buffer[length++] = (byte)value.charAt(i);
+		}
+		return this;
+	}
+
+	private OpenMetricsWriter append(char value) {
+		ensureCapacity(1);
+		buffer[length++] = (byte)value;
+		return this;
+	}
+
+	private void ensureCapacity(int numBytes) {
+		if (length + numBytes > buffer.length) {
+			buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + numBytes));
+		}
+	}
+
+}
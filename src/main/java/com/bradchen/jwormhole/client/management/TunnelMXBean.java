@@ -0,0 +1,86 @@
+package com.bradchen.jwormhole.client.management;
+
+import java.io.IOException;
+
+/**
+ * Management interface of a {@link com.bradchen.jwormhole.client.Tunnel}. Rates are one-minute
+ * moving averages; percentiles cover the last 5 minutes.
+ */
+public interface TunnelMXBean {
+
+	String getDomainName();
+
+	String getName();
+
+	int getLocalPort();
+
+	int getRemotePort();
+
+	int getSessionIndex();
+
+	/**
+	 * Returns the time the tunnel's host was created, in milliseconds since the epoch.
+	 */
+	long getCreateTime();
+
+	/**
+	 * Returns the time since the tunnel's host was created, in milliseconds.
+	 */
+	long getUptime();
+
+	int getActiveConnections();
+
+	long getConnections();
+
+	double getConnectionsPerSecond();
+
+	/**
+	 * Returns the number of connections that waited for the limits of the tunnel.
+	 */
+	long getQueuedConnections();
+
+	/**
+	 * Returns the number of connections refused because of the limits of the tunnel.
+	 */
+	long getRejectedConnections();
+
+	int getMaxConnections();
+
+	void setMaxConnections(int maxConnections);
+
+	/**
+	 * Returns the bandwidth limit towards the server in kilobytes per second, or 0 if there is
+	 * none.
+	 */
+	int getBandwidthUp();
+
+	void setBandwidthUp(int bandwidthUp);
+
+	/**
+	 * Returns the bandwidth limit towards the local port in kilobytes per second, or 0 if there is
+	 * none.
+	 */
+	int getBandwidthDown();
+
+	void setBandwidthDown(int bandwidthDown);
+
+	long getBytesSent();
+
+	long getBytesReceived();
+
+	double getBytesSentPerSecond();
+
+	double getBytesReceivedPerSecond();
+
+	long getTimeToFirstByteP99Micros();
+
+	long getConnectionDurationP99Millis();
+
+	/**
+	 * Stops proxying the tunnel and releases its host.
+	 *
+	 * @return false if the tunnel was removed already
+	 */
+	boolean remove() throws IOException;
+
+}
@@ -0,0 +1,150 @@
+package com.bradchen.jwormhole.client.management;
+
+import com.bradchen.jwormhole.client.Client;
+import com.bradchen.jwormhole.client.Tunnel;
+import com.bradchen.jwormhole.client.TunnelStats;
+
+import java.io.IOException;
+
+final class TunnelManagement implements TunnelMXBean {
+
+	private static final double PERCENTILE = 99.0;
+
+	private final Client client;
+	private final Tunnel tunnel;
+
+	TunnelManagement(Client client, Tunnel tunnel) {
+		this.client = client;
+		this.tunnel = tunnel;
+	}
+
+	@Override
+	public String getDomainName() {
+		return tunnel.getDomainName();
+	}
+
+	@Override
+	public String getName() {
+		return tunnel.getName();
+	}
+
+	@Override
+	public int getLocalPort() {
+		return tunnel.getLocalPort();
+	}
+
+	@Override
+	public int getRemotePort() {
+		return tunnel.getRemotePort();
+	}
+
+	@Override
+	public int getSessionIndex() {
+		return tunnel.getSessionIndex();
+	}
+
+	@Override
+	public long getCreateTime() {
+		return tunnel.getCreateTime();
+	}
+
+	@Override
+	public long getUptime() {
+		return System.currentTimeMillis() - tunnel.getCreateTime();
+	}
+
+	@Override
+	public int getActiveConnections() {
+		return getStats().getNumActiveConnections();
+	}
+
+	@Override
+	public long getConnections() {
+		return getStats().getConnections().getCount();
+	}
+
+	@Override
+	public double getConnectionsPerSecond() {
+		return getStats().getConnections().getOneMinuteRate();
+	}
+
+	@Override
+	public long getQueuedConnections() {
+		return getStats().getNumQueuedConnections();
+	}
+
+	@Override
+	public long getRejectedConnections() {
+		return getStats().getNumRejectedConnections();
+	}
+
+	@Override
+	public int getMaxConnections() {
+		return tunnel.getLimits().getMaxConnections();
+	}
+
+	@Override
+	public void setMaxConnections(int maxConnections) {
+		tunnel.getLimits().setMaxConnections(maxConnections);
+	}
+
+	@Override
+	public int getBandwidthUp() {
+		return tunnel.getLimits().getBandwidthUp();
+	}
+
+	@Override
+	public void setBandwidthUp(int bandwidthUp) {
+		tunnel.getLimits().setBandwidthUp(bandwidthUp);
+	}
+
+	@Override
+	public int getBandwidthDown() {
+		return tunnel.getLimits().getBandwidthDown();
+	}
+
+	@Override
+	public void setBandwidthDown(int bandwidthDown) {
+		tunnel.getLimits().setBandwidthDown(bandwidthDown);
+	}
+
+	@Override
+	public long getBytesSent() {
+		return getStats().getBytesSent().getCount();
+	}
+
+	@Override
+	public long getBytesReceived() {
+		return getStats().getBytesReceived().getCount();
+	}
+
+	@Override
+	public double getBytesSentPerSecond() {
+		return getStats().getBytesSent().getOneMinuteRate();
+	}
+
+	@Override
+	public double getBytesReceivedPerSecond() {
+		return getStats().getBytesReceived().getOneMinuteRate();
+	}
+
+	@Override
+	public long getTimeToFirstByteP99Micros() {
+		return getStats().getTimesToFirstByte().getSnapshot().getValueAtPercentile(PERCENTILE);
+	}
+
+	@Override
+	public long getConnectionDurationP99Millis() {
+		return getStats().getConnectionDurations().getSnapshot().getValueAtPercentile(PERCENTILE);
+	}
+
+	@Override
+	public boolean remove() throws IOException {
+		return client.removeTunnel(tunnel.getDomainName());
+	}
+
+	private TunnelStats getStats() {
+		return tunnel.getStats();
+	}
+
+}
@@ -0,0 +1,476 @@
+package com.bradchen.jwormhole.client;
+
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.UserInfo;
+import org.apache.commons.io.IOUtils;
+import org.apache.sshd.common.NamedFactory;
+import org.apache.sshd.common.channel.RequestHandler;
+import org.apache.sshd.common.compression.BuiltinCompressions;
+import org.apache.sshd.common.kex.BuiltinDHFactories;
+import org.apache.sshd.common.session.ConnectionService;
+import org.apache.sshd.common.session.Session;
+import org.apache.sshd.common.session.helpers.AbstractConnectionServiceRequestHandler;
+import org.apache.sshd.common.signature.BuiltinSignatures;
+import org.apache.sshd.common.util.buffer.Buffer;
+import org.apache.sshd.core.CoreModuleProperties;
+import org.apache.sshd.server.ServerBuilder;
+import org.apache.sshd.server.SshServer;
+import org.apache.sshd.server.forward.AcceptAllForwardingFilter;
+import org.apache.sshd.server.keyprovider.SimpleGeneratorHostKeyProvider;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.bradchen.jwormhole.client.SettingsUtils.readSettingsFromClassPathResource;
+
+/**
+ * In-JVM stand-in for a jWormhole server: an SSH daemon that accepts port forwards, plus a
+ * controller that speaks the createHost/keepHostAlive/keepHostsAlive/removeHost line protocol.
+ *
+ * Faults can be injected into the controller: every response can be delayed, and commands can be
+ * answered with "error" or have their connection dropped without an answer, either the next few
+ * commands of a kind or a share of all commands at random. Commands can also be carried out with
+ * their answer lost. SSH sessions can be dropped as well.
+ */
+public final class EmbeddedServer implements Closeable {
+
+	private static final Charset UTF8_CHARSET = Charset.forName("utf-8");
+	private static final String LOCALHOST = "127.0.0.1";
+	private static final String DOMAIN_SUFFIX = ".jwormhole.test";
+	private static final String USERNAME = "test";
+	private static final String SERVER_NAME = "embedded";
+	private static final String DEFAULT_SETTINGS_FILE = "client.default.properties";
+	private static final String ERROR = "error";
+	private static final String OK = "ok";
+
+	private final SshServer sshd;
+	private final ServerSocket controllerSocket;
+	private final ExecutorService executor;
+	private final Map<String, AtomicLong> hosts; // domain name to time last kept alive
+	private final AtomicInteger nextHostId;
+	private final Map<String, AtomicInteger> numCommands;
+	private final Map<String, AtomicInteger> numErrorsToInject;
+	private final Map<String, AtomicInteger> numDropsToInject;
+	private final Map<String, AtomicInteger> numLostResponsesToInject;
+	private final Map<String, AtomicInteger> numKeepalives;
+	private volatile long latency;
+	private volatile double errorRate;
+	private volatile double dropRate;
+	private volatile boolean oneShot;
+	private volatile long hostTimeout;
+	private volatile boolean batchKeepalive;
+	private volatile boolean sshKeepalivesIgnored;
+
+	private EmbeddedServer() throws IOException {
+		this.hosts = new ConcurrentHashMap<>();
+		this.nextHostId = new AtomicInteger();
+		this.numCommands = new ConcurrentHashMap<>();
+		this.numErrorsToInject = new ConcurrentHashMap<>();
+		this.numDropsToInject = new ConcurrentHashMap<>();
+		this.numLostResponsesToInject = new ConcurrentHashMap<>();
+		this.numKeepalives = new ConcurrentHashMap<>();
+		this.batchKeepalive = true;
+		this.executor = Executors.newCachedThreadPool(runnable -> {
+			Thread thread = new Thread(runnable, "embedded-controller");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		// JSch 0.1.51 only knows SHA-1 key exchanges and ssh-rsa host keys
+		sshd = SshServer.setUpDefaultServer();
+		sshd.setHost(LOCALHOST);
+		sshd.setPort(0);
+		SimpleGeneratorHostKeyProvider hostKeyProvider = new SimpleGeneratorHostKeyProvider();
+		hostKeyProvider.setAlgorithm("RSA");
+		sshd.setKeyPairProvider(hostKeyProvider);
+		sshd.setKeyExchangeFactories(NamedFactory.setUpTransformedFactories(false,
+			Collections.singletonList(BuiltinDHFactories.dhg14), ServerBuilder.DH2KEX));
+		sshd.setSignatureFactories(Collections.singletonList(BuiltinSignatures.rsa));
+		sshd.setCompressionFactories(Arrays.asList(BuiltinCompressions.none,
+			BuiltinCompressions.zlib, BuiltinCompressions.delayedZlib));
+		sshd.setPasswordAuthenticator((username, password, session) -> true);
+		sshd.setPublickeyAuthenticator((username, key, session) -> true);
+		sshd.setForwardingFilter(AcceptAllForwardingFilter.INSTANCE);
+		List<RequestHandler<ConnectionService>> globalRequestHandlers = new ArrayList<>();
+		globalRequestHandlers.add(new AbstractConnectionServiceRequestHandler() {
+			@Override
+			public Result process(ConnectionService service, String request, boolean wantReply,
+								  Buffer buffer) {
+				// claiming to have replied leaves the request unanswered
+				return (sshKeepalivesIgnored && request.startsWith("keepalive@")) ? Result.Replied
+					: Result.Unsupported;
+			}
+		});
+		globalRequestHandlers.addAll(sshd.getGlobalRequestHandlers());
+		sshd.setGlobalRequestHandlers(globalRequestHandlers);
+		// like sshd, send small packets right away instead of holding them back for more data
+		CoreModuleProperties.TCP_NODELAY.set(sshd, true);
+		sshd.start();
+
+		controllerSocket = new ServerSocket(0, 50, InetAddress.getByName(LOCALHOST));
+		executor.execute(this::acceptControllerConnections);
+	}
+
+	public static EmbeddedServer start() throws IOException {
+		return new EmbeddedServer();
+	}
+
+	public int getSshPort() {
+		return sshd.getPort();
+	}
+
+	public int getControllerPort() {
+		return controllerSocket.getLocalPort();
+	}
+
+	/**
+	 * Returns the domain names of the hosts currently created.
+	 */
+	public Set<String> getDomainNames() {
+		removeExpiredHosts();
+		return Collections.unmodifiableSet(hosts.keySet());
+	}
+
+	/**
+	 * Returns the number of commands of the kind given received so far, e.g. "keepHostAlive".
+	 */
+	public int getNumCommands(String command) {
+		AtomicInteger count = numCommands.get(command);
+		return (count == null) ? 0 : count.get();
+	}
+
+	/**
+	 * Returns the number of times the host of the domain name given was kept alive, whether by
+	 * itself or in a batch.
+	 */
+	public int getNumKeepalives(String domainName) {
+		AtomicInteger count = numKeepalives.get(domainName);
+		return (count == null) ? 0 : count.get();
+	}
+
+	public int getNumSessions() {
+		return sshd.getActiveSessions().size();
+	}
+
+	/**
+	 * Delays every controller response.
+	 *
+	 * @param latency delay in milliseconds
+	 */
+	public void setLatency(long latency) {
+		this.latency = latency;
+	}
+
+	/**
+	 * Answers the given share of all controller commands, between 0 and 1, with "error".
+	 */
+	public void setErrorRate(double errorRate) {
+		this.errorRate = errorRate;
+	}
+
+	/**
+	 * Closes the controller connection instead of answering the given share of all commands,
+	 * between 0 and 1.
+	 */
+	public void setDropRate(double dropRate) {
+		this.dropRate = dropRate;
+	}
+
+	/**
+	 * Answers the next commands of the kind given with "error".
+	 */
+	public void injectErrors(String command, int count) {
+		numErrorsToInject.computeIfAbsent(command, key -> new AtomicInteger()).addAndGet(count);
+	}
+
+	/**
+	 * Closes the controller connection instead of answering the next commands of the kind given.
+	 */
+	public void injectDrops(String command, int count) {
+		numDropsToInject.computeIfAbsent(command, key -> new AtomicInteger()).addAndGet(count);
+	}
+
+	/**
+	 * Carries out the next commands of the kind given, then closes the controller connection
+	 * instead of answering them.
+	 */
+	public void injectLostResponses(String command, int count) {
+		numLostResponsesToInject.computeIfAbsent(command, key -> new AtomicInteger())
+			.addAndGet(count);
+	}
+
+	/**
+	 * Makes the controller close every connection after answering one command, like servers that
+	 * do not support pipelining.
+	 */
+	public void setOneShot(boolean oneShot) {
+		this.oneShot = oneShot;
+	}
+
+	/**
+	 * Turns the keepHostsAlive command off, like servers that only keep one host alive at a time.
+	 */
+	public void setBatchKeepalive(boolean batchKeepalive) {
+		this.batchKeepalive = batchKeepalive;
+	}
+
+	/**
+	 * Leaves SSH keepalive requests unanswered, like a server that stopped responding.
+	 */
+	public void setSshKeepalivesIgnored(boolean sshKeepalivesIgnored) {
+		this.sshKeepalivesIgnored = sshKeepalivesIgnored;
+	}
+
+	/**
+	 * Removes hosts that have not been kept alive for the time given; 0 keeps hosts forever.
+	 *
+	 * @param hostTimeout timeout in milliseconds
+	 */
+	public void setHostTimeout(long hostTimeout) {
+		this.hostTimeout = hostTimeout;
+	}
+
+	/**
+	 * Removes all hosts, as if none had been kept alive in time.
+	 */
+	public void expireHosts() {
+		hosts.clear();
+	}
+
+	/**
+	 * Closes all SSH sessions, as if the network between the clients and the server went down.
+	 */
+	public void dropSessions() {
+		for (Session session : sshd.getActiveSessions()) {
+			session.close(true);
+		}
+	}
+
+	/**
+	 * Creates a client that connects to this server. Settings not overridden take their default
+	 * values.
+	 *
+	 * @param overrides settings of the "embedded" server to override, without the prefix, e.g.
+	 *                  "compression"; may be null
+	 */
+	public Client createClient(Properties overrides) throws IOException {
+		return new Client(createSettings(overrides), new TrustingUserInfo());
+	}
+
+	/**
+	 * Returns the settings of a client of this server; see {@link #createClient(Properties)}.
+	 */
+	public Settings createSettings(Properties overrides) throws IOException {
+		return new Settings(readDefaultSettings(), createOverrideSettings(SERVER_NAME, overrides),
+			SERVER_NAME);
+	}
+
+	/**
+	 * Returns override settings that configure a server of the name given to be this server.
+	 */
+	public Properties createOverrideSettings(String server, Properties overrides) {
+		Properties settings = new Properties();
+		String prefix = Settings.SETTING_PREFIX + "." + server + ".";
+		settings.put(prefix + "serverSshHost", LOCALHOST);
+		settings.put(prefix + "serverSshPort", Integer.toString(getSshPort()));
+		settings.put(prefix + "serverUsername", USERNAME);
+		settings.put(prefix + "serverControllerPort", Integer.toString(getControllerPort()));
+		if (overrides != null) {
+			overrides.stringPropertyNames().forEach(key ->
+				settings.put(prefix + key, overrides.getProperty(key)));
+		}
+		return settings;
+	}
+
+	public static Properties readDefaultSettings() throws IOException {
+		return readSettingsFromClassPathResource(Thread.currentThread().getContextClassLoader(),
+			DEFAULT_SETTINGS_FILE);
+	}
+
+	/**
+	 * Opens an SSH session to this server without a client around it.
+	 */
+	public com.jcraft.jsch.Session openSession() throws JSchException {
+		com.jcraft.jsch.Session session = new JSch().getSession(USERNAME, LOCALHOST, getSshPort());
+		session.setUserInfo(new TrustingUserInfo());
+		session.connect();
+		return session;
+	}
+
+	@Override
+	public void close() throws IOException {
+		IOUtils.closeQuietly(controllerSocket);
+		executor.shutdownNow();
+		sshd.stop(true);
+	}
+
+	private void acceptControllerConnections() {
+		while (!controllerSocket.isClosed()) {
+			try {
+				Socket socket = controllerSocket.accept();
+				executor.execute(() -> serveController(socket));
+			} catch (IOException ignored) {
+				return;
+			}
+		}
+	}
+
+	private void serveController(Socket socket) {
+		try {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(
+				socket.getInputStream(), UTF8_CHARSET));
+			OutputStream out = socket.getOutputStream();
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] tokens = line.trim().split(" ");
+				numCommands.computeIfAbsent(tokens[0], key -> new AtomicInteger())
+					.incrementAndGet();
+				if (latency > 0) {
+					Thread.sleep(latency);
+				}
+				if (isInjected(numDropsToInject, tokens[0], dropRate)) {
+					return;
+				}
+
+				String response = isInjected(numErrorsToInject, tokens[0], errorRate) ? ERROR
+					: handleCommand(tokens);
+				if (isInjected(numLostResponsesToInject, tokens[0], 0)) {
+					return;
+				}
+				out.write((response + "\n").getBytes(UTF8_CHARSET));
+				out.flush();
+				if (oneShot) {
+					return;
+				}
+			}
+		} catch (IOException ignored) {
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+		} finally {
+			IOUtils.closeQuietly(socket);
+		}
+	}
+
+	private static boolean isInjected(Map<String, AtomicInteger> numToInject, String command,
+									  double rate) {
+		AtomicInteger count = numToInject.get(command);
+		if ((count != null) && (count.getAndUpdate(value -> Math.max(value - 1, 0)) > 0)) {
+			return true;
+		}
+		return (rate > 0) && (ThreadLocalRandom.current().nextDouble() < rate);
+	}
+
+	private String handleCommand(String[] tokens) throws IOException {
+		removeExpiredHosts();
+		switch (tokens[0]) {
+			case "createHost":
+				String name = (tokens.length > 1) ? tokens[1]
+					: ("host" + nextHostId.incrementAndGet());
+				String domainName = name + DOMAIN_SUFFIX;
+				int port = findFreePort();
+				AtomicLong createTime = new AtomicLong(System.currentTimeMillis());
+				if (hosts.putIfAbsent(domainName, createTime) != null) {
+					return ERROR;
+				}
+				return domainName + "," + name + "," + port;
+			case "keepHostAlive":
+				return (tokens.length > 1) ? keepHostAlive(tokens[1]) : ERROR;
+			case "keepHostsAlive":
+				if (!batchKeepalive || (tokens.length < 2)) {
+					return ERROR;
+				}
+				StringBuilder results = new StringBuilder();
+				for (String keptDomainName : tokens[1].split(",")) {
+					results.append((results.length() == 0) ? "" : ",")
+						.append(keepHostAlive(keptDomainName));
+				}
+				return results.toString();
+			case "removeHost":
+				return ((tokens.length > 1) && (hosts.remove(tokens[1]) != null)) ? OK : ERROR;
+			default:
+				return ERROR;
+		}
+	}
+
+	private String keepHostAlive(String domainName) {
+		AtomicLong lastKeptAlive = hosts.get(domainName);
+		if (lastKeptAlive == null) {
+			return ERROR;
+		}
+		lastKeptAlive.set(System.currentTimeMillis());
+		numKeepalives.computeIfAbsent(domainName, key -> new AtomicInteger()).incrementAndGet();
+		return OK;
+	}
+
+	private void removeExpiredHosts() {
+		long timeout = hostTimeout;
+		if (timeout > 0) {
+			long now = System.currentTimeMillis();
+			hosts.values().removeIf(lastKeptAlive -> now - lastKeptAlive.get() > timeout);
+		}
+	}
+
+	private static int findFreePort() throws IOException {
+		try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getByName(LOCALHOST))) {
+			return socket.getLocalPort();
+		}
+	}
+
+	/**
+	 * Accepts the server's host key and logs in with a password, as the server takes any.
+	 */
+	private static final class TrustingUserInfo implements UserInfo {
+
+		@Override
+		public String getPassphrase() {
+			return null;
+		}
+
+		@Override
+		public String getPassword() {
+			return USERNAME;
+		}
+
+		@Override
+		public boolean promptPassword(String message) {
+			return true;
+		}
+
+		@Override
+		public boolean promptPassphrase(String message) {
+			return false;
+		}
+
+		@Override
+		public boolean promptYesNo(String message) {
+			return true;
+		}
+
+		@Override
+		public void showMessage(String message) {
+		}
+
+	}
+
+}
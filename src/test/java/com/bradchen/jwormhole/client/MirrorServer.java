@@ -0,0 +1,75 @@
+package com.bradchen.jwormhole.client;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Local server for tunnels to proxy in tests: it reads messages of a fixed size and sends each
+ * back once it has been read in full, like a server answering requests.
+ */
+final class MirrorServer implements Closeable {
+
+	private final ServerSocket serverSocket;
+	private final ExecutorService executor;
+	private final int messageSize;
+
+	MirrorServer(int messageSize) throws IOException {
+		this.messageSize = messageSize;
+		this.serverSocket = new ServerSocket(0, 1024, InetAddress.getByName("127.0.0.1"));
+		this.executor = Executors.newCachedThreadPool(runnable -> {
+			Thread thread = new Thread(runnable, "mirror-server");
+			thread.setDaemon(true);
+			return thread;
+		});
+		executor.execute(this::acceptConnections);
+	}
+
+	int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	@Override
+	public void close() {
+		IOUtils.closeQuietly(serverSocket);
+		executor.shutdownNow();
+	}
+
+	private void acceptConnections() {
+		while (!serverSocket.isClosed()) {
+			try {
+				Socket socket = serverSocket.accept();
+				socket.setTcpNoDelay(true);
+				executor.execute(() -> mirror(socket));
+			} catch (IOException ignored) {
+				return;
+			}
+		}
+	}
+
+	private void mirror(Socket socket) {
+		byte[] message = new byte[messageSize];
+		try {
+			DataInputStream in = new DataInputStream(socket.getInputStream());
+			OutputStream out = socket.getOutputStream();
+			while (true) {
+				in.readFully(message);
+				out.write(message);
+				out.flush();
+			}
+		} catch (IOException ignored) {
+			// the connection was closed
+		} finally {
+			IOUtils.closeQuietly(socket);
+		}
+	}
+
+}
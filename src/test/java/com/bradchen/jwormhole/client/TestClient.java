@@ -0,0 +1,374 @@
+package com.bradchen.jwormhole.client;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class TestClient {
+
+	private static final int MESSAGE_SIZE = 64;
+	private static final int SOCKET_TIMEOUT = 5000; // in milliseconds
+
+	private EmbeddedServer server;
+	private MirrorServer mirrorServer;
+	private Client client;
+
+	@BeforeMethod
+	public void setUp() throws IOException {
+		server = EmbeddedServer.start();
+		mirrorServer = new MirrorServer(MESSAGE_SIZE);
+	}
+
+	@AfterMethod
+	public void tearDown() throws IOException {
+		if (client != null) {
+			client.shutdown();
+			client = null;
+		}
+		mirrorServer.close();
+		server.close();
+	}
+
+	@Test
+	public void testTunnel() throws IOException {
+		client = connect(null);
+		Tunnel tunnel = client.addTunnel(mirrorServer.getPort(), "abc");
+		assertNotNull(tunnel);
+		assertEquals(tunnel.getDomainName(), "abc.jwormhole.test");
+		assertTrue(server.getDomainNames().contains(tunnel.getDomainName()));
+		assertMirrored(tunnel);
+		assertEquals(tunnel.getStats().getConnections().getCount(), 1);
+
+		assertTrue(client.removeTunnel(tunnel.getDomainName()));
+		assertFalse(server.getDomainNames().contains(tunnel.getDomainName()));
+		assertFalse(client.removeTunnel(tunnel.getDomainName()));
+	}
+
+	@Test
+	public void testManyTunnels() throws IOException {
+		client = connect(createSettings("sessions", "4"));
+		List<Tunnel> tunnels = new ArrayList<>();
+		for (int i = 0; i < 200; i++) {
+			tunnels.add(client.addTunnel(mirrorServer.getPort(), null));
+		}
+		assertEquals(server.getDomainNames().size(), 200);
+		assertEquals(server.getNumSessions(), 4);
+		for (Tunnel tunnel : tunnels) {
+			assertMirrored(tunnel);
+		}
+		assertEquals(client.getRelayEngine().getNumTotalConnections(), 200);
+
+		client.shutdown();
+		assertTrue(server.getDomainNames().isEmpty());
+	}
+
+	@Test
+	public void testTimings() throws IOException {
+		client = connect(createSettings("sessions", "3"));
+		client.addTunnel(mirrorServer.getPort(), null);
+		Map<String, Long> phases = client.getTimings().getPhases();
+		assertEquals(phases.keySet(), new HashSet<>(Arrays.asList("dns", "tcp", "kex", "auth",
+			"sessions", "createHost", "forward")));
+		for (long duration : phases.values()) {
+			assertTrue(duration > 0);
+		}
+		assertEquals(server.getNumSessions(), 3);
+	}
+
+	@Test
+	public void testKeepalive() throws IOException {
+		client = connect(createSettings("keepaliveInterval", "1"));
+		Tunnel tunnel1 = client.addTunnel(mirrorServer.getPort(), null);
+		Tunnel tunnel2 = client.addTunnel(mirrorServer.getPort(), null);
+		assertTrue(waitFor(() -> server.getNumKeepalives(tunnel1.getDomainName()) >= 2
+			&& server.getNumKeepalives(tunnel2.getDomainName()) >= 2, 5000));
+		assertEquals(client.getTunnels().size(), 2);
+
+		// both hosts go in one command
+		assertEquals(server.getNumCommands("keepHostAlive"), 0);
+		assertTrue(server.getNumCommands("keepHostsAlive") >= 2);
+	}
+
+	@Test
+	public void testKeepaliveWithoutBatching() throws IOException {
+		server.setBatchKeepalive(false);
+		client = connect(createSettings("keepaliveInterval", "1"));
+		Tunnel tunnel1 = client.addTunnel(mirrorServer.getPort(), null);
+		Tunnel tunnel2 = client.addTunnel(mirrorServer.getPort(), null);
+		assertTrue(waitFor(() -> server.getNumKeepalives(tunnel1.getDomainName()) >= 2
+			&& server.getNumKeepalives(tunnel2.getDomainName()) >= 2, 5000));
+		assertEquals(server.getNumCommands("keepHostsAlive"), 1);
+		assertFalse(client.isReconnecting());
+
+		// batching is tried again once reconnected, as the server may have been upgraded
+		server.setBatchKeepalive(true);
+		server.dropSessions();
+		assertTrue(waitFor(client::isReconnecting, 5000));
+		assertTrue(waitFor(() -> server.getNumCommands("keepHostsAlive") >= 2, 10000));
+	}
+
+	@Test
+	public void testKeepaliveSkipsBusyTunnels() throws IOException {
+		client = connect(createSettings("keepaliveInterval", "1"));
+		Tunnel busyTunnel = client.addTunnel(mirrorServer.getPort(), null);
+		Tunnel idleTunnel = client.addTunnel(mirrorServer.getPort(), null);
+		long endTime = System.currentTimeMillis() + 4500;
+		while (System.currentTimeMillis() < endTime) {
+			assertMirrored(busyTunnel);
+		}
+
+		// the busy host is still kept alive every third keepalive
+		int numBusyKeepalives = server.getNumKeepalives(busyTunnel.getDomainName());
+		int numIdleKeepalives = server.getNumKeepalives(idleTunnel.getDomainName());
+		assertTrue(numIdleKeepalives >= 4);
+		assertTrue(numBusyKeepalives >= 1);
+		assertTrue(numBusyKeepalives < numIdleKeepalives);
+	}
+
+	@Test
+	public void testLatency() throws IOException {
+		Properties settings = createSettings("keepaliveInterval", "1");
+		settings.put("latencyThreshold", "50");
+		client = connect(settings);
+		List<Boolean> events = new CopyOnWriteArrayList<>();
+		client.addLatencyDegradedHandler((degraded, roundTrip) -> events.add(degraded));
+		client.addTunnel(mirrorServer.getPort(), null);
+
+		server.setLatency(100);
+		assertTrue(waitFor(client::isLatencyDegraded, 10000));
+		LatencyStats stats = client.getLatencyStats();
+		assertTrue(stats.getLastSshRoundTrip() > 0);
+		assertTrue(stats.getControllerRoundTrips().getSnapshot().getMax() >= 100000);
+
+		server.setLatency(0);
+		assertTrue(waitFor(() -> !client.isLatencyDegraded(), 10000));
+		assertEquals(events, Arrays.asList(true, false));
+	}
+
+	@Test
+	public void testControllerFaults() throws IOException {
+		client = connect(null);
+		server.setLatency(20);
+		server.injectErrors("createHost", 1);
+		assertNull(client.addTunnel(mirrorServer.getPort(), null));
+		Tunnel tunnel = client.addTunnel(mirrorServer.getPort(), null);
+		assertNotNull(tunnel);
+
+		// commands whose answer is lost are resent on a new channel
+		server.injectDrops("keepHostAlive", 2);
+		assertEquals(client.executeCommand("keepHostAlive " + tunnel.getDomainName()), "ok");
+		assertEquals(server.getNumCommands("keepHostAlive"), 3);
+	}
+
+	@Test
+	public void testLostCreateHostResponse() throws IOException {
+		client = connect(null);
+
+		// the host was created, so creating another one would leak it
+		server.injectLostResponses("createHost", 1);
+		try {
+			client.addTunnel(mirrorServer.getPort(), null);
+			fail("Lost createHost response was not reported.");
+		} catch (IOException expected) {
+		}
+		assertEquals(server.getNumCommands("createHost"), 1);
+		assertEquals(server.getDomainNames().size(), 1);
+
+		// keeping a host alive twice is harmless, so the command is resent on a new channel
+		Tunnel tunnel = client.addTunnel(mirrorServer.getPort(), "abc");
+		assertNotNull(tunnel);
+		server.injectLostResponses("keepHostAlive", 1);
+		assertEquals(client.executeCommand("keepHostAlive abc.jwormhole.test"), "ok");
+		assertEquals(server.getNumCommands("keepHostAlive"), 2);
+	}
+
+	@Test
+	public void testInterruptedAddTunnel() throws Exception {
+		client = connect(null);
+		server.setLatency(300);
+		AtomicReference<Exception> failure = new AtomicReference<>();
+		Thread thread = new Thread(() -> {
+			try {
+				client.addTunnel(mirrorServer.getPort(), "abc");
+			} catch (IOException exception) {
+				failure.set(exception);
+			}
+		});
+		thread.start();
+		assertTrue(waitFor(() -> server.getNumCommands("createHost") == 1, 5000));
+		thread.interrupt();
+		thread.join(5000);
+
+		// the host created meanwhile is removed rather than left to expire
+		assertTrue(failure.get() instanceof InterruptedIOException);
+		assertTrue(client.getTunnels().isEmpty());
+		assertTrue(server.getDomainNames().isEmpty());
+	}
+
+	@Test
+	public void testOneShotController() throws IOException {
+		server.setOneShot(true);
+		client = connect(null);
+		List<Tunnel> tunnels = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			tunnels.add(client.addTunnel(mirrorServer.getPort(), null));
+		}
+		for (Tunnel tunnel : tunnels) {
+			assertNotNull(tunnel);
+			assertEquals(client.executeCommand("keepHostAlive " + tunnel.getDomainName()), "ok");
+		}
+	}
+
+	@Test
+	public void testReconnect() throws IOException {
+		client = connect(createSettings("keepaliveInterval", "1"));
+		Tunnel tunnel = client.addTunnel(mirrorServer.getPort(), "abc");
+		assertMirrored(tunnel);
+
+		// the host is still held by the server, so only the sessions and the forward are redone
+		server.dropSessions();
+		assertTrue(waitFor(client::isReconnecting, 5000));
+		assertTrue(waitFor(() -> !client.isReconnecting(), 10000));
+		assertSame(client.getTunnel("abc.jwormhole.test"), tunnel);
+		assertMirrored(tunnel);
+		assertEquals(server.getNumCommands("createHost"), 1);
+	}
+
+	@Test
+	public void testReconnectAfterHostExpired() throws IOException {
+		client = connect(createSettings("keepaliveInterval", "1"));
+		Tunnel tunnel = client.addTunnel(mirrorServer.getPort(), "abc");
+
+		server.dropSessions();
+		server.expireHosts();
+		assertTrue(waitFor(client::isReconnecting, 5000));
+		assertTrue(waitFor(() -> !client.isReconnecting(), 10000));
+		Tunnel restoredTunnel = client.getTunnel("abc.jwormhole.test");
+		assertNotNull(restoredTunnel);
+		assertNotSame(restoredTunnel, tunnel);
+		assertMirrored(restoredTunnel);
+		assertTrue(server.getDomainNames().contains("abc.jwormhole.test"));
+	}
+
+	@Test
+	public void testReconnectGivesUp() throws IOException {
+		Properties settings = createSettings("keepaliveInterval", "1");
+		settings.put("reconnectRetries", "2");
+		settings.put("reconnectDelay", "0");
+		client = connect(settings);
+		List<String> lostDomainNames = new CopyOnWriteArrayList<>();
+		client.addConnectionClosedHandler((localPort, domainName) ->
+			lostDomainNames.add(domainName));
+		client.addTunnel(mirrorServer.getPort(), "abc");
+
+		server.close();
+		assertTrue(waitFor(() -> !lostDomainNames.isEmpty(), 10000));
+		assertEquals(lostDomainNames, Collections.singletonList("abc.jwormhole.test"));
+		assertTrue(client.getTunnels().isEmpty());
+		assertFalse(client.isReconnecting());
+	}
+
+	@Test
+	public void testFailover() throws IOException {
+		Properties settings = createSettings("keepaliveInterval", "1");
+		settings.put("reconnectRetries", "1");
+		settings.put("reconnectDelay", "0");
+		client = connect(settings);
+		try (EmbeddedServer backupServer = EmbeddedServer.start()) {
+			Settings backupSettings = backupServer.createSettings(settings);
+			client.setFailoverHandler(failedServer -> backupSettings);
+			client.addTunnel(mirrorServer.getPort(), "abc");
+
+			server.close();
+			assertTrue(waitFor(() -> backupServer.getDomainNames().contains("abc.jwormhole.test")
+				&& !client.isReconnecting(), 10000));
+			assertSame(client.getSettings(), backupSettings);
+			assertMirrored(client.getTunnel("abc.jwormhole.test"));
+		}
+	}
+
+	@Test
+	public void testShutdown() throws IOException {
+		client = connect(null);
+		Tunnel tunnel = client.addTunnel(mirrorServer.getPort(), null);
+		assertMirrored(tunnel);
+
+		client.shutdown();
+		assertTrue(server.getDomainNames().isEmpty());
+		assertEquals(client.getRelayEngine().getNumConnections(), 0);
+		assertTrue(waitFor(() -> server.getNumSessions() == 0, 5000));
+		assertTrue(waitFor(() -> Thread.getAllStackTraces().keySet().stream()
+			.noneMatch(thread -> thread.getName().startsWith("jwormhole-relay")), 5000));
+	}
+
+	private Client connect(Properties settings) throws IOException {
+		Client newClient = server.createClient(settings);
+		newClient.connect();
+		return newClient;
+	}
+
+	private static Properties createSettings(String key, String value) {
+		Properties settings = new Properties();
+		settings.put(key, value);
+		return settings;
+	}
+
+	private static void assertMirrored(Tunnel tunnel) throws IOException {
+		byte[] message = new byte[MESSAGE_SIZE];
+		Arrays.fill(message, (byte)tunnel.getRemotePort());
+		byte[] response = new byte[MESSAGE_SIZE];
+		try (Socket socket = new Socket()) {
+			socket.setSoTimeout(SOCKET_TIMEOUT);
+			socket.connect(new InetSocketAddress("127.0.0.1", tunnel.getRemotePort()),
+				SOCKET_TIMEOUT);
+			OutputStream out = socket.getOutputStream();
+			out.write(message);
+			out.flush();
+			new DataInputStream(socket.getInputStream()).readFully(response);
+		}
+		assertEquals(response, message);
+	}
+
+	private static boolean waitFor(BooleanSupplier condition, long timeout) {
+		long deadline = System.currentTimeMillis() + timeout;
+		while (!condition.getAsBoolean()) {
+			if (System.currentTimeMillis() > deadline) {
+				return false;
+			}
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException exception) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,231 @@
+package com.bradchen.jwormhole.client;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.IOUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.BooleanSupplier;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class TestLocalConnectionPool {
+
+	private static final Charset UTF8_CHARSET = Charset.forName("utf-8");
+	private static final int MESSAGE_SIZE = 64;
+	private static final int SOCKET_TIMEOUT = 5000; // in milliseconds
+
+	private EmbeddedServer server;
+	private HttpServer backend;
+	private List<Integer> clientPorts;
+	private Client client;
+
+	@BeforeMethod
+	public void setUp() throws IOException {
+		server = EmbeddedServer.start();
+		clientPorts = new CopyOnWriteArrayList<>();
+		backend = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		backend.createContext("/", this::serve);
+		backend.setExecutor(Executors.newFixedThreadPool(4));
+		backend.start();
+	}
+
+	@AfterMethod
+	public void tearDown() throws IOException {
+		if (client != null) {
+			client.shutdown();
+			client = null;
+		}
+		backend.stop(0);
+		server.close();
+	}
+
+	@Test
+	public void testPool() throws IOException {
+		ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+		try (ServerSocket localServer = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+			LocalConnectionPool pool = new LocalConnectionPool(localServer.getLocalPort(), 8,
+				executor);
+			pool.start();
+			assertTrue(waitFor(() -> pool.getNumIdle() == 1, 5000));
+			List<Socket> accepted = new ArrayList<>();
+			accepted.add(localServer.accept());
+
+			// a connection closed by the local server is not handed out
+			accepted.get(0).close();
+			assertTrue(waitFor(() -> pool.getNumDiscarded() == 1, 5000));
+			assertTrue(waitFor(() -> pool.getNumIdle() == 1, 5000));
+
+			// a burst of connections makes the pool keep more open
+			List<SocketChannel> taken = new ArrayList<>();
+			for (int i = 0; i < 20; i++) {
+				SocketChannel channel = pool.take();
+				if (channel != null) {
+					taken.add(channel);
+				}
+			}
+			assertTrue(pool.getNumMisses() > 0);
+			assertTrue(waitFor(() -> pool.getTargetSize() > 1, 5000));
+			assertTrue(waitFor(() -> pool.getNumIdle() == pool.getTargetSize(), 5000));
+			assertEquals(pool.getNumHits(), taken.size());
+
+			// connections come back while there is room
+			for (SocketChannel channel : taken) {
+				pool.giveBack(channel);
+			}
+			assertTrue(pool.getNumIdle() <= pool.getMaxSize());
+
+			pool.close();
+			assertEquals(pool.getNumIdle(), 0);
+			for (SocketChannel channel : taken) {
+				channel.close();
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testKeepAlive() throws IOException {
+		client = connect("4");
+		Tunnel tunnel = client.addTunnel(backend.getAddress().getPort(), null);
+		LocalConnectionPool pool = tunnel.getLocalPool();
+		assertNotNull(pool);
+		assertTrue(waitFor(() -> pool.getNumIdle() == 1, 5000));
+
+		// the local connection survives the forwarded one, and serves the next
+		assertEquals(get(tunnel, "/first"), "/first");
+		assertTrue(waitFor(() -> pool.getNumReturned() == 1, 5000));
+		assertEquals(get(tunnel, "/second"), "/second");
+		assertTrue(waitFor(() -> pool.getNumReturned() == 2, 5000));
+		assertEquals(clientPorts.size(), 2);
+		assertEquals(clientPorts.get(0), clientPorts.get(1));
+		assertEquals(pool.getNumHits(), 2);
+	}
+
+	@Test
+	public void testNonHttpTraffic() throws IOException {
+		try (MirrorServer mirrorServer = new MirrorServer(MESSAGE_SIZE)) {
+			client = connect("4");
+			Tunnel tunnel = client.addTunnel(mirrorServer.getPort(), null);
+			LocalConnectionPool pool = tunnel.getLocalPool();
+			assertTrue(waitFor(() -> pool.getNumIdle() == 1, 5000));
+
+			byte[] message = new byte[MESSAGE_SIZE];
+			Arrays.fill(message, (byte)1);
+			byte[] response = new byte[MESSAGE_SIZE];
+			for (int i = 0; i < 3; i++) {
+				try (Socket socket = openConnection(tunnel)) {
+					socket.getOutputStream().write(message);
+					new DataInputStream(socket.getInputStream()).readFully(response);
+				}
+			}
+
+			// connections that are not HTTP are closed rather than kept
+			assertTrue(waitFor(() -> tunnel.getStats().getNumActiveConnections() == 0, 5000));
+			assertEquals(pool.getNumReturned(), 0);
+			assertTrue(pool.getNumHits() >= 1);
+		}
+	}
+
+	@Test
+	public void testDisabled() throws IOException {
+		client = connect("0");
+		Tunnel tunnel = client.addTunnel(backend.getAddress().getPort(), null);
+		assertNull(tunnel.getLocalPool());
+		assertEquals(get(tunnel, "/"), "/");
+	}
+
+	private Client connect(String localPoolSize) throws IOException {
+		Properties settings = new Properties();
+		settings.put("localPoolSize", localPoolSize);
+		Client newClient = server.createClient(settings);
+		newClient.connect();
+		return newClient;
+	}
+
+	private static Socket openConnection(Tunnel tunnel) throws IOException {
+		Socket socket = new Socket();
+		socket.setSoTimeout(SOCKET_TIMEOUT);
+		socket.connect(new InetSocketAddress("127.0.0.1", tunnel.getRemotePort()), SOCKET_TIMEOUT);
+		return socket;
+	}
+
+	/**
+	 * Sends a request through the tunnel on a connection of its own, and returns the body of the
+	 * response.
+	 */
+	private static String get(Tunnel tunnel, String path) throws IOException {
+		try (Socket socket = openConnection(tunnel)) {
+			OutputStream out = socket.getOutputStream();
+			out.write(("GET " + path + " HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes(UTF8_CHARSET));
+			out.flush();
+
+			InputStream in = socket.getInputStream();
+			StringBuilder head = new StringBuilder();
+			while (!head.toString().endsWith("\r\n\r\n")) {
+				int b = in.read();
+				if (b < 0) {
+					throw new IOException("Response ended early.");
+				}
+				head.append((char)b);
+			}
+			String lengthHeader = "content-length: ";
+			String headText = head.toString().toLowerCase();
+			int start = headText.indexOf(lengthHeader) + lengthHeader.length();
+			int length = Integer.parseInt(headText.substring(start, headText.indexOf('\r', start)));
+			byte[] body = new byte[length];
+			new DataInputStream(in).readFully(body);
+			return new String(body, UTF8_CHARSET);
+		}
+	}
+
+	private void serve(HttpExchange exchange) throws IOException {
+		IOUtils.toByteArray(exchange.getRequestBody());
+		clientPorts.add(exchange.getRemoteAddress().getPort());
+		byte[] body = exchange.getRequestURI().getPath().getBytes(UTF8_CHARSET);
+		exchange.sendResponseHeaders(200, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	private static boolean waitFor(BooleanSupplier condition, long timeout) {
+		long deadline = System.currentTimeMillis() + timeout;
+		while (!condition.getAsBoolean()) {
+			if (System.currentTimeMillis() > deadline) {
+				return false;
+			}
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException exception) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
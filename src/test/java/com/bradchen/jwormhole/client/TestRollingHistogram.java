@@ -0,0 +1,59 @@
+package com.bradchen.jwormhole.client;
+
+import org.testng.annotations.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TestRollingHistogram {
+
+	@Test
+	public void testBucketsCoverValues() {
+		for (long value = 0; value < 100000; value++) {
+			int index = RollingHistogram.getBucketIndex(value);
+			assertTrue(RollingHistogram.getBucketUpperBound(index) >= value);
+			if (index > 0) {
+				assertTrue(RollingHistogram.getBucketUpperBound(index - 1) < value);
+			}
+		}
+	}
+
+	@Test
+	public void testPercentiles() {
+		RollingHistogram histogram = new RollingHistogram(60000, 6, () -> 0);
+		for (int i = 1; i <= 1000; i++) {
+			histogram.record(i);
+		}
+
+		RollingHistogram.Snapshot snapshot = histogram.getSnapshot();
+		assertEquals(snapshot.getCount(), 1000);
+		assertEquals(snapshot.getMax(), 1000);
+		assertEquals(snapshot.getMean(), 500.5, 0.001);
+		assertWithinError(snapshot.getValueAtPercentile(50), 500);
+		assertWithinError(snapshot.getValueAtPercentile(99), 990);
+	}
+
+	@Test
+	public void testOldValuesExpire() {
+		AtomicLong now = new AtomicLong();
+		RollingHistogram histogram = new RollingHistogram(60000, 6, now::get);
+		histogram.record(100);
+		now.set(30000);
+		histogram.record(200);
+		assertEquals(histogram.getSnapshot().getCount(), 2);
+
+		now.set(65000);
+		assertEquals(histogram.getSnapshot().getCount(), 1);
+		assertEquals(histogram.getSnapshot().getMax(), 200);
+
+		now.set(95000);
+		assertEquals(histogram.getSnapshot().getCount(), 0);
+	}
+
+	private static void assertWithinError(long actual, long expected) {
+		assertTrue(Math.abs(actual - expected) <= expected / 16, actual + " vs " + expected);
+	}
+
+}
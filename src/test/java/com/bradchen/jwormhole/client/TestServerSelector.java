@@ -0,0 +1,172 @@
+package com.bradchen.jwormhole.client;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class TestServerSelector {
+
+	private static final int BANNER_DELAY = 200; // in milliseconds
+
+	private EmbeddedServer server;
+	private ServerSocket slowServer;
+	private File cacheFile;
+	private Properties defaults;
+	private Properties overrides;
+
+	@BeforeMethod
+	public void setUp() throws IOException {
+		server = EmbeddedServer.start();
+		slowServer = new ServerSocket(0);
+		Thread thread = new Thread(this::serveSlowly, "slow-ssh-server");
+		thread.setDaemon(true);
+		thread.start();
+		cacheFile = File.createTempFile("jwormhole-probes", ".properties");
+		cacheFile.delete();
+
+		// "fast" is the embedded server; "slow" sends its banner late; nothing listens for "down"
+		defaults = EmbeddedServer.readDefaultSettings();
+		overrides = server.createOverrideSettings("fast", null);
+		overrides.put("jwormhole.client.slow.serverSshHost", "127.0.0.1");
+		overrides.put("jwormhole.client.slow.serverSshPort",
+			Integer.toString(slowServer.getLocalPort()));
+		overrides.put("jwormhole.client.down.serverSshHost", "127.0.0.1");
+		overrides.put("jwormhole.client.down.serverSshPort", Integer.toString(getClosedPort()));
+		overrides.put("jwormhole.client.group.all", "down, slow,fast");
+	}
+
+	@AfterMethod
+	public void tearDown() throws IOException {
+		slowServer.close();
+		server.close();
+		cacheFile.delete();
+	}
+
+	@Test
+	public void testCandidates() {
+		assertEquals(ServerSelector.getCandidates(defaults, overrides, "all"),
+			Arrays.asList("down", "slow", "fast"));
+		assertEquals(ServerSelector.getCandidates(defaults, overrides, "auto"),
+			Arrays.asList("down", "fast", "slow"));
+		assertNull(ServerSelector.getCandidates(defaults, overrides, "fast"));
+	}
+
+	@Test
+	public void testProbe() throws IOException {
+		ServerSelector selector = createSelector();
+		List<ServerSelector.Probe> probes = selector.probe(true);
+		assertEquals(probes.get(0).getServer(), "fast");
+		assertEquals(probes.get(1).getServer(), "slow");
+		// the delay starts once the connection is accepted, which may be before connect() returns
+		assertTrue(probes.get(1).getBannerTime() >= BANNER_DELAY * 1000 / 2);
+		assertEquals(probes.get(2).getServer(), "down");
+		assertFalse(probes.get(2).isReachable());
+		assertEquals(selector.select().getServer(), "fast");
+	}
+
+	@Test
+	public void testCache() throws IOException {
+		createSelector().probe(true);
+		assertTrue(cacheFile.isFile());
+
+		// results are taken from the cache while fresh, even once the servers are gone
+		server.close();
+		slowServer.close();
+		ServerSelector selector = createSelector();
+		assertEquals(selector.select().getServer(), "fast");
+		assertFalse(selector.probe(false).get(0).isReachable());
+
+		// a server that moved is probed again
+		overrides.put("jwormhole.client.fast.serverSshPort", Integer.toString(getClosedPort()));
+		try {
+			createSelector().select();
+		} catch (IOException expected) {
+			return;
+		}
+		throw new AssertionError("No server should be reachable.");
+	}
+
+	@Test
+	public void testUnreachableNotCached() throws IOException {
+		createSelector().probe(true);
+
+		// a server down at the last launch is probed again once it is back
+		int port = Integer.parseInt(overrides.getProperty("jwormhole.client.down.serverSshPort"));
+		try (ServerSocket recoveredServer = new ServerSocket(port)) {
+			Thread thread = new Thread(() -> serveBanner(recoveredServer), "recovered-ssh-server");
+			thread.setDaemon(true);
+			thread.start();
+			for (ServerSelector.Probe probe : createSelector().probe(true)) {
+				assertTrue(probe.isReachable());
+			}
+		}
+	}
+
+	@Test
+	public void testNextServer() throws IOException {
+		ServerSelector selector = createSelector();
+		Settings fast = selector.select();
+		Settings slow = selector.nextServer(fast);
+		assertEquals(slow.getServer(), "slow");
+
+		// once every reachable server failed, failover goes back to the ones that recovered
+		assertEquals(selector.nextServer(slow).getServer(), "fast");
+		assertEquals(selector.nextServer(fast).getServer(), "slow");
+
+		// none other is reachable
+		slowServer.close();
+		assertNull(selector.nextServer(fast));
+	}
+
+	private ServerSelector createSelector() {
+		return new ServerSelector(defaults, overrides,
+			ServerSelector.getCandidates(defaults, overrides, "all"), cacheFile);
+	}
+
+	private void serveSlowly() {
+		while (!slowServer.isClosed()) {
+			try (Socket socket = slowServer.accept()) {
+				Thread.sleep(BANNER_DELAY);
+				OutputStream out = socket.getOutputStream();
+				out.write("SSH-2.0-Slow\r\n".getBytes(Charset.forName("us-ascii")));
+				out.flush();
+			} catch (IOException ignored) {
+			} catch (InterruptedException exception) {
+				return;
+			}
+		}
+	}
+
+	private static void serveBanner(ServerSocket serverSocket) {
+		while (!serverSocket.isClosed()) {
+			try (Socket socket = serverSocket.accept()) {
+				OutputStream out = socket.getOutputStream();
+				out.write("SSH-2.0-Recovered\r\n".getBytes(Charset.forName("us-ascii")));
+				out.flush();
+			} catch (IOException ignored) {
+			}
+		}
+	}
+
+	private static int getClosedPort() throws IOException {
+		try (ServerSocket socket = new ServerSocket(0)) {
+			return socket.getLocalPort();
+		}
+	}
+
+}
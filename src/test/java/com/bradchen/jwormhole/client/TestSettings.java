@@ -14,11 +14,30 @@ public class TestSettings {
 	public void testDefaultSettings() throws IOException {
 		Properties defaultSettings = getDefaultSettings();
 		Settings settings = new Settings(defaultSettings, null, "default");
+		assertEquals(settings.getServer(), "default");
 		assertEquals(settings.getServerSshHost(), "");
 		assertEquals(settings.getServerSshPort(), 22);
 		assertEquals(settings.getServerUsername(), "");
 		assertEquals(settings.getServerControllerPort(), 12700);
 		assertEquals(settings.getKeepaliveInterval(), 10);
+		assertEquals(settings.getKeepaliveMaxSkips(), 2);
+		assertEquals(settings.getNumSessions(), 1);
+		assertEquals(settings.getCompressionMode(), CompressionMode.AUTO);
+		assertEquals(settings.getRelayThreads(), 2);
+		assertEquals(settings.getReconnectRetries(), 10);
+		assertEquals(settings.getReconnectDelay(), 1);
+		assertEquals(settings.getReconnectMaxDelay(), 60);
+		assertEquals(settings.getLatencyThreshold(), 0);
+		assertEquals(settings.getHttpCacheSize(), 0);
+		assertEquals(settings.getHttpCacheDiskSize(), 0);
+		assertEquals(settings.getInspectorSize(), 0);
+		assertEquals(settings.getInspectorBodyLimit(), 4096);
+		assertEquals(settings.getMaxConnections(), 0);
+		assertEquals(settings.getConnectionRate(), 0);
+		assertEquals(settings.getConnectionQueueTimeout(), 5000);
+		assertEquals(settings.getBandwidthUp(), 0);
+		assertEquals(settings.getBandwidthDown(), 0);
+		assertEquals(settings.getLocalPoolSize(), 0);
 	}
 
 	@Test
@@ -31,6 +50,28 @@ public class TestSettings {
 		assertEquals(settings.getServerUsername(), "user");
 		assertEquals(settings.getServerControllerPort(), 2345);
 		assertEquals(settings.getKeepaliveInterval(), 4321);
+		assertEquals(settings.getKeepaliveMaxSkips(), 0);
+		assertEquals(settings.getNumSessions(), 4);
+		assertEquals(settings.getCompressionMode(), CompressionMode.OFF);
+		assertEquals(settings.getRelayThreads(), 8);
+		assertEquals(settings.getReconnectRetries(), -1);
+		assertEquals(settings.getReconnectDelay(), 2);
+		assertEquals(settings.getReconnectMaxDelay(), 30);
+		assertEquals(settings.getLatencyThreshold(), 250);
+		assertEquals(settings.getHttpCacheSize(), 16);
+		assertEquals(settings.getHttpCacheDiskSize(), 256);
+		assertEquals(settings.getHttpCacheConnections(), 32);
+		assertEquals(settings.getInspectorSize(), 8);
+		assertEquals(settings.getInspectorBodyLimit(), 1024);
+		assertEquals(settings.getMaxConnections(), 20);
+		assertEquals(settings.getConnectionRate(), 10);
+		assertEquals(settings.getConnectionQueueTimeout(), 0);
+		assertEquals(settings.getBandwidthUp(), 256);
+		assertEquals(settings.getBandwidthDown(), 512);
+		assertEquals(settings.getLocalPoolSize(), 4);
+		assertEquals(settings.getValues().get("keepaliveInterval"), "4321");
+		assertEquals(settings.getValues().get("compression"), "off");
+		assertEquals(settings.getValues().size(), 24);
 	}
 
 	@Test
@@ -38,11 +79,30 @@ public class TestSettings {
 		Properties defaultSettings = getDefaultSettings();
 		Settings settings = new Settings(defaultSettings, createOverrideSettings("custom"),
 			"custom");
+		assertEquals(settings.getServer(), "custom");
 		assertEquals(settings.getServerSshHost(), "test-server");
 		assertEquals(settings.getServerSshPort(), 123);
 		assertEquals(settings.getServerUsername(), "user");
 		assertEquals(settings.getServerControllerPort(), 2345);
 		assertEquals(settings.getKeepaliveInterval(), 4321);
+		assertEquals(settings.getKeepaliveMaxSkips(), 0);
+		assertEquals(settings.getNumSessions(), 4);
+		assertEquals(settings.getCompressionMode(), CompressionMode.OFF);
+		assertEquals(settings.getRelayThreads(), 8);
+		assertEquals(settings.getReconnectRetries(), -1);
+		assertEquals(settings.getReconnectDelay(), 2);
+		assertEquals(settings.getReconnectMaxDelay(), 30);
+		assertEquals(settings.getLatencyThreshold(), 250);
+		assertEquals(settings.getHttpCacheSize(), 16);
+		assertEquals(settings.getHttpCacheDiskSize(), 256);
+		assertEquals(settings.getInspectorSize(), 8);
+		assertEquals(settings.getInspectorBodyLimit(), 1024);
+		assertEquals(settings.getMaxConnections(), 20);
+		assertEquals(settings.getConnectionRate(), 10);
+		assertEquals(settings.getConnectionQueueTimeout(), 0);
+		assertEquals(settings.getBandwidthUp(), 256);
+		assertEquals(settings.getBandwidthDown(), 512);
+		assertEquals(settings.getLocalPoolSize(), 4);
 	}
 
 	private Properties createOverrideSettings(String name) {
@@ -53,6 +113,24 @@ public class TestSettings {
 		overrideSettings.put(prefix + "serverUsername", "user");
 		overrideSettings.put(prefix + "serverControllerPort", "2345");
 		overrideSettings.put(prefix + "keepaliveInterval", "4321");
+		overrideSettings.put(prefix + "keepaliveMaxSkips", "0");
+		overrideSettings.put(prefix + "sessions", "4");
+		overrideSettings.put(prefix + "compression", "off");
+		overrideSettings.put(prefix + "relayThreads", "8");
+		overrideSettings.put(prefix + "reconnectRetries", "-1");
+		overrideSettings.put(prefix + "reconnectDelay", "2");
+		overrideSettings.put(prefix + "reconnectMaxDelay", "30");
+		overrideSettings.put(prefix + "latencyThreshold", "250");
+		overrideSettings.put(prefix + "httpCacheSize", "16");
+		overrideSettings.put(prefix + "httpCacheDiskSize", "256");
+		overrideSettings.put(prefix + "inspectorSize", "8");
+		overrideSettings.put(prefix + "inspectorBodyLimit", "1024");
+		overrideSettings.put(prefix + "maxConnections", "20");
+		overrideSettings.put(prefix + "connectionRate", "10");
+		overrideSettings.put(prefix + "connectionQueueTimeout", "0");
+		overrideSettings.put(prefix + "bandwidthUp", "256");
+		overrideSettings.put(prefix + "bandwidthDown", "512");
+		overrideSettings.put(prefix + "localPoolSize", "4");
 		return overrideSettings;
 	}
 
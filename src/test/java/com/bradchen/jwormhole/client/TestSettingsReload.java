@@ -0,0 +1,155 @@
+package com.bradchen.jwormhole.client;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+public class TestSettingsReload {
+
+	private static final Charset UTF8_CHARSET = Charset.forName("utf-8");
+
+	private EmbeddedServer server;
+	private MirrorServer mirrorServer;
+	private Client client;
+
+	@BeforeMethod
+	public void setUp() throws IOException {
+		server = EmbeddedServer.start();
+		mirrorServer = new MirrorServer(64);
+	}
+
+	@AfterMethod
+	public void tearDown() throws IOException {
+		if (client != null) {
+			client.shutdown();
+			client = null;
+		}
+		mirrorServer.close();
+		server.close();
+	}
+
+	@Test
+	public void testReload() throws IOException {
+		Properties overrides = new Properties();
+		overrides.put("keepaliveInterval", "60");
+		client = server.createClient(overrides);
+		client.connect();
+		Tunnel tunnel = client.addTunnel(mirrorServer.getPort(), null);
+
+		// the same settings change nothing
+		assertTrue(client.reloadSettings(server.createSettings(overrides)).isEmpty());
+
+		overrides.put("keepaliveInterval", "1");
+		overrides.put("bandwidthDown", "512");
+		overrides.put("maxConnections", "3");
+		overrides.put("httpCacheSize", "8");
+		overrides.put("sessions", "2");
+		Settings newSettings = server.createSettings(overrides);
+		Map<String, SettingChange> changes = new HashMap<>();
+		for (SettingChange change : client.reloadSettings(newSettings)) {
+			changes.put(change.getKey(), change);
+		}
+		assertEquals(changes.size(), 5);
+		assertEquals(changes.get("keepaliveInterval").getOldValue(), "60");
+		assertEquals(changes.get("keepaliveInterval").getNewValue(), "1");
+		assertEquals(changes.get("keepaliveInterval").getEffect(), SettingChange.Effect.APPLIED);
+		assertEquals(changes.get("bandwidthDown").getEffect(), SettingChange.Effect.APPLIED);
+		assertEquals(changes.get("httpCacheSize").getEffect(), SettingChange.Effect.NEW_TUNNELS);
+		assertEquals(changes.get("sessions").getEffect(), SettingChange.Effect.RESTART);
+		assertSame(client.getSettings(), newSettings);
+
+		// limits of existing tunnels change, and keepalives follow the new interval
+		assertEquals(tunnel.getLimits().getBandwidthDown(), 512);
+		assertEquals(tunnel.getLimits().getMaxConnections(), 3);
+		assertTrue(waitFor(() -> server.getNumKeepalives(tunnel.getDomainName()) >= 2, 5000));
+		assertEquals(client.getSessionStats().size(), 1);
+	}
+
+	@Test
+	public void testReconnectSettings() throws IOException {
+		client = server.createClient(null);
+		client.connect();
+		client.addTunnel(mirrorServer.getPort(), null);
+
+		Properties overrides = new Properties();
+		overrides.put("serverSshHost", "localhost");
+		overrides.put("compression", "off");
+		List<SettingChange> changes = client.reloadSettings(server.createSettings(overrides));
+		assertEquals(changes.size(), 2);
+		for (SettingChange change : changes) {
+			if (change.getKey().equals("serverSshHost")) {
+				assertEquals(change.getEffect(), SettingChange.Effect.RECONNECT);
+			} else {
+				assertEquals(change.getEffect(), SettingChange.Effect.APPLIED);
+			}
+		}
+		assertFalse(client.isCompressionEnabled());
+
+		// the new host is used once the connection is reestablished
+		assertTrue(client.reconnect());
+		assertTrue(waitFor(() -> !client.isReconnecting() && client.isConnected(), 10000));
+		assertEquals(client.getTunnels().size(), 1);
+	}
+
+	@Test
+	public void testWatcher() throws IOException, InterruptedException {
+		File directory = Files.createTempDirectory("jwormhole").toFile();
+		File file = new File(directory, "client.properties");
+		AtomicInteger numChanges = new AtomicInteger();
+		SettingsWatcher watcher = new SettingsWatcher(file, numChanges::incrementAndGet);
+		try {
+			watcher.start();
+			FileUtils.write(new File(directory, "other.properties"), "a = 1", UTF8_CHARSET);
+			FileUtils.write(file, "a = 1", UTF8_CHARSET);
+			assertTrue(waitFor(() -> numChanges.get() == 1, 5000));
+
+			// a burst of writes is reported once
+			for (int i = 0; i < 5; i++) {
+				FileUtils.write(file, "a = " + i, UTF8_CHARSET);
+			}
+			assertTrue(waitFor(() -> numChanges.get() == 2, 5000));
+			Thread.sleep(500);
+			assertEquals(numChanges.get(), 2);
+
+			assertTrue(file.delete());
+			assertTrue(waitFor(() -> numChanges.get() == 3, 5000));
+		} finally {
+			watcher.close();
+			FileUtils.deleteDirectory(directory);
+		}
+	}
+
+	private static boolean waitFor(BooleanSupplier condition, long timeout) {
+		long deadline = System.currentTimeMillis() + timeout;
+		while (!condition.getAsBoolean()) {
+			if (System.currentTimeMillis() > deadline) {
+				return false;
+			}
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException exception) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,95 @@
+package com.bradchen.jwormhole.client;
+
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class TestSshKeepalive {
+
+	private static final long TIMEOUT = 5000; // in milliseconds
+
+	private EmbeddedServer server;
+	private Session session;
+
+	@BeforeMethod
+	public void setUp() throws IOException, JSchException {
+		server = EmbeddedServer.start();
+		session = server.openSession();
+	}
+
+	@AfterMethod
+	public void tearDown() throws IOException {
+		session.disconnect();
+		server.close();
+	}
+
+	@Test
+	public void testPing() throws IOException {
+		for (int i = 0; i < 3; i++) {
+			long roundTrip = SshKeepalive.ping(session, TIMEOUT);
+			assertTrue((roundTrip > 0) && (roundTrip < TimeUnit.MILLISECONDS.toMicros(TIMEOUT)));
+		}
+
+		// the reply leaves the caller's interrupt status alone
+		assertFalse(Thread.interrupted());
+	}
+
+	@Test
+	public void testPingWithoutReply() throws IOException {
+		assertEquals(SshKeepalive.ping(session, TIMEOUT, false), SshKeepalive.NOT_MEASURED);
+		assertTrue(session.isConnected());
+	}
+
+	@Test
+	public void testUnanswered() throws IOException {
+		server.setSshKeepalivesIgnored(true);
+		long startTime = System.nanoTime();
+		try {
+			SshKeepalive.ping(session, 500);
+			fail("Unanswered keepalive was measured.");
+		} catch (InterruptedIOException exception) {
+			throw exception;
+		} catch (IOException expected) {
+		}
+		assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) >= 500);
+
+		// the next one is still answered once the server responds again
+		server.setSshKeepalivesIgnored(false);
+		assertTrue(SshKeepalive.ping(session, TIMEOUT) > 0);
+	}
+
+	@Test
+	public void testInterrupted() throws IOException {
+		server.setSshKeepalivesIgnored(true);
+		Thread.currentThread().interrupt();
+		try {
+			SshKeepalive.ping(session, TIMEOUT);
+			fail("Interrupted keepalive was measured.");
+		} catch (InterruptedIOException expected) {
+		}
+		assertTrue(Thread.interrupted());
+	}
+
+	@Test
+	public void testSessionLost() {
+		server.setSshKeepalivesIgnored(true);
+		server.dropSessions();
+		try {
+			SshKeepalive.ping(session, TIMEOUT);
+			fail("Keepalive on a lost session was measured.");
+		} catch (IOException expected) {
+		}
+	}
+
+}
@@ -0,0 +1,261 @@
+package com.bradchen.jwormhole.client;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class TestTunnelLimits {
+
+	private static final int MESSAGE_SIZE = 64;
+	private static final int LARGE_MESSAGE_SIZE = 32 * 1024;
+	private static final int SOCKET_TIMEOUT = 5000; // in milliseconds
+
+	private EmbeddedServer server;
+	private MirrorServer mirrorServer;
+	private Client client;
+
+	@BeforeMethod
+	public void setUp() throws IOException {
+		server = EmbeddedServer.start();
+		mirrorServer = new MirrorServer(MESSAGE_SIZE);
+	}
+
+	@AfterMethod
+	public void tearDown() throws IOException {
+		if (client != null) {
+			client.shutdown();
+			client = null;
+		}
+		mirrorServer.close();
+		server.close();
+	}
+
+	@Test
+	public void testTokenBucket() {
+		TokenBucket bucket = new TokenBucket(1000);
+		assertEquals(bucket.take(1000), 0);
+		long delay = bucket.take(500);
+		assertTrue((delay > TimeUnit.MILLISECONDS.toNanos(400))
+			&& (delay <= TimeUnit.MILLISECONDS.toNanos(500)));
+		assertTrue(bucket.getDelay() > 0);
+
+		bucket.setRate(0);
+		assertEquals(bucket.take(Long.MAX_VALUE / 2), 0);
+		assertEquals(bucket.getDelay(), 0);
+	}
+
+	@Test
+	public void testRejection() throws IOException {
+		Properties settings = new Properties();
+		settings.put("maxConnections", "1");
+		settings.put("connectionQueueTimeout", "0");
+		client = connect(settings);
+		Tunnel tunnel = client.addTunnel(mirrorServer.getPort(), null);
+		TunnelStats stats = tunnel.getStats();
+
+		try (Socket first = openConnection(tunnel)) {
+			assertMirrored(first, tunnel);
+			try (Socket second = openConnection(tunnel)) {
+				assertRefused(second);
+			}
+			assertTrue(waitFor(() -> stats.getNumRejectedConnections() == 1, 5000));
+			assertMirrored(first, tunnel);
+		}
+
+		// the slot is free again once the first connection is gone
+		assertTrue(waitFor(() -> stats.getNumActiveConnections() == 0, 5000));
+		try (Socket third = openConnection(tunnel)) {
+			assertMirrored(third, tunnel);
+		}
+		assertEquals(stats.getNumQueuedConnections(), 0);
+		assertEquals(stats.getConnections().getCount(), 2);
+	}
+
+	@Test
+	public void testQueueing() throws IOException {
+		Properties settings = new Properties();
+		settings.put("maxConnections", "1");
+		settings.put("connectionQueueTimeout", "10000");
+		client = connect(settings);
+		Tunnel tunnel = client.addTunnel(mirrorServer.getPort(), null);
+		TunnelLimits limits = tunnel.getLimits();
+		TunnelStats stats = tunnel.getStats();
+
+		Socket first = openConnection(tunnel);
+		assertMirrored(first, tunnel);
+		try (Socket second = openConnection(tunnel)) {
+			second.getOutputStream().write(new byte[MESSAGE_SIZE]);
+			assertTrue(waitFor(() -> limits.getNumWaiting() == 1, 5000));
+
+			// the waiting connection goes ahead when the first one closes
+			first.close();
+			byte[] response = new byte[MESSAGE_SIZE];
+			new DataInputStream(second.getInputStream()).readFully(response);
+			assertEquals(response, new byte[MESSAGE_SIZE]);
+		}
+		assertEquals(stats.getNumQueuedConnections(), 1);
+		assertEquals(stats.getNumRejectedConnections(), 0);
+		assertEquals(limits.getNumWaiting(), 0);
+
+		// raising the limit lets waiting connections in at once; the second connection's slot is
+		// released in the background, so the third may have waited for it
+		long numQueued;
+		try (Socket third = openConnection(tunnel)) {
+			assertMirrored(third, tunnel);
+			numQueued = stats.getNumQueuedConnections();
+			try (Socket fourth = openConnection(tunnel)) {
+				fourth.getOutputStream().write(new byte[MESSAGE_SIZE]);
+				assertTrue(waitFor(() -> limits.getNumWaiting() == 1, 5000));
+				limits.setMaxConnections(2);
+				byte[] response = new byte[MESSAGE_SIZE];
+				new DataInputStream(fourth.getInputStream()).readFully(response);
+			}
+		}
+		assertEquals(stats.getNumQueuedConnections(), numQueued + 1);
+	}
+
+	@Test
+	public void testQueuedUpload() throws Exception {
+		Properties settings = new Properties();
+		settings.put("maxConnections", "1");
+		settings.put("connectionQueueTimeout", "10000");
+		client = connect(settings);
+		Tunnel tunnel = client.addTunnel(mirrorServer.getPort(), null);
+		TunnelStats stats = tunnel.getStats();
+
+		try (Socket first = openConnection(tunnel); Socket second = openConnection(tunnel)) {
+			assertMirrored(first, tunnel);
+
+			// more than a queued connection may buffer; the write fails once it is refused
+			Thread uploader = new Thread(() -> {
+				try {
+					OutputStream out = second.getOutputStream();
+					for (int i = 0; i < 16; i++) {
+						out.write(new byte[LARGE_MESSAGE_SIZE]);
+					}
+				} catch (IOException ignored) {
+				}
+			});
+			uploader.start();
+
+			// the queued connection is refused well before its queue timeout, and the session
+			// keeps relaying the first one meanwhile
+			assertTrue(waitFor(() -> stats.getNumRejectedConnections() == 1, 5000));
+			assertMirrored(first, tunnel);
+			assertRefused(second);
+			uploader.join(SOCKET_TIMEOUT);
+			assertTrue(!uploader.isAlive());
+		}
+		assertEquals(tunnel.getLimits().getNumWaiting(), 0);
+		assertEquals(stats.getConnections().getCount(), 1);
+	}
+
+	@Test
+	public void testConnectionRate() throws IOException {
+		client = connect(null);
+		Tunnel tunnel = client.addTunnel(mirrorServer.getPort(), null);
+		tunnel.getLimits().setConnectionRate(5);
+
+		// the first 5 connections go through at once, the next 5 take a second
+		long startTime = System.nanoTime();
+		for (int i = 0; i < 10; i++) {
+			try (Socket socket = openConnection(tunnel)) {
+				assertMirrored(socket, tunnel);
+			}
+		}
+		assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) >= 800);
+		assertTrue(tunnel.getStats().getNumQueuedConnections() >= 4);
+	}
+
+	@Test
+	public void testBandwidth() throws IOException {
+		try (MirrorServer largeMirrorServer = new MirrorServer(LARGE_MESSAGE_SIZE)) {
+			Properties settings = new Properties();
+			settings.put("bandwidthDown", "64");
+			client = connect(settings);
+			Tunnel tunnel = client.addTunnel(largeMirrorServer.getPort(), null);
+			assertEquals(tunnel.getLimits().getBandwidthDown(), 64);
+
+			// 64 KB pass at once, the next 64 KB take about a second
+			long startTime = System.nanoTime();
+			byte[] message = new byte[LARGE_MESSAGE_SIZE];
+			byte[] response = new byte[LARGE_MESSAGE_SIZE];
+			try (Socket socket = openConnection(tunnel)) {
+				for (int i = 0; i < 4; i++) {
+					Arrays.fill(message, (byte)i);
+					socket.getOutputStream().write(message);
+					new DataInputStream(socket.getInputStream()).readFully(response);
+					assertEquals(response, message);
+				}
+			}
+			assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) >= 700);
+			assertEquals(tunnel.getStats().getBytesReceived().getCount(), 4 * LARGE_MESSAGE_SIZE);
+		}
+	}
+
+	private Client connect(Properties settings) throws IOException {
+		Client newClient = server.createClient(settings);
+		newClient.connect();
+		return newClient;
+	}
+
+	private static Socket openConnection(Tunnel tunnel) throws IOException {
+		Socket socket = new Socket();
+		socket.setSoTimeout(SOCKET_TIMEOUT);
+		socket.connect(new InetSocketAddress("127.0.0.1", tunnel.getRemotePort()), SOCKET_TIMEOUT);
+		return socket;
+	}
+
+	private static void assertMirrored(Socket socket, Tunnel tunnel) throws IOException {
+		byte[] message = new byte[MESSAGE_SIZE];
+		Arrays.fill(message, (byte)tunnel.getRemotePort());
+		byte[] response = new byte[MESSAGE_SIZE];
+		OutputStream out = socket.getOutputStream();
+		out.write(message);
+		out.flush();
+		new DataInputStream(socket.getInputStream()).readFully(response);
+		assertEquals(response, message);
+	}
+
+	private static void assertRefused(Socket socket) {
+		try {
+			socket.getOutputStream().write(new byte[MESSAGE_SIZE]);
+			if (socket.getInputStream().read() >= 0) {
+				fail("Connection over the limit was relayed.");
+			}
+		} catch (IOException ignored) {
+			// the server reset the connection
+		}
+	}
+
+	private static boolean waitFor(BooleanSupplier condition, long timeout) {
+		long deadline = System.currentTimeMillis() + timeout;
+		while (!condition.getAsBoolean()) {
+			if (System.currentTimeMillis() > deadline) {
+				return false;
+			}
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException exception) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,172 @@
+package com.bradchen.jwormhole.client.console;
+
+import com.bradchen.jwormhole.client.Client;
+import com.bradchen.jwormhole.client.console.commands.Command;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+public class TestJobManager {
+
+	private JobManager jobManager;
+	private CountDownLatch release;
+
+	@BeforeMethod
+	public void setUp() {
+		jobManager = new JobManager();
+		release = new CountDownLatch(1);
+	}
+
+	@AfterMethod
+	public void tearDown() {
+		release.countDown();
+		jobManager.shutdown();
+	}
+
+	@Test
+	public void testSubmit() throws Exception {
+		AtomicBoolean handled = new AtomicBoolean();
+		JobManager.Job job = submit(new WaitingCommand(0) {
+			@Override
+			public void handle(Client client, ArgumentsList argumentsList) {
+				super.handle(client, argumentsList);
+				handled.set(true);
+			}
+		});
+		assertNotNull(job);
+		assertTrue(waitFor(job::isStarted, 5000));
+		List<JobManager.Job> jobs = jobManager.getJobs();
+		assertEquals(jobs.size(), 1);
+		assertEquals(jobs.get(0).getCommandLine(), "wait");
+
+		release.countDown();
+		job.get(5, TimeUnit.SECONDS);
+		assertTrue(handled.get());
+		assertTrue(waitFor(() -> jobManager.getJobs().isEmpty(), 5000));
+	}
+
+	@Test
+	public void testTimeout() {
+		JobManager.Job job = submit(new WaitingCommand(200));
+		assertTrue(waitFor(job::isDone, 5000));
+		assertTrue(job.isCancelled());
+		assertTrue(waitFor(() -> jobManager.getJobs().isEmpty(), 5000));
+	}
+
+	@Test
+	public void testCancel() {
+		JobManager.Job first = submit(new WaitingCommand(0));
+		JobManager.Job second = submit(new WaitingCommand(0));
+		assertTrue(waitFor(second::isStarted, 5000));
+
+		// Ctrl-C cancels the latest command first
+		assertSame(jobManager.cancelLatest(), second);
+		assertTrue(second.isCancelled());
+		assertFalse(first.isDone());
+		assertTrue(jobManager.cancel(first.getId()));
+		assertTrue(waitFor(() -> jobManager.getJobs().isEmpty(), 5000));
+		assertNull(jobManager.cancelLatest());
+		assertFalse(jobManager.cancel(first.getId()));
+	}
+
+	@Test
+	public void testRejection() {
+		// 4 running and 16 waiting fill the manager up
+		for (int i = 0; i < 20; i++) {
+			assertNotNull(submit(new WaitingCommand(0)));
+		}
+		assertNull(submit(new WaitingCommand(0)));
+		assertEquals(jobManager.getJobs().size(), 20);
+
+		release.countDown();
+		assertTrue(waitFor(() -> jobManager.getJobs().isEmpty(), 5000));
+		assertNotNull(submit(new WaitingCommand(0)));
+	}
+
+	private JobManager.Job submit(Command command) {
+		return jobManager.submit(command.getName(), command, null,
+			new Command.ArgumentsList(command));
+	}
+
+	private static boolean waitFor(BooleanSupplier condition, long timeout) {
+		long deadline = System.currentTimeMillis() + timeout;
+		while (!condition.getAsBoolean()) {
+			if (System.currentTimeMillis() > deadline) {
+				return false;
+			}
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException exception) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Waits until the test releases it, or until interrupted.
+	 */
+	private class WaitingCommand extends Command {
+
+		private final long timeout;
+
+		private WaitingCommand(long timeout) {
+			this.timeout = timeout;
+		}
+
+		@Override
+		public String getName() {
+			return "wait";
+		}
+
+		@Override
+		public String getDescription() {
+			return "Wait for the test.";
+		}
+
+		@Override
+		public List<String> getAliases() {
+			return null;
+		}
+
+		@Override
+		public List<Argument> getArguments() {
+			return null;
+		}
+
+		@Override
+		public boolean isAsync() {
+			return true;
+		}
+
+		@Override
+		public long getTimeout() {
+			return timeout;
+		}
+
+		@Override
+		public void handle(Client client, ArgumentsList argumentsList) {
+			try {
+				release.await();
+			} catch (InterruptedException exception) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+	}
+
+}
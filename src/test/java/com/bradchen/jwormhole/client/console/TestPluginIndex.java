@@ -0,0 +1,144 @@
+package com.bradchen.jwormhole.client.console;
+
+import com.bradchen.jwormhole.client.Client;
+import com.bradchen.jwormhole.client.console.commands.Command;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class TestPluginIndex {
+
+	private File directory;
+	private File jar;
+	private File indexFile;
+
+	@BeforeMethod
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("jwormhole-plugins").toFile();
+		jar = new File(directory, "plugin.jar");
+		Files.write(jar.toPath(), new byte[] { 1, 2, 3 });
+		indexFile = new File(directory, "plugins.index");
+	}
+
+	@AfterMethod
+	public void tearDown() {
+		for (File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		PluginIndex index = PluginIndex.load(indexFile);
+		assertNull(index.get("test.Plugin"));
+		index.put(new PluginIndex.Entry("test.Plugin", jar, Arrays.asList(
+			new PluginIndex.CommandInfo(new TestCommand("deploy", Arrays.asList("d", "dep"),
+				Arrays.asList(new Command.Argument("target", "where to deploy"),
+					new Command.Argument("tag", "tag to deploy", true)))),
+			new PluginIndex.CommandInfo(new TestCommand("undeploy", null, null)))));
+		index.save();
+
+		PluginIndex.Entry entry = PluginIndex.load(indexFile).get("test.Plugin");
+		assertNotNull(entry);
+		assertEquals(entry.getJarPath(), jar.getAbsolutePath());
+		assertEquals(entry.getJarSize(), 3);
+		assertEquals(entry.getJarHash(), PluginIndex.hash(jar));
+		assertEquals(entry.getCommands().size(), 2);
+
+		PluginIndex.CommandInfo deploy = entry.getCommands().get(0);
+		assertEquals(deploy.getName(), "deploy");
+		assertEquals(deploy.getDescription(), "deploy command");
+		assertEquals(deploy.getAliases(), Arrays.asList("d", "dep"));
+		assertEquals(deploy.getArguments().size(), 2);
+		assertEquals(deploy.getArguments().get(0).getName(), "target");
+		assertFalse(deploy.getArguments().get(0).isOptional());
+		assertEquals(deploy.getArguments().get(1).getDescription(), "tag to deploy");
+		assertTrue(deploy.getArguments().get(1).isOptional());
+
+		PluginIndex.CommandInfo undeploy = entry.getCommands().get(1);
+		assertNull(undeploy.getAliases());
+		assertNull(undeploy.getArguments());
+	}
+
+	@Test
+	public void testRefresh() throws IOException {
+		PluginIndex.Entry entry = new PluginIndex.Entry("test.Plugin", jar,
+			Collections.emptyList());
+		assertEquals(PluginIndex.refresh(entry), PluginIndex.Freshness.CURRENT);
+
+		// touched but unchanged
+		assertTrue(jar.setLastModified(entry.getJarModified() - 60000));
+		assertEquals(PluginIndex.refresh(entry), PluginIndex.Freshness.TOUCHED);
+		assertEquals(entry.getJarModified(), jar.lastModified());
+		assertEquals(PluginIndex.refresh(entry), PluginIndex.Freshness.CURRENT);
+
+		// same size, different content
+		Files.write(jar.toPath(), new byte[] { 3, 2, 1 });
+		assertTrue(jar.setLastModified(entry.getJarModified() + 60000));
+		assertEquals(PluginIndex.refresh(entry), PluginIndex.Freshness.STALE);
+
+		assertTrue(jar.delete());
+		assertEquals(PluginIndex.refresh(entry), PluginIndex.Freshness.STALE);
+	}
+
+	@Test
+	public void testMalformedIndex() throws IOException {
+		Files.write(indexFile.toPath(), Arrays.asList("plugins=test.Plugin",
+			"test.Plugin.jar=" + jar.getAbsolutePath().replace('\\', '/'),
+			"test.Plugin.jarSize=three"));
+		assertNull(PluginIndex.load(indexFile).get("test.Plugin"));
+	}
+
+	private static final class TestCommand extends Command {
+
+		private final String name;
+		private final List<String> aliases;
+		private final List<Argument> arguments;
+
+		private TestCommand(String name, List<String> aliases, List<Argument> arguments) {
+			this.name = name;
+			this.aliases = aliases;
+			this.arguments = arguments;
+		}
+
+		@Override
+		public String getName() {
+			return name;
+		}
+
+		@Override
+		public String getDescription() {
+			return name + " command";
+		}
+
+		@Override
+		public List<String> getAliases() {
+			return aliases;
+		}
+
+		@Override
+		public List<Argument> getArguments() {
+			return arguments;
+		}
+
+		@Override
+		public void handle(Client client, ArgumentsList argumentsList) {
+		}
+
+	}
+
+}
@@ -0,0 +1,244 @@
+package com.bradchen.jwormhole.client.daemon;
+
+import com.bradchen.jwormhole.client.Client;
+import com.bradchen.jwormhole.client.EmbeddedServer;
+import org.apache.commons.io.IOUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BooleanSupplier;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TestControlServer {
+
+	private static final Charset UTF8_CHARSET = Charset.forName("utf-8");
+	private static final String TOKEN = "secret";
+
+	private EmbeddedServer server;
+	private TunnelManager tunnelManager;
+	private ControlServer controlServer;
+
+	@BeforeMethod
+	public void setUp() throws IOException {
+		server = EmbeddedServer.start();
+		tunnelManager = new TunnelManager(serverName -> {
+			if (!"embedded".equals(serverName)) {
+				throw new IOException("Server not configured: " + serverName);
+			}
+			return server.createClient(null);
+		});
+		controlServer = new ControlServer(tunnelManager, 0, 4, TOKEN);
+		controlServer.start();
+	}
+
+	@AfterMethod
+	public void tearDown() throws IOException {
+		controlServer.stop();
+		tunnelManager.shutdown();
+		server.close();
+	}
+
+	@Test
+	public void testTunnels() throws IOException {
+		Response created = request("POST", "/tunnels",
+			"{\"port\": 8080, \"name\": \"abc\", \"server\": \"embedded\"}");
+		assertEquals(created.status, 201);
+		assertTrue(created.body.contains("\"domainName\":\"abc.jwormhole.test\""));
+		assertTrue(created.body.contains("\"localPort\":8080"));
+		assertTrue(server.getDomainNames().contains("abc.jwormhole.test"));
+
+		Response other = request("POST", "/tunnels",
+			"{\"port\": 8081, \"server\": \"embedded\", \"name\": null}");
+		assertEquals(other.status, 201);
+
+		assertEquals(request("POST", "/tunnels",
+			"{\"port\": 8082, \"name\": \"abc\", \"server\": \"embedded\"}").status, 409);
+		assertEquals(request("POST", "/tunnels", "{\"port\": 0, \"server\": \"embedded\"}").status,
+			400);
+		assertEquals(request("POST", "/tunnels", "{\"port\": ").status, 400);
+		assertEquals(request("POST", "/tunnels", "{\"port\": 8080, \"server\": \"other\"}").status,
+			502);
+
+		Response list = request("GET", "/tunnels", null);
+		assertEquals(list.status, 200);
+		assertEquals(list.body.split("\"domainName\"").length - 1, 2);
+
+		Response shown = request("GET", "/tunnels/abc.jwormhole.test", null);
+		assertEquals(shown.status, 200);
+		assertTrue(shown.body.contains("\"server\":\"embedded\""));
+		assertTrue(shown.body.contains("\"timeToFirstByteMicros\""));
+
+		Response servers = request("GET", "/servers", null);
+		assertTrue(servers.body.contains("\"server\":\"embedded\",\"tunnels\":2"));
+
+		assertEquals(request("DELETE", "/tunnels/abc.jwormhole.test", null).status, 204);
+		assertEquals(request("DELETE", "/tunnels/abc.jwormhole.test", null).status, 404);
+		assertEquals(request("GET", "/tunnels/abc.jwormhole.test", null).status, 404);
+		assertEquals(request("PUT", "/tunnels", null).status, 405);
+		assertTrue(!server.getDomainNames().contains("abc.jwormhole.test"));
+	}
+
+	@Test
+	public void testUnauthorizedRequests() throws IOException {
+		String body = "{\"port\": 8080, \"server\": \"embedded\"}";
+		assertEquals(request("POST", "/tunnels", body, null, "application/json").status, 401);
+		assertEquals(request("GET", "/servers", null, "wrong", null).status, 401);
+
+		// what a cross-site form can send, token or not
+		assertEquals(request("POST", "/tunnels", "port=8080&server=embedded", TOKEN,
+			"application/x-www-form-urlencoded").status, 415);
+		assertEquals(request("POST", "/tunnels", body, TOKEN, "text/plain").status, 415);
+
+		// parameters in the query string are ignored
+		assertEquals(request("POST", "/tunnels?port=8080&server=embedded", "{}").status, 400);
+
+		// HttpURLConnection sets neither header as given, so these are written by hand
+		String host = "127.0.0.1:" + controlServer.getPort();
+		assertEquals(rawRequest(host, "Origin: http://attacker.example.com"), 403);
+		assertEquals(rawRequest("attacker.example.com:" + controlServer.getPort(), null), 403);
+		assertEquals(rawRequest(host, null), 200);
+
+		assertTrue(server.getDomainNames().isEmpty());
+	}
+
+	@Test
+	public void testCreateToken() throws IOException {
+		Path directory = Files.createTempDirectory("jwormhole-test");
+		Path file = directory.resolve("daemon.token");
+		try {
+			Files.write(file, Collections.singletonList("old"), UTF8_CHARSET);
+			String token = ControlServer.createToken(file);
+			assertEquals(token.length(), 64);
+			assertEquals(Files.readAllLines(file, UTF8_CHARSET), Collections.singletonList(token));
+			if (file.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+				assertEquals(PosixFilePermissions.toString(Files.getPosixFilePermissions(file)),
+					"rw-------");
+			}
+			assertTrue(!ControlServer.createToken(file).equals(token));
+		} finally {
+			Files.deleteIfExists(file);
+			Files.delete(directory);
+		}
+	}
+
+	@Test
+	public void testConcurrentTunnels() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<Response>> responses = new ArrayList<>();
+			for (int i = 0; i < 50; i++) {
+				int port = 9000 + i;
+				responses.add(executor.submit(() -> request("POST", "/tunnels",
+					"{\"port\": " + port + ", \"server\": \"embedded\"}")));
+			}
+			for (Future<Response> response : responses) {
+				assertEquals(response.get().status, 201);
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		assertEquals(server.getDomainNames().size(), 50);
+		assertEquals(server.getNumSessions(), 1);
+		assertEquals(tunnelManager.getTunnels().get("embedded").size(), 50);
+	}
+
+	@Test
+	public void testReconnectWithoutTunnels() throws IOException {
+		assertEquals(request("POST", "/tunnels",
+			"{\"port\": 8080, \"name\": \"abc\", \"server\": \"embedded\"}").status, 201);
+		assertEquals(request("DELETE", "/tunnels/abc.jwormhole.test", null).status, 204);
+
+		// nothing keeps an idle client alive, so it only finds out when the next tunnel is added
+		server.dropSessions();
+		Client client = tunnelManager.getClients().get("embedded");
+		assertTrue(waitFor(() -> !client.isConnected(), 5000));
+		assertEquals(request("POST", "/tunnels",
+			"{\"port\": 8080, \"name\": \"abc\", \"server\": \"embedded\"}").status, 201);
+		assertTrue(tunnelManager.getClients().get("embedded").isConnected());
+	}
+
+	private Response request(String method, String path, String body) throws IOException {
+		return request(method, path, body, TOKEN, "application/json");
+	}
+
+	private Response request(String method, String path, String body, String token,
+							 String contentType) throws IOException {
+		URL url = new URL("http://127.0.0.1:" + controlServer.getPort() + path);
+		HttpURLConnection connection = (HttpURLConnection)url.openConnection();
+		connection.setRequestMethod(method);
+		if (token != null) {
+			connection.setRequestProperty("Authorization", "Bearer " + token);
+		}
+		if (body != null) {
+			connection.setRequestProperty("Content-Type", contentType);
+			connection.setDoOutput(true);
+			try (OutputStream out = connection.getOutputStream()) {
+				out.write(body.getBytes(UTF8_CHARSET));
+			}
+		}
+
+		Response response = new Response();
+		response.status = connection.getResponseCode();
+		InputStream in = (response.status >= 400) ? connection.getErrorStream()
+			: connection.getInputStream();
+		response.body = (in == null) ? "" : IOUtils.toString(in, UTF8_CHARSET);
+		connection.disconnect();
+		return response;
+	}
+
+	private int rawRequest(String host, String header) throws IOException {
+		try (Socket socket = new Socket("127.0.0.1", controlServer.getPort())) {
+			String request = "GET /tunnels HTTP/1.1\r\nHost: " + host + "\r\n" +
+				"Authorization: Bearer " + TOKEN + "\r\n" +
+				((header == null) ? "" : header + "\r\n") + "Connection: close\r\n\r\n";
+			socket.getOutputStream().write(request.getBytes(UTF8_CHARSET));
+			String statusLine = IOUtils.toString(socket.getInputStream(), UTF8_CHARSET)
+				.split("\r\n", 2)[0];
+			return Integer.parseInt(statusLine.split(" ")[1]);
+		}
+	}
+
+	private static boolean waitFor(BooleanSupplier condition, long timeout) {
+		long deadline = System.currentTimeMillis() + timeout;
+		while (!condition.getAsBoolean()) {
+			if (System.currentTimeMillis() > deadline) {
+				return false;
+			}
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException exception) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static final class Response {
+
+		private int status;
+		private String body;
+
+	}
+
+}
@@ -0,0 +1,253 @@
+package com.bradchen.jwormhole.client.http;
+
+import com.bradchen.jwormhole.client.Client;
+import com.bradchen.jwormhole.client.EmbeddedServer;
+import com.bradchen.jwormhole.client.Tunnel;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.IOUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
+
+public class TestCachingProxy {
+
+	private static final Charset UTF8_CHARSET = Charset.forName("utf-8");
+	private static final String ETAG = "\"v1\"";
+	private static final int MAX_CONNECTIONS = 8;
+
+	private HttpServer backend;
+	private Map<String, AtomicInteger> numRequests;
+	private CachingProxy proxy;
+
+	@BeforeMethod
+	public void setUp() throws IOException {
+		numRequests = new ConcurrentHashMap<>();
+		backend = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		backend.createContext("/", this::serve);
+		backend.start();
+		proxy = new CachingProxy(backend.getAddress().getPort(), new HttpCache(1024 * 1024, 0),
+			MAX_CONNECTIONS);
+		proxy.start();
+	}
+
+	@AfterMethod
+	public void tearDown() {
+		proxy.close();
+		backend.stop(0);
+	}
+
+	@Test
+	public void testFreshResponses() throws IOException {
+		assertEquals(get(proxy.getPort(), "/static", null).body, "static /static");
+		assertEquals(get(proxy.getPort(), "/static", null).body, "static /static");
+		assertEquals(getNumRequests("/static"), 1);
+
+		// chunked responses are cached as well
+		assertEquals(get(proxy.getPort(), "/chunked", null).body, "chunked /chunked");
+		assertEquals(get(proxy.getPort(), "/chunked", null).body, "chunked /chunked");
+		assertEquals(getNumRequests("/chunked"), 1);
+
+		HttpCache cache = proxy.getCache();
+		assertEquals(cache.getNumHits(), 2);
+		assertEquals(cache.getNumMisses(), 2);
+		assertEquals(cache.getBytesSaved(), "static /static".length() + "chunked /chunked".length());
+		assertEquals(cache.getHitRatio(), 0.5);
+	}
+
+	@Test
+	public void testRevalidation() throws IOException {
+		assertEquals(get(proxy.getPort(), "/etag", null).body, "etag /etag");
+		Response revalidated = get(proxy.getPort(), "/etag", null);
+		assertEquals(revalidated.status, 200);
+		assertEquals(revalidated.body, "etag /etag");
+		assertEquals(getNumRequests("/etag"), 2);
+		assertEquals(proxy.getCache().getNumRevalidations(), 1);
+
+		// the client's own condition is answered by the proxy
+		assertEquals(get(proxy.getPort(), "/etag", ETAG).status, 304);
+
+		// a client that asks for a current response skips the fresh entry
+		get(proxy.getPort(), "/static", null);
+		HttpURLConnection connection = open(proxy.getPort(), "/static");
+		connection.setUseCaches(false);
+		assertEquals(read(connection).body, "static /static");
+		assertEquals(getNumRequests("/static"), 2);
+	}
+
+	@Test
+	public void testUncachedRequests() throws IOException {
+		get(proxy.getPort(), "/private", null);
+		get(proxy.getPort(), "/private", null);
+		assertEquals(getNumRequests("/private"), 2);
+
+		HttpURLConnection connection = open(proxy.getPort(), "/echo");
+		connection.setRequestMethod("POST");
+		connection.setDoOutput(true);
+		try (OutputStream out = connection.getOutputStream()) {
+			out.write("posted".getBytes(UTF8_CHARSET));
+		}
+		assertEquals(read(connection).body, "posted");
+		assertEquals(proxy.getCache().getNumEntries(), 0);
+	}
+
+	@Test
+	public void testDiskTier() throws IOException {
+		proxy.close();
+		HttpCache cache = new HttpCache(2048, 1024 * 1024);
+		proxy = new CachingProxy(backend.getAddress().getPort(), cache, MAX_CONNECTIONS);
+		proxy.start();
+		for (int i = 0; i < 20; i++) {
+			get(proxy.getPort(), "/static/" + i, null);
+		}
+		assertTrue(cache.getMemoryBytes() <= 2048);
+		assertTrue(cache.getDiskBytes() > 0);
+		assertEquals(cache.getNumEntries(), 20);
+
+		assertEquals(get(proxy.getPort(), "/static/0", null).body, "static /static/0");
+		assertEquals(getNumRequests("/static/0"), 1);
+		assertEquals(cache.getNumHits(), 1);
+	}
+
+	@Test
+	public void testConnectionLimit() throws IOException {
+		proxy.close();
+		proxy = new CachingProxy(backend.getAddress().getPort(), new HttpCache(1024 * 1024, 0), 1);
+		proxy.start();
+
+		// an idle connection kept alive holds the only slot
+		try (Socket first = new Socket(InetAddress.getLoopbackAddress(), proxy.getPort())) {
+			assertTrue(rawGet(first, "/static").startsWith("HTTP/1.1 200"));
+			try (Socket second = new Socket(InetAddress.getLoopbackAddress(), proxy.getPort())) {
+				assertTrue(rawGet(second, "/static").startsWith("HTTP/1.1 503"));
+			}
+		}
+
+		// the slot is free once the first connection closed
+		long deadline = System.currentTimeMillis() + 5000;
+		String status;
+		do {
+			try (Socket third = new Socket(InetAddress.getLoopbackAddress(), proxy.getPort())) {
+				status = rawGet(third, "/static");
+			}
+		} while (status.startsWith("HTTP/1.1 503") && (System.currentTimeMillis() < deadline));
+		assertTrue(status.startsWith("HTTP/1.1 200"), status);
+	}
+
+	@Test
+	public void testTunnel() throws IOException {
+		try (EmbeddedServer server = EmbeddedServer.start()) {
+			Properties overrides = new Properties();
+			overrides.put("httpCacheSize", "1");
+			Client client = server.createClient(overrides);
+			try {
+				client.connect();
+				Tunnel tunnel = client.addTunnel(backend.getAddress().getPort(), "abc");
+				assertNotNull(tunnel.getHttpCache());
+				assertEquals(get(tunnel.getRemotePort(), "/static", null).body, "static /static");
+				assertEquals(get(tunnel.getRemotePort(), "/static", null).body, "static /static");
+				assertEquals(getNumRequests("/static"), 1);
+				assertEquals(tunnel.getHttpCache().getNumHits(), 1);
+			} finally {
+				client.shutdown();
+			}
+		}
+	}
+
+	private void serve(HttpExchange exchange) throws IOException {
+		String path = exchange.getRequestURI().getPath();
+		numRequests.computeIfAbsent(path, key -> new AtomicInteger()).incrementAndGet();
+		byte[] body = (path.replaceAll("^/([a-z]+).*$", "$1") + " " + path).getBytes(UTF8_CHARSET);
+		long length = body.length;
+		if (path.startsWith("/static")) {
+			exchange.getResponseHeaders().set("Cache-Control", "public, max-age=60");
+		} else if (path.startsWith("/chunked")) {
+			exchange.getResponseHeaders().set("Cache-Control", "max-age=60");
+			length = 0;
+		} else if (path.startsWith("/etag")) {
+			exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+			exchange.getResponseHeaders().set("ETag", ETAG);
+			if (ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+				exchange.sendResponseHeaders(304, -1);
+				exchange.close();
+				return;
+			}
+		} else if (path.startsWith("/private")) {
+			exchange.getResponseHeaders().set("Cache-Control", "private, max-age=60");
+		} else if (path.startsWith("/echo")) {
+			body = IOUtils.toByteArray(exchange.getRequestBody());
+			length = body.length;
+		}
+
+		exchange.sendResponseHeaders(200, length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	private int getNumRequests(String path) {
+		AtomicInteger count = numRequests.get(path);
+		return (count == null) ? 0 : count.get();
+	}
+
+	private static Response get(int port, String path, String ifNoneMatch) throws IOException {
+		HttpURLConnection connection = open(port, path);
+		if (ifNoneMatch != null) {
+			connection.setRequestProperty("If-None-Match", ifNoneMatch);
+		}
+		return read(connection);
+	}
+
+	/**
+	 * Sends a GET request on the socket given, keeping it alive, and returns the status line.
+	 */
+	private static String rawGet(Socket socket, String path) throws IOException {
+		socket.setSoTimeout(5000);
+		socket.getOutputStream().write(("GET " + path + " HTTP/1.1\r\nHost: localhost\r\n\r\n")
+			.getBytes(UTF8_CHARSET));
+		BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+			UTF8_CHARSET));
+		return reader.readLine();
+	}
+
+	private static HttpURLConnection open(int port, String path) throws IOException {
+		return (HttpURLConnection)new URL("http://127.0.0.1:" + port + path).openConnection();
+	}
+
+	private static Response read(HttpURLConnection connection) throws IOException {
+		Response response = new Response();
+		response.status = connection.getResponseCode();
+		InputStream in = (response.status >= 400) ? connection.getErrorStream()
+			: connection.getInputStream();
+		response.body = (in == null) ? "" : IOUtils.toString(in, UTF8_CHARSET);
+		return response;
+	}
+
+	private static final class Response {
+
+		private int status;
+		private String body;
+
+	}
+
+}
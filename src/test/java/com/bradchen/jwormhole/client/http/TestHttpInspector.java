@@ -0,0 +1,292 @@
+package com.bradchen.jwormhole.client.http;
+
+import com.bradchen.jwormhole.client.Client;
+import com.bradchen.jwormhole.client.EmbeddedServer;
+import com.bradchen.jwormhole.client.Tunnel;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.IOUtils;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.function.BooleanSupplier;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class TestHttpInspector {
+
+	private static final Charset UTF8_CHARSET = Charset.forName("utf-8");
+
+	@Test
+	public void testExchanges() {
+		HttpInspector inspector = new HttpInspector(64 * 1024, 1024);
+		inspector.start();
+		try {
+			TrafficCapture capture = inspector.capture("abc.example.com", 8080);
+
+			// pieces split anywhere, including within heads and chunk lines
+			captureRequest(capture, "POST /hooks?x=1 HTTP/1.1\r\nHost: abc.example.com\r\n"
+				+ "Content-Length: 10\r\n\r\n0123456789", 3);
+			captureResponse(capture, "HTTP/1.1 100 Continue\r\n\r\nHTTP/1.1 500 Oops\r\n"
+				+ "Transfer-Encoding: chunked\r\n\r\n5;ext=1\r\nhello\r\n6\r\n world\r\n0\r\n\r\n", 4);
+			captureRequest(capture, "HEAD / HTTP/1.1\r\n\r\nGET /gone HTTP/1.1\r\n\r\n", 7);
+			captureResponse(capture, "HTTP/1.1 200 OK\r\nContent-Length: 100\r\n\r\n", 5);
+			capture.close();
+			assertTrue(waitFor(() -> inspector.getNumRecorded() == 3, 5000));
+		} finally {
+			inspector.close();
+		}
+
+		List<Exchange> exchanges = inspector.getExchanges();
+		Exchange post = exchanges.get(0);
+		assertEquals(post.getId(), 1);
+		assertEquals(post.getDomainName(), "abc.example.com");
+		assertEquals(post.getLocalPort(), 8080);
+		assertEquals(post.getMethod(), "POST");
+		assertEquals(post.getTarget(), "/hooks?x=1");
+		assertEquals(post.getRequestHeader("host"), "abc.example.com");
+		assertEquals(post.getRequestHead(), "POST /hooks?x=1 HTTP/1.1\nHost: abc.example.com\n"
+			+ "Content-Length: 10\n");
+		assertEquals(new String(post.getRequestBody(), UTF8_CHARSET), "0123456789");
+		assertEquals(post.getStatus(), 500);
+		assertEquals(new String(post.getResponseBody(), UTF8_CHARSET), "hello world");
+		assertEquals(post.getResponseBodySize(), 11);
+		assertTrue(post.getDuration() >= 0);
+
+		// a response to HEAD has no body whatever its length says
+		assertEquals(exchanges.get(1).getStatus(), 200);
+		assertEquals(exchanges.get(1).getResponseBodySize(), 0);
+
+		// the connection closed before the last request was answered
+		Exchange gone = exchanges.get(2);
+		assertEquals(gone.getTarget(), "/gone");
+		assertEquals(gone.getStatus(), 0);
+		assertNull(gone.getResponseHead());
+		assertEquals(gone.getDuration(), -1);
+		assertEquals(inspector.getExchange(3).getTarget(), "/gone");
+		assertNull(inspector.getExchange(4));
+	}
+
+	@Test
+	public void testBodyLimit() {
+		HttpInspector inspector = new HttpInspector(64 * 1024, 8);
+		inspector.start();
+		try {
+			TrafficCapture capture = inspector.capture("abc.example.com", 8080);
+			captureRequest(capture, "GET /large HTTP/1.1\r\n\r\n", 100);
+			byte[] body = new byte[1024 * 1024];
+			Arrays.fill(body, (byte)'a');
+			captureResponse(capture, "HTTP/1.1 200 OK\r\nContent-Length: " + body.length
+				+ "\r\n\r\n", 100);
+			for (int i = 0; i < body.length; i += 16 * 1024) {
+				capture.captureResponse(ByteBuffer.wrap(body, i, 16 * 1024));
+			}
+
+			// bodies delimited by the end of the connection are complete once it closes
+			captureRequest(capture, "GET /stream HTTP/1.1\r\n\r\n", 100);
+			captureResponse(capture, "HTTP/1.1 200 OK\r\n\r\n0123456789abcdef", 100);
+			capture.close();
+			assertTrue(waitFor(() -> inspector.getNumRecorded() == 2, 5000));
+		} finally {
+			inspector.close();
+		}
+
+		List<Exchange> exchanges = inspector.getExchanges();
+		assertEquals(new String(exchanges.get(0).getResponseBody(), UTF8_CHARSET), "aaaaaaaa");
+		assertEquals(exchanges.get(0).getResponseBodySize(), 1024 * 1024);
+		assertEquals(new String(exchanges.get(1).getResponseBody(), UTF8_CHARSET), "01234567");
+		assertEquals(exchanges.get(1).getResponseBodySize(), 16);
+		assertEquals(inspector.getNumDropped(), 0);
+	}
+
+	@Test
+	public void testNonHttpTraffic() {
+		HttpInspector inspector = new HttpInspector(64 * 1024, 1024);
+		inspector.start();
+		try {
+			TrafficCapture capture = inspector.capture("abc.example.com", 8080);
+			capture.captureRequest(new byte[] { 0x16, 0x03, 0x01, 0x02 }, 0, 4);
+			captureRequest(capture, "GET / HTTP/1.1\r\n\r\n", 100);
+			captureResponse(capture, "HTTP/1.1 200 OK\r\nContent-Length: 0\r\n\r\n", 100);
+			capture.close();
+
+			capture = inspector.capture("abc.example.com", 8080);
+			captureRequest(capture, "GET /chat HTTP/1.1\r\nUpgrade: websocket\r\n\r\n", 100);
+			captureResponse(capture, "HTTP/1.1 101 Switching Protocols\r\n\r\n\u0081\u0002hi", 100);
+			capture.captureRequest(new byte[] { (byte)0x81, 0x02, 'h', 'i' }, 0, 4);
+			capture.close();
+			assertTrue(waitFor(() -> inspector.getNumRecorded() == 1, 5000));
+		} finally {
+			inspector.close();
+		}
+		assertEquals(inspector.getExchanges().get(0).getStatus(), 101);
+	}
+
+	@Test
+	public void testDropping() {
+		// nothing takes samples off the queue of an inspector not started
+		HttpInspector inspector = new HttpInspector(64 * 1024, 1024);
+		TrafficCapture capture = inspector.capture("abc.example.com", 8080);
+		for (int i = 0; i < 10000; i++) {
+			captureRequest(capture, "GET / HTTP/1.1\r\n\r\n", 100);
+		}
+		assertEquals(inspector.getNumDropped(), 1);
+
+		TrafficCapture other = inspector.capture("abc.example.com", 8080);
+		captureRequest(other, "GET / HTTP/1.1\r\n\r\n", 100);
+		assertEquals(inspector.getNumDropped(), 2);
+	}
+
+	@Test
+	public void testRing() {
+		CaptureRing ring = new CaptureRing(100);
+		for (int i = 1; i <= 10; i++) {
+			byte[] record = new byte[30];
+			Arrays.fill(record, (byte)i);
+			assertTrue(ring.put(i, record, record.length));
+		}
+		assertEquals(ring.getNumRecords(), 3);
+		assertEquals(ring.getNumUsed(), 90);
+		assertEquals(ring.getNumEvicted(), 7);
+		assertNull(ring.get(7));
+		assertEquals(ring.get(9)[0], 9);
+
+		List<byte[]> records = ring.getAll();
+		assertEquals(records.get(0)[29], 8);
+		assertEquals(records.get(2)[0], 10);
+
+		// records of other sizes push out as many as they need to
+		assertTrue(ring.put(11, new byte[70], 70));
+		assertEquals(ring.getNumRecords(), 2);
+		assertEquals(ring.get(10)[0], 10);
+		assertFalse(ring.put(12, new byte[101], 101));
+	}
+
+	@Test
+	public void testFilter() {
+		HttpHead request = new HttpHead("POST /hooks/github HTTP/1.1");
+		request.addHeader("X-Hub-Signature", "sha1=abc");
+		Exchange failed = new Exchange(1, 0, 1000, "abc.example.com", 8080, request, null, 0,
+			new HttpHead("HTTP/1.1 502 Bad Gateway"), null, 0);
+		Exchange unanswered = new Exchange(2, 0, -1, "xyz.example.com", 8081,
+			new HttpHead("GET /index.html HTTP/1.1"), null, 0, null, null, 0);
+
+		assertTrue(ExchangeFilter.parse(null).test(failed));
+		assertTrue(ExchangeFilter.parse("method=post,status=5xx").test(failed));
+		assertFalse(ExchangeFilter.parse("method=post status=4xx").test(failed));
+		assertTrue(ExchangeFilter.parse("status=502 header=x-hub-signature").test(failed));
+		assertFalse(ExchangeFilter.parse("header=X-Signature").test(failed));
+		assertTrue(ExchangeFilter.parse("status=none domain=xyz").test(unanswered));
+		assertFalse(ExchangeFilter.parse("status=none").test(failed));
+		assertTrue(ExchangeFilter.parse("path=/hooks").test(failed));
+		assertTrue(ExchangeFilter.parse("xyz").test(unanswered));
+		assertFalse(ExchangeFilter.parse("hooks").test(unanswered));
+		try {
+			ExchangeFilter.parse("size=10");
+		} catch (IllegalArgumentException expected) {
+			return;
+		}
+		throw new AssertionError("Unknown terms should be refused.");
+	}
+
+	@Test
+	public void testTunnel() throws IOException {
+		HttpServer backend = HttpServer.create(
+			new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		backend.createContext("/", this::echo);
+		backend.start();
+		try (EmbeddedServer server = EmbeddedServer.start()) {
+			Properties overrides = new Properties();
+			overrides.put("inspectorSize", "1");
+			Client client = server.createClient(overrides);
+			try {
+				client.connect();
+				Tunnel tunnel = client.addTunnel(backend.getAddress().getPort(), "abc");
+				assertEquals(post(tunnel.getRemotePort(), "/hooks", "{\"event\":\"push\"}"),
+					"{\"event\":\"push\"}");
+
+				HttpInspector inspector = client.getHttpInspector();
+				assertNotNull(inspector);
+				assertTrue(waitFor(() -> inspector.getNumRecorded() == 1, 5000));
+				Exchange exchange = inspector.getExchanges().get(0);
+				assertEquals(exchange.getDomainName(), tunnel.getDomainName());
+				assertEquals(exchange.getLocalPort(), backend.getAddress().getPort());
+				assertEquals(exchange.getMethod(), "POST");
+				assertEquals(exchange.getStatus(), 200);
+				assertEquals(new String(exchange.getRequestBody(), UTF8_CHARSET),
+					"{\"event\":\"push\"}");
+				assertEquals(new String(exchange.getResponseBody(), UTF8_CHARSET),
+					"{\"event\":\"push\"}");
+			} finally {
+				client.shutdown();
+			}
+		} finally {
+			backend.stop(0);
+		}
+	}
+
+	private void echo(HttpExchange exchange) throws IOException {
+		byte[] body = IOUtils.toByteArray(exchange.getRequestBody());
+		exchange.sendResponseHeaders(200, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	private static String post(int port, String path, String body) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection)new URL("http://127.0.0.1:" + port
+			+ path).openConnection();
+		connection.setRequestMethod("POST");
+		connection.setDoOutput(true);
+		try (OutputStream out = connection.getOutputStream()) {
+			out.write(body.getBytes(UTF8_CHARSET));
+		}
+		return IOUtils.toString(connection.getInputStream(), UTF8_CHARSET);
+	}
+
+	private static void captureRequest(TrafficCapture capture, String text, int pieceSize) {
+		byte[] bytes = text.getBytes(Charset.forName("iso-8859-1"));
+		for (int i = 0; i < bytes.length; i += pieceSize) {
+			capture.captureRequest(bytes, i, Math.min(pieceSize, bytes.length - i));
+		}
+	}
+
+	private static void captureResponse(TrafficCapture capture, String text, int pieceSize) {
+		byte[] bytes = text.getBytes(Charset.forName("iso-8859-1"));
+		for (int i = 0; i < bytes.length; i += pieceSize) {
+			capture.captureResponse(ByteBuffer.wrap(bytes, i,
+				Math.min(pieceSize, bytes.length - i)));
+		}
+	}
+
+	private static boolean waitFor(BooleanSupplier condition, long timeout) {
+		long deadline = System.currentTimeMillis() + timeout;
+		while (!condition.getAsBoolean()) {
+			if (System.currentTimeMillis() > deadline) {
+				return false;
+			}
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException exception) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
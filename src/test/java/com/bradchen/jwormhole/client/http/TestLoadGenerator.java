@@ -0,0 +1,128 @@
+package com.bradchen.jwormhole.client.http;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.IOUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestLoadGenerator {
+
+	private static final Charset UTF8_CHARSET = Charset.forName("utf-8");
+
+	private HttpServer backend;
+	private Map<String, AtomicInteger> numRequests;
+
+	@BeforeMethod
+	public void setUp() throws IOException {
+		numRequests = new ConcurrentHashMap<>();
+		backend = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		backend.createContext("/", this::serve);
+		backend.setExecutor(Executors.newFixedThreadPool(4));
+		backend.start();
+	}
+
+	@AfterMethod
+	public void tearDown() {
+		backend.stop(0);
+	}
+
+	@Test
+	public void testReplay() throws IOException {
+		HttpHead post = new HttpHead("POST /hooks HTTP/1.1");
+		post.addHeader("Host", "abc.example.com");
+		post.addHeader("Transfer-Encoding", "chunked");
+		byte[] body = "{\"event\":\"push\"}".getBytes(UTF8_CHARSET);
+		Exchange hook = createExchange(post, body);
+		Exchange missing = createExchange(new HttpHead("GET /missing HTTP/1.1"), null);
+		assertTrue(hook.isReplayable());
+
+		LoadGenerator generator = new LoadGenerator(Arrays.asList(hook, missing), false, 50, 4, 0);
+		assertEquals(generator.getNumRequests(), 100);
+		ReplayResult result = generator.run();
+		assertEquals(result.getNumRequests(), 100);
+		assertEquals(result.getNumFailed(), 0);
+		assertEquals(result.getStatusCounts().get(200).intValue(), 50);
+		assertEquals(result.getStatusCounts().get(404).intValue(), 50);
+		assertEquals(numRequests.get("/hooks " + body.length).get(), 50);
+		assertTrue(result.getThroughput() > 0);
+		assertTrue(result.getLatencyAtPercentile(50) <= result.getLatencyAtPercentile(99));
+		assertTrue(result.getLatencyAtPercentile(99) <= result.getMaxLatency());
+	}
+
+	@Test
+	public void testRate() throws IOException {
+		Exchange exchange = createExchange(new HttpHead("GET /rate HTTP/1.1"), null);
+		ReplayResult result = new LoadGenerator(Collections.singletonList(exchange), false, 10, 4,
+			20).run();
+		assertEquals(result.getStatusCounts().get(200).intValue(), 10);
+
+		// the last of 10 requests at 20 per second starts 450 ms after the first
+		assertTrue(result.getElapsed() >= 450000);
+	}
+
+	@Test
+	public void testFailures() throws IOException {
+		int closedPort;
+		try (ServerSocket socket = new ServerSocket(0)) {
+			closedPort = socket.getLocalPort();
+		}
+		Exchange exchange = new Exchange(1, 0, -1, "abc.example.com", closedPort,
+			new HttpHead("GET / HTTP/1.1"), null, 0, null, null, 0);
+		ReplayResult result = new LoadGenerator(Collections.singletonList(exchange), false, 5, 2, 0)
+			.run();
+		assertEquals(result.getNumFailed(), 5);
+		assertTrue(result.getStatusCounts().isEmpty());
+		assertEquals(result.getLatencyAtPercentile(50), 0);
+
+		// requests of which only the start of the body was kept cannot be sent again
+		assertFalse(new Exchange(2, 0, -1, "abc.example.com", closedPort,
+			new HttpHead("POST / HTTP/1.1"), new byte[4], 10, null, null, 0).isReplayable());
+	}
+
+	@Test
+	public void testTooManyRequests() {
+		Exchange exchange = createExchange(new HttpHead("GET / HTTP/1.1"), null);
+		try {
+			new LoadGenerator(Arrays.asList(exchange, exchange), false, Integer.MAX_VALUE, 1, 0);
+		} catch (IllegalArgumentException expected) {
+			return;
+		}
+		throw new AssertionError("Request count overflowed.");
+	}
+
+	private Exchange createExchange(HttpHead request, byte[] body) {
+		return new Exchange(1, 0, -1, "abc.example.com", backend.getAddress().getPort(), request,
+			body, (body == null) ? 0 : body.length, null, null, 0);
+	}
+
+	private void serve(HttpExchange exchange) throws IOException {
+		byte[] body = IOUtils.toByteArray(exchange.getRequestBody());
+		String path = exchange.getRequestURI().getPath();
+		numRequests.computeIfAbsent(path + " " + body.length, key -> new AtomicInteger())
+			.incrementAndGet();
+		exchange.sendResponseHeaders(path.equals("/missing") ? 404 : 200, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+}
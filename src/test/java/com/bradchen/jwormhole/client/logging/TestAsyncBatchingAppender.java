@@ -0,0 +1,203 @@
+package com.bradchen.jwormhole.client.logging;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.AppenderBase;
+import ch.qos.logback.core.OutputStreamAppender;
+import ch.qos.logback.core.encoder.LayoutWrappingEncoder;
+import org.slf4j.MDC;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class TestAsyncBatchingAppender {
+
+	private static final Charset UTF8_CHARSET = Charset.forName("utf-8");
+
+	private LoggerContext context;
+	private Logger logger;
+	private AsyncBatchingAppender appender;
+
+	@BeforeMethod
+	public void setUp() {
+		context = new LoggerContext();
+		logger = context.getLogger("test");
+		logger.setLevel(Level.DEBUG);
+		logger.setAdditive(false);
+		appender = new AsyncBatchingAppender();
+		appender.setContext(context);
+		appender.setName("test");
+	}
+
+	@AfterMethod
+	public void tearDown() {
+		appender.stop();
+		context.stop();
+	}
+
+	@Test
+	public void testBatching() {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		appender.addAppender(createStreamAppender(out, "text", "%level %X{tunnel} %msg%n"));
+		start();
+
+		long numBatches = LogStats.getNumBatches();
+		long numQueued = LogStats.getNumQueued();
+		try (Trace.Scope scope = Trace.tunnel("abc.example.com")) {
+			for (int i = 0; i < 100; i++) {
+				logger.info("event " + i);
+			}
+		}
+		assertTrue(waitFor(() -> LogStats.getQueueLength() == 0, 5000));
+		assertEquals(LogStats.getNumQueued() - numQueued, 100);
+		assertTrue(LogStats.getNumBatches() - numBatches <= 100);
+
+		// the MDC is taken along from the logging thread
+		String text = new String(out.toByteArray(), UTF8_CHARSET);
+		assertTrue(text.startsWith("INFO abc.example.com event 0\n"));
+		assertTrue(text.endsWith("INFO abc.example.com event 99\n"));
+	}
+
+	@Test
+	public void testBackpressure() throws InterruptedException {
+		CountDownLatch blocked = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		List<String> messages = new CopyOnWriteArrayList<>();
+		AppenderBase<ILoggingEvent> slowAppender = new AppenderBase<ILoggingEvent>() {
+			@Override
+			protected void append(ILoggingEvent event) {
+				blocked.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException exception) {
+					Thread.currentThread().interrupt();
+				}
+				messages.add(event.getFormattedMessage());
+			}
+		};
+		slowAppender.setContext(context);
+		slowAppender.start();
+		appender.addAppender(slowAppender);
+		appender.setQueueSize(10);
+		appender.setDiscardingThreshold(5);
+		start();
+
+		long numDiscarded = LogStats.getNumDiscarded();
+		long numDropped = LogStats.getNumDropped();
+
+		// the writer thread is stuck on the first event, and the queue fills up behind it
+		logger.info("first");
+		assertTrue(blocked.await(5, TimeUnit.SECONDS));
+		for (int i = 0; i < 6; i++) {
+			logger.debug("debug " + i);
+		}
+		assertEquals(LogStats.getNumDiscarded() - numDiscarded, 0);
+		long startTime = System.nanoTime();
+		for (int i = 0; i < 10; i++) {
+			logger.debug("discarded " + i);
+			logger.warn("warn " + i);
+		}
+		assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) < 1000);
+		assertEquals(LogStats.getNumDiscarded() - numDiscarded, 10);
+		assertEquals(LogStats.getNumDropped() - numDropped, 6);
+
+		release.countDown();
+		assertTrue(waitFor(() -> messages.size() == 11, 5000));
+		assertEquals(messages.get(0), "first");
+		assertEquals(messages.get(6), "debug 5");
+		assertEquals(messages.get(10), "warn 3");
+	}
+
+	@Test
+	public void testJsonLayout() {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		appender.addAppender(createStreamAppender(out, "json", null));
+		start();
+
+		try (Trace.Scope scope = Trace.connection("abc.example.com", "c42")) {
+			logger.warn("Relay \"failed\".", new IllegalStateException("broken\npipe"));
+		}
+		assertTrue(waitFor(() -> out.size() > 0, 5000));
+		appender.stop();
+
+		String json = new String(out.toByteArray(), UTF8_CHARSET);
+		assertTrue(json.startsWith("{\"time\":\""));
+		assertTrue(json.endsWith("}\n"));
+		assertEquals(json.indexOf('\n'), json.length() - 1);
+		assertTrue(json.contains("\"level\":\"WARN\",\"thread\":\""));
+		assertTrue(json.contains("\"logger\":\"test\",\"message\":\"Relay \\\"failed\\\".\""));
+		assertTrue(json.contains("\"tunnel\":\"abc.example.com\""));
+		assertTrue(json.contains("\"connection\":\"c42\""));
+		assertTrue(json.contains("\"exception\":\"java.lang.IllegalStateException: broken\\npipe"));
+	}
+
+	@Test
+	public void testTrace() {
+		assertTrue(Trace.newConnectionId().startsWith("c"));
+		try (Trace.Scope tunnelScope = Trace.tunnel("abc.example.com")) {
+			try (Trace.Scope connectionScope = Trace.connection("def.example.com", "c1")) {
+				assertEquals(MDC.get(Trace.TUNNEL_KEY), "def.example.com");
+				assertEquals(MDC.get(Trace.CONNECTION_KEY), "c1");
+			}
+			assertEquals(MDC.get(Trace.TUNNEL_KEY), "abc.example.com");
+			assertNull(MDC.get(Trace.CONNECTION_KEY));
+		}
+		assertNull(MDC.get(Trace.TUNNEL_KEY));
+	}
+
+	private void start() {
+		appender.start();
+		logger.addAppender(appender);
+	}
+
+	private OutputStreamAppender<ILoggingEvent> createStreamAppender(ByteArrayOutputStream out,
+			String format, String pattern) {
+		LogLayout layout = new LogLayout();
+		layout.setContext(context);
+		layout.setFormat(format);
+		layout.setPattern(pattern);
+		layout.start();
+		LayoutWrappingEncoder<ILoggingEvent> encoder = new LayoutWrappingEncoder<>();
+		encoder.setContext(context);
+		encoder.setLayout(layout);
+		encoder.setImmediateFlush(false);
+		encoder.start();
+		OutputStreamAppender<ILoggingEvent> streamAppender = new OutputStreamAppender<>();
+		streamAppender.setContext(context);
+		streamAppender.setEncoder(encoder);
+		streamAppender.setOutputStream(out);
+		streamAppender.start();
+		return streamAppender;
+	}
+
+	private static boolean waitFor(BooleanSupplier condition, long timeout) {
+		long deadline = System.currentTimeMillis() + timeout;
+		while (!condition.getAsBoolean()) {
+			if (System.currentTimeMillis() > deadline) {
+				return false;
+			}
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException exception) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
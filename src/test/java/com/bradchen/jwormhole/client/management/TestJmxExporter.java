@@ -0,0 +1,105 @@
+package com.bradchen.jwormhole.client.management;
+
+import com.bradchen.jwormhole.client.Client;
+import com.bradchen.jwormhole.client.EmbeddedServer;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.function.BooleanSupplier;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestJmxExporter {
+
+	private EmbeddedServer server;
+	private Client client;
+	private MBeanServer mBeanServer;
+	private JmxExporter exporter;
+
+	@BeforeMethod
+	public void setUp() throws IOException {
+		server = EmbeddedServer.start();
+		client = server.createClient(null);
+		client.connect();
+		mBeanServer = ManagementFactory.getPlatformMBeanServer();
+		exporter = new JmxExporter(client, mBeanServer);
+	}
+
+	@AfterMethod
+	public void tearDown() throws IOException {
+		exporter.stop();
+		client.shutdown();
+		server.close();
+	}
+
+	@Test
+	public void testAttributes() throws IOException, JMException {
+		client.addTunnel(8080, "abc");
+		exporter.start();
+		client.addTunnel(8081, "def");
+
+		ObjectName clientName = exporter.getClientName();
+		assertEquals(mBeanServer.getAttribute(clientName, "Connected"), true);
+		assertEquals(mBeanServer.getAttribute(clientName, "TunnelCount"), 2);
+		assertEquals(mBeanServer.getAttribute(clientName, "Reconnects"), 0L);
+		assertTrue((Long)mBeanServer.getAttribute(clientName, "Uptime") >= 0);
+		assertEquals(mBeanServer.getAttribute(clientName, "ProxyStartTime"),
+			client.getProxyStartTime());
+
+		ObjectName tunnelName = exporter.getTunnelName("def.jwormhole.test");
+		assertEquals(mBeanServer.getAttribute(tunnelName, "LocalPort"), 8081);
+		assertEquals(mBeanServer.getAttribute(tunnelName, "ActiveConnections"), 0);
+		assertTrue(mBeanServer.isRegistered(exporter.getTunnelName("abc.jwormhole.test")));
+
+		exporter.stop();
+		assertFalse(mBeanServer.isRegistered(clientName));
+		assertFalse(mBeanServer.isRegistered(tunnelName));
+	}
+
+	@Test
+	public void testOperations() throws IOException, JMException {
+		exporter.start();
+		client.addTunnel(8080, "abc");
+		ObjectName tunnelName = exporter.getTunnelName("abc.jwormhole.test");
+		assertEquals(mBeanServer.invoke(tunnelName, "remove", null, null), true);
+		assertFalse(mBeanServer.isRegistered(tunnelName));
+		assertFalse(server.getDomainNames().contains("abc.jwormhole.test"));
+
+		client.addTunnel(8081, "def");
+		ObjectName clientName = exporter.getClientName();
+		assertEquals(mBeanServer.invoke(clientName, "reconnect", null, null), true);
+		assertTrue(waitFor(() -> !client.isReconnecting(), 10000));
+		assertEquals(mBeanServer.getAttribute(clientName, "Reconnects"), 1L);
+		assertTrue(client.isConnected());
+		assertEquals(server.getNumCommands("createHost"), 2);
+
+		assertEquals(mBeanServer.invoke(clientName, "removeTunnel",
+			new Object[] { "def.jwormhole.test" }, new String[] { String.class.getName() }), true);
+		assertFalse(mBeanServer.isRegistered(exporter.getTunnelName("def.jwormhole.test")));
+	}
+
+	private static boolean waitFor(BooleanSupplier condition, long timeout) {
+		long deadline = System.currentTimeMillis() + timeout;
+		while (!condition.getAsBoolean()) {
+			if (System.currentTimeMillis() > deadline) {
+				return false;
+			}
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException exception) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
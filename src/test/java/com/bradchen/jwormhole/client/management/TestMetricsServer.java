@@ -0,0 +1,97 @@
+package com.bradchen.jwormhole.client.management;
+
+import com.bradchen.jwormhole.client.Client;
+import com.bradchen.jwormhole.client.EmbeddedServer;
+import org.apache.commons.io.IOUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.Collections;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TestMetricsServer {
+
+	private static final Charset UTF8_CHARSET = Charset.forName("utf-8");
+
+	private EmbeddedServer server;
+	private Client client;
+	private MetricsServer metricsServer;
+
+	@BeforeMethod
+	public void setUp() throws IOException {
+		server = EmbeddedServer.start();
+		client = server.createClient(null);
+		client.connect();
+		metricsServer = new MetricsServer(() -> Collections.singletonList(client), 0);
+		metricsServer.start();
+	}
+
+	@AfterMethod
+	public void tearDown() throws IOException {
+		metricsServer.stop();
+		client.shutdown();
+		server.close();
+	}
+
+	@Test
+	public void testMetrics() throws IOException {
+		client.addTunnel(8080, "abc");
+		HttpURLConnection connection = (HttpURLConnection)new URL("http://127.0.0.1:" +
+			metricsServer.getPort() + "/metrics").openConnection();
+		assertEquals(connection.getResponseCode(), 200);
+		assertTrue(connection.getContentType().startsWith("application/openmetrics-text"));
+		String body;
+		try (InputStream in = connection.getInputStream()) {
+			body = IOUtils.toString(in, UTF8_CHARSET);
+		}
+
+		assertTrue(body.contains("# TYPE jwormhole_reconnects counter\n"));
+		assertTrue(body.contains("jwormhole_reconnects_total{server=\"embedded\"} 0\n"));
+		assertTrue(body.contains("jwormhole_connected{server=\"embedded\"} 1\n"));
+		assertTrue(body.contains("jwormhole_tunnels{server=\"embedded\"} 1\n"));
+		assertTrue(body.contains("jwormhole_tunnel_connections_active{server=\"embedded\","
+			+ "domain=\"abc.jwormhole.test\",local_port=\"8080\"} 0\n"));
+		assertTrue(body.contains("jwormhole_session_sent_bytes_total{server=\"embedded\","
+			+ "session=\"0\"} 0\n"));
+		assertTrue(body.contains("jwormhole_controller_command_seconds_bucket{server=\"embedded\","
+			+ "le=\"+Inf\"} 1\n"));
+		assertTrue(body.contains("jwormhole_controller_command_seconds_count{server=\"embedded\"} 1"
+			+ "\n"));
+		assertTrue(body.contains("# TYPE jwormhole_log_events_dropped counter\n"));
+		assertTrue(body.contains("\njvm_threads "));
+		assertTrue(body.endsWith("# EOF\n"));
+
+		connection = (HttpURLConnection)new URL("http://127.0.0.1:" + metricsServer.getPort() +
+			"/metrics").openConnection();
+		connection.setRequestMethod("POST");
+		assertEquals(connection.getResponseCode(), 405);
+	}
+
+	@Test
+	public void testWriter() {
+		OpenMetricsWriter writer = new OpenMetricsWriter();
+		writer.sample("a", "_bucket").label("le", "x\"y\\z\né").labelMicros("le", 250)
+			.value(-1234567890123L);
+		writer.sample("b", null).valueMicros(3000000);
+		writer.sample("c", null).value(0.5);
+		writer.sample("d", null).labelMicros("le", Long.MAX_VALUE).value(true);
+		assertEquals(new String(writer.getBuffer(), 0, writer.getLength(), UTF8_CHARSET),
+			"a_bucket{le=\"x\\\"y\\\\z\\né\",le=\"0.00025\"} -1234567890123\n"
+				+ "b 3.0\nc 0.5\nd{le=\"+Inf\"} 1\n");
+
+		// the buffer is reused
+		writer.reset();
+		writer.end();
+		assertEquals(new String(writer.getBuffer(), 0, writer.getLength(), UTF8_CHARSET),
+			"# EOF\n");
+	}
+
+}